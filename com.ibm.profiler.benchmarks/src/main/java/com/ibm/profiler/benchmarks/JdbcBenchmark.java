@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.issw.jdbc.profiler.JdbcProfiler;
+import com.ibm.issw.jdbc.wrappers.WrappedConnection;
+import com.ibm.logger.PerformanceLogger;
+
+/**
+ * Round trip of a prepared statement query against an in memory Derby
+ * database, through the JDBC wrappers and directly on the driver connection.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class JdbcBenchmark {
+
+    private static final String DATABASE_URL = "jdbc:derby:memory:benchmarks";
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE BENCHMARK (ID INTEGER NOT NULL, NAME VARCHAR(100) NOT NULL, "
+        + "CONSTRAINT PK_BENCHMARK PRIMARY KEY (ID))";
+
+    private static final String INSERT_SQL = "INSERT INTO BENCHMARK (ID, NAME) VALUES (?, ?)";
+
+    private static final String SELECT_SQL = "SELECT ID, NAME FROM BENCHMARK WHERE ID < ?";
+
+    private static final int ROW_COUNT = 10;
+
+    private Connection connection;
+
+    private WrappedConnection wrappedConnection;
+
+    @Setup
+    public void setUp() throws SQLException {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+
+        connection = DriverManager.getConnection( DATABASE_URL + ";create=true" );
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute( CREATE_TABLE_SQL );
+        }
+        finally {
+            statement.close();
+        }
+
+        PreparedStatement insert = connection.prepareStatement( INSERT_SQL );
+        try {
+            for ( int i = 0; i < ROW_COUNT; ++i ) {
+                insert.setInt( 1, i );
+                insert.setString( 2, "name" + i );
+                insert.executeUpdate();
+            }
+        }
+        finally {
+            insert.close();
+        }
+
+        wrappedConnection = new WrappedConnection( connection );
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+        JdbcProfiler.getInstance().clearPendingEvents();
+        PerformanceLogger.clear();
+        try {
+            DriverManager.getConnection( DATABASE_URL + ";drop=true" );
+        }
+        catch ( SQLException e ) {
+            // dropping an in memory database always reports an exception.
+        }
+    }
+
+    @Benchmark
+    public int baseline() throws SQLException {
+        return executeQuery( connection );
+    }
+
+    @Benchmark
+    public int wrappedExecuteQuery() throws SQLException {
+        return executeQuery( wrappedConnection );
+    }
+
+    /**
+     * Execute the select and read all the rows.
+     *
+     * @param source
+     *            the connection to query.
+     * @return the sum of the identifiers read.
+     * @throws SQLException
+     *             if the query fails.
+     */
+    private static int executeQuery( Connection source ) throws SQLException {
+        PreparedStatement statement = source.prepareStatement( SELECT_SQL );
+        try {
+            statement.setInt( 1, ROW_COUNT );
+            ResultSet resultSet = statement.executeQuery();
+            int sum = 0;
+            try {
+                while ( resultSet.next() ) {
+                    sum += resultSet.getInt( 1 );
+                    resultSet.getString( 2 );
+                }
+            }
+            finally {
+                resultSet.close();
+            }
+            return sum;
+        }
+        finally {
+            statement.close();
+        }
+    }
+}
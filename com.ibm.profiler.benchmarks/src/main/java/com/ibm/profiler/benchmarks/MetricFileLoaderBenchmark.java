@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.commerce.cache.LogMetricFileLoader;
+import com.ibm.commerce.cache.MetricFileLoader;
+import com.ibm.commerce.cache.OperationMetric;
+
+/**
+ * Cost of loading metric log files, dominated by the SQL parameter
+ * substitution of the JDBC metrics. The log file loader reads the exit logs
+ * of the service loggers, which is how the JDBC metrics are written, the
+ * metric file loader reads the serialized form of the other metrics.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class MetricFileLoaderBenchmark {
+
+    private static final String SQL = "JDBC : select ORDERS_ID, STATUS, TOTALPRODUCT from ORDERS where MEMBER_ID = 1234567 "
+        + "and STATUS = 'P' and STOREENT_ID in (10001, 10151, 10152) and LASTUPDATE > '2017-05-01 00:00:00.000'";
+
+    private MetricFileLoader loader;
+
+    private LogMetricFileLoader logLoader;
+
+    private String serializedLine;
+
+    private String logLine;
+
+    @Setup
+    public void setUp() throws Exception {
+        loader = new MetricFileLoader();
+        logLoader = new LogMetricFileLoader();
+        serializedLine = OperationMetricBenchmark.createMetric( "com.ibm.commerce.order.OrderView.getOrders" )
+            .toSerializedString();
+        OperationMetric jdbcMetric = OperationMetricBenchmark.createMetric( SQL );
+        logLine = "[5/1/17 10:00:00:000 EDT] 0000002a " + OperationMetric.writeEntryExitLog( jdbcMetric, false );
+    }
+
+    @Benchmark
+    public String substituteJdbcParameters() {
+        return MetricFileLoader.substituteJdbcParameters( SQL );
+    }
+
+    @Benchmark
+    public OperationMetric parseLine() {
+        return loader.parseLine( serializedLine );
+    }
+
+    @Benchmark
+    public OperationMetric parseJdbcLogLine() {
+        return logLoader.parseLine( logLine );
+    }
+}
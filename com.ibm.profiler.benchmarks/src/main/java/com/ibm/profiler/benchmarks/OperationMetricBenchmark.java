@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.commerce.cache.OperationMetric;
+
+/**
+ * Cost of writing and reading back the log line of an operation metric.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class OperationMetricBenchmark {
+
+    private OperationMetric metric;
+
+    private String serializedMetric;
+
+    /**
+     * Create a metric close to the ones logged by the service loggers.
+     *
+     * @param operationName
+     *            the name of the operation.
+     * @return the metric.
+     */
+    static OperationMetric createMetric( String operationName ) {
+        OperationMetric metric = new OperationMetric();
+        metric.startOperation( operationName, true, "catalogId", "10001", "storeId", "10151", "langId", "-1" );
+        metric.setProperty( "threadName", "WebContainer : 12" );
+        metric.stopOperation( 4096, false, true );
+        return metric;
+    }
+
+    @Setup
+    public void setUp() {
+        metric = createMetric( "com.ibm.commerce.catalog.CatalogNavigationView.getProducts" );
+        serializedMetric = metric.toSerializedString();
+    }
+
+    @Benchmark
+    public String toSerializedString() {
+        return metric.toSerializedString();
+    }
+
+    @Benchmark
+    public OperationMetric fromSerializedString() {
+        OperationMetric parsed = new OperationMetric();
+        parsed.fromSerializedString( serializedMetric );
+        return parsed;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.commerce.cache.OperationStatistics;
+
+/**
+ * Throughput of the statistics of a single operation, every thread recording
+ * into the same statistics. Compare the thread counts to see how recording
+ * scales, run with "-t" to pick another thread count.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class OperationStatisticsBenchmark {
+
+    private static final long DURATION = 1500000;
+
+    private OperationStatistics statistics;
+
+    @Setup
+    public void setUp() {
+        statistics = new OperationStatistics();
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public void logStatistic() {
+        statistics.logStatistic( DURATION, 100, true, false, true );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public void logStatisticFourThreads() {
+        statistics.logStatistic( DURATION, 100, true, false, true );
+    }
+
+    @Benchmark
+    @Threads( Threads.MAX )
+    public void logStatisticContended() {
+        statistics.logStatistic( DURATION, 100, true, false, true );
+    }
+}
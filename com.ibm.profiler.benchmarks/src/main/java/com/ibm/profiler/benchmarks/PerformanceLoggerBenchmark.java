@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.logger.PerformanceLogger;
+
+/**
+ * Cost of recording a duration in the performance logger. The contended
+ * variants run one thread per processor, run with "-t" to pick another thread
+ * count.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class PerformanceLoggerBenchmark {
+
+    private static final long DURATION = 1500000;
+
+    /**
+     * Operations recorded by the many ids benchmarks, kept in their own state
+     * so that the other benchmarks don't run once per id count.
+     */
+    @State( Scope.Benchmark )
+    public static class ManyIds {
+
+        /** number of operations */
+        @Param( { "16", "1024" } )
+        public int idCount;
+
+        private String[] ids;
+
+        @Setup
+        public void setUp() {
+            ids = new String[idCount];
+            for ( int i = 0; i < idCount; ++i ) {
+                ids[i] = "Benchmark.operation" + i;
+            }
+        }
+    }
+
+    /**
+     * Position of each thread in the list of ids.
+     */
+    @State( Scope.Thread )
+    public static class ThreadPosition {
+
+        private int next;
+
+        /**
+         * @param ids
+         *            the ids to cycle through.
+         * @return the next id.
+         */
+        public String next( ManyIds ids ) {
+            String id = ids.ids[next];
+            next = ( next + 1 ) % ids.ids.length;
+            return id;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        PerformanceLogger.clear();
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public void increaseSingleId() {
+        PerformanceLogger.increase( "Benchmark.singleOperation", DURATION );
+    }
+
+    @Benchmark
+    @Threads( Threads.MAX )
+    public void increaseSingleIdContended() {
+        PerformanceLogger.increase( "Benchmark.singleOperation", DURATION );
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public void increaseManyIds( ManyIds ids, ThreadPosition position ) {
+        PerformanceLogger.increase( position.next( ids ), DURATION );
+    }
+
+    @Benchmark
+    @Threads( Threads.MAX )
+    public void increaseManyIdsContended( ManyIds ids, ThreadPosition position ) {
+        PerformanceLogger.increase( position.next( ids ), DURATION );
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public boolean startStopLogging() {
+        PerformanceLogger.startLogging( "Benchmark.timer" );
+        return PerformanceLogger.stopLogging( "Benchmark.timer" );
+    }
+
+    @Benchmark
+    @Threads( Threads.MAX )
+    public boolean startStopLoggingContended() {
+        PerformanceLogger.startLogging( "Benchmark.timer" );
+        return PerformanceLogger.stopLogging( "Benchmark.timer" );
+    }
+}
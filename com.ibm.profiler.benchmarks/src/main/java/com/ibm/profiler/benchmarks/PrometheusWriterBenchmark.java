@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.logger.stats.TotalLogEntry;
+import com.ibm.logger.trace.PrometheusMetricsWriter;
+
+/**
+ * Cost of a Prometheus scrape, from the statistics in memory to the encoded
+ * text. Each operation writes its histogram buckets plus eight other series.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class PrometheusWriterBenchmark {
+
+    /** number of operations written by each scrape */
+    @Param( { "1000", "50000" } )
+    public int operationCount;
+
+    private List<TotalLogEntry> entries;
+
+    private PrometheusMetricsWriter writer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random( 1 );
+        entries = new ArrayList<TotalLogEntry>( operationCount );
+        for ( int i = 0; i < operationCount; ++i ) {
+            TotalLogEntry entry = new TotalLogEntry( "JDBC : select ORDERS_ID from ORDERS where MEMBER_ID = " + i, null );
+            for ( int j = 0; j < 5; ++j ) {
+                entry.addValue( 1000 + random.nextInt( 100000000 ) );
+            }
+            entries.add( entry );
+        }
+        writer = new PrometheusMetricsWriter();
+    }
+
+    @Benchmark
+    public int write() {
+        writer.write( entries );
+        return writer.size();
+    }
+}
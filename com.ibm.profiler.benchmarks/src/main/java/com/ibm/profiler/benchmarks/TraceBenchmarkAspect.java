@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.util.logging.Level;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+import com.ibm.logger.TraceUtilities;
+
+/**
+ * Applies the trace and measure aspect the same way an application would.
+ */
+@Aspect
+public class TraceBenchmarkAspect {
+
+    @Around( "execution(* com.ibm.profiler.benchmarks.TracedService.tracedOperation(..))" )
+    public Object aroundTrace( ProceedingJoinPoint point ) throws Throwable {
+        return TraceUtilities.traceAndMeasureJoinPoint( point, Level.FINER, false, true );
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.logger.PerformanceLogger;
+
+/**
+ * Cost of {@link com.ibm.logger.TraceUtilities#traceAndMeasureJoinPoint} on a
+ * woven method with tracing off, compared to the same method without the
+ * aspect.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class TraceUtilitiesBenchmark {
+
+    private TracedService service;
+
+    private String name;
+
+    private int count;
+
+    @Setup
+    public void setUp() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        service = new TracedService();
+        name = "benchmark";
+        count = 42;
+    }
+
+    @TearDown
+    public void tearDown() {
+        PerformanceLogger.clear();
+    }
+
+    @Benchmark
+    public int baseline() {
+        return service.operation( name, count );
+    }
+
+    @Benchmark
+    public int traceAndMeasureJoinPoint() {
+        return service.tracedOperation( name, count );
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.benchmarks;
+
+/**
+ * Service measured by the trace aspect. Both methods do the same work, only
+ * {@link #tracedOperation(String, int)} is woven by
+ * {@link TraceBenchmarkAspect}.
+ */
+public class TracedService {
+
+    public int operation( String name, int count ) {
+        return name.length() + count;
+    }
+
+    public int tracedOperation( String name, int count ) {
+        return name.length() + count;
+    }
+}
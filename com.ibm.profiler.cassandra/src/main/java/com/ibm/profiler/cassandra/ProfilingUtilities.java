@@ -233,6 +233,7 @@ public class ProfilingUtilities {
 
         OperationMetric metric = null;
         if ( CassandraLogger.LOG_GATHERER.isEnabled() ) {
+            long overheadStart = CassandraLogger.OVERHEAD.start();
             try {
                 metric = new OperationMetric();
                 String[] orderedKeyValues = arguments;
@@ -245,6 +246,7 @@ public class ProfilingUtilities {
             } catch ( Throwable ex ) {
                 LoggingHelper.logUnexpectedException( LOGGER, CLASSNAME, METHODNAME, ex );
             }
+            CassandraLogger.OVERHEAD.stop( overheadStart );
         }
 
         if ( entryExitTraceEnabled ) {
@@ -271,6 +273,7 @@ public class ProfilingUtilities {
         }
 
         if ( metric != null ) {
+            long overheadStart = CassandraLogger.OVERHEAD.start();
             try {
                 int responseSize = 1000; // default value
                 if ( execute != null ) {
@@ -294,6 +297,7 @@ public class ProfilingUtilities {
             } catch ( Throwable ex ) {
                 LoggingHelper.logUnexpectedException( LOGGER, CLASSNAME, METHODNAME, ex );
             }
+            CassandraLogger.OVERHEAD.stop( overheadStart, metric.getDuration() );
         }
         if ( entryExitTraceEnabled ) {
             LOGGER.exiting( CLASSNAME, METHODNAME );
@@ -21,6 +21,8 @@ import java.util.logging.Logger;
 import com.ibm.commerce.cache.ILogMetricGatherer;
 import com.ibm.commerce.cache.LogMetricGatherer;
 import com.ibm.commerce.cache.LogMetricGathererManager;
+import com.ibm.logger.OverheadCounter;
+import com.ibm.logger.ProfilerOverhead;
 
 /**
  * Cassandra request performance logging.
@@ -43,6 +45,11 @@ public class CassandraLogger {
 			LOGGER);
 	
     public static final ILogMetricGatherer LOG_GATHERER = LogMetricGathererManager.getLogMetricGatherer(CassandraLogger.class);
+
+	/**
+	 * Time spent by the Cassandra wrappers recording metrics.
+	 */
+	public static final OverheadCounter OVERHEAD = ProfilerOverhead.getCounter("Cassandra");
     
 	/**
 	 * Level at which to measure the cache potential.
@@ -18,4 +18,6 @@ java -cp target/* com.ibm.profiler.client.PerformanceLoggerManagerCLI -host 127.
 java -cp target/* com.ibm.profiler.client.PerformanceLoggerManagerCLI -host 127.0.0.1 -port 9989 -dump
 java -cp target/* com.ibm.profiler.client.PerformanceLoggerManagerCLI -host 127.0.0.1 -port 9989 -clear
 
+java -cp target/* com.ibm.profiler.client.BinarySnapshotQueryCLI -file ./logs -from 2017-01-01 -to 2017-02-01 -operation myOperation
+
 echo done !
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.client;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import com.ibm.logger.stats.MetricDelta;
+
+/**
+ * Query the binary snapshot files written by
+ * {@link com.ibm.logger.trace.BinarySnapshotToFilePrinter}.
+ * 
+ * Prints the totals of each operation over a time range, or each snapshot of
+ * the operations with -perSnapshot, in CSV. Directories are read as their
+ * snapshot files in name order, which is the date order of the default file
+ * name pattern.
+ */
+public class BinarySnapshotQueryCLI {
+
+    /** extension of the snapshot files */
+    public static final String FILE_SUFFIX = ".plbs";
+
+    private static final double NANOS_PER_MILLISECOND = 1000000.0;
+
+    /**
+     * Totals of an operation over a time range.
+     */
+    public static class OperationTotals {
+
+        private final String id;
+
+        private long callCount;
+
+        private long errorCallCount;
+
+        private long cacheEnabledCount;
+
+        private long cacheHitCount;
+
+        private long totalDuration;
+
+        private long totalResponseSize;
+
+        /** call count by highest duration of the bucket */
+        private final TreeMap<Long, long[]> buckets = new TreeMap<Long, long[]>();
+
+        /**
+         * Constructor
+         * 
+         * @param id the operation identifier.
+         */
+        public OperationTotals( String id ) {
+            this.id = id;
+        }
+
+        /**
+         * Add the calls of a snapshot.
+         * 
+         * @param delta the calls of the operation in the snapshot.
+         */
+        public void add( MetricDelta delta ) {
+            callCount += delta.getCallCount();
+            errorCallCount += delta.getErrorCallCount();
+            cacheEnabledCount += delta.getCacheEnabledCount();
+            cacheHitCount += delta.getCacheHitCount();
+            totalDuration += delta.getTotalDuration();
+            totalResponseSize += delta.getTotalResponseSize();
+            long[] bounds = delta.getBucketUpperBounds();
+            long[] counts = delta.getBucketCounts();
+            for ( int i = 0; i < bounds.length; ++i ) {
+                Long bound = Long.valueOf( bounds[i] );
+                long[] count = buckets.get( bound );
+                if ( count == null ) {
+                    count = new long[1];
+                    buckets.put( bound, count );
+                }
+                count[0] += counts[i];
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCallCount() {
+            return callCount;
+        }
+
+        public long getErrorCallCount() {
+            return errorCallCount;
+        }
+
+        public long getCacheEnabledCount() {
+            return cacheEnabledCount;
+        }
+
+        public long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        public long getTotalDuration() {
+            return totalDuration;
+        }
+
+        public long getTotalResponseSize() {
+            return totalResponseSize;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100.
+         * @return the highest duration of the bucket holding the percentile in nanoseconds, 0 without calls.
+         */
+        public long getDurationPercentile( double percentile ) {
+            long total = 0;
+            for ( long[] count : buckets.values() ) {
+                total += count[0];
+            }
+            long rank = (long) Math.ceil( total * percentile / 100.0 );
+            long cumulative = 0;
+            long bound = 0;
+            for ( Map.Entry<Long, long[]> bucket : buckets.entrySet() ) {
+                bound = bucket.getKey().longValue();
+                cumulative += bucket.getValue()[0];
+                if ( cumulative >= rank && cumulative > 0 ) {
+                    break;
+                }
+            }
+            return bound;
+        }
+    }
+
+    /**
+     * @param args arguments
+     */
+    public static void main( String[] args ) {
+        Set<String> operations = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        boolean perSnapshot = false;
+        List<File> paths = new ArrayList<File>();
+        try {
+            String last = "";
+            for ( String arg : args ) {
+                if ( last.equalsIgnoreCase( "-operation" ) ) {
+                    if ( operations == null ) {
+                        operations = new HashSet<String>();
+                    }
+                    operations.add( arg );
+                }
+                if ( last.equalsIgnoreCase( "-from" ) ) {
+                    from = parseTime( arg );
+                }
+                if ( last.equalsIgnoreCase( "-to" ) ) {
+                    to = parseTime( arg );
+                }
+                if ( last.equalsIgnoreCase( "-file" ) ) {
+                    paths.add( new File( arg ) );
+                }
+                if ( arg.equalsIgnoreCase( "-perSnapshot" ) ) {
+                    perSnapshot = true;
+                }
+                if ( arg.equalsIgnoreCase( "-usage" ) ) {
+                    usage();
+                    System.exit( 0 );
+                }
+                last = arg;
+            }
+        } catch ( ParseException e ) {
+            System.out.println( "Invalid time : " + e.getMessage() );
+            usage();
+            System.exit( 1 );
+        }
+        if ( paths.isEmpty() ) {
+            usage();
+            System.exit( 1 );
+        }
+
+        try {
+            List<File> files = listSnapshotFiles( paths );
+            if ( perSnapshot ) {
+                printSnapshots( files, operations, from, to, System.out );
+            } else {
+                printTotals( query( files, operations, from, to ), System.out );
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Can't read the snapshot files : " + e.getMessage() );
+            System.exit( 1 );
+        }
+    }
+
+    private static void usage() {
+        System.out.println( "BinarySnapshotQueryCLI -file <file or directory> [-file ...] [-operation <id> ...]" );
+        System.out.println( "    [-from <time>] [-to <time>] [-perSnapshot]" );
+        System.out.println( "Times are UTC, yyyy-MM-dd or yyyy-MM-dd'T'HH:mm:ss. -from is inclusive, -to is exclusive." );
+    }
+
+    /**
+     * Parse a UTC time.
+     * 
+     * @param text the time, yyyy-MM-dd or yyyy-MM-dd'T'HH:mm:ss.
+     * @return the time in milliseconds since the epoch.
+     * @throws ParseException if the time is invalid.
+     */
+    public static long parseTime( String text ) throws ParseException {
+        String pattern = text.indexOf( 'T' ) < 0 ? "yyyy-MM-dd" : "yyyy-MM-dd'T'HH:mm:ss";
+        SimpleDateFormat format = new SimpleDateFormat( pattern );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        format.setLenient( false );
+        return format.parse( text ).getTime();
+    }
+
+    /**
+     * List the snapshot files of a set of files and directories.
+     * 
+     * @param paths the snapshot files and the directories holding them.
+     * @return the files, directories replaced by their snapshot files in name order.
+     */
+    public static List<File> listSnapshotFiles( List<File> paths ) {
+        List<File> files = new ArrayList<File>();
+        for ( File path : paths ) {
+            if ( !path.isDirectory() ) {
+                files.add( path );
+                continue;
+            }
+            File[] children = path.listFiles( new FileFilter() {
+                @Override
+                public boolean accept( File child ) {
+                    return child.isFile() && child.getName().endsWith( FILE_SUFFIX );
+                }
+            } );
+            if ( children != null ) {
+                Arrays.sort( children );
+                files.addAll( Arrays.asList( children ) );
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Sum the snapshots of the operations over a time range.
+     * 
+     * @param files the snapshot files.
+     * @param operations the operations to read, null for all of them.
+     * @param from the start of the range in milliseconds since the epoch, inclusive.
+     * @param to the end of the range in milliseconds since the epoch, exclusive.
+     * @return the totals by operation identifier, in identifier order.
+     * @throws IOException if a file can't be read.
+     */
+    public static Map<String, OperationTotals> query( List<File> files, Set<String> operations, long from, long to )
+        throws IOException {
+        final Map<String, OperationTotals> totals = new TreeMap<String, OperationTotals>();
+        BinarySnapshotReader.SnapshotVisitor visitor = new BinarySnapshotReader.SnapshotVisitor() {
+            @Override
+            public void visit( long time, MetricDelta delta ) {
+                OperationTotals operation = totals.get( delta.getId() );
+                if ( operation == null ) {
+                    operation = new OperationTotals( delta.getId() );
+                    totals.put( delta.getId(), operation );
+                }
+                operation.add( delta );
+            }
+        };
+        for ( File file : files ) {
+            new BinarySnapshotReader( file ).scan( operations, from, to, visitor );
+        }
+        return totals;
+    }
+
+    /**
+     * Print the totals of the operations in CSV.
+     * 
+     * @param totals the totals by operation.
+     * @param out the output.
+     */
+    public static void printTotals( Map<String, OperationTotals> totals, PrintStream out ) {
+        out.println( "Name,Number of calls,Error count,Average Duration milliseconds,Total Duration milliseconds,"
+            + "Total Size,Cache enabled count,Cache hit count,Duration 50th percentile milliseconds,"
+            + "Duration 95th percentile milliseconds,Duration 99th percentile milliseconds" );
+        for ( OperationTotals operation : totals.values() ) {
+            StringBuilder line = new StringBuilder();
+            appendName( line, operation.getId() );
+            line.append( ',' ).append( operation.getCallCount() );
+            line.append( ',' ).append( operation.getErrorCallCount() );
+            line.append( ',' ).append( average( operation.getTotalDuration(), operation.getCallCount() ) );
+            line.append( ',' ).append( operation.getTotalDuration() / NANOS_PER_MILLISECOND );
+            line.append( ',' ).append( operation.getTotalResponseSize() );
+            line.append( ',' ).append( operation.getCacheEnabledCount() );
+            line.append( ',' ).append( operation.getCacheHitCount() );
+            line.append( ',' ).append( operation.getDurationPercentile( 50 ) / NANOS_PER_MILLISECOND );
+            line.append( ',' ).append( operation.getDurationPercentile( 95 ) / NANOS_PER_MILLISECOND );
+            line.append( ',' ).append( operation.getDurationPercentile( 99 ) / NANOS_PER_MILLISECOND );
+            out.println( line );
+        }
+    }
+
+    /**
+     * Print each snapshot of the operations in CSV.
+     * 
+     * @param files the snapshot files.
+     * @param operations the operations to read, null for all of them.
+     * @param from the start of the range in milliseconds since the epoch, inclusive.
+     * @param to the end of the range in milliseconds since the epoch, exclusive.
+     * @param out the output.
+     * @throws IOException if a file can't be read.
+     */
+    public static void printSnapshots( List<File> files, Set<String> operations, long from, long to,
+        final PrintStream out ) throws IOException {
+        out.println( "Time,Name,Number of calls,Error count,Average Duration milliseconds,Total Duration milliseconds,"
+            + "Total Size" );
+        final SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        final StringBuilder line = new StringBuilder();
+        BinarySnapshotReader.SnapshotVisitor visitor = new BinarySnapshotReader.SnapshotVisitor() {
+            @Override
+            public void visit( long time, MetricDelta delta ) {
+                line.setLength( 0 );
+                line.append( format.format( Long.valueOf( time ) ) ).append( ',' );
+                appendName( line, delta.getId() );
+                line.append( ',' ).append( delta.getCallCount() );
+                line.append( ',' ).append( delta.getErrorCallCount() );
+                line.append( ',' ).append( average( delta.getTotalDuration(), delta.getCallCount() ) );
+                line.append( ',' ).append( delta.getTotalDuration() / NANOS_PER_MILLISECOND );
+                line.append( ',' ).append( delta.getTotalResponseSize() );
+                out.println( line );
+            }
+        };
+        for ( File file : files ) {
+            new BinarySnapshotReader( file ).scan( operations, from, to, visitor );
+        }
+    }
+
+    private static double average( long totalDuration, long callCount ) {
+        if ( callCount == 0 ) {
+            return 0;
+        }
+        return totalDuration / NANOS_PER_MILLISECOND / callCount;
+    }
+
+    private static void appendName( StringBuilder line, String id ) {
+        if ( id.indexOf( ',' ) < 0 && id.indexOf( '"' ) < 0 && id.indexOf( '\n' ) < 0 ) {
+            line.append( id );
+            return;
+        }
+        line.append( '"' ).append( id.replace( "\"", "\"\"" ) ).append( '"' );
+    }
+}
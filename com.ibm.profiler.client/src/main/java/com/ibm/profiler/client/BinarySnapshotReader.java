@@ -0,0 +1,408 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.client;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.ibm.commerce.cache.CacheUtilities;
+import com.ibm.logger.stats.MetricDelta;
+import com.ibm.logger.trace.BinarySnapshotWriter;
+
+/**
+ * Reads the snapshot files written by {@link BinarySnapshotWriter}.
+ * 
+ * A scan checks the frame of every block, the type and time of a block are in
+ * its frame. The payload of a snapshot outside of the time range, or without
+ * any of the operations asked for, is skipped without being read. The other
+ * blocks are read and their checksum checked, and the entries of the
+ * operations that weren't asked for are skipped without decoding them. A block
+ * torn by a crash ends the scan, unless a writer restarted after the crash
+ * appended a new session behind it, the scan then resumes at that session. A
+ * block with a bad checksum is skipped. The operations of a skipped dictionary
+ * block are unknown, their entries are read with the id returned by
+ * {@link #getUnknownId(long)} when all the operations are read.
+ */
+public class BinarySnapshotReader {
+
+    /**
+     * Receives the snapshots of the operations.
+     */
+    public interface SnapshotVisitor {
+
+        /**
+         * @param time the time of the snapshot in milliseconds since the epoch.
+         * @param delta the calls of an operation since the previous snapshot.
+         */
+        void visit( long time, MetricDelta delta );
+    }
+
+    /** magic number and version */
+    private static final int HEADER_SIZE = 5;
+
+    private static final int FRAME_SIZE = BinarySnapshotWriter.FRAME_SIZE;
+
+    /** bytes of the frame covered by its checksum */
+    private static final int FRAME_CHECKED_SIZE = FRAME_SIZE - 4;
+
+    private static final int TIME_OFFSET = 5;
+
+    private static final int CHECKSUM_SIZE = 4;
+
+    /** frame and checksum of the empty payload */
+    private static final int SESSION_BLOCK_SIZE = FRAME_SIZE + CHECKSUM_SIZE;
+
+    private static final String UNKNOWN_ID_PREFIX = "(unknown id ";
+
+    private final File file;
+
+    private final CRC32 crc = new CRC32();
+
+    private final ByteBuffer frame = ByteBuffer.allocate( FRAME_SIZE );
+
+    private ByteBuffer payload = ByteBuffer.allocate( 64 * 1024 );
+
+    private String[] dictionary = new String[256];
+
+    private boolean[] wanted = new boolean[256];
+
+    private int decodedBlockCount;
+
+    private int skippedBlockCount;
+
+    private int corruptedBlockCount;
+
+    private int unknownEntryCount;
+
+    /** number of operations in the dictionary of the current session */
+    private int dictionarySize;
+
+    /** number of operations asked for in the dictionary of the current session */
+    private int wantedCount;
+
+    /** false once a dictionary block of the current session was corrupted */
+    private boolean dictionaryComplete;
+
+    /**
+     * Constructor
+     * 
+     * @param file the snapshot file.
+     */
+    public BinarySnapshotReader( File file ) {
+        this.file = file;
+    }
+
+    /**
+     * @return the number of snapshot blocks decoded by the last scan.
+     */
+    public int getDecodedBlockCount() {
+        return decodedBlockCount;
+    }
+
+    /**
+     * @return the number of snapshot blocks skipped by the last scan because of their time, or because none of
+     *         their operations was asked for.
+     */
+    public int getSkippedBlockCount() {
+        return skippedBlockCount;
+    }
+
+    /**
+     * @return the number of blocks ignored by the last scan because of a bad checksum.
+     */
+    public int getCorruptedBlockCount() {
+        return corruptedBlockCount;
+    }
+
+    /**
+     * @return the number of entries read by the last scan whose operation was in a corrupted dictionary block.
+     */
+    public int getUnknownEntryCount() {
+        return unknownEntryCount;
+    }
+
+    /**
+     * @param index the index of the operation in the dictionary of the writer session.
+     * @return the id given to an operation whose dictionary block was corrupted.
+     */
+    public static String getUnknownId( long index ) {
+        return UNKNOWN_ID_PREFIX + index + ")";
+    }
+
+    /**
+     * Read the snapshots of a time range.
+     * 
+     * @param operationIds the operations to read, null for all of them including the unknown ones.
+     * @param fromTime the start of the range in milliseconds since the epoch, inclusive.
+     * @param toTime the end of the range in milliseconds since the epoch, exclusive.
+     * @param visitor receives the snapshots of the operations, in the order of the file.
+     * @throws IOException if the file can't be read or isn't a snapshot file.
+     */
+    public void scan( Set<String> operationIds, long fromTime, long toTime, SnapshotVisitor visitor )
+        throws IOException {
+        decodedBlockCount = 0;
+        skippedBlockCount = 0;
+        corruptedBlockCount = 0;
+        unknownEntryCount = 0;
+        FileInputStream input = new FileInputStream( file );
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            frame.clear();
+            frame.limit( HEADER_SIZE );
+            if ( !readFully( channel, frame, 0 ) || frame.getInt( 0 ) != BinarySnapshotWriter.MAGIC ) {
+                throw new IOException( "Not a performance snapshot file : " + file );
+            }
+            if ( frame.get( 4 ) != BinarySnapshotWriter.VERSION ) {
+                throw new IOException( "Unsupported snapshot file version " + frame.get( 4 ) + " : " + file );
+            }
+
+            dictionarySize = 0;
+            wantedCount = 0;
+            dictionaryComplete = true;
+            long position = HEADER_SIZE;
+            while ( position + FRAME_SIZE <= size ) {
+                frame.clear();
+                readFully( channel, frame, position );
+                int type = frame.get( 0 );
+                int length = frame.getInt( 1 );
+                long time = frame.getLong( TIME_OFFSET );
+                long payloadPosition = position + FRAME_SIZE;
+                long next = payloadPosition + length + CHECKSUM_SIZE;
+                boolean frameCorrupted = !isFrameValid( frame.array(), 0 );
+                boolean torn = frameCorrupted || length < 0 || next > size;
+                if ( !torn && type == BinarySnapshotWriter.SNAPSHOT_BLOCK
+                    && isSkipped( operationIds, time, fromTime, toTime ) ) {
+                    ++skippedBlockCount;
+                    position = next;
+                    continue;
+                }
+                if ( torn || !readPayload( channel, payloadPosition, length ) ) {
+                    if ( frameCorrupted || type == BinarySnapshotWriter.DICTIONARY_BLOCK ) {
+                        // the operations of the block may be missing.
+                        dictionaryComplete = false;
+                    }
+                    // a writer restarted after a crash appends its session
+                    // right behind the torn block.
+                    long session = findSession( channel, position + 1, torn ? size : next );
+                    if ( session >= 0 ) {
+                        if ( torn ) {
+                            ++corruptedBlockCount;
+                        }
+                        position = session;
+                    } else if ( torn ) {
+                        if ( frameCorrupted ) {
+                            ++corruptedBlockCount;
+                        }
+                        break;
+                    } else {
+                        position = next;
+                    }
+                    continue;
+                }
+                position = next;
+
+                if ( type == BinarySnapshotWriter.SESSION_BLOCK ) {
+                    dictionarySize = 0;
+                    wantedCount = 0;
+                    dictionaryComplete = true;
+                } else if ( type == BinarySnapshotWriter.DICTIONARY_BLOCK ) {
+                    readDictionary( operationIds );
+                } else if ( type == BinarySnapshotWriter.SNAPSHOT_BLOCK ) {
+                    ++decodedBlockCount;
+                    readSnapshot( time, operationIds == null, visitor );
+                }
+                // other block types are from a newer version, skipped.
+            }
+        } finally {
+            CacheUtilities.closeQuietly( input );
+        }
+    }
+
+    /**
+     * @return true if the payload of a snapshot block doesn't need to be read.
+     */
+    private boolean isSkipped( Set<String> operationIds, long time, long fromTime, long toTime ) {
+        if ( time < fromTime || time >= toTime ) {
+            return true;
+        }
+        // the operations of a corrupted dictionary block could be the ones asked for.
+        return operationIds != null && wantedCount == 0 && dictionaryComplete;
+    }
+
+    private void readDictionary( Set<String> operationIds ) {
+        int firstIndex = (int) readVarint();
+        int count = (int) readVarint();
+        if ( firstIndex < dictionarySize ) {
+            // overlaps the ids already read, can't be trusted.
+            return;
+        }
+        int newSize = firstIndex + count;
+        if ( newSize > dictionary.length ) {
+            int capacity = Math.max( newSize, dictionary.length * 2 );
+            dictionary = Arrays.copyOf( dictionary, capacity );
+            wanted = Arrays.copyOf( wanted, capacity );
+        }
+        // the ids of the corrupted dictionary blocks in between are unknown.
+        Arrays.fill( dictionary, dictionarySize, firstIndex, null );
+        for ( int index = firstIndex; index < newSize; ++index ) {
+            int length = (int) readVarint();
+            String id = new String( payload.array(), payload.position(), length, StandardCharsets.UTF_8 );
+            payload.position( payload.position() + length );
+            dictionary[index] = id;
+            wanted[index] = operationIds == null || operationIds.contains( id );
+            if ( wanted[index] ) {
+                ++wantedCount;
+            }
+        }
+        dictionarySize = newSize;
+    }
+
+    private void readSnapshot( long time, boolean readUnknown, SnapshotVisitor visitor ) {
+        long count = readVarint();
+        long index = 0;
+        for ( long i = 0; i < count; ++i ) {
+            index += readVarint();
+            int entryLength = (int) readVarint();
+            String id;
+            if ( index >= dictionarySize || dictionary[(int) index] == null ) {
+                // the dictionary block of the operation was corrupted.
+                ++unknownEntryCount;
+                id = readUnknown ? getUnknownId( index ) : null;
+            } else {
+                id = wanted[(int) index] ? dictionary[(int) index] : null;
+            }
+            if ( id == null ) {
+                payload.position( payload.position() + entryLength );
+                continue;
+            }
+            long callCount = readSigned();
+            long errorCount = readSigned();
+            long cacheEnabledCount = readSigned();
+            long cacheHitCount = readSigned();
+            long totalDuration = readSigned();
+            long totalResponseSize = readSigned();
+            int bucketCount = (int) readSigned();
+            long[] bounds = new long[bucketCount];
+            long[] counts = new long[bucketCount];
+            long bound = 0;
+            for ( int bucket = 0; bucket < bucketCount; ++bucket ) {
+                bound += readSigned();
+                bounds[bucket] = bound;
+                counts[bucket] = readSigned();
+            }
+            visitor.visit( time, new MetricDelta( id, callCount, callCount - errorCount,
+                cacheEnabledCount, cacheHitCount, totalDuration, totalResponseSize, bounds, counts ) );
+        }
+    }
+
+    /**
+     * Find the first valid session block starting in a range of the file.
+     * 
+     * @param from the start of the range, inclusive.
+     * @param to the end of the range, exclusive.
+     * @return the position of the session block, -1 if there is none.
+     */
+    private long findSession( FileChannel channel, long from, long to ) throws IOException {
+        long end = Math.min( to + SESSION_BLOCK_SIZE - 1, channel.size() );
+        if ( end - from < SESSION_BLOCK_SIZE ) {
+            return -1;
+        }
+        ByteBuffer region = ByteBuffer.allocate( (int) ( end - from ) );
+        readFully( channel, region, from );
+        for ( int offset = 0; offset + SESSION_BLOCK_SIZE <= region.limit(); ++offset ) {
+            // the checksum of the empty payload is 0.
+            if ( region.get( offset ) == BinarySnapshotWriter.SESSION_BLOCK && region.getInt( offset + 1 ) == 0
+                && region.getInt( offset + FRAME_SIZE ) == 0 && isFrameValid( region.array(), offset ) ) {
+                return from + offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the checksum of the frame starting at an offset matches.
+     */
+    private boolean isFrameValid( byte[] bytes, int offset ) {
+        crc.reset();
+        crc.update( bytes, offset, FRAME_CHECKED_SIZE );
+        int checksum = offset + FRAME_CHECKED_SIZE;
+        int expected = ( bytes[checksum] & 0xFF ) << 24 | ( bytes[checksum + 1] & 0xFF ) << 16
+            | ( bytes[checksum + 2] & 0xFF ) << 8 | ( bytes[checksum + 3] & 0xFF );
+        return (int) crc.getValue() == expected;
+    }
+
+    /**
+     * Read the payload of a block and check it.
+     * 
+     * @return false if the block is corrupted.
+     */
+    private boolean readPayload( FileChannel channel, long position, int length ) throws IOException {
+        if ( payload.capacity() < length + CHECKSUM_SIZE ) {
+            payload = ByteBuffer.allocate( Math.max( payload.capacity() * 2, length + CHECKSUM_SIZE ) );
+        }
+        payload.clear();
+        payload.limit( length + CHECKSUM_SIZE );
+        if ( !readFully( channel, payload, position ) ) {
+            throw new EOFException( "Snapshot file truncated while reading : " + file );
+        }
+        crc.reset();
+        crc.update( payload.array(), 0, length );
+        if ( (int) crc.getValue() != payload.getInt( length ) ) {
+            ++corruptedBlockCount;
+            return false;
+        }
+        payload.position( 0 );
+        payload.limit( length );
+        return true;
+    }
+
+    private static boolean readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            int read = channel.read( buffer, position );
+            if ( read < 0 ) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        int shift = 0;
+        byte current;
+        do {
+            current = payload.get();
+            value |= (long) ( current & 0x7F ) << shift;
+            shift += 7;
+        } while ( current < 0 );
+        return value;
+    }
+
+    private long readSigned() {
+        long zigzag = readVarint();
+        return ( zigzag >>> 1 ) ^ -( zigzag & 1 );
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.profiler.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.logger.stats.MetricDelta;
+import com.ibm.logger.trace.BinarySnapshotWriter;
+
+public class BinarySnapshotReaderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile( "snapshot", BinarySnapshotQueryCLI.FILE_SUFFIX );
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static MetricDelta delta( String id, long calls, long errors, long duration ) {
+        return new MetricDelta( id, calls, calls - errors, 1, 0, duration, calls * 10, new long[] { 1023, 1048575 },
+            new long[] { calls - 1, 1 } );
+    }
+
+    private void write( boolean newFile, long start, int snapshotCount ) throws IOException {
+        BinarySnapshotWriter writer = new BinarySnapshotWriter( new FileOutputStream( file, !newFile ), newFile,
+            start );
+        try {
+            for ( int i = 0; i < snapshotCount; ++i ) {
+                List<MetricDelta> deltas = new ArrayList<MetricDelta>();
+                deltas.add( delta( "op" + ( i % 3 ), 5, 1, 2000000 ) );
+                deltas.add( delta( "common", 2, 0, 1000 ) );
+                writer.writeSnapshot( start + i * 1000, deltas );
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private List<MetricDelta> read( BinarySnapshotReader reader, String operation, long from, long to )
+        throws IOException {
+        final List<MetricDelta> deltas = new ArrayList<MetricDelta>();
+        reader.scan( operation == null ? null : Collections.singleton( operation ), from, to,
+            new BinarySnapshotReader.SnapshotVisitor() {
+                @Override
+                public void visit( long time, MetricDelta delta ) {
+                    deltas.add( delta );
+                }
+            } );
+        return deltas;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        write( true, 10000, 6 );
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+        List<MetricDelta> deltas = read( reader, null, Long.MIN_VALUE, Long.MAX_VALUE );
+        Assert.assertEquals( 12, deltas.size() );
+        Assert.assertEquals( 6, reader.getDecodedBlockCount() );
+
+        MetricDelta first = deltas.get( 0 );
+        Assert.assertEquals( "op0", first.getId() );
+        Assert.assertEquals( 5, first.getCallCount() );
+        Assert.assertEquals( 1, first.getErrorCallCount() );
+        Assert.assertEquals( 1, first.getCacheEnabledCount() );
+        Assert.assertEquals( 2000000, first.getTotalDuration() );
+        Assert.assertEquals( 50, first.getTotalResponseSize() );
+        Assert.assertArrayEquals( new long[] { 1023, 1048575 }, first.getBucketUpperBounds() );
+        Assert.assertArrayEquals( new long[] { 4, 1 }, first.getBucketCounts() );
+    }
+
+    @Test
+    public void testSkipping() throws IOException {
+        write( true, 10000, 6 );
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+
+        // only the snapshots of the range are decoded.
+        List<MetricDelta> deltas = read( reader, "op1", 11000, 15000 );
+        Assert.assertEquals( 4, reader.getDecodedBlockCount() );
+        Assert.assertEquals( 2, reader.getSkippedBlockCount() );
+        Assert.assertEquals( 2, deltas.size() );
+        for ( MetricDelta delta : deltas ) {
+            Assert.assertEquals( "op1", delta.getId() );
+        }
+
+        // the snapshots without the operation aren't read either.
+        Assert.assertTrue( read( reader, "unknown", Long.MIN_VALUE, Long.MAX_VALUE ).isEmpty() );
+        Assert.assertEquals( 0, reader.getDecodedBlockCount() );
+        Assert.assertEquals( 6, reader.getSkippedBlockCount() );
+    }
+
+    @Test
+    public void testSkippedPayloadNotRead() throws IOException {
+        write( true, 10000, 3 );
+        RandomAccessFile raw = new RandomAccessFile( file, "rw" );
+        try {
+            // last byte of the payload of the last snapshot.
+            long position = raw.length() - 5;
+            raw.seek( position );
+            int value = raw.read();
+            raw.seek( position );
+            raw.write( value ^ 0xFF );
+        } finally {
+            raw.close();
+        }
+
+        // out of the range, the corrupted payload isn't checked.
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+        Assert.assertEquals( 4, read( reader, null, 10000, 12000 ).size() );
+        Assert.assertEquals( 1, reader.getSkippedBlockCount() );
+        Assert.assertEquals( 0, reader.getCorruptedBlockCount() );
+
+        read( reader, null, 12000, 13000 );
+        Assert.assertEquals( 1, reader.getCorruptedBlockCount() );
+    }
+
+    @Test
+    public void testCorruptedFrame() throws IOException {
+        write( true, 10000, 3 );
+        RandomAccessFile raw = new RandomAccessFile( file, "rw" );
+        try {
+            // the time of the first block after the session block, a dictionary block.
+            long position = 5 + BinarySnapshotWriter.FRAME_SIZE + 4 + 5;
+            raw.seek( position );
+            int value = raw.read();
+            raw.seek( position );
+            raw.write( value ^ 0xFF );
+        } finally {
+            raw.close();
+        }
+
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+        Assert.assertTrue( read( reader, null, Long.MIN_VALUE, Long.MAX_VALUE ).isEmpty() );
+        Assert.assertEquals( 1, reader.getCorruptedBlockCount() );
+    }
+
+    @Test
+    public void testAppendedSessionAndTornTail() throws IOException {
+        write( true, 10000, 3 );
+        // a restarted writer numbers the operations again.
+        write( false, 20000, 3 );
+        long length = file.length();
+        RandomAccessFile raw = new RandomAccessFile( file, "rw" );
+        try {
+            raw.setLength( length - 3 );
+        } finally {
+            raw.close();
+        }
+
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+        List<MetricDelta> deltas = read( reader, "common", Long.MIN_VALUE, Long.MAX_VALUE );
+        Assert.assertEquals( 5, deltas.size() );
+        Assert.assertEquals( 5, reader.getDecodedBlockCount() );
+    }
+
+    @Test
+    public void testSessionAppendedBehindTornBlock() throws IOException {
+        write( true, 10000, 3 );
+        long length = file.length();
+        RandomAccessFile raw = new RandomAccessFile( file, "rw" );
+        try {
+            raw.setLength( length - 3 );
+        } finally {
+            raw.close();
+        }
+        // restarted after the crash without cutting the torn block.
+        write( false, 20000, 3 );
+
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+        List<MetricDelta> deltas = read( reader, null, Long.MIN_VALUE, Long.MAX_VALUE );
+        Assert.assertEquals( 5, reader.getDecodedBlockCount() );
+        Assert.assertEquals( 1, reader.getCorruptedBlockCount() );
+        Assert.assertEquals( 10, deltas.size() );
+        Assert.assertEquals( 0, reader.getUnknownEntryCount() );
+        Assert.assertEquals( "op0", deltas.get( 4 ).getId() );
+        Assert.assertEquals( "op2", deltas.get( 9 ).getId() );
+    }
+
+    @Test
+    public void testCorruptedBlock() throws IOException {
+        write( true, 10000, 2 );
+        RandomAccessFile raw = new RandomAccessFile( file, "rw" );
+        try {
+            // last byte of the payload of the last snapshot.
+            long position = raw.length() - 5;
+            raw.seek( position );
+            int value = raw.read();
+            raw.seek( position );
+            raw.write( value ^ 0xFF );
+        } finally {
+            raw.close();
+        }
+
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+        Assert.assertEquals( 2, read( reader, null, Long.MIN_VALUE, Long.MAX_VALUE ).size() );
+        Assert.assertEquals( 1, reader.getCorruptedBlockCount() );
+    }
+
+    @Test
+    public void testCorruptedDictionaryBlock() throws IOException {
+        write( true, 10000, 6 );
+        RandomAccessFile raw = new RandomAccessFile( file, "rw" );
+        try {
+            // last byte of the payload of the second dictionary block, the one adding op1.
+            long position = 5;
+            int dictionaryCount = 0;
+            while ( true ) {
+                raw.seek( position );
+                int type = raw.read();
+                int length = raw.readInt();
+                position += BinarySnapshotWriter.FRAME_SIZE + length + 4;
+                if ( type == BinarySnapshotWriter.DICTIONARY_BLOCK && ++dictionaryCount == 2 ) {
+                    raw.seek( position - 5 );
+                    int value = raw.read();
+                    raw.seek( position - 5 );
+                    raw.write( value ^ 0xFF );
+                    break;
+                }
+            }
+        } finally {
+            raw.close();
+        }
+
+        BinarySnapshotReader reader = new BinarySnapshotReader( file );
+        List<MetricDelta> deltas = read( reader, null, Long.MIN_VALUE, Long.MAX_VALUE );
+        Assert.assertEquals( 1, reader.getCorruptedBlockCount() );
+        Assert.assertEquals( 12, deltas.size() );
+        Assert.assertEquals( 2, reader.getUnknownEntryCount() );
+        Assert.assertEquals( "op0", deltas.get( 0 ).getId() );
+        Assert.assertEquals( BinarySnapshotReader.getUnknownId( 2 ), deltas.get( 3 ).getId() );
+        Assert.assertEquals( "op2", deltas.get( 5 ).getId() );
+        Assert.assertEquals( BinarySnapshotReader.getUnknownId( 2 ), deltas.get( 9 ).getId() );
+
+        // the operations of the later dictionary blocks are still found.
+        Assert.assertEquals( 2, read( reader, "op2", Long.MIN_VALUE, Long.MAX_VALUE ).size() );
+        Assert.assertEquals( 0, read( reader, "op1", Long.MIN_VALUE, Long.MAX_VALUE ).size() );
+        Assert.assertEquals( 2, reader.getUnknownEntryCount() );
+    }
+
+    @Test( expected = IOException.class )
+    public void testNotASnapshotFile() throws IOException {
+        FileOutputStream output = new FileOutputStream( file );
+        try {
+            output.write( "Name,Calls\n".getBytes( "UTF-8" ) );
+        } finally {
+            output.close();
+        }
+        read( new BinarySnapshotReader( file ), null, Long.MIN_VALUE, Long.MAX_VALUE );
+    }
+
+    @Test
+    public void testQueryTotals() throws IOException {
+        write( true, 10000, 6 );
+        Map<String, BinarySnapshotQueryCLI.OperationTotals> totals = BinarySnapshotQueryCLI.query(
+            Arrays.asList( file ), new HashSet<String>( Arrays.asList( "op2", "common" ) ), Long.MIN_VALUE,
+            Long.MAX_VALUE );
+        Assert.assertEquals( Arrays.asList( "common", "op2" ), new ArrayList<String>( totals.keySet() ) );
+
+        BinarySnapshotQueryCLI.OperationTotals common = totals.get( "common" );
+        Assert.assertEquals( 12, common.getCallCount() );
+        Assert.assertEquals( 0, common.getErrorCallCount() );
+        Assert.assertEquals( 6000, common.getTotalDuration() );
+        // 6 calls in each bucket.
+        Assert.assertEquals( 1023, common.getDurationPercentile( 50 ) );
+        Assert.assertEquals( 1048575, common.getDurationPercentile( 95 ) );
+
+        BinarySnapshotQueryCLI.OperationTotals op2 = totals.get( "op2" );
+        Assert.assertEquals( 10, op2.getCallCount() );
+        Assert.assertEquals( 2, op2.getErrorCallCount() );
+    }
+}
@@ -17,9 +17,15 @@ package com.ibm.commerce.cache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.ProfilerOverhead;
+import com.ibm.logger.stats.AdaptiveSampler;
+
 
 
 /**
@@ -36,10 +42,12 @@ import java.util.logging.Logger;
  * Any instance of this class must be started with the {@link #start()} method
  * and stopped with the {@link #stop()} method.
  * <p>
- * This class will also ensure that metrics are ignored if the write throughput
- * isn't sufficient to keep up with the system. This will ensure that the amount
- * of memory allocated to gather metrics will be limited by the maximum pending
- * size variable.
+ * The pending metrics are kept in a bounded lock free ring buffer, the writing
+ * thread drains it in batches. The amount of memory allocated to gather metrics
+ * is limited by the maximum pending size variable. When the write throughput
+ * isn't sufficient to keep up with the system and the buffer is full, the
+ * {@link FullBufferPolicy} decides between slowing down the gathering threads
+ * and dropping metrics. The dropped and blocked metrics are counted.
  * <p>
  * If any exception is caught during the process of writing metrics, only one
  * exception will be reported in the logs at the warning level. Other logs will
@@ -47,6 +55,40 @@ import java.util.logging.Logger;
  */
 public abstract class AbstractMetricGatherer implements DirectMetricGather {
 
+	/**
+	 * What to do with a new metric when the pending metrics buffer is full.
+	 */
+	public enum FullBufferPolicy {
+		/**
+		 * Wait for the writing thread to make room, for up to the maximum
+		 * block time. The metric is dropped if there is still no room.
+		 */
+		BLOCK,
+		/**
+		 * Drop the new metric.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Drop the oldest pending metric to make room for the new one.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Keep one new metric out of the full buffer sample rate, in place of
+		 * the oldest pending metric, and drop the others.
+		 */
+		SAMPLE
+	}
+
+	/**
+	 * System property holding the name of the default {@link FullBufferPolicy}.
+	 */
+	public static final String FULL_BUFFER_POLICY_PROPERTY = "com.ibm.commerce.cache.AbstractMetricGatherer.fullBufferPolicy";
+
+	/**
+	 * System property holding the default full buffer sample rate.
+	 */
+	public static final String FULL_BUFFER_SAMPLE_RATE_PROPERTY = "com.ibm.commerce.cache.AbstractMetricGatherer.fullBufferSampleRate";
+
 	/**
 	 * Initial maximum number of pending operation metrics to keep in memory
 	 * before writing.
@@ -71,6 +113,24 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	 */
 	private static final long INITIAL_WRITER_MAXIMUM_SLEEP_TIME = 100;
 
+	/**
+	 * Initial maximum amount of time a gathering thread waits for room in a
+	 * full buffer with the {@link FullBufferPolicy#BLOCK} policy.
+	 */
+	private static final long INITIAL_MAXIMUM_BLOCK_TIME = 1000;
+
+	/**
+	 * Initial number of new metrics for one kept with the
+	 * {@link FullBufferPolicy#SAMPLE} policy.
+	 */
+	private static final int INITIAL_FULL_BUFFER_SAMPLE_RATE = 10;
+
+	/**
+	 * Number of times a new metric tries to take the place of the oldest one
+	 * before being dropped, other threads may take the room first.
+	 */
+	private static final int REPLACE_OLDEST_ATTEMPTS = 4;
+
 	/**
 	 * class name
 	 */
@@ -83,22 +143,70 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
 
 	/**
-	 * List of pending metrics. Its size will never go above the value
-	 * configured in {@link #maximumPendingSize}. Access to this list must be
-	 * synchronized since it's being used across multiple threads.
+	 * Metrics added directly by the sub classes through
+	 * {@link #internalGetPendingMetrics()}, written along with the metrics of
+	 * the {@link #pendingBuffer}. Access to this list must be synchronized
+	 * since it's being used across multiple threads.
 	 */
 	private List<OperationMetric> pendingMetrics = new ArrayList<OperationMetric>();
 
 	/**
-	 * Maximum size that the {@link #pendingMetrics} list will be allowed to
-	 * reach. Ensures that the amount of memory consumed by metrics gathering
-	 * will never go above this defined limit.
+	 * Buffer of the gathered metrics waiting for the writing thread.
+	 */
+	private volatile BoundedRingBuffer<OperationMetric> pendingBuffer = new BoundedRingBuffer<OperationMetric>(
+			INITIAL_MAXIMUM_PENDING_SIZE);
+
+	/**
+	 * Maximum size that the {@link #pendingBuffer} will be allowed to reach.
+	 * Ensures that the amount of memory consumed by metrics gathering will
+	 * never go above this defined limit.
 	 */
 	private int maximumPendingSize = INITIAL_MAXIMUM_PENDING_SIZE;
 
 	/**
-	 * Minimum number of records in the pending {@link #pendingMetrics} list to
-	 * reach before waiting the writing thread to write the pending data.
+	 * Policy applied to new metrics when the {@link #pendingBuffer} is full.
+	 */
+	private volatile FullBufferPolicy fullBufferPolicy = parseFullBufferPolicy();
+
+	/**
+	 * Number of new metrics for one kept with the
+	 * {@link FullBufferPolicy#SAMPLE} policy.
+	 */
+	private volatile int fullBufferSampleRate = Math.max(1,
+			PerformanceLogger.parseIntegerProperty(
+					FULL_BUFFER_SAMPLE_RATE_PROPERTY,
+					INITIAL_FULL_BUFFER_SAMPLE_RATE));
+
+	/**
+	 * Maximum amount of time a gathering thread waits for room in a full
+	 * buffer with the {@link FullBufferPolicy#BLOCK} policy.
+	 */
+	private long maximumBlockTime = INITIAL_MAXIMUM_BLOCK_TIME;
+
+	/**
+	 * Number of metrics dropped because the buffer was full.
+	 */
+	private final AtomicLong droppedMetricCount = new AtomicLong();
+
+	/**
+	 * Number of metrics that had to wait for room in the buffer.
+	 */
+	private final AtomicLong blockedMetricCount = new AtomicLong();
+
+	/**
+	 * Number of metrics that found the buffer full, used to sample them.
+	 */
+	private final AtomicLong fullBufferMetricCount = new AtomicLong();
+
+	/**
+	 * Number of gathering threads waiting on {@link #bufferFullWait}, the
+	 * writing thread only notifies them when there are some.
+	 */
+	private final AtomicInteger waitingThreadCount = new AtomicInteger();
+
+	/**
+	 * Minimum number of records in the {@link #pendingBuffer} to reach before
+	 * waking the writing thread to write the pending data.
 	 */
 	private int pendingFlushSize = INITIAL_PENDING_FLUSH_SIZE;
 
@@ -298,40 +406,54 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 			return;
 		}
 
-		int size = 0;
+		long overheadStart = ProfilerOverhead.METRIC_GATHERER.start();
 
-		boolean running = isRunning();
+		if (PerformanceLogger.sample(metric) == AdaptiveSampler.DROPPED) {
+			if (isTraceLogEnabled) {
+				LOGGER.log(Level.FINE, "Metric dropped by sampling.");
+			}
+			ProfilerOverhead.METRIC_GATHERER.stop(overheadStart,
+					metric.getDuration());
+			return;
+		}
 
-		synchronized (pendingMetrics) {
-			size = pendingMetrics.size();
-			if (running || size >= maximumPendingSize) {
-				pendingMetrics.add(metric);
+		if (!isRunning()) {
+			if (isTraceLogEnabled) {
+				LOGGER.log(Level.FINE,
+						"Metric gatherer not running, metric ignored.");
 			}
+			ProfilerOverhead.METRIC_GATHERER.stop(overheadStart,
+					metric.getDuration());
+			return;
 		}
-		size += 1;
 
-		if (size >= pendingFlushSize) {
+		BoundedRingBuffer<OperationMetric> buffer = pendingBuffer;
+		if (!buffer.offer(metric)) {
 
 			if (isTraceLogEnabled) {
 				LOGGER.log(Level.FINE,
-						"Metric gatherer pending log list reached the write triggering size of : "
-								+ pendingFlushSize
-								+ ". Waking the write thread.");
+						"Metric gatherer pending log buffer reached the maximum size of : "
+								+ maximumPendingSize + ". Applying the "
+								+ fullBufferPolicy + " policy.");
 			}
-			wakeWriteThread();
+
+			handleFullBuffer(buffer, metric);
 		}
 
-		if (size >= maximumPendingSize) {
+		if (buffer.size() >= pendingFlushSize) {
 
 			if (isTraceLogEnabled) {
 				LOGGER.log(Level.FINE,
-						"Metric gatherer pending log list reached the maximum size of : "
-								+ maximumPendingSize + ". Metric ignored.");
+						"Metric gatherer pending log list reached the write triggering size of : "
+								+ pendingFlushSize
+								+ ". Waking the write thread.");
 			}
-
-			waitForWrite();
+			wakeWriteThread();
 		}
 
+		ProfilerOverhead.METRIC_GATHERER.stop(overheadStart,
+				metric.getDuration());
+
 		if (entryExitLogEnabled) {
 			LOGGER.exiting(CLASS_NAME, METHODNAME);
 		}
@@ -339,24 +461,85 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 
 
 
-	private void waitForWrite() {
-		synchronized (bufferFullWait) {
-			CacheUtilities.waitSilently(bufferFullWait, 1000);
+	/**
+	 * Apply the full buffer policy to a metric that didn't fit in the buffer.
+	 * 
+	 * @param buffer
+	 *            the full buffer.
+	 * @param metric
+	 *            the new metric.
+	 */
+	private void handleFullBuffer(BoundedRingBuffer<OperationMetric> buffer,
+			OperationMetric metric) {
+		switch (fullBufferPolicy) {
+		case BLOCK:
+			waitForWrite(buffer, metric);
+			break;
+		case DROP_OLDEST:
+			replaceOldest(buffer, metric);
+			break;
+		case SAMPLE:
+			if (fullBufferMetricCount.getAndIncrement() % fullBufferSampleRate == 0) {
+				replaceOldest(buffer, metric);
+			} else {
+				droppedMetricCount.incrementAndGet();
+			}
+			break;
+		default:
+			droppedMetricCount.incrementAndGet();
+			break;
+		}
+	}
+
+	/**
+	 * Wait for the writing thread to make room for a metric, dropping it if
+	 * there is still no room after the maximum block time.
+	 */
+	private void waitForWrite(BoundedRingBuffer<OperationMetric> buffer,
+			OperationMetric metric) {
+		blockedMetricCount.incrementAndGet();
+		long deadline = System.currentTimeMillis() + maximumBlockTime;
+		waitingThreadCount.incrementAndGet();
+		try {
+			while (true) {
+				wakeWriteThread();
+				long remainingTime = deadline - System.currentTimeMillis();
+				if (remainingTime <= 0 || !isRunning()) {
+					droppedMetricCount.incrementAndGet();
+					return;
+				}
+				synchronized (bufferFullWait) {
+					// the writing thread notifies after draining, only wait
+					// if it didn't drain since the last attempt.
+					if (buffer.size() >= buffer.capacity()) {
+						CacheUtilities.waitSilently(bufferFullWait,
+								remainingTime);
+					}
+				}
+				if (buffer.offer(metric)) {
+					return;
+				}
+			}
+		} finally {
+			waitingThreadCount.decrementAndGet();
 		}
 	}
 
-//	private static int WAIT_COUNT = 0;
-//	private static long WAIT_TIME = 0;
-//	private void waitForWrite1() {
-//		long start = System.nanoTime();
-//		WAIT_COUNT++;
-//		synchronized (bufferFullWait) {
-//			CacheUtilities.waitSilently(bufferFullWait, 1000);
-//		}
-//		long duration = (System.nanoTime() - start) / 1000;
-//		WAIT_TIME += duration;
-//		long averageDuration = WAIT_TIME / (WAIT_COUNT);
-//	}
+	/**
+	 * Drop the oldest pending metric to make room for a new one.
+	 */
+	private void replaceOldest(BoundedRingBuffer<OperationMetric> buffer,
+			OperationMetric metric) {
+		for (int i = 0; i < REPLACE_OLDEST_ATTEMPTS; ++i) {
+			if (buffer.poll() != null) {
+				droppedMetricCount.incrementAndGet();
+			}
+			if (buffer.offer(metric)) {
+				return;
+			}
+		}
+		droppedMetricCount.incrementAndGet();
+	}
 
 	private void notifyAllOfWrite() {
 		synchronized (bufferFullWait) {
@@ -434,15 +617,23 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	 * @return a list of metrics ready to be written.
 	 */
 	protected List<OperationMetric> getPendingMetricsToWrite() {
-		List<OperationMetric> pendingMetricsToWrite = null;
+		BoundedRingBuffer<OperationMetric> buffer = pendingBuffer;
+		List<OperationMetric> pendingMetricsToWrite = new ArrayList<OperationMetric>(
+				buffer.size());
+
+		// a single batch, so the writer keeps up with steady producers.
+		buffer.drainTo(pendingMetricsToWrite, buffer.capacity());
 
 		synchronized (pendingMetrics) {
-			pendingMetricsToWrite = new ArrayList<OperationMetric>(
-					pendingMetrics);
-			pendingMetrics.clear();
+			if (!pendingMetrics.isEmpty()) {
+				pendingMetricsToWrite.addAll(pendingMetrics);
+				pendingMetrics.clear();
+			}
 		}
 
-		notifyAllOfWrite();
+		if (waitingThreadCount.get() > 0) {
+			notifyAllOfWrite();
+		}
 
 		return pendingMetricsToWrite;
 	}
@@ -505,11 +696,95 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	}
 
 	/**
+	 * Resize the pending metrics buffer, its capacity is rounded up to the next
+	 * power of two. Meant to be called before starting the gatherer, metrics
+	 * gathered during the resize may be lost.
+	 * 
 	 * @param maximumPendingSize
 	 *            the maximum pending metric list size
 	 */
 	public void setMaximumPendingSize(int maximumPendingSize) {
 		this.maximumPendingSize = maximumPendingSize;
+		BoundedRingBuffer<OperationMetric> previousBuffer = pendingBuffer;
+		pendingBuffer = new BoundedRingBuffer<OperationMetric>(
+				maximumPendingSize);
+		synchronized (pendingMetrics) {
+			previousBuffer.drainTo(pendingMetrics, previousBuffer.capacity());
+		}
+	}
+
+	/**
+	 * @return the policy applied to new metrics when the buffer is full
+	 */
+	public FullBufferPolicy getFullBufferPolicy() {
+		return fullBufferPolicy;
+	}
+
+	/**
+	 * @param fullBufferPolicy
+	 *            the policy applied to new metrics when the buffer is full
+	 */
+	public void setFullBufferPolicy(FullBufferPolicy fullBufferPolicy) {
+		this.fullBufferPolicy = fullBufferPolicy;
+	}
+
+	/**
+	 * @return the number of new metrics for one kept by the
+	 *         {@link FullBufferPolicy#SAMPLE} policy
+	 */
+	public int getFullBufferSampleRate() {
+		return fullBufferSampleRate;
+	}
+
+	/**
+	 * @param fullBufferSampleRate
+	 *            the number of new metrics for one kept by the
+	 *            {@link FullBufferPolicy#SAMPLE} policy
+	 */
+	public void setFullBufferSampleRate(int fullBufferSampleRate) {
+		this.fullBufferSampleRate = Math.max(1, fullBufferSampleRate);
+	}
+
+	/**
+	 * @return the maximum time a gathering thread waits for room in a full
+	 *         buffer with the {@link FullBufferPolicy#BLOCK} policy
+	 */
+	public long getMaximumBlockTime() {
+		return maximumBlockTime;
+	}
+
+	/**
+	 * @param maximumBlockTime
+	 *            the maximum time a gathering thread waits for room in a full
+	 *            buffer with the {@link FullBufferPolicy#BLOCK} policy
+	 */
+	public void setMaximumBlockTime(long maximumBlockTime) {
+		this.maximumBlockTime = maximumBlockTime;
+	}
+
+	/**
+	 * @return the number of metrics dropped because the buffer was full
+	 */
+	public long getDroppedMetricCount() {
+		return droppedMetricCount.get();
+	}
+
+	/**
+	 * @return the number of metrics that had to wait for room in the buffer
+	 */
+	public long getBlockedMetricCount() {
+		return blockedMetricCount.get();
+	}
+
+	/**
+	 * @return the number of metrics waiting for the writing thread
+	 */
+	public int getPendingMetricCount() {
+		int count = pendingBuffer.size();
+		synchronized (pendingMetrics) {
+			count += pendingMetrics.size();
+		}
+		return count;
 	}
 
 	/**
@@ -564,9 +839,33 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 		LOGGER.log(Level.FINE, message);
 	}
 
+	/**
+	 * Read the default full buffer policy from the system properties.
+	 * 
+	 * @return the default full buffer policy
+	 */
+	private static FullBufferPolicy parseFullBufferPolicy() {
+		String value = PerformanceLogger.parseStringProperty(
+				FULL_BUFFER_POLICY_PROPERTY, null);
+		if (value == null) {
+			return FullBufferPolicy.BLOCK;
+		}
+		try {
+			return FullBufferPolicy.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			LOGGER.log(Level.WARNING, "Property : "
+					+ FULL_BUFFER_POLICY_PROPERTY + " has an invalid value of : "
+					+ value + ", Using default value of : "
+					+ FullBufferPolicy.BLOCK);
+			return FullBufferPolicy.BLOCK;
+		}
+	}
+
 	//$ANALYSIS-IGNORE
 	/**
-	 * fetch the internal pending metrics list
+	 * fetch the internal pending metrics list. Metrics added to it bypass the
+	 * ring buffer and are written with the next batch, the list must be
+	 * synchronized on when other threads use the gatherer.
 	 * 
 	 * @return the pending metrics list
 	 */
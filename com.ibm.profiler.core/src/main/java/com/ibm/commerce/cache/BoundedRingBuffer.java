@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free queue of fixed capacity, used to hand the metrics over
+ * from the gathering threads to the metric writing thread.
+ * <p>
+ * Each slot carries a sequence number telling whether it is free for the
+ * producer at a given position or filled for the consumer at that position.
+ * Producers claim a position with a compare and set on the tail, consumers
+ * with a compare and set on the head, nobody ever holds a lock. The writing
+ * thread is the usual consumer and claims a whole run of filled slots at
+ * once, producers only consume to evict the oldest element of a full buffer.
+ * <p>
+ * The capacity is rounded up to the next power of two.
+ *
+ * @param <E>
+ *            the element type.
+ */
+final class BoundedRingBuffer<E> {
+
+	/**
+	 * largest capacity, the next power of two wouldn't fit in an int.
+	 */
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	private final AtomicReferenceArray<E> elements;
+
+	/**
+	 * sequence of each slot. A slot is free for the producer at position p
+	 * when its sequence is p, filled for the consumer at position p when its
+	 * sequence is p + 1.
+	 */
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	/**
+	 * next position to consume.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * next position to produce.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param requestedCapacity
+	 *            the minimum number of elements the buffer can hold.
+	 */
+	BoundedRingBuffer(int requestedCapacity) {
+		int capacity = 1;
+		int limit = Math.min(Math.max(requestedCapacity, 1), MAXIMUM_CAPACITY);
+		while (capacity < limit) {
+			capacity <<= 1;
+		}
+		elements = new AtomicReferenceArray<E>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; ++i) {
+			sequences.set(i, i);
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return the number of elements the buffer can hold.
+	 */
+	int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return the number of elements in the buffer, only a hint while other
+	 *         threads use it.
+	 */
+	int size() {
+		// read the head first so the size is never negative.
+		long currentHead = head.get();
+		long size = tail.get() - currentHead;
+		if (size < 0) {
+			return 0;
+		}
+		return (int) Math.min(size, capacity());
+	}
+
+	/**
+	 * Add an element at the end of the buffer.
+	 *
+	 * @param element
+	 *            the element, not null.
+	 * @return false if the buffer is full.
+	 */
+	boolean offer(E element) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					// publish the element to the consumers.
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				// the slot still holds the element of the previous lap.
+				return false;
+			}
+			// another producer claimed the position, try the next one.
+		}
+	}
+
+	/**
+	 * Remove the oldest element of the buffer.
+	 *
+	 * @return the element, null if the buffer is empty.
+	 */
+	E poll() {
+		while (true) {
+			long position = head.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					return release(index, position);
+				}
+			} else if (difference < 0) {
+				// empty, or the producer of the slot didn't publish it yet.
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Move the oldest elements of the buffer to a collection. The filled slots
+	 * following the head are claimed with a single compare and set.
+	 *
+	 * @param target
+	 *            the collection receiving the elements.
+	 * @param maximumCount
+	 *            the maximum number of elements to move.
+	 * @return the number of elements moved.
+	 */
+	int drainTo(Collection<? super E> target, int maximumCount) {
+		while (true) {
+			long position = head.get();
+			int count = 0;
+			while (count < maximumCount) {
+				long slot = position + count;
+				if (sequences.get((int) slot & mask) != slot + 1) {
+					break;
+				}
+				++count;
+			}
+			if (count == 0) {
+				return 0;
+			}
+			// filled slots only change once consumed, so the run is still
+			// filled if nobody moved the head.
+			if (head.compareAndSet(position, position + count)) {
+				for (int i = 0; i < count; ++i) {
+					long slot = position + i;
+					target.add(release(((int) slot) & mask, slot));
+				}
+				return count;
+			}
+		}
+	}
+
+	/**
+	 * Read a consumed slot and hand it over to the producer of the next lap.
+	 */
+	private E release(int index, long position) {
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, position + mask + 1);
+		return element;
+	}
+}
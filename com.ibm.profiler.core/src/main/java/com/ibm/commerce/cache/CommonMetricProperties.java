@@ -57,6 +57,11 @@ public class CommonMetricProperties
      */
     public static final String REQUEST_SIZE_BYTES = "requestSizeBytes";
 
+    /**
+     * Number of calls a sampled metric stands for. Only set on metrics recorded while sampling is enabled.
+     */
+    public static final String SAMPLE_WEIGHT = "sampleWeight";
+
     private CommonMetricProperties()
     {
         super();
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Fixed size log-linear histogram of durations in nanoseconds.
+ *
+ * Values are grouped in power of two ranges, each range being split in
+ * 2^precision linear buckets. The relative error of a reported value is
+ * therefore bounded by 2^-precision. Durations are tracked with a resolution
+ * of about one microsecond up to roughly two hours, longer durations are
+ * counted in the last bucket.
+ *
+ * Recording is lock free and constant time: the bucket index is computed with
+ * a few shifts and the bucket is incremented atomically. The bucket array is
+ * allocated on the first recorded value so that idle time intervals don't
+ * consume memory. {@link #release()} hands the bucket array to a small shared
+ * pool, from which the next histograms take their array instead of allocating.
+ */
+public final class LatencyHistogram {
+
+    /** default number of bits of precision, maximum relative error of 12.5% */
+    public static final int DEFAULT_PRECISION = 3;
+
+    /** smallest supported precision */
+    public static final int MINIMUM_PRECISION = 1;
+
+    /** highest supported precision */
+    public static final int MAXIMUM_PRECISION = 10;
+
+    /** durations are tracked in units of 2^10 nanoseconds */
+    private static final int UNIT_SHIFT = 10;
+
+    /** number of bits of the highest tracked unit value */
+    private static final int HIGHEST_UNIT_BITS = 33;
+
+    private static final AtomicReferenceFieldUpdater<LatencyHistogram, AtomicLongArray> COUNTS = AtomicReferenceFieldUpdater
+            .newUpdater( LatencyHistogram.class, AtomicLongArray.class, "counts" );
+
+    /** maximum number of released bucket arrays kept for reuse */
+    private static final int RELEASED_COUNTS_SIZE = 64;
+
+    /** cleared bucket arrays waiting to be reused, null slots are free */
+    private static final AtomicReferenceArray<AtomicLongArray> RELEASED_COUNTS = new AtomicReferenceArray<AtomicLongArray>(
+            RELEASED_COUNTS_SIZE );
+
+    private static volatile int defaultPrecision = DEFAULT_PRECISION;
+
+    /** number of bits used to split each power of two range */
+    private final int precision;
+
+    /** number of buckets per power of two range */
+    private final int subBucketCount;
+
+    /** total number of buckets */
+    private final int bucketCount;
+
+    /** bucket counters, null until the first value is recorded */
+    private volatile AtomicLongArray counts;
+
+    /**
+     * Constructor using the default precision.
+     */
+    public LatencyHistogram() {
+        this( defaultPrecision );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param precision number of bits of precision, between {@link #MINIMUM_PRECISION} and
+     *            {@link #MAXIMUM_PRECISION}.
+     */
+    public LatencyHistogram( int precision ) {
+        if ( precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION ) {
+            throw new IllegalArgumentException( "Histogram precision must be between " + MINIMUM_PRECISION + " and "
+                    + MAXIMUM_PRECISION + " : " + precision );
+        }
+        this.precision = precision;
+        subBucketCount = 1 << precision;
+        bucketCount = ( HIGHEST_UNIT_BITS - precision + 1 ) << precision;
+    }
+
+    /**
+     *
+     * @return the precision used by histograms created with the default constructor.
+     */
+    public static int getDefaultPrecision() {
+        return defaultPrecision;
+    }
+
+    /**
+     * Set the precision used by histograms created from now on with the default constructor. The value is bounded to
+     * the supported precision range.
+     *
+     * @param precision number of bits of precision.
+     */
+    public static void setDefaultPrecision( int precision ) {
+        defaultPrecision = Math.max( MINIMUM_PRECISION, Math.min( MAXIMUM_PRECISION, precision ) );
+    }
+
+    /**
+     *
+     * @return the number of bits of precision.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     *
+     * @return the number of buckets of the histogram.
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param durationInNanos the duration in nanoseconds.
+     */
+    public void record( long durationInNanos ) {
+        getOrCreateCounts().incrementAndGet( getBucketIndex( durationInNanos ) );
+    }
+
+    /**
+     * Record a duration observed several times.
+     *
+     * @param durationInNanos the duration in nanoseconds.
+     * @param count the number of occurrences of the duration.
+     */
+    public void record( long durationInNanos, long count ) {
+        getOrCreateCounts().addAndGet( getBucketIndex( durationInNanos ), count );
+    }
+
+    /**
+     * Add the content of another histogram to this histogram.
+     *
+     * @param other The histogram to add.
+     */
+    public void add( LatencyHistogram other ) {
+        AtomicLongArray otherCounts = other.counts;
+        if ( otherCounts == null ) {
+            return;
+        }
+
+        AtomicLongArray localCounts = null;
+        int length = otherCounts.length();
+        for ( int i = 0; i < length; ++i ) {
+            long count = otherCounts.get( i );
+            if ( count == 0 ) {
+                continue;
+            }
+            if ( localCounts == null ) {
+                localCounts = getOrCreateCounts();
+            }
+            int index = i;
+            if ( other.precision != precision ) {
+                index = getBucketIndex( other.getHighestValueInBucket( i ) );
+            }
+            localCounts.addAndGet( index, count );
+        }
+    }
+
+    /**
+     * Clear all the recorded values. Values recorded concurrently with the reset may or may not be kept.
+     */
+    public void reset() {
+        AtomicLongArray localCounts = counts;
+        if ( localCounts == null ) {
+            return;
+        }
+        int length = localCounts.length();
+        for ( int i = 0; i < length; ++i ) {
+            if ( localCounts.get( i ) != 0 ) {
+                localCounts.set( i, 0 );
+            }
+        }
+    }
+
+    /**
+     * Clear all the recorded values and give the bucket array back to the shared pool, the histogram doesn't hold any
+     * bucket until the next recorded value. Only call this when no thread is expected to record in the histogram
+     * anymore, a value recorded concurrently may be counted by the next histogram using the array.
+     */
+    public void release() {
+        AtomicLongArray localCounts = COUNTS.getAndSet( this, null );
+        if ( localCounts == null ) {
+            return;
+        }
+        int length = localCounts.length();
+        for ( int i = 0; i < length; ++i ) {
+            if ( localCounts.get( i ) != 0 ) {
+                localCounts.set( i, 0 );
+            }
+        }
+        int start = ThreadLocalRandom.current().nextInt( RELEASED_COUNTS_SIZE );
+        for ( int i = 0; i < RELEASED_COUNTS_SIZE; ++i ) {
+            int slot = ( start + i ) % RELEASED_COUNTS_SIZE;
+            if ( RELEASED_COUNTS.get( slot ) == null && RELEASED_COUNTS.compareAndSet( slot, null, localCounts ) ) {
+                return;
+            }
+        }
+        // the pool is full, the array is garbage collected.
+    }
+
+    /**
+     *
+     * @return true if the histogram holds a bucket array.
+     */
+    public boolean isAllocated() {
+        return counts != null;
+    }
+
+    /**
+     *
+     * @return the number of recorded values.
+     */
+    public long getTotalCount() {
+        AtomicLongArray localCounts = counts;
+        if ( localCounts == null ) {
+            return 0;
+        }
+        long total = 0;
+        int length = localCounts.length();
+        for ( int i = 0; i < length; ++i ) {
+            total += localCounts.get( i );
+        }
+        return total;
+    }
+
+    /**
+     * Copy the bucket counters. Each counter is read once, so values recorded concurrently are either in the copy or
+     * recorded after it.
+     *
+     * @return the number of values recorded in each bucket, indexed like {@link #getHighestValueInBucket(int)}.
+     */
+    public long[] getCounts() {
+        return getCounts( null );
+    }
+
+    /**
+     * Copy the bucket counters into an array, so that callers copying many histograms can reuse the same array.
+     *
+     * @param destination the array to copy into, a new array is allocated if it is null or its length isn't
+     *            {@link #getBucketCount()}.
+     * @return the array holding the number of values recorded in each bucket.
+     */
+    public long[] getCounts( long[] destination ) {
+        long[] copy = destination;
+        if ( copy == null || copy.length != bucketCount ) {
+            copy = new long[bucketCount];
+        }
+        AtomicLongArray localCounts = counts;
+        if ( localCounts == null ) {
+            Arrays.fill( copy, 0 );
+            return copy;
+        }
+        for ( int i = 0; i < bucketCount; ++i ) {
+            copy[i] = localCounts.get( i );
+        }
+        return copy;
+    }
+
+    /**
+     * Get the duration below which the specified percentage of the recorded values fall. The returned value is the
+     * highest duration of the matching bucket.
+     *
+     * @param percentile the percentile, between 0.0 and 100.0.
+     * @return the duration in nanoseconds. Zero if no value was recorded.
+     */
+    public long getValueAtPercentile( double percentile ) {
+        AtomicLongArray localCounts = counts;
+        if ( localCounts == null ) {
+            return 0;
+        }
+
+        // copy the counts so the walk is done on a consistent total.
+        int length = localCounts.length();
+        long[] snapshot = new long[length];
+        long total = 0;
+        for ( int i = 0; i < length; ++i ) {
+            long count = localCounts.get( i );
+            snapshot[i] = count;
+            total += count;
+        }
+        if ( total == 0 ) {
+            return 0;
+        }
+
+        double boundedPercentile = Math.max( 0.0, Math.min( 100.0, percentile ) );
+        long rank = Math.max( 1, (long) Math.ceil( boundedPercentile / 100.0 * total ) );
+        long cumulative = 0;
+        for ( int i = 0; i < length; ++i ) {
+            cumulative += snapshot[i];
+            if ( cumulative >= rank ) {
+                return getHighestValueInBucket( i );
+            }
+        }
+        return getHighestValueInBucket( length - 1 );
+    }
+
+    /**
+     * Compute the bucket of a duration.
+     *
+     * @param durationInNanos the duration in nanoseconds.
+     * @return the bucket index.
+     */
+    private int getBucketIndex( long durationInNanos ) {
+        long units = Math.max( 0, durationInNanos ) >>> UNIT_SHIFT;
+        if ( units < subBucketCount ) {
+            return (int) units;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros( units ) - precision;
+        long index = ( (long) ( shift + 1 ) << precision ) + ( ( units >>> shift ) - subBucketCount );
+        if ( index >= bucketCount ) {
+            return bucketCount - 1;
+        }
+        return (int) index;
+    }
+
+    /**
+     *
+     * @param index the bucket index.
+     * @return the highest duration in nanoseconds counted in the bucket.
+     */
+    public long getHighestValueInBucket( int index ) {
+        int range = index >>> precision;
+        long subBucket = index & ( subBucketCount - 1 );
+        long highestUnit;
+        if ( range == 0 ) {
+            highestUnit = subBucket;
+        } else {
+            int shift = range - 1;
+            highestUnit = ( ( subBucketCount + subBucket + 1 ) << shift ) - 1;
+        }
+        return ( ( highestUnit + 1 ) << UNIT_SHIFT ) - 1;
+    }
+
+    private AtomicLongArray getOrCreateCounts() {
+        AtomicLongArray localCounts = counts;
+        if ( localCounts == null ) {
+            AtomicLongArray newCounts = takeReleasedCounts( bucketCount );
+            if ( newCounts == null ) {
+                newCounts = new AtomicLongArray( bucketCount );
+            }
+            // a concurrent first value may have set another array first.
+            COUNTS.compareAndSet( this, null, newCounts );
+            localCounts = counts;
+        }
+        return localCounts;
+    }
+
+    /**
+     * Take a cleared bucket array from the shared pool.
+     *
+     * @param length the number of buckets.
+     * @return the array, null if none of that length is available.
+     */
+    private static AtomicLongArray takeReleasedCounts( int length ) {
+        int start = ThreadLocalRandom.current().nextInt( RELEASED_COUNTS_SIZE );
+        for ( int i = 0; i < RELEASED_COUNTS_SIZE; ++i ) {
+            int slot = ( start + i ) % RELEASED_COUNTS_SIZE;
+            AtomicLongArray released = RELEASED_COUNTS.get( slot );
+            if ( released != null && released.length() == length
+                    && RELEASED_COUNTS.compareAndSet( slot, released, null ) ) {
+                return released;
+            }
+        }
+        return null;
+    }
+}
@@ -20,6 +20,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.AdaptiveSampler;
 
 /**
  * Gather performance metrics within a java logger output.
@@ -234,6 +235,9 @@ public class LogMetricGatherer extends AbstractLogMetricGatherer {
 		if (metric == null) {
 			return;
 		}
+		if (PerformanceLogger.sample(metric) == AdaptiveSampler.DROPPED) {
+			return;
+		}
 		if (logLevel == null) {
 			logLevel = DEFAULT_LOG_LEVEL;
 		}
@@ -34,6 +34,8 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import com.ibm.logger.ProfilerOverhead;
+
 /**
  * Operation metric gathering structure.
  * <p>
@@ -183,6 +185,17 @@ public class OperationMetric implements IOperationMetric
 
     private Map<String, String> properties = null;
 
+    /**
+     * number of calls the metric stands for once sampled, negative until the
+     * sampling decision is made.
+     */
+    private long sampleWeight = NOT_SAMPLED;
+
+    /**
+     * Sample weight of a metric for which no sampling decision was made.
+     */
+    public static final long NOT_SAMPLED = -1;
+
     /**
      * Clean the properties. This can be invoked before print properties for the
      * exit logging.
@@ -646,6 +659,13 @@ public class OperationMetric implements IOperationMetric
      *            the string builder in which to serialize this object.
      */
     public void toSerializedString(StringBuilder builder)
+    {
+        long overheadStart = ProfilerOverhead.SERIALIZATION.start();
+        writeSerializedString(builder);
+        ProfilerOverhead.SERIALIZATION.stop(overheadStart, duration);
+    }
+
+    private void writeSerializedString(StringBuilder builder)
     {
         builder.append(identifier);
         builder.append(SERIALIZATION_SEPARATOR);
@@ -686,6 +706,19 @@ public class OperationMetric implements IOperationMetric
      *             if anything goes wrong.
      */
     public void toSerializedString(Writer builder) throws IOException
+    {
+        long overheadStart = ProfilerOverhead.SERIALIZATION.start();
+        try
+        {
+            writeSerializedString(builder);
+        }
+        finally
+        {
+            ProfilerOverhead.SERIALIZATION.stop(overheadStart, duration);
+        }
+    }
+
+    private void writeSerializedString(Writer builder) throws IOException
     {
         builder.append(Long.toString(identifier));
         builder.append(SERIALIZATION_SEPARATOR);
@@ -733,6 +766,19 @@ public class OperationMetric implements IOperationMetric
      *             if anything goes wrong.
      */
     public void toSerializedXmlString(Writer builder) throws IOException
+    {
+        long overheadStart = ProfilerOverhead.SERIALIZATION.start();
+        try
+        {
+            writeSerializedXmlString(builder);
+        }
+        finally
+        {
+            ProfilerOverhead.SERIALIZATION.stop(overheadStart, duration);
+        }
+    }
+
+    private void writeSerializedXmlString(Writer builder) throws IOException
     {
         builder.append(SPACE);
         builder.append(FIELD_OPERATION);
@@ -1094,6 +1140,29 @@ public class OperationMetric implements IOperationMetric
         this.parentIdentifier = parentIdentifier;
     }
 
+    /**
+     * @return the number of calls the metric stands for, 0 if it is dropped
+     *         by sampling, {@link #NOT_SAMPLED} until the sampling decision is
+     *         made.
+     */
+    public long getSampleWeight()
+    {
+        return sampleWeight;
+    }
+
+    /**
+     * Record the sampling decision so that every gatherer receiving the
+     * metric makes the same one.
+     * 
+     * @param sampleWeight
+     *            the number of calls the metric stands for, 0 if it is
+     *            dropped.
+     */
+    public void setSampleWeight(long sampleWeight)
+    {
+        this.sampleWeight = sampleWeight;
+    }
+
     /**
      * Fetch the the current parent operation identifier. If no operations are
      * registered, the value zero will be returned.
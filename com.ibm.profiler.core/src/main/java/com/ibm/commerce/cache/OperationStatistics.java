@@ -15,14 +15,35 @@
  */
 package com.ibm.commerce.cache;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * This class keeps track of the statistics of a single operation.
+ * 
+ * Recording is lock free. Counters and sums are striped across threads using
+ * {@link LongAdder} cells and are only merged when they are read. Minimum and
+ * maximum values are maintained with compare and swap loops that only write
+ * when a new extreme value is observed. Durations are also counted in a
+ * {@link LatencyHistogram} to report percentiles.
  */
 public class OperationStatistics implements TimeInterval {
 
     /** line separator */
     private static final String LINE_SEPARATOR = System.getProperty( "line.separator" );
 
+    private static final AtomicLongFieldUpdater<OperationStatistics> MIN_EXECUTION_TIME = AtomicLongFieldUpdater
+            .newUpdater( OperationStatistics.class, "minExecutionTime" );
+
+    private static final AtomicLongFieldUpdater<OperationStatistics> MAX_EXECUTION_TIME = AtomicLongFieldUpdater
+            .newUpdater( OperationStatistics.class, "maxExecutionTime" );
+
+    private static final AtomicLongFieldUpdater<OperationStatistics> MIN_RESULT_SIZE = AtomicLongFieldUpdater
+            .newUpdater( OperationStatistics.class, "minResultSize" );
+
+    private static final AtomicLongFieldUpdater<OperationStatistics> MAX_RESULT_SIZE = AtomicLongFieldUpdater
+            .newUpdater( OperationStatistics.class, "maxResultSize" );
+
     /** the operation name */
     private String name;
 
@@ -30,42 +51,37 @@ public class OperationStatistics implements TimeInterval {
     private String printName;
 
     /** number of calls to the operation */
-    private long callCount;
+    private final LongAdder callCount = new LongAdder();
     
     /** number of calls to the operation that were successful */
-    private long successCallCount;
+    private final LongAdder successCallCount = new LongAdder();
 
     /** number of calls where cache was enabled */
-    private long cacheEnabledCallCount;
+    private final LongAdder cacheEnabledCallCount = new LongAdder();
 
     /** number of calls that resulted in a cache hit */
-    private long cacheHitCount;
+    private final LongAdder cacheHitCount = new LongAdder();
 
-    // $ANALYSIS-IGNORE
     /** the sum of all execution time, used to calculate the average */
-    private float sumExecutionTime;
-    
-    /** fragment of the sum of execution time */
-    private long sumExecutionTimeFragment;
+    private final LongAdder sumExecutionTime = new LongAdder();
 
     /** the smallest execution time */
-    private long minExecutionTime;
+    private volatile long minExecutionTime;
 
     /** the biggest execution time */
-    private long maxExecutionTime;
+    private volatile long maxExecutionTime;
 
-    // $ANALYSIS-IGNORE
     /** the sum of all the result size, used to calculate the average */
-    private float sumResultSize;
-    
-    /** fragment of the sum of execution time */
-    private long sumResultSizeFragment;
+    private final LongAdder sumResultSize = new LongAdder();
 
     /** the minimum result size */
-    private long minResultSize;
+    private volatile long minResultSize;
 
     /** the maximum result size */
-    private long maxResultSize;
+    private volatile long maxResultSize;
+
+    /** distribution of the execution time, used to calculate percentiles */
+    private final LatencyHistogram durationHistogram = new LatencyHistogram();
 
     /**
      * did we log at least once that we had no more execution. This flag prevents logging an operation once it stopped
@@ -150,36 +166,50 @@ public class OperationStatistics implements TimeInterval {
      * @param minimumIndex The minimum index value to match.
      * @param maximumIndex The maximum index value to match.
      */
-	public synchronized void aggregateStatisticsIfInInterval(
+	public void aggregateStatisticsIfInInterval(
 			OperationStatistics statistics, long minimumIndex, long maximumIndex) {
-		// ensure the target object doesn't change.
-		synchronized (statistics) {
-			long targetIndex = statistics.index;
-			boolean inRange = CacheUtilities.isIndexInRange(targetIndex, minimumIndex,
-					maximumIndex);
-			
-			if( ! inRange ) {
-				return;
-			}
-
-			callCount += statistics.callCount;
-			successCallCount += statistics.successCallCount;
-			maxExecutionTime = Math.max(maxExecutionTime,
-					statistics.maxExecutionTime);
-			minExecutionTime = Math.min(minExecutionTime,
-					statistics.minExecutionTime);
-			addExecutionTime(statistics.getSumExecutionTime());
-
-			maxResultSize = Math.max(maxResultSize, statistics.maxResultSize);
-			minResultSize = Math.min(minResultSize, statistics.minResultSize);
-			addResultSize( statistics.getSumResultSize() );
-			cacheEnabledCallCount += statistics.cacheEnabledCallCount;
-			cacheHitCount += statistics.cacheHitCount;
+		long targetIndex = statistics.index;
+		boolean inRange = CacheUtilities.isIndexInRange(targetIndex, minimumIndex,
+				maximumIndex);
+		
+		if( ! inRange ) {
+			return;
 		}
+
+		aggregateStatistics(statistics);
 	}
 
+    /**
+     * Merge the content of other statistics into these statistics.
+     * 
+     * @param statistics The statistics to aggregate.
+     */
+	public void aggregateStatistics(OperationStatistics statistics) {
+		statistics.aggregateInto(this);
+	}
 
-    
+	/**
+	 * Merge the content of these statistics into other statistics. Views
+	 * over other statistics override it to merge what they show.
+	 * 
+	 * @param target The statistics to merge into.
+	 */
+	protected void aggregateInto(OperationStatistics target) {
+		// read the success count before the call count so a concurrent
+		// recording can't make the error count negative.
+		target.successCallCount.add(successCallCount.sum());
+		target.callCount.add(callCount.sum());
+		target.updateMaximum(MAX_EXECUTION_TIME, maxExecutionTime);
+		target.updateMinimum(MIN_EXECUTION_TIME, minExecutionTime);
+		target.sumExecutionTime.add(sumExecutionTime.sum());
+		target.durationHistogram.add(durationHistogram);
+
+		target.updateMaximum(MAX_RESULT_SIZE, maxResultSize);
+		target.updateMinimum(MIN_RESULT_SIZE, minResultSize);
+		target.sumResultSize.add(sumResultSize.sum());
+		target.cacheEnabledCallCount.add(cacheEnabledCallCount.sum());
+		target.cacheHitCount.add(cacheHitCount.sum());
+	}
 
     /**
      * Log statistics about an operation.
@@ -209,47 +239,79 @@ public class OperationStatistics implements TimeInterval {
      * @param resultFetchedFromCache Was result fetched from cache.
      * @param successful is the request successful.
      */
-    public synchronized void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache, boolean successful) {
-        ++callCount;
+    public void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache, boolean successful) {
+        logStatistic( duration, resultSize, operationCacheEnabled, resultFetchedFromCache, successful, 1 );
+    }
+
+    /**
+     * Log an execution statistic standing for several identical executions.
+     * Used when calls are sampled, the weight being the inverse of the
+     * sampling rate so that counts and sums stay unbiased.
+     * 
+     * @param duration The duration.
+     * @param resultSize The result size.
+     * @param operationCacheEnabled Was operation cache enabled.
+     * @param resultFetchedFromCache Was result fetched from cache.
+     * @param successful is the request successful.
+     * @param weight The number of executions the statistic stands for.
+     */
+    public void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache, boolean successful, long weight) {
+        callCount.add( weight );
         if( successful) {
-        	++successCallCount;
+        	successCallCount.add( weight );
         }
-        maxExecutionTime = Math.max( maxExecutionTime, duration );
-        minExecutionTime = Math.min( minExecutionTime, duration );
-        addExecutionTime(duration);
+        updateMaximum( MAX_EXECUTION_TIME, duration );
+        updateMinimum( MIN_EXECUTION_TIME, duration );
+        sumExecutionTime.add( duration * weight );
 
-        maxResultSize = Math.max( maxResultSize, resultSize );
-        minResultSize = Math.min( minResultSize, resultSize );
-        addResultSize(resultSize);
+        updateMaximum( MAX_RESULT_SIZE, resultSize );
+        updateMinimum( MIN_RESULT_SIZE, resultSize );
+        sumResultSize.add( resultSize * weight );
         if ( operationCacheEnabled ) {
-            ++cacheEnabledCallCount;
+            cacheEnabledCallCount.add( weight );
         }
         if ( resultFetchedFromCache ) {
-            ++cacheHitCount;
+            cacheHitCount.add( weight );
         }
+        // written last, the histogram count only covers completely recorded
+        // calls.
+        durationHistogram.record( duration, weight );
     }
-    
-    private void addResultSize(float resultSize) {
-    	long currentSumResultSizeFragment = sumResultSizeFragment;
-		sumResultSizeFragment += resultSize;
-		// rollover detection.
-		if( sumResultSizeFragment < 0)
-		{
-			sumResultSize += currentSumResultSizeFragment;
-			sumResultSizeFragment = (long) resultSize;
-		}
-	}
 
-	private void addExecutionTime(float duration) {
-    	long currentSumExecutionTimeFragment = sumExecutionTimeFragment;
-		sumExecutionTimeFragment += duration;
-		// rollover detection.
-		if( sumExecutionTimeFragment < 0)
-		{
-			sumExecutionTime += currentSumExecutionTimeFragment;
-			sumExecutionTimeFragment = (long) duration;
-		}
-	}
+    /**
+     * Raise a maximum value. The field is only written when the value is bigger
+     * than the current maximum, which keeps the cache line shared in the common
+     * case.
+     * 
+     * @param updater The field to update.
+     * @param value The candidate value.
+     */
+    private void updateMaximum( AtomicLongFieldUpdater<OperationStatistics> updater, long value ) {
+        long current = updater.get( this );
+        while ( value > current ) {
+            if ( updater.compareAndSet( this, current, value ) ) {
+                return;
+            }
+            current = updater.get( this );
+        }
+    }
+
+    /**
+     * Lower a minimum value. The field is only written when the value is
+     * smaller than the current minimum.
+     * 
+     * @param updater The field to update.
+     * @param value The candidate value.
+     */
+    private void updateMinimum( AtomicLongFieldUpdater<OperationStatistics> updater, long value ) {
+        long current = updater.get( this );
+        while ( value < current ) {
+            if ( updater.compareAndSet( this, current, value ) ) {
+                return;
+            }
+            current = updater.get( this );
+        }
+    }
 
 	/**
      * Log an execution statistic.
@@ -259,26 +321,25 @@ public class OperationStatistics implements TimeInterval {
      * @param operationCacheEnabled Was operation cache enabled.
      * @param resultFetchedFromCache Was result fetched from cache.
      */
-    public synchronized void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache ) {
+    public void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache ) {
     	logStatistic(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, true);
     }
 
     /**
-     * Reset the statistics
+     * Reset the statistics. Values recorded concurrently with the reset may or may not be kept.
      */
     public synchronized void reset() {
-        callCount = 0;
-        cacheEnabledCallCount = 0;
-        cacheHitCount = 0;
-        sumExecutionTime = 0;
-        sumResultSize = 0;
+        callCount.reset();
+        cacheEnabledCallCount.reset();
+        cacheHitCount.reset();
+        sumExecutionTime.reset();
+        sumResultSize.reset();
+        durationHistogram.reset();
         maxExecutionTime = 0;
         minExecutionTime = Long.MAX_VALUE;
         maxResultSize = 0;
         minResultSize = Long.MAX_VALUE;
-        successCallCount = 0;
-        sumExecutionTimeFragment = 0;
-        sumResultSizeFragment = 0;
+        successCallCount.reset();
     }
 
     /**
@@ -297,6 +358,8 @@ public class OperationStatistics implements TimeInterval {
      * @param builder The builder in which to append statistics.
      */
     public synchronized void appendStatistics( StringBuilder builder ) {
+        long successCallCount = getSuccessCallCount();
+        long callCount = getCallCount();
         if ( callCount > 0 ) {
             clearCompleted = false;
         } else if ( !clearCompleted ) {
@@ -313,27 +376,27 @@ public class OperationStatistics implements TimeInterval {
         builder.append( ",count:" );
         builder.append( callCount );
         builder.append( ",cacheEnabledCount:" );
-        builder.append( cacheEnabledCallCount );
+        builder.append( getCacheEnabledCallCount() );
         builder.append( ",cacheHitCount:" );
-        builder.append( cacheHitCount );
+        builder.append( getCacheHitCount() );
         builder.append( ",avgTime:" );
         // $ANALYSIS-IGNORE
         builder.append( callCount == 0 ? 0 : (long) ( getSumExecutionTime() / ( callCount * 1000000 ) ) );
         builder.append( ",minTime:" );
-        builder.append( callCount == 0 ? 0 : minExecutionTime / 1000000 );
+        builder.append( callCount == 0 ? 0 : getMinExecutionTime() / 1000000 );
         builder.append( ",maxTime:" );
-        builder.append( maxExecutionTime / 1000000 );
+        builder.append( getMaxExecutionTime() / 1000000 );
         builder.append( ",avgResultSize:" );
         // $ANALYSIS-IGNORE
         builder.append( callCount == 0 ? 0 : (long) ( getSumResultSize() / callCount ) );
         builder.append( ",minSize:" );
-        builder.append( callCount == 0 ? 0 : minResultSize );
+        builder.append( callCount == 0 ? 0 : getMinResultSize() );
         builder.append( ",maxSize:" );
-        builder.append( maxResultSize );
+        builder.append( getMaxResultSize() );
         builder.append( ",successCount:" );
         builder.append( successCallCount );        
         builder.append( ",errorCount:" );
-        builder.append( callCount - successCallCount );   
+        builder.append( Math.max( 0, callCount - successCallCount ) );   
     }
 
 	public String getPrintName() {
@@ -341,47 +404,91 @@ public class OperationStatistics implements TimeInterval {
 	}
 
 	public long getCallCount() {
-		return callCount;
+		return callCount.sum();
 	}
 
 	public long getSuccessCallCount() {
-		return successCallCount;
+		return successCallCount.sum();
 	}
 
 	public long getCacheEnabledCallCount() {
-		return cacheEnabledCallCount; 
+		return cacheEnabledCallCount.sum(); 
 	}
 
 	public long getCacheHitCount() {
-		return cacheHitCount;
+		return cacheHitCount.sum();
 	}
 
-	public synchronized float getSumExecutionTime() {
-		return sumExecutionTime + sumExecutionTimeFragment;
+	public float getSumExecutionTime() {
+		return sumExecutionTime.sum();
+	}
+
+	/**
+	 * @return the exact sum of all execution time, without the rounding of
+	 *         {@link #getSumExecutionTime()}.
+	 */
+	public long getSumExecutionTimeAsLong() {
+		return sumExecutionTime.sum();
 	}
 
-	public synchronized long getMinExecutionTime() {
-		if( minExecutionTime == Long.MAX_VALUE ) {
+	public long getMinExecutionTime() {
+		long minimum = minExecutionTime;
+		if( minimum == Long.MAX_VALUE ) {
 			return 0;
 		}
 		
-		return minExecutionTime;
+		return minimum;
 	}
 
 	public long getMaxExecutionTime() {
 		return maxExecutionTime;
 	}
 
-	public synchronized float getSumResultSize() {
-		return sumResultSize + sumResultSizeFragment;
+	/**
+	 * Get an execution time percentile. The value is accurate within the
+	 * precision of the duration histogram and is bounded by the minimum and
+	 * maximum execution time.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0.0 and 100.0.
+	 * @return the execution time in nanoseconds. Zero if there were no calls.
+	 */
+	public long getDurationPercentile(double percentile) {
+		long value = getDurationHistogram().getValueAtPercentile(percentile);
+		if (value == 0) {
+			return 0;
+		}
+		value = Math.min(value, getMaxExecutionTime());
+		return Math.max(value, getMinExecutionTime());
+	}
+
+	/**
+	 * 
+	 * @return the distribution of the execution time.
+	 */
+	public LatencyHistogram getDurationHistogram() {
+		return durationHistogram;
+	}
+
+	public float getSumResultSize() {
+		return sumResultSize.sum();
+	}
+
+	/**
+	 * @return the exact sum of all the result size, without the rounding of
+	 *         {@link #getSumResultSize()}.
+	 */
+	public long getSumResultSizeAsLong() {
+		return sumResultSize.sum();
 	}
 
-	public synchronized long getMinResultSize() {
-		if( minResultSize == Long.MAX_VALUE ) {
+	public long getMinResultSize() {
+		long minimum = minResultSize;
+		if( minimum == Long.MAX_VALUE ) {
 			return 0;
 		}
 		
-		return minResultSize;
+		return minimum;
 	}
 
 	public long getMaxResultSize() {
@@ -414,12 +521,14 @@ public class OperationStatistics implements TimeInterval {
 	}
 
 	public long getErrorCallCount() {
-		return getCallCount() - getSuccessCallCount();
+		// read the success count first, calls are always counted before successes.
+		long successCallCount = getSuccessCallCount();
+		return Math.max(0, getCallCount() - successCallCount);
 	}
 
 	public float getErrorCallPercentage() {
+		float errorCount = getErrorCallCount();
 		float callCount = getCallCount();
-		float errorCount = callCount - getSuccessCallCount();
 		if( callCount == 0 ) {
 			return 0;
 		}
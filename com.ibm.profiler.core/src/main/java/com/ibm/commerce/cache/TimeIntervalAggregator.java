@@ -17,6 +17,7 @@ package com.ibm.commerce.cache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
@@ -29,6 +30,15 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
  * The {@link #getIntervalsInRange(long, boolean)} method will traverse through the
  * intervals within range of the argument and returns the values that fit.
  * 
+ * Intervals are recycled when time rolls over their slot, see
+ * {@link #recycleInterval(TimeInterval)}, so recording doesn't allocate once
+ * all the slots were used. The interval replaced in a slot is kept as the
+ * spare interval of the next roll over, the aggregator holds one interval more
+ * than its interval count. The spare interval gives back the memory of its
+ * values when it is replaced, see {@link #releaseInterval(TimeInterval)}. The index of the interval held by a slot is its
+ * epoch, the interval is prepared before it is published so writers never
+ * wait for a roll over.
+ * 
  * This class is thread safe, high concurrency
  * 
  * @author mcduffs
@@ -38,6 +48,12 @@ public abstract class TimeIntervalAggregator<IntervalType extends TimeInterval>
 
 	private final AtomicReferenceArray<IntervalType> intervalArray;
 
+	/**
+	 * interval replaced by the last roll over, reset and published by the next
+	 * one. Null until the first roll over, or while a roll over uses it.
+	 */
+	private final AtomicReference<IntervalType> spareInterval = new AtomicReference<IntervalType>();
+
 	private final long intervalWidthInNanos;
 
 	private final int intervalCount;
@@ -57,8 +73,7 @@ public abstract class TimeIntervalAggregator<IntervalType extends TimeInterval>
 		intervalArray = new AtomicReferenceArray<IntervalType>(
 				intervalCount);
 		for (int i = 0; i < intervalCount; i++) {
-			IntervalType newInterval = createNewInterval();
-			intervalArray.set(i, newInterval);
+			intervalArray.set(i, createNewInterval());
 		}
 	}
 
@@ -83,27 +98,94 @@ public abstract class TimeIntervalAggregator<IntervalType extends TimeInterval>
 	public IntervalType getInterval(long nanoTime) {
 		long intervalStartIndex = nanoTime / intervalWidthInNanos;
 		int index = (int) (intervalStartIndex % intervalCount);
-		IntervalType operationIntervalStatistics = intervalArray
-				.get(index);
-		long intervalIndex = operationIntervalStatistics.getIndex();
-		if (intervalStartIndex != intervalIndex) {
-			// need to reset
-			IntervalType newStats = createNewInterval();
-			newStats.setIndex(intervalStartIndex);
-			boolean setSuccessful = intervalArray.compareAndSet(index,
-					operationIntervalStatistics, newStats);
-			if (setSuccessful) {
-				operationIntervalStatistics = newStats;
+		while (true) {
+			IntervalType interval = intervalArray.get(index);
+			long epoch = interval.getIndex();
+			if (epoch == intervalStartIndex) {
+				return interval;
+			}
+			if (epoch > intervalStartIndex) {
+				// the slot already moved past the requested time, the value
+				// can't be kept.
+				IntervalType expiredInterval = createNewInterval();
+				expiredInterval.setIndex(intervalStartIndex);
+				return expiredInterval;
+			}
+
+			// only the thread taking the spare prepares it, threads rolling
+			// over at the same time use a new interval instead of waiting.
+			IntervalType nextInterval = spareInterval.getAndSet(null);
+			if (nextInterval == null) {
+				nextInterval = createNewInterval();
 			} else {
-				// another thread won, get its update.
-				operationIntervalStatistics = intervalArray.get(index);
+				nextInterval = recycleInterval(nextInterval);
 			}
+			nextInterval.setIndex(intervalStartIndex);
+			if (intervalArray.compareAndSet(index, interval, nextInterval)) {
+				// the replaced interval is a whole lap old, nobody records in
+				// it anymore.
+				releaseInterval(interval);
+				spareInterval.set(interval);
+				return nextInterval;
+			}
+			// another thread moved the slot, keep the interval for later.
+			spareInterval.set(nextInterval);
 		}
-		return operationIntervalStatistics;
+	}
+
+	/**
+	 * Tell if the values recorded in an interval are kept. They are lost when
+	 * the slot of the interval moved to a later interval while they were
+	 * recorded, writers check this after recording to record the value again
+	 * or discard it.
+	 * 
+	 * @param interval
+	 *            the interval returned by {@link #getInterval(long)}.
+	 * @param nanoTime
+	 *            the time given to {@link #getInterval(long)}.
+	 * @return true if the interval still holds the values of that time.
+	 */
+	public boolean isIntervalCurrent(IntervalType interval, long nanoTime) {
+		long intervalStartIndex = nanoTime / intervalWidthInNanos;
+		int index = (int) (intervalStartIndex % intervalCount);
+		// read the slot first, its publication makes the index visible.
+		return intervalArray.get(index) == interval
+				&& interval.getIndex() == intervalStartIndex;
 	}
 
 	protected abstract IntervalType createNewInterval();
 
+	/**
+	 * Prepare an interval replaced in its slot to hold a new time interval.
+	 * The interval isn't visible to other threads until it is returned, but a
+	 * thread that held the interval for a whole lap of the slots may still
+	 * record in it, see {@link #isIntervalCurrent(TimeInterval, long)}.
+	 * 
+	 * The default implementation creates a new interval, implementations
+	 * should reset the interval in place when possible.
+	 * 
+	 * @param interval
+	 *            the interval previously held by the slot.
+	 * @return the interval to use, with all values cleared.
+	 */
+	protected IntervalType recycleInterval(IntervalType interval) {
+		return createNewInterval();
+	}
+
+	/**
+	 * Free the memory held by the values of an interval replaced in its slot,
+	 * it stays unused until {@link #recycleInterval(TimeInterval)} prepares it
+	 * for a later time interval.
+	 * 
+	 * The default implementation does nothing.
+	 * 
+	 * @param interval
+	 *            the interval replaced in its slot.
+	 */
+	protected void releaseInterval(IntervalType interval) {
+		// nothing to release
+	}
+
 	/**
 	 * Get intervals for the specified time period. This method works by looking
 	 * at all the stored time intervals and returning the ones that are within
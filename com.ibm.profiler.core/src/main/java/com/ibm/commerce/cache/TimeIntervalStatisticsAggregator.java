@@ -15,6 +15,7 @@
  */
 package com.ibm.commerce.cache;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
@@ -26,6 +27,18 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
  * 
  * The {@link #getStatistics(long, boolean)} method will traverse through the
  * intervals within range of the argument and aggregate all the statistics.
+ * The aggregation of the completed intervals of a window is kept until the
+ * window moves to the next interval or a value is recorded late in a completed
+ * interval. The statistics of a window including the current interval are a
+ * view adding the counters of the current interval to that aggregation on each
+ * read, so recording doesn't make the next read aggregate again. Only the
+ * duration histogram is merged, when read and the current interval changed.
+ * Reads return the kept aggregation or view itself, shared by all the readers
+ * of the same window, it throws an {@link UnsupportedOperationException} when
+ * modified.
+ * 
+ * Values should be recorded with the logStatistic methods of this class, they
+ * tell the reads about values recorded in completed intervals.
  * 
  * This class is thread safe, high concurrency
  * 
@@ -34,7 +47,332 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
  */
 public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregator<OperationStatistics>{
 
-	private OperationStatistics cachedStatistics;
+	/**
+	 * Aggregated statistics of a window.
+	 */
+	private static final class Window {
+
+		private final long minimumIndex;
+
+		private final long maximumIndex;
+
+		/** the completed statistics the window was built from */
+		private final OperationStatistics completed;
+
+		/**
+		 * the number of values the window was built from, read before the
+		 * aggregation.
+		 */
+		private final long recordCount;
+
+		private final OperationStatistics statistics;
+
+		Window(long minimumIndex, long maximumIndex,
+				OperationStatistics completed, long recordCount,
+				OperationStatistics statistics) {
+			this.minimumIndex = minimumIndex;
+			this.maximumIndex = maximumIndex;
+			this.completed = completed;
+			this.recordCount = recordCount;
+			this.statistics = statistics;
+		}
+
+		boolean matches(long minimumIndex, long maximumIndex,
+				OperationStatistics completed, long recordCount) {
+			return this.minimumIndex == minimumIndex
+					&& this.maximumIndex == maximumIndex
+					&& this.completed == completed
+					&& this.recordCount == recordCount;
+		}
+	}
+
+	/**
+	 * Aggregation kept by the aggregator and shared by the reads. It can't be
+	 * modified once built, except through its duration histogram which must
+	 * only be read.
+	 */
+	private static class SharedStatistics extends OperationStatistics {
+
+		private boolean built;
+
+		/**
+		 * @param minimumIndex
+		 *            the index of the first interval.
+		 * @param maximumIndex
+		 *            the index of the last interval.
+		 */
+		SharedStatistics(long minimumIndex, long maximumIndex) {
+			setMinimumIndex(minimumIndex);
+			setIndex(maximumIndex);
+		}
+
+		/**
+		 * Prevent any further modification, the statistics are published by
+		 * the volatile window fields.
+		 */
+		void build() {
+			built = true;
+		}
+
+		private void checkModifiable() {
+			if (built) {
+				throw new UnsupportedOperationException(
+						"The statistics are shared by all the readers.");
+			}
+		}
+
+		@Override
+		public void setMinimumIndex(long minimumIndex) {
+			checkModifiable();
+			super.setMinimumIndex(minimumIndex);
+		}
+
+		@Override
+		public void setIndex(long index) {
+			checkModifiable();
+			super.setIndex(index);
+		}
+
+		@Override
+		public void setName(String name) {
+			checkModifiable();
+			super.setName(name);
+		}
+
+		@Override
+		public void aggregateStatistics(OperationStatistics statistics) {
+			checkModifiable();
+			super.aggregateStatistics(statistics);
+		}
+
+		@Override
+		public void logStatistic(long duration, int resultSize,
+				boolean operationCacheEnabled, boolean resultFetchedFromCache,
+				boolean successful, long weight) {
+			checkModifiable();
+			super.logStatistic(duration, resultSize, operationCacheEnabled,
+					resultFetchedFromCache, successful, weight);
+		}
+
+		@Override
+		public synchronized void reset() {
+			checkModifiable();
+			super.reset();
+		}
+
+		@Override
+		public synchronized void appendStatisticsAndReset(StringBuilder builder) {
+			checkModifiable();
+			super.appendStatisticsAndReset(builder);
+		}
+	}
+
+	/**
+	 * Statistics of a window including the current interval. The counters add
+	 * the current interval, looked up on each read, to the aggregation of the
+	 * completed intervals.
+	 */
+	private static final class LiveStatistics extends SharedStatistics {
+
+		private final TimeIntervalStatisticsAggregator aggregator;
+
+		private final OperationStatistics completed;
+
+		/** duration histogram of the last read merging the current interval */
+		private volatile MergedHistogram mergedHistogram;
+
+		/**
+		 * @param aggregator
+		 *            the aggregator holding the current interval.
+		 * @param minimumIndex
+		 *            the index of the first interval.
+		 * @param maximumIndex
+		 *            the index of the current interval.
+		 * @param completed
+		 *            the aggregation of the completed intervals.
+		 */
+		LiveStatistics(TimeIntervalStatisticsAggregator aggregator,
+				long minimumIndex, long maximumIndex,
+				OperationStatistics completed) {
+			super(minimumIndex, maximumIndex);
+			this.aggregator = aggregator;
+			this.completed = completed;
+		}
+
+		/**
+		 * @return the current interval, null if no value was recorded in it.
+		 */
+		private OperationStatistics getCurrent() {
+			return aggregator.getIntervalIfPresent(getIndex());
+		}
+
+		@Override
+		protected void aggregateInto(OperationStatistics target) {
+			completed.aggregateInto(target);
+			OperationStatistics current = getCurrent();
+			if (current != null) {
+				current.aggregateInto(target);
+			}
+		}
+
+		@Override
+		public long getCallCount() {
+			OperationStatistics current = getCurrent();
+			long callCount = completed.getCallCount();
+			return current == null ? callCount : callCount
+					+ current.getCallCount();
+		}
+
+		@Override
+		public long getSuccessCallCount() {
+			OperationStatistics current = getCurrent();
+			long successCallCount = completed.getSuccessCallCount();
+			return current == null ? successCallCount : successCallCount
+					+ current.getSuccessCallCount();
+		}
+
+		@Override
+		public long getCacheEnabledCallCount() {
+			OperationStatistics current = getCurrent();
+			long cacheEnabledCallCount = completed.getCacheEnabledCallCount();
+			return current == null ? cacheEnabledCallCount
+					: cacheEnabledCallCount
+							+ current.getCacheEnabledCallCount();
+		}
+
+		@Override
+		public long getCacheHitCount() {
+			OperationStatistics current = getCurrent();
+			long cacheHitCount = completed.getCacheHitCount();
+			return current == null ? cacheHitCount : cacheHitCount
+					+ current.getCacheHitCount();
+		}
+
+		@Override
+		public float getSumExecutionTime() {
+			return getSumExecutionTimeAsLong();
+		}
+
+		@Override
+		public long getSumExecutionTimeAsLong() {
+			OperationStatistics current = getCurrent();
+			long sumExecutionTime = completed.getSumExecutionTimeAsLong();
+			return current == null ? sumExecutionTime : sumExecutionTime
+					+ current.getSumExecutionTimeAsLong();
+		}
+
+		@Override
+		public float getSumResultSize() {
+			return getSumResultSizeAsLong();
+		}
+
+		@Override
+		public long getSumResultSizeAsLong() {
+			OperationStatistics current = getCurrent();
+			long sumResultSize = completed.getSumResultSizeAsLong();
+			return current == null ? sumResultSize : sumResultSize
+					+ current.getSumResultSizeAsLong();
+		}
+
+		@Override
+		public long getMinExecutionTime() {
+			OperationStatistics current = getCurrent();
+			if (current == null || current.getCallCount() == 0) {
+				return completed.getMinExecutionTime();
+			}
+			if (completed.getCallCount() == 0) {
+				return current.getMinExecutionTime();
+			}
+			return Math.min(completed.getMinExecutionTime(),
+					current.getMinExecutionTime());
+		}
+
+		@Override
+		public long getMaxExecutionTime() {
+			OperationStatistics current = getCurrent();
+			long maxExecutionTime = completed.getMaxExecutionTime();
+			return current == null ? maxExecutionTime : Math.max(
+					maxExecutionTime, current.getMaxExecutionTime());
+		}
+
+		@Override
+		public long getMinResultSize() {
+			OperationStatistics current = getCurrent();
+			if (current == null || current.getCallCount() == 0) {
+				return completed.getMinResultSize();
+			}
+			if (completed.getCallCount() == 0) {
+				return current.getMinResultSize();
+			}
+			return Math.min(completed.getMinResultSize(),
+					current.getMinResultSize());
+		}
+
+		@Override
+		public long getMaxResultSize() {
+			OperationStatistics current = getCurrent();
+			long maxResultSize = completed.getMaxResultSize();
+			return current == null ? maxResultSize : Math.max(maxResultSize,
+					current.getMaxResultSize());
+		}
+
+		@Override
+		public LatencyHistogram getDurationHistogram() {
+			OperationStatistics current = getCurrent();
+			if (current == null) {
+				return completed.getDurationHistogram();
+			}
+			long recordCount = current.getDurationHistogram().getTotalCount();
+			if (recordCount == 0) {
+				return completed.getDurationHistogram();
+			}
+			MergedHistogram merged = mergedHistogram;
+			if (merged == null || merged.current != current
+					|| merged.recordCount != recordCount) {
+				LatencyHistogram histogram = new LatencyHistogram();
+				histogram.add(completed.getDurationHistogram());
+				histogram.add(current.getDurationHistogram());
+				merged = new MergedHistogram(current, recordCount, histogram);
+				mergedHistogram = merged;
+			}
+			return merged.histogram;
+		}
+	}
+
+	/**
+	 * Duration histogram of a window merged with its current interval.
+	 */
+	private static final class MergedHistogram {
+
+		private final OperationStatistics current;
+
+		/** the number of values of the current interval, read before merging */
+		private final long recordCount;
+
+		private final LatencyHistogram histogram;
+
+		MergedHistogram(OperationStatistics current, long recordCount,
+				LatencyHistogram histogram) {
+			this.current = current;
+			this.recordCount = recordCount;
+			this.histogram = histogram;
+		}
+	}
+
+	/**
+	 * aggregation of the completed intervals of the last window read, its
+	 * record count is the late record count.
+	 */
+	private volatile Window cachedCompleted;
+
+	/** the last window read including the current interval */
+	private volatile Window cachedWindow;
+
+	/** the last interval index aggregated as a completed interval */
+	private final AtomicLong completedIndex = new AtomicLong(Long.MIN_VALUE);
+
+	/** number of values recorded in intervals read as completed */
+	private final AtomicLong lateRecordCount = new AtomicLong();
 
 	/**
 	 * Constructor
@@ -49,6 +387,98 @@ public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregat
 		super( intervalWidthInNanos, intervalCount);
 	}
 
+	/**
+	 * Record an operation execution in the interval of a given time.
+	 * 
+	 * @param nanoTime
+	 *            the time of the execution.
+	 * @param duration
+	 *            The duration.
+	 * @param resultSize
+	 *            The result size.
+	 * @param operationCacheEnabled
+	 *            Was operation cache enabled.
+	 * @param resultFetchedFromCache
+	 *            Was result fetched from cache.
+	 * @param successful
+	 *            is the request successful.
+	 * @param weight
+	 *            The number of executions the statistic stands for.
+	 * @return false if the value is lost because the interval of the time
+	 *         isn't tracked anymore.
+	 */
+	public boolean logStatistic(long nanoTime, long duration, int resultSize,
+			boolean operationCacheEnabled, boolean resultFetchedFromCache,
+			boolean successful, long weight) {
+		OperationStatistics interval = getInterval(nanoTime);
+		interval.logStatistic(duration, resultSize, operationCacheEnabled,
+				resultFetchedFromCache, successful, weight);
+		return checkRecorded(interval, nanoTime);
+	}
+
+	/**
+	 * Record an operation execution in the interval of its stop time.
+	 * 
+	 * @param metric
+	 *            the operation metric.
+	 * @return false if the value is lost because the interval of the time
+	 *         isn't tracked anymore.
+	 */
+	public boolean logStatistic(IOperationMetric metric) {
+		long nanoTime = metric.getStopTime();
+		OperationStatistics interval = getInterval(nanoTime);
+		interval.logStatistic(metric);
+		return checkRecorded(interval, nanoTime);
+	}
+
+	/**
+	 * Add the intervals of another aggregator with the same interval width to
+	 * the intervals of this aggregator. Intervals this aggregator doesn't
+	 * track anymore are skipped.
+	 * 
+	 * @param other
+	 *            the aggregator to fold in this one.
+	 */
+	public void aggregateIntervals(TimeIntervalStatisticsAggregator other) {
+		long intervalWidthInNanos = getIntervalWidthInNanos();
+		if (other.getIntervalWidthInNanos() != intervalWidthInNanos) {
+			return;
+		}
+		AtomicReferenceArray<OperationStatistics> otherIntervals = other
+				.getIntervalArray();
+		int length = otherIntervals.length();
+		for (int i = 0; i < length; ++i) {
+			OperationStatistics otherInterval = otherIntervals.get(i);
+			if (otherInterval.getCallCount() == 0) {
+				continue;
+			}
+			long nanoTime = otherInterval.getIndex() * intervalWidthInNanos;
+			OperationStatistics interval = getInterval(nanoTime);
+			interval.aggregateStatistics(otherInterval);
+			checkRecorded(interval, nanoTime);
+		}
+	}
+
+	/**
+	 * Check the slot of a value after recording it.
+	 * 
+	 * @param interval
+	 *            the interval holding the value.
+	 * @param nanoTime
+	 *            the time of the value.
+	 * @return true if the value is kept.
+	 */
+	private boolean checkRecorded(OperationStatistics interval, long nanoTime) {
+		if (!isIntervalCurrent(interval, nanoTime)) {
+			return false;
+		}
+		if (nanoTime / getIntervalWidthInNanos() <= completedIndex.get()) {
+			// the completed statistics may have been aggregated without it.
+			lateRecordCount.incrementAndGet();
+		}
+		return true;
+	}
+
 	/**
 	 * Get statistics for the specified time period. This method works by
 	 * looking at all the stored time intervals and aggregating the ones that
@@ -61,7 +491,8 @@ public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregat
 	 *            An option to skip the current time interval in statistics
 	 *            aggregation since that interval is still accumulating data.
 	 *            Setting this to true increases the counter accuracy.
-	 * @return The aggregated statistics of the desired time interval.
+	 * @return The aggregated statistics of the desired time interval, shared
+	 *         with the other readers and not modifiable.
 	 */
 	public OperationStatistics getStatistics(final long sinceNanosAgo,
 			boolean skipCurrentInterval) {
@@ -84,7 +515,8 @@ public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregat
 	 *            Setting this to true increases the counter accuracy.
 	 * @param nanoTime
 	 *            the time at which to take the statistics snapshot.
-	 * @return The aggregated statistics of the desired time interval.
+	 * @return The aggregated statistics of the desired time interval, shared
+	 *         with the other readers and not modifiable.
 	 */
 	public OperationStatistics getStatisticsAtTime(final long sinceNanosAgo,
 			boolean skipCurrentInterval, long nanoTime) {
@@ -96,13 +528,56 @@ public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregat
 		if (skipCurrentInterval) {
 			maximumIndex -= 1;
 			minimumIndex -= 1;
+			return getCompletedStatistics(minimumIndex, maximumIndex);
 		}
 
-		OperationStatistics statistics = cachedStatistics;
-		if (!skipCurrentInterval || statistics == null
-				|| statistics.getIndex() != maximumIndex
-				|| statistics.getMinimumIndex() != minimumIndex) {
-			statistics = new OperationStatistics();
+		OperationStatistics completed = getCompletedStatistics(minimumIndex,
+				maximumIndex - 1);
+
+		// the view reads the current interval, it only changes with the
+		// completed aggregation.
+		Window window = cachedWindow;
+		if (window == null
+				|| !window.matches(minimumIndex, maximumIndex, completed, 0)) {
+			LiveStatistics statistics = new LiveStatistics(this, minimumIndex,
+					maximumIndex, completed);
+			statistics.build();
+			window = new Window(minimumIndex, maximumIndex, completed, 0,
+					statistics);
+			cachedWindow = window;
+		}
+		return window.statistics;
+	}
+
+	/**
+	 * Get the aggregation of intervals that stopped accumulating data. The
+	 * aggregation is done once per window position, and again when values
+	 * were recorded late in these intervals.
+	 * 
+	 * @param minimumIndex
+	 *            the index of the first interval.
+	 * @param maximumIndex
+	 *            the index of the last interval.
+	 * @return the aggregated statistics.
+	 */
+	private OperationStatistics getCompletedStatistics(long minimumIndex,
+			long maximumIndex) {
+		// writers check the completed index after recording, a value they
+		// don't count as late is recorded before the aggregation below.
+		long currentCompletedIndex = completedIndex.get();
+		while (maximumIndex > currentCompletedIndex
+				&& !completedIndex.compareAndSet(currentCompletedIndex,
+						maximumIndex)) {
+			currentCompletedIndex = completedIndex.get();
+		}
+		long currentLateRecordCount = lateRecordCount.get();
+
+		Window window = cachedCompleted;
+		if (window == null
+				|| !window.matches(minimumIndex, maximumIndex, null,
+						currentLateRecordCount)) {
+			SharedStatistics statistics = new SharedStatistics(minimumIndex,
+					maximumIndex);
 			AtomicReferenceArray<OperationStatistics> intervalArray = getIntervalArray();
 			int length = intervalArray.length();
 			for (int i = 0; i < length; ++i) {
@@ -110,12 +585,27 @@ public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregat
 				statistics.aggregateStatisticsIfInInterval(operationStatistics,
 						minimumIndex, maximumIndex);
 			}
-			if (skipCurrentInterval) {
-				cachedStatistics = statistics;
-			}
+			statistics.build();
+			window = new Window(minimumIndex, maximumIndex, null,
+					currentLateRecordCount, statistics);
+			cachedCompleted = window;
 		}
+		return window.statistics;
+	}
 
-		return statistics;
+	/**
+	 * @param intervalIndex
+	 *            the index of the interval.
+	 * @return the interval, null if its slot holds another interval.
+	 */
+	private OperationStatistics getIntervalIfPresent(long intervalIndex) {
+		AtomicReferenceArray<OperationStatistics> intervalArray = getIntervalArray();
+		int slot = (int) (intervalIndex % intervalArray.length());
+		OperationStatistics interval = intervalArray.get(slot);
+		if (interval.getIndex() != intervalIndex) {
+			return null;
+		}
+		return interval;
 	}
 
 	@Override
@@ -123,4 +613,18 @@ public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregat
 		return new OperationStatistics();
 	}
 
+	@Override
+	protected void releaseInterval(OperationStatistics interval) {
+		// the buckets go to the shared pool, the next recorded interval takes
+		// them instead of allocating.
+		interval.getDurationHistogram().release();
+	}
+
+	@Override
+	protected OperationStatistics recycleInterval(OperationStatistics interval) {
+		// keeps the counter cells allocated.
+		interval.reset();
+		return interval;
+	}
+
 }
@@ -27,6 +27,7 @@ import org.apache.logging.log4j.MarkerManager;
 import com.ibm.commerce.cache.AbstractLogMetricGatherer;
 import com.ibm.commerce.cache.OperationMetric;
 import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.AdaptiveSampler;
 
 /**
  * Gather performance metrics within a java logger output.
@@ -243,6 +244,9 @@ public class Log4JMetricGatherer extends AbstractLogMetricGatherer {
 		if (metric == null) {
 			return;
 		}
+		if (PerformanceLogger.sample(metric) == AdaptiveSampler.DROPPED) {
+			return;
+		}
 		if (logLevel == null) {
 			logLevel = DEFAULT_LOG_LEVEL;
 		}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.stats.TotalLogEntry;
+
+/**
+ * Registers new log entries in JMX in batches on a background thread, so
+ * threads recording metrics never wait on the MBean server.
+ *
+ * The background thread is started when entries are submitted and stops
+ * after a minute without registrations. In synchronous mode, entries are
+ * queued and registered by the thread that created them.
+ */
+final class LogEntryRegistrar
+{
+    private static final String CLASS_NAME = LogEntryRegistrar.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+    private static final String REGISTRAR_THREAD_NAME = "PerformanceLogger registrar";
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Queue<TotalLogEntry> pending = new ConcurrentLinkedQueue<TotalLogEntry>();
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private final ThreadPoolExecutor executor;
+
+    private final Runnable drainTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+            catch (Exception ex)
+            {
+                LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "run", ex);
+            }
+            finally
+            {
+                drainScheduled.set(false);
+            }
+
+            // entries submitted after the last batch was taken but before the
+            // flag was cleared.
+            scheduleDrain();
+        }
+    };
+
+    /**
+     * Constructor
+     */
+    LogEntryRegistrar()
+    {
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, REGISTRAR_THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue an entry for registration on the background thread.
+     *
+     * @param entry
+     *            the entry to register.
+     */
+    void submit(TotalLogEntry entry)
+    {
+        pending.offer(entry);
+        scheduleDrain();
+    }
+
+    /**
+     * Queue an entry for registration by the next {@link #flush()}, without
+     * starting the background thread.
+     *
+     * @param entry
+     *            the entry to register.
+     */
+    void queue(TotalLogEntry entry)
+    {
+        pending.offer(entry);
+    }
+
+    /**
+     * @return true if some entries are waiting to be registered.
+     */
+    boolean hasPending()
+    {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Register all the pending entries on the calling thread.
+     */
+    void flush()
+    {
+        List<TotalLogEntry> batch = new ArrayList<TotalLogEntry>(BATCH_SIZE);
+        // always take the lock once, a batch taken by the background thread
+        // is registered by the time it is released.
+        do
+        {
+            PerformanceLogger.registerPendingLogEntries(pending, batch, BATCH_SIZE);
+            batch.clear();
+        }
+        while (!pending.isEmpty());
+    }
+
+    /**
+     * Forget all the pending entries.
+     */
+    void clear()
+    {
+        pending.clear();
+    }
+
+    private void scheduleDrain()
+    {
+        if (!pending.isEmpty() && drainScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                executor.execute(drainTask);
+            }
+            catch (RuntimeException ex)
+            {
+                drainScheduled.set(false);
+                LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "scheduleDrain", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger;
+
+import com.ibm.commerce.cache.OperationMetric;
+import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+import com.ibm.logger.stats.AdaptiveSampler;
+import com.ibm.logger.stats.LogType;
+
+/**
+ * Recorder bound to a single operation ID. Obtained through
+ * {@link PerformanceLogger#handle(String, LogType)}, it is meant to be cached
+ * in a static field by call sites that know their operation ID ahead of time.
+ *
+ * Recording through a handle skips the lookup of the metrics by ID. The
+ * handle keeps a reference to the metrics it is bound to and re-binds itself
+ * on the next call when the performance logger is cleared or when unused
+ * metrics are cleaned up. An operation recorded in the overflow entry, once
+ * the maximum number of entries is reached, is looked up on every call until
+ * it gets its own entry.
+ *
+ * This class is thread safe.
+ */
+public final class MetricHandle
+{
+    private final String id;
+
+    private final LogType type;
+
+    /**
+     * Metrics and the performance logger entry generation they were resolved
+     * in, published together so a thread never sees the entry of one
+     * generation with another generation.
+     */
+    private static final class Binding
+    {
+        private final TimeIntervalLogEntryMXBean entry;
+
+        private final int generation;
+
+        Binding(TimeIntervalLogEntryMXBean entry, int generation)
+        {
+            this.entry = entry;
+            this.generation = generation;
+        }
+    }
+
+    /** the metrics this handle records into, null until the first call */
+    private volatile Binding binding;
+
+    /**
+     * Constructor
+     *
+     * @param id
+     *            the operation ID.
+     * @param type
+     *            the type of log to use.
+     */
+    MetricHandle(String id, LogType type)
+    {
+        this.id = id;
+        this.type = type;
+    }
+
+    /**
+     * @return the operation ID.
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the type of log.
+     */
+    public LogType getType()
+    {
+        return type;
+    }
+
+    /**
+     * Log an operation execution and the time spent.
+     *
+     * @param value
+     *            the time spent in the operation.
+     */
+    public void increase(long value)
+    {
+        increase(value, false);
+    }
+
+    /**
+     * Log an operation execution and the time spent.
+     *
+     * @param value
+     *            the time spent in the operation.
+     * @param failed
+     *            flag indicating if the operation failed.
+     */
+    public void increase(long value, boolean failed)
+    {
+        if (PerformanceLogger.isEnabled())
+        {
+            long weight = PerformanceLogger.sample(id, value, failed);
+            if (weight != AdaptiveSampler.DROPPED)
+            {
+                getEntry().addValue(value, 0, false, false, failed, weight);
+            }
+        }
+    }
+
+    /**
+     * Log an operation execution.
+     *
+     * @param duration
+     *            Duration in nanoseconds.
+     * @param resultSize
+     *            result size.
+     * @param operationCacheEnabled
+     *            was cache enabled.
+     * @param resultFetchedFromCache
+     *            was result fetched from cache.
+     * @param failed
+     *            was call failed.
+     */
+    public void increase(long duration, int resultSize, boolean operationCacheEnabled,
+        boolean resultFetchedFromCache, boolean failed)
+    {
+        if (PerformanceLogger.isEnabled())
+        {
+            long weight = PerformanceLogger.sample(id, duration, failed);
+            if (weight != AdaptiveSampler.DROPPED)
+            {
+                getEntry().addValue(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, failed,
+                    weight);
+            }
+        }
+    }
+
+    /**
+     * Log an operation metric. The operation name of the metric is ignored,
+     * the metric is recorded under the handle ID. The sampling decision is
+     * taken through {@link PerformanceLogger#sample(OperationMetric)}, so the
+     * handle and the metric gatherers receiving the same metric keep or drop
+     * it together, with the same weight.
+     *
+     * @param metric
+     *            the metric to log.
+     */
+    public void increase(OperationMetric metric)
+    {
+        if (PerformanceLogger.isEnabled())
+        {
+            long weight = PerformanceLogger.sample(metric);
+            if (weight != AdaptiveSampler.DROPPED)
+            {
+                getEntry().addValue(metric.getDuration(), metric.getResultSize(), metric.isOperationCacheEnabled(),
+                    metric.isResultFetchedFromCache(), !metric.isSuccessful(), weight);
+            }
+        }
+    }
+
+    /**
+     * Get the metrics bound to this handle, re-binding them if the performance
+     * logger entries were removed since the last call.
+     *
+     * @return the metrics.
+     */
+    public TimeIntervalLogEntryMXBean getEntry()
+    {
+        int generation = PerformanceLogger.getEntryGeneration();
+        Binding current = binding;
+        if (current != null && current.generation == generation)
+        {
+            return current.entry;
+        }
+
+        // the generation is read before the entry is resolved. A thread
+        // publishing an older binding after a newer one only costs another
+        // resolution on the next call, its generation no longer matches.
+        TimeIntervalLogEntryMXBean entry = PerformanceLogger.getOrCreateEntry(id, type.name());
+        if (id.equals(entry.getId()))
+        {
+            binding = new Binding(entry, generation);
+        }
+        // else folded in the overflow entry. Not cached, every call is counted
+        // by the heavy hitter tracking until the operation gets its own entry.
+        return entry;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent by the profiler itself in one of its layers. Obtained through
+ * {@link ProfilerOverhead#getCounter(String)} and meant to be cached in a
+ * static field.
+ *
+ * Only one call out of {@link ProfilerOverhead#getSamplingInterval()} is
+ * timed, picked at random, so calls that are not sampled cost a random number
+ * instead of two clock reads. Each sampled call counts for the whole
+ * interval. A call site wraps its bookkeeping as follows:
+ *
+ * <pre>
+ * long overheadStart = COUNTER.start();
+ * // bookkeeping
+ * COUNTER.stop(overheadStart, measuredDuration);
+ * </pre>
+ *
+ * This class is thread safe.
+ */
+public final class OverheadCounter
+{
+    /** value returned by {@link #start()} when the call isn't sampled */
+    public static final long NOT_SAMPLED = 0;
+
+    private final String layer;
+
+    /** estimated number of calls */
+    private final LongAdder calls = new LongAdder();
+
+    /** estimated time spent by the profiler, in nanoseconds */
+    private final LongAdder overhead = new LongAdder();
+
+    /** estimated time of the operations measured by the layer, in nanoseconds */
+    private final LongAdder measured = new LongAdder();
+
+    /**
+     * Constructor
+     *
+     * @param layer
+     *            the name of the layer.
+     */
+    OverheadCounter(String layer)
+    {
+        this.layer = layer;
+    }
+
+    /**
+     * @return the name of the layer.
+     */
+    public String getLayer()
+    {
+        return layer;
+    }
+
+    /**
+     * Start timing a call if it is sampled.
+     *
+     * @return the start time to give to {@link #stop(long, long)},
+     *         {@link #NOT_SAMPLED} if the call isn't sampled.
+     */
+    public long start()
+    {
+        int interval = ProfilerOverhead.getSamplingInterval();
+        if (interval <= 0 || (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0))
+        {
+            return NOT_SAMPLED;
+        }
+        long startTime = System.nanoTime();
+        if (startTime == NOT_SAMPLED)
+        {
+            startTime = 1;
+        }
+        return startTime;
+    }
+
+    /**
+     * Stop timing a call that doesn't measure an operation.
+     *
+     * @param startTime
+     *            the value returned by {@link #start()}.
+     */
+    public void stop(long startTime)
+    {
+        stop(startTime, 0);
+    }
+
+    /**
+     * Stop timing a call.
+     *
+     * @param startTime
+     *            the value returned by {@link #start()}.
+     * @param measuredDuration
+     *            the duration in nanoseconds of the operation the call
+     *            recorded.
+     */
+    public void stop(long startTime, long measuredDuration)
+    {
+        if (startTime == NOT_SAMPLED)
+        {
+            return;
+        }
+        long elapsed = System.nanoTime() - startTime;
+        long interval = Math.max(1, ProfilerOverhead.getSamplingInterval());
+        calls.add(interval);
+        overhead.add(elapsed * interval);
+        measured.add(Math.max(0, measuredDuration) * interval);
+    }
+
+    /**
+     * @return the estimated number of calls.
+     */
+    public long getCallCount()
+    {
+        return calls.sum();
+    }
+
+    /**
+     * @return the estimated time spent by the profiler, in nanoseconds.
+     */
+    public long getOverhead()
+    {
+        return overhead.sum();
+    }
+
+    /**
+     * @return the estimated time of the operations measured by the layer, in
+     *         nanoseconds.
+     */
+    public long getMeasured()
+    {
+        return measured.sum();
+    }
+
+    /**
+     * @return the time spent by the profiler as a percentage of the time of
+     *         the operations it measured, 0 when nothing was measured.
+     */
+    public double getOverheadPercentage()
+    {
+        long measuredTime = measured.sum();
+        if (measuredTime == 0)
+        {
+            return 0.0;
+        }
+        return overhead.sum() * 100.0 / measuredTime;
+    }
+
+    /**
+     * Reset the counters.
+     */
+    public void reset()
+    {
+        calls.reset();
+        overhead.reset();
+        measured.reset();
+    }
+}
@@ -15,19 +15,29 @@
  */
 package com.ibm.logger;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Formatter;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -41,14 +51,29 @@ import javax.management.ObjectName;
 import org.apache.commons.lang3.StringUtils;
 
 import com.ibm.commerce.cache.CacheUtilities;
+import com.ibm.commerce.cache.CommonMetricProperties;
+import com.ibm.commerce.cache.LatencyHistogram;
 import com.ibm.commerce.cache.LoggingHelper;
 import com.ibm.commerce.cache.OperationMetric;
+import com.ibm.commerce.cache.OperationStatistics;
 import com.ibm.logger.jmx.JMXBeanRegistrar;
+import com.ibm.logger.jmx.SharedLogEntryRegistry;
+import com.ibm.logger.jmx.TaggedMetricSnapshot;
 import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
-import com.ibm.logger.stats.LogEntry;
+import com.ibm.logger.stats.AdaptiveSampler;
+import com.ibm.logger.stats.DeltaCursor;
+import com.ibm.logger.stats.HeavyHitterSketch;
+import com.ibm.logger.stats.HeavyHitterSketch.HeavyHitter;
+import com.ibm.logger.stats.LogEntryRecorder;
 import com.ibm.logger.stats.LogType;
+import com.ibm.logger.stats.PerformanceLogsSnapshot;
+import com.ibm.logger.stats.TaggedMetrics;
+import com.ibm.logger.stats.Tags;
 import com.ibm.logger.stats.TimeIntervalLogEntry;
+import com.ibm.logger.stats.TimerStack;
+import com.ibm.logger.stats.TopNRanking;
 import com.ibm.logger.stats.TotalLogEntry;
+import com.ibm.logger.trace.PrometheusPerformanceLogsEndpoint;
 import com.ibm.logger.trace.SummaryPerformanceLogsToSystemOutPrinter;
 
 /**
@@ -74,6 +99,26 @@ public class PerformanceLogger implements Serializable
 
     private static final String PROPERTY_PERFORMANCE_LOGGER_ENABLED = "com.ibm.logger.performanceLogger.enabled";
 
+    private static final String PROPERTY_ASYNCHRONOUS_REGISTRATION = "com.ibm.logger.performanceLogger.asynchronousRegistration";
+
+    private static final String PROPERTY_SCHEDULER_ENABLED = "com.ibm.logger.performanceLogger.schedulerEnabled";
+
+    private static final String PROPERTY_HISTOGRAM_PRECISION = "com.ibm.logger.performanceLogger.histogramPrecision";
+
+    private static final String PROPERTY_MAXIMUM_ENTRY_COUNT = "com.ibm.logger.performanceLogger.maximumEntryCount";
+
+    private static final String PROPERTY_THREAD_SHARDS = "com.ibm.logger.performanceLogger.threadShards";
+
+    private static final String PROPERTY_SAMPLING_BUDGET = "com.ibm.logger.performanceLogger.samplingBudget";
+
+    private static final String PROPERTY_SAMPLING_SLOW_THRESHOLD_IN_MILLISECOND = "com.ibm.logger.performanceLogger.samplingSlowThresholdInMillisecond";
+
+    private static final String PROPERTY_MAXIMUM_TAGGED_SERIES_COUNT = "com.ibm.logger.performanceLogger.maximumTaggedSeriesCount";
+
+    private static final String PROPERTY_CSV_TAG_DIMENSIONS = "com.ibm.logger.performanceLogger.csvTagDimensions";
+
+    private static final String PROPERTY_RATE_TICK_INTERVAL_IN_MILLISECOND = "com.ibm.logger.performanceLogger.rateTickIntervalInMillisecond";
+
     private static final String DEFAULT_PERIODIC_PRINTER = SummaryPerformanceLogsToSystemOutPrinter.class.getName();
 
     private static final int MILLIS_PER_NANO = 1000000;
@@ -82,9 +127,15 @@ public class PerformanceLogger implements Serializable
 
     public static final String TOTAL_INTERVAL_NAME = "total";
 
+    /**
+     * name of the operation collecting the calls of a layer once the maximum
+     * number of log entries is reached.
+     */
+    public static final String OVERFLOW_OPERATION_NAME = "(other)";
+
     public static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
-    private static class LogEntryThreadLocal extends ThreadLocal<Map<String, LogEntry>> implements Serializable
+    private static class TimerStackThreadLocal extends ThreadLocal<TimerStack> implements Serializable
     {
         /**
          * serial ID
@@ -92,9 +143,9 @@ public class PerformanceLogger implements Serializable
         private static final long serialVersionUID = -3786835408569755981L;
 
         @Override
-        protected synchronized Map<String, LogEntry> initialValue()
+        protected TimerStack initialValue()
         {
-            return new HashMap<String, LogEntry>();
+            return new TimerStack(LOCAL_TIMER_THRESHOLD);
         }
     }
 
@@ -108,15 +159,92 @@ public class PerformanceLogger implements Serializable
 
     private static int cleanupDelayInMillisecond = 60 * 60 * 1000;
 
+    /** delay between two updates of the moving rates of the entries */
+    private static volatile int rateTickIntervalInMillisecond = 5000;
+
+    /**
+     * true when cleanup and periodic printing run on the scheduler instead of
+     * the threads recording metrics.
+     */
+    private static volatile boolean isHousekeepingScheduled = false;
+
+    /**
+     * true when new log entries are registered in JMX on a background thread.
+     * Off by default, new entries are registered before the call creating them
+     * returns.
+     */
+    private static volatile boolean isAsynchronousRegistration = false;
+
+    /**
+     * true when new log entries stripe their total statistics over shards.
+     */
+    private static volatile boolean isThreadShards = false;
+
     protected static int loggerCountBeforeCleanup = 5000;
 
     protected static int csvPrintCountLimit = 10000;
 
+    /**
+     * maximum number of log entries, 0 for no limit. Once reached, calls to
+     * new operations are recorded in the overflow entry of their layer.
+     */
+    private static volatile int maximumEntryCount = 0;
+
+    /**
+     * call counts of the operations recorded in the overflow entries, used to
+     * give a log entry to the most called ones on cleanup.
+     */
+    private static volatile HeavyHitterSketch heavyHitters = new HeavyHitterSketch(1);
+
+    /**
+     * number of log entries in the in memory cache, maintained on the side
+     * because the size of the map walks all its bins.
+     */
+    private static final AtomicInteger entryCount = new AtomicInteger();
+
+    /**
+     * maximum number of layers whose overflow entry identifier is cached.
+     */
+    private static final int MAXIMUM_OVERFLOW_LAYER_COUNT = 64;
+
+    /**
+     * overflow entry identifier of the layers seen so far, replaced as a whole
+     * when a layer is added so it can be read without a lock.
+     */
+    private static volatile OverflowId[] overflowIds = new OverflowId[0];
+
+    /**
+     * minimum number of heavy hitters tracked per stripe of the sketch.
+     */
+    private static final int HEAVY_HITTER_STRIPE_SIZE = 64;
+
+    /**
+     * decides which calls are recorded when a sampling budget is set.
+     */
+    private static final AdaptiveSampler sampler = new AdaptiveSampler();
+
+    /**
+     * metrics of the calls recorded with tags.
+     */
+    private static final TaggedMetrics taggedMetrics = new TaggedMetrics(TaggedMetrics.DEFAULT_MAXIMUM_SERIES_COUNT);
+
+    /**
+     * cursors of the exporters reading the metrics as deltas, by exporter
+     * name.
+     */
+    private static final ConcurrentMap<String, DeltaCursor> deltaCursors = new ConcurrentHashMap<String, DeltaCursor>();
+
+    /**
+     * dimensions the tagged metrics are grouped on in the CSV dump, each
+     * series is printed when empty.
+     */
+    private static volatile String[] csvTagDimensions = new String[0];
+
     private static boolean csvCountLimitReached = false;
 
     private static String periodicMetricPrintClassName = DEFAULT_PERIODIC_PRINTER;
 
-    private static String csvPrintIntervalName = null;
+    protected static String csvPrintIntervalName = null;
 
     private static Runnable periodicMetricPrinter = new SummaryPerformanceLogsToSystemOutPrinter();
 
@@ -141,6 +269,11 @@ public class PerformanceLogger implements Serializable
 
         csvPrintCountLimit = parseIntegerProperty(PROPERTY_CSV_PRINT_COUNT_LIMIT, 10000);
 
+        setMaximumEntryCount(parseIntegerProperty(PROPERTY_MAXIMUM_ENTRY_COUNT, 0));
+
+        LatencyHistogram.setDefaultPrecision(parseIntegerProperty(PROPERTY_HISTOGRAM_PRECISION,
+            LatencyHistogram.DEFAULT_PRECISION));
+
         try
         {
             periodicMetricPrintClassName = parseStringProperty(PROPERTY_PERIODIC_METRIC_PRINT_CLASS_NAME,
@@ -155,12 +288,39 @@ public class PerformanceLogger implements Serializable
 
         csvPrintIntervalName = parseStringProperty(PROPERTY_CSV_PRINT_INTERVAL_NAME, null);
 
+        boolean isSchedulerEnabled = parseBooleanProperty(PROPERTY_SCHEDULER_ENABLED, false);
+
+        isAsynchronousRegistration = parseBooleanProperty(PROPERTY_ASYNCHRONOUS_REGISTRATION, false);
+
+        isThreadShards = parseBooleanProperty(PROPERTY_THREAD_SHARDS, false);
+
+        setSamplingSlowThresholdInMillisecond(parseIntegerProperty(PROPERTY_SAMPLING_SLOW_THRESHOLD_IN_MILLISECOND,
+            1000));
+        setSamplingBudget(parseIntegerProperty(PROPERTY_SAMPLING_BUDGET, 0));
+
+        taggedMetrics.setMaximumSeriesCount(parseIntegerProperty(PROPERTY_MAXIMUM_TAGGED_SERIES_COUNT,
+            TaggedMetrics.DEFAULT_MAXIMUM_SERIES_COUNT));
+        setCsvTagDimensions(parseStringProperty(PROPERTY_CSV_TAG_DIMENSIONS, ""));
+        setRateTickIntervalInMillisecond(parseIntegerProperty(PROPERTY_RATE_TICK_INTERVAL_IN_MILLISECOND, 5000));
+
         // default to measuring a minute interval.
         long[] defaultIntervals = new long[]
         {}; // 60000000000l = 1 minute
         String intervalStrings = System.getProperty("com.ibm.logger.performanceLogger.intervals");
         intervals = getIntervalsFromProperty(intervalStrings, defaultIntervals);
         PerformanceLoggerManager.getManager();
+
+        if (isSchedulerEnabled)
+        {
+            PerformanceLoggerManager.startScheduler();
+        }
+
+        int prometheusPort = parseIntegerProperty(PrometheusPerformanceLogsEndpoint.PORT_PROPERTY_NAME, 0);
+        if (prometheusPort > 0)
+        {
+            PerformanceLoggerManager.startPrometheusEndpoint(
+                parseStringProperty(PrometheusPerformanceLogsEndpoint.HOST_PROPERTY_NAME, null), prometheusPort);
+        }
     }
 
     public static String parseStringProperty(String propertyName, String defaultValue)
@@ -288,24 +448,68 @@ public class PerformanceLogger implements Serializable
 
     private static final long serialVersionUID = -9173634709021207651L;
 
-    private static final LogEntryThreadLocal _timers = new LogEntryThreadLocal();
+    private static final TimerStackThreadLocal _timers = new TimerStackThreadLocal();
 
     private static final JMXBeanRegistrar<TotalLogEntry> statsRegister = new JMXBeanRegistrar<TotalLogEntry>();
 
-    private static final Map<String, TimeIntervalLogEntryMXBean> _logEntries = new ConcurrentHashMap<String, TimeIntervalLogEntryMXBean>(
+    private static final ConcurrentHashMap<String, TimeIntervalLogEntryMXBean> _logEntries = new ConcurrentHashMap<String, TimeIntervalLogEntryMXBean>(
         128);
 
+    private static final LogEntryRegistrar registrar = new LogEntryRegistrar();
+
+    /**
+     * recorders published by all the classloaders, keyed by the name of the
+     * total log entry bean.
+     */
+    private static final ConcurrentMap<ObjectName, Object> sharedRecorders = SharedLogEntryRegistry
+        .getSharedRecorders();
+
+    private static final Function<String, TimeIntervalLogEntryMXBean> CREATE_LOG_ENTRY = new Function<String, TimeIntervalLogEntryMXBean>()
+    {
+        @Override
+        public TimeIntervalLogEntryMXBean apply(String id)
+        {
+            TimeIntervalLogEntryMXBean entry = createLogEntry(id);
+            entryCount.incrementAndGet();
+            return entry;
+        }
+    };
+
     private static final Pattern ILLEGAL_CHAR_PATTERN = Pattern.compile("[,=:\"*?]");
 
     private static final String METRIC_TYPE = "MetricType";
 
     private static final int LOCAL_TIMER_THRESHOLD = 100;
 
+    /**
+     * incremented every time log entries are removed, used to invalidate
+     * metric handles.
+     */
+    private static final AtomicInteger entryGeneration = new AtomicInteger();
+
     protected static void setIntervals(long[] intervalValues)
     {
         intervals = intervalValues;
     }
 
+    /**
+     * @return the names of the time intervals given to new log entries, for
+     *         example "1m".
+     */
+    public static List<String> getIntervalNames()
+    {
+        long[] intervalValues = intervals;
+        List<String> names = new ArrayList<String>();
+        if (intervalValues != null)
+        {
+            for (long interval : intervalValues)
+            {
+                names.add(CacheUtilities.getDurationShortText(interval));
+            }
+        }
+        return names;
+    }
+
     /**
      * Add a value to an internal counter.
      * 
@@ -380,15 +584,28 @@ public class PerformanceLogger implements Serializable
      */
     public static void clear()
     {
-        try
+        synchronized (globalLock)
         {
-            PerformanceLogger.statsRegister.destroy();
-            PerformanceLogger._logEntries.clear();
-            TotalLogEntry.clearIntervalStatistics();
-        }
-        catch (MBeanRegistrationException e)
-        {
-            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "clear", e);
+            try
+            {
+                registrar.clear();
+                for (Entry<ObjectName, TotalLogEntry> entry : statsRegister.getAllRegisteredBeans().entrySet())
+                {
+                    discardSharedRecorder(entry.getKey(), entry.getValue());
+                }
+                PerformanceLogger.statsRegister.destroy();
+                PerformanceLogger._logEntries.clear();
+                entryCount.set(0);
+                heavyHitters.clear();
+                sampler.clear();
+                taggedMetrics.clear();
+                entryGeneration.incrementAndGet();
+                TotalLogEntry.clearIntervalStatistics();
+            }
+            catch (MBeanRegistrationException e)
+            {
+                LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "clear", e);
+            }
         }
     }
 
@@ -413,6 +630,31 @@ public class PerformanceLogger implements Serializable
     private static final String HEADER_FORMAT = "%-" + OP_STRING_LENGTH + "." + OP_STRING_LENGTH +
         "s %8.8s %11.11s %11.11s %11.11s %14.14s";
 
+    private static final String PRINT_TOP_N_METRIC = "%-" + OP_STRING_LENGTH + "." + OP_STRING_LENGTH +
+        "s %8d %8d %11.2f %11d %11d %14.2f";
+
+    private static final String TOP_N_HEADER_FORMAT = "%-" + OP_STRING_LENGTH + "." + OP_STRING_LENGTH +
+        "s %8.8s %8.8s %11.11s %11.11s %11.11s %14.14s";
+
+    /**
+     * Capture the metrics of all the operations in a single pass.
+     * 
+     * @param intervalName
+     *            the name of the interval to capture, for example "1m". Null
+     *            or {@link #TOTAL_INTERVAL_NAME} for the metrics since the
+     *            operation was first called. Operations without that interval
+     *            are left out.
+     * @return the immutable columnar snapshot.
+     */
+    public static PerformanceLogsSnapshot snapshot(String intervalName)
+    {
+        if (intervalName == null)
+        {
+            intervalName = TOTAL_INTERVAL_NAME;
+        }
+        return PerformanceLogsSnapshot.capture(_logEntries.values(), intervalName);
+    }
+
     /**
      * Dump the performance logs table to a human readable multi-line string
      * format.
@@ -422,34 +664,154 @@ public class PerformanceLogger implements Serializable
     public static String dumpPerformanceLogsTableToString()
     {
         StringBuilder build = new StringBuilder();
-        build.append(LINE_SEPARATOR);
-        build.append("Performance Logs");
-        build.append(LINE_SEPARATOR);
-        build.append(LINE_SEPARATOR);
-        boolean headers = false;
-        for (TimeIntervalLogEntryMXBean pil : PerformanceLogger.getPerformanceLogs().values())
+        try
         {
-            if (!headers)
+            dumpPerformanceLogsTable(build);
+        }
+        catch (IOException e)
+        {
+            // a string builder doesn't throw.
+            throw new IllegalStateException(e);
+        }
+        return build.toString();
+    }
+
+    /**
+     * Dump the performance logs table in a human readable multi-line format,
+     * one line at a time.
+     * 
+     * @param output
+     *            where the table is written, for example a buffered writer.
+     * @throws IOException
+     *             if the output fails.
+     */
+    public static void dumpPerformanceLogsTable(Appendable output) throws IOException
+    {
+        PerformanceLogsSnapshot snapshot = snapshot(TOTAL_INTERVAL_NAME);
+
+        // each line is formatted in the same builder, then appended.
+        StringBuilder row = new StringBuilder(256);
+        Formatter formatter = new Formatter(row);
+        row.append(LINE_SEPARATOR);
+        row.append("Performance Logs");
+        row.append(LINE_SEPARATOR);
+        row.append(LINE_SEPARATOR);
+        if (snapshot.size() > 0)
+        {
+            String dash = "===================================================================================================================================================";
+            formatter.format(HEADER_FORMAT, "Name", "NumCalls", "AverageMS", "MinimumMS", "MaximumMS", "TotalMS");
+            row.append(LINE_SEPARATOR);
+            formatter.format(HEADER_DASH, dash, dash, dash, dash, dash, dash);
+            row.append(LINE_SEPARATOR);
+        }
+        output.append(row);
+        for (int line = 0; line < snapshot.size(); ++line)
+        {
+            row.setLength(0);
+            formatter.format(PRINT_METRIC, snapshot.getId(line), snapshot.getCallCount(line),
+                snapshot.getAverageDuration(line) / MILLIS_PER_NANO, snapshot.getMinimumDuration(line) / MILLIS_PER_NANO,
+                snapshot.getMaximumDuration(line) / MILLIS_PER_NANO, snapshot.getTotalDuration(line) / MILLIS_PER_NANO);
+            row.append(LINE_SEPARATOR);
+            output.append(row);
+        }
+    }
+
+    /**
+     * Dump the operations with the highest values of some metrics to a human
+     * readable multi-line string format.
+     * 
+     * @param count
+     *            the number of operations to print for each metric.
+     * @param intervalName
+     *            the interval to rank, for example "1m". Null or
+     *            {@link #TOTAL_INTERVAL_NAME} for the metrics since the
+     *            operation was first called.
+     * @param metrics
+     *            the metrics to rank the operations on, all of them if none
+     *            is given.
+     * @return The top operations tables.
+     */
+    public static String dumpTopNToString(int count, String intervalName, TopNRanking.Metric... metrics)
+    {
+        StringBuilder build = new StringBuilder();
+        try
+        {
+            dumpTopN(build, count, intervalName, metrics);
+        }
+        catch (IOException e)
+        {
+            // a string builder doesn't throw.
+            throw new IllegalStateException(e);
+        }
+        return build.toString();
+    }
+
+    /**
+     * Dump the operations with the highest values of some metrics, one table
+     * per metric. The rankings are computed in a single pass over the
+     * operations, only the ranked operations are printed.
+     * 
+     * @param output
+     *            where the tables are written, for example a buffered writer.
+     * @param count
+     *            the number of operations to print for each metric.
+     * @param intervalName
+     *            the interval to rank, for example "1m". Null or
+     *            {@link #TOTAL_INTERVAL_NAME} for the metrics since the
+     *            operation was first called.
+     * @param metrics
+     *            the metrics to rank the operations on, all of them if none
+     *            is given.
+     * @throws IOException
+     *             if the output fails.
+     */
+    public static void dumpTopN(Appendable output, int count, String intervalName, TopNRanking.Metric... metrics)
+        throws IOException
+    {
+        if (intervalName == null)
+        {
+            intervalName = TOTAL_INTERVAL_NAME;
+        }
+        if (metrics == null || metrics.length == 0)
+        {
+            metrics = TopNRanking.Metric.values();
+        }
+        TopNRanking ranking = TopNRanking.rank(_logEntries.values(), intervalName, count, metrics);
+        PerformanceLogsSnapshot snapshot = ranking.getSnapshot();
+
+        StringBuilder row = new StringBuilder(256);
+        Formatter formatter = new Formatter(row);
+        String dash = "===================================================================================================================================================";
+        for (int i = 0; i < metrics.length; ++i)
+        {
+            row.setLength(0);
+            row.append(LINE_SEPARATOR);
+            row.append("Top ").append(count).append(" by ").append(metrics[i].getDescription());
+            row.append(" (").append(intervalName).append(')');
+            row.append(LINE_SEPARATOR);
+            row.append(LINE_SEPARATOR);
+            int[] rows = ranking.getRows(i);
+            if (rows.length > 0)
             {
-                headers = true;
-                String dash = "===================================================================================================================================================";
-                build.append(
-                    String.format(HEADER_FORMAT, "Name", "NumCalls", "AverageMS", "MinimumMS", "MaximumMS", "TotalMS"));
-                build.append(LINE_SEPARATOR);
-                build.append(String.format(HEADER_DASH, dash, dash, dash, dash, dash, dash));
-                build.append(LINE_SEPARATOR);
+                formatter.format(TOP_N_HEADER_FORMAT, "Name", "NumCalls", "Errors", "AverageMS", "MinimumMS",
+                    "MaximumMS", "TotalMS");
+                row.append(LINE_SEPARATOR);
+                formatter.format(TOP_N_HEADER_FORMAT, dash, dash, dash, dash, dash, dash, dash);
+                row.append(LINE_SEPARATOR);
+            }
+            output.append(row);
+            for (int line : rows)
+            {
+                row.setLength(0);
+                formatter.format(PRINT_TOP_N_METRIC, snapshot.getId(line), snapshot.getCallCount(line),
+                    snapshot.getErrorCallCount(line), snapshot.getAverageDuration(line) / MILLIS_PER_NANO,
+                    snapshot.getMinimumDuration(line) / MILLIS_PER_NANO,
+                    snapshot.getMaximumDuration(line) / MILLIS_PER_NANO,
+                    snapshot.getTotalDuration(line) / MILLIS_PER_NANO);
+                row.append(LINE_SEPARATOR);
+                output.append(row);
             }
-            // build.append( String.format( "%-45.45s %8d %11.2f %11.2f %11.2f",
-            // pil.getName(), pil.getCallCount(), pil.getAverageDuration(),
-            // pil.getMinimumDuration(), pil.getMaximumDuration() ) );
-            build.append(String.format(PRINT_METRIC, pil.getName(), pil.getCallCount(),
-                pil.getAverageDuration() / MILLIS_PER_NANO, pil.getMinimumDuration() / MILLIS_PER_NANO,
-                pil.getMaximumDuration() / MILLIS_PER_NANO, pil.getTotalDuration() / MILLIS_PER_NANO));
-            build.append(LINE_SEPARATOR);
         }
-
-        String performanceLogsTable = build.toString();
-        return performanceLogsTable;
     }
 
     /**
@@ -460,17 +822,53 @@ public class PerformanceLogger implements Serializable
     public static String dumpPerformanceLogsCsvToString()
     {
         StringBuilder build = new StringBuilder();
+        try
+        {
+            dumpPerformanceLogsCsv(build);
+        }
+        catch (IOException e)
+        {
+            // a string builder doesn't throw.
+            throw new IllegalStateException(e);
+        }
+        return build.toString();
+    }
+
+    /**
+     * Dump the performance logs in the CSV format, one row at a time.
+     * 
+     * @param output
+     *            where the CSV is written, for example a buffered writer.
+     * @throws IOException
+     *             if the output fails.
+     */
+    public static void dumpPerformanceLogsCsv(Appendable output) throws IOException
+    {
+        // capture the intervals from the same entries so the rows line up.
+        Collection<TimeIntervalLogEntryMXBean> entries = new ArrayList<TimeIntervalLogEntryMXBean>(
+            _logEntries.values());
+        PerformanceLogsSnapshot snapshot = PerformanceLogsSnapshot.capture(entries, TOTAL_INTERVAL_NAME);
+        PerformanceLogsSnapshot intervalSnapshot = null;
+        String intervalName = csvPrintIntervalName;
+        if (intervalName != null)
+        {
+            intervalSnapshot = PerformanceLogsSnapshot.capture(entries, intervalName);
+        }
+
+        // each row is formatted in the same builder, then appended.
+        StringBuilder build = new StringBuilder(512);
+        Formatter formatter = new Formatter(build);
         boolean headers = false;
 
         int count = 0;
-        Collection<TimeIntervalLogEntryMXBean> valuesToPrint = PerformanceLogger.getPerformanceLogs().values();
-
-        for (TimeIntervalLogEntryMXBean pil : valuesToPrint)
+        int intervalRow = 0;
+        for (int row = 0; row < snapshot.size(); ++row)
         {
             if (!headers)
             {
                 headers = true;
-                printCsvHeaders(build);
+                printCsvHeaders(build, intervalName);
+                output.append(build);
             }
 
             ++count;
@@ -479,26 +877,58 @@ public class PerformanceLogger implements Serializable
             if (count > csvPrintCountLimit)
             {
 
-                printCsvCountLimitReachedWarning(valuesToPrint.size());
+                printCsvCountLimitReachedWarning(snapshot.size());
 
                 break;
             }
 
-            build.append(pil.getName().replaceAll(",", "-"));
-            printIntervalMetricsToCsv(build, pil);
+            build.setLength(0);
+            build.append(snapshot.getId(row).replace(',', '-'));
+            printIntervalMetricsToCsv(build, formatter, snapshot, row);
 
-            if (csvPrintIntervalName != null)
+            // the interval rows are in the same order, minus the operations
+            // without the interval.
+            if (intervalSnapshot != null && intervalRow < intervalSnapshot.size() &&
+                intervalSnapshot.getId(intervalRow).equals(snapshot.getId(row)))
             {
-                TimeIntervalLogEntryMXBean metricByIntervalName = pil.getMetricByIntervalName(csvPrintIntervalName);
-                if (metricByIntervalName != null)
-                {
-                    printIntervalMetricsToCsv(build, metricByIntervalName);
-                }
+                printIntervalMetricsToCsv(build, formatter, intervalSnapshot, intervalRow);
+                ++intervalRow;
+            }
+            build.append(LINE_SEPARATOR);
+            output.append(build);
+        }
+
+        if (count > csvPrintCountLimit)
+        {
+            // the warning was printed, the tagged rows are skipped too.
+            return;
+        }
+
+        List<TaggedMetricSnapshot> taggedValuesToPrint = taggedMetrics.aggregate(csvTagDimensions);
+        for (TaggedMetricSnapshot tagged : taggedValuesToPrint)
+        {
+            if (!headers)
+            {
+                headers = true;
+                build.setLength(0);
+                printCsvHeaders(build, intervalName);
+                output.append(build);
+            }
+
+            ++count;
+
+            if (count > csvPrintCountLimit)
+            {
+                printCsvCountLimitReachedWarning(snapshot.size() + taggedValuesToPrint.size());
+                break;
             }
+
+            build.setLength(0);
+            build.append(tagged.getName().replace(',', '-'));
+            printTaggedMetricsToCsv(build, formatter, tagged, intervalName != null);
             build.append(LINE_SEPARATOR);
+            output.append(build);
         }
-        String performanceLogCsv = build.toString();
-        return performanceLogCsv;
     }
 
     public static void printCsvCountLimitReachedWarning(int size)
@@ -514,65 +944,110 @@ public class PerformanceLogger implements Serializable
             ". Attempting to print " + size + " metrics. Excess metrics will be ignored.");
     }
 
-    private static void printCsvHeaders(StringBuilder build)
+    private static void printCsvHeaders(StringBuilder build, String intervalName)
     {
         build.append(
-            "Name,Number of calls,Average Duration milliseconds,Minimum Duration milliseconds,Maximum Duration milliseconds,Total Duration milliseconds,Average Size,Maximum Size,Total Size,Cache enabled count,Cache hit count, Error count");
+            "Name,Number of calls,Average Duration milliseconds,Minimum Duration milliseconds,Maximum Duration milliseconds,Total Duration milliseconds,Average Size,Maximum Size,Total Size,Cache enabled count,Cache hit count, Error count,Duration 50th percentile milliseconds,Duration 95th percentile milliseconds,Duration 99th percentile milliseconds,Duration 99.9th percentile milliseconds");
 
-        if (csvPrintIntervalName != null)
+        if (intervalName != null)
         {
             build.append(",Number of calls ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Average Duration milliseconds ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Minimum Duration milliseconds ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Maximum Duration milliseconds ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Total Duration milliseconds ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Average Size ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Maximum Size ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Total Size ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Cache enabled count ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Cache hit count ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
             build.append(",Error count ");
-            build.append(csvPrintIntervalName);
+            build.append(intervalName);
+            build.append(",Duration 50th percentile milliseconds ");
+            build.append(intervalName);
+            build.append(",Duration 95th percentile milliseconds ");
+            build.append(intervalName);
+            build.append(",Duration 99th percentile milliseconds ");
+            build.append(intervalName);
+            build.append(",Duration 99.9th percentile milliseconds ");
+            build.append(intervalName);
         }
 
         build.append(LINE_SEPARATOR);
     }
 
-    private static void printIntervalMetricsToCsv(StringBuilder build, TimeIntervalLogEntryMXBean pil)
+    private static void printIntervalMetricsToCsv(StringBuilder build, Formatter formatter,
+        PerformanceLogsSnapshot snapshot, int row)
     {
 
         build.append(",");
-        build.append(pil.getCallCount());
+        build.append(snapshot.getCallCount(row));
+        build.append(",");
+        formatter.format("%1.3f", snapshot.getAverageDuration(row) / MILLIS_PER_NANO);
+        build.append(",");
+        build.append(snapshot.getMinimumDuration(row) / MILLIS_PER_NANO);
+        build.append(",");
+        build.append(snapshot.getMaximumDuration(row) / MILLIS_PER_NANO);
+        build.append(",");
+        formatter.format("%1.3f", snapshot.getTotalDuration(row) / MILLIS_PER_NANO);
+        build.append(",");
+        formatter.format("%1.3f", snapshot.getAverageResponseSize(row));
         build.append(",");
-        build.append(String.format("%1.3f", pil.getAverageDuration() / MILLIS_PER_NANO));
+        build.append(snapshot.getMaximumResponseSize(row));
         build.append(",");
-        build.append(pil.getMinimumDuration() / MILLIS_PER_NANO);
+        formatter.format("%1.3f", snapshot.getTotalResponseSize(row));
         build.append(",");
-        build.append(pil.getMaximumDuration() / MILLIS_PER_NANO);
+        build.append(snapshot.getCacheEnabledCount(row));
         build.append(",");
-        build.append(String.format("%1.3f", pil.getTotalDuration() / MILLIS_PER_NANO));
+        build.append(snapshot.getCacheHitCount(row));
         build.append(",");
-        build.append(String.format("%1.3f", pil.getAverageResponseSize()));
+        build.append(snapshot.getErrorCallCount(row));
+        build.append(",");
+        build.append(snapshot.getDurationPercentile50(row) / MILLIS_PER_NANO);
+        build.append(",");
+        build.append(snapshot.getDurationPercentile95(row) / MILLIS_PER_NANO);
+        build.append(",");
+        build.append(snapshot.getDurationPercentile99(row) / MILLIS_PER_NANO);
+        build.append(",");
+        build.append(snapshot.getDurationPercentile999(row) / MILLIS_PER_NANO);
+    }
+
+    /**
+     * Print the columns of a tagged metric. Tagged metrics have no response
+     * size, cache, percentile or interval metrics, those columns are left
+     * empty.
+     */
+    private static void printTaggedMetricsToCsv(StringBuilder build, Formatter formatter,
+        TaggedMetricSnapshot tagged, boolean printInterval)
+    {
         build.append(",");
-        build.append(pil.getMaximumResponseSize());
+        build.append(tagged.getCallCount());
         build.append(",");
-        build.append(String.format("%1.3f", pil.getTotalResponseSize()));
+        formatter.format("%1.3f", tagged.getAverageDuration() / MILLIS_PER_NANO);
         build.append(",");
-        build.append(pil.getCacheEnabledCount());
+        build.append(tagged.getMinimumDuration() / MILLIS_PER_NANO);
         build.append(",");
-        build.append(pil.getCacheHitCount());
+        build.append(tagged.getMaximumDuration() / MILLIS_PER_NANO);
         build.append(",");
-        build.append(pil.getErrorCallCount());
+        formatter.format("%1.3f", (double) tagged.getTotalDuration() / MILLIS_PER_NANO);
+        build.append(",,,,,,");
+        build.append(tagged.getErrorCallCount());
+        build.append(",,,,");
+        if (printInterval)
+        {
+            // one empty column per interval header.
+            build.append(",,,,,,,,,,,,,,,");
+        }
     }
 
     /**
@@ -599,59 +1074,284 @@ public class PerformanceLogger implements Serializable
     }
 
     /**
-     * Log an operation execution and the time spent.
+     * Get a recorder bound to an operation. Recording through the handle skips
+     * the lookup of the metrics by ID as well as the cleanup and periodic print
+     * checks. Handles can be cached for the lifetime of the application, they
+     * re-bind themselves when the metrics they point to are cleared or cleaned
+     * up.
      * 
      * @param id
      *            The operation name key.
-     * @param value
-     *            the time spent in the operation.
+     * @param logType
+     *            the type of log to use.
+     * @return the metric handle.
      */
-    public static void increase(String id, long value)
+    public static MetricHandle handle(String id, LogType logType)
     {
-        increase(id, value, false, LogType.STATISTIC);
+        if (id == null || id.equals(""))
+        {
+            throw new IllegalArgumentException("Metric handle ID must not be empty.");
+        }
+
+        if (logType == null)
+        {
+            logType = LogType.STATISTIC;
+        }
+
+        return new MetricHandle(id, logType);
     }
 
     /**
-     * Log an operation execution and the time spent.
-     * 
-     * @param id
-     *            The operation name key.
-     * @param value
-     *            the time spent in the operation.
-     * @param logType
-     *            the type of log to use.
+     * @return the current generation of log entries. The value changes every
+     *         time log entries are removed.
      */
-    public static void increase(String id, long value, LogType logType)
+    static int getEntryGeneration()
     {
-        increase(id, value, false, logType);
+        return entryGeneration.get();
     }
 
     /**
-     * Log an operation execution and the time spent.
-     * 
-     * @param id
-     *            The operation name key.
-     * @param value
-     *            the time spent in the operation.
-     * @param failed
-     *            flag indicating if the operation failed.
+     * @return true if new log entries stripe their total statistics over
+     *         shards.
      */
-    public static void increase(String id, long value, boolean failed)
+    public static boolean isThreadShards()
     {
-        increase(id, value, failed, LogType.STATISTIC);
+        return isThreadShards;
     }
 
     /**
-     * Log an operation execution and the time spent.
-     * 
-     * @param id
-     *            The operation name key.
-     * @param value
-     *            the time spent in the operation.
-     * @param failed
-     *            flag indicating if the operation failed.
-     * @param logType
-     *            the type of log to use.
+     * @return true when new log entries are registered in JMX on a background
+     *         thread.
+     */
+    public static boolean isAsynchronousRegistration()
+    {
+        return isAsynchronousRegistration;
+    }
+
+    /**
+     * Register new log entries in JMX on a background thread, or on the thread
+     * creating them.
+     * 
+     * @param asynchronousRegistration
+     *            true to register new log entries on a background thread.
+     */
+    public static void setAsynchronousRegistration(boolean asynchronousRegistration)
+    {
+        isAsynchronousRegistration = asynchronousRegistration;
+        if (!asynchronousRegistration)
+        {
+            registrar.flush();
+        }
+    }
+
+    /**
+     * Stripe the total statistics of each entry over a few shards picked by
+     * thread id, merged when the statistics are read. Reduces the contention
+     * between threads calling the same operations at the cost of memory per
+     * processor and slower reads. Only applies to log entries created after
+     * the call.
+     * 
+     * @param threadShards
+     *            true to stripe the total statistics over shards.
+     */
+    public static void setThreadShards(boolean threadShards)
+    {
+        isThreadShards = threadShards;
+    }
+
+    /**
+     * @return the maximum number of log entries, 0 when there is no limit.
+     */
+    public static int getMaximumEntryCount()
+    {
+        return maximumEntryCount;
+    }
+
+    /**
+     * Limit the number of log entries. Once the limit is reached, calls to new
+     * operations are recorded in the overflow entry of their layer, named
+     * {@link #OVERFLOW_OPERATION_NAME}, and the most called of these operations
+     * replace the least called log entries on the next cleanup. The limit is
+     * approximate when new operations are recorded concurrently.
+     * 
+     * @param maximumEntryCount
+     *            the maximum number of log entries, 0 for no limit.
+     */
+    public static void setMaximumEntryCount(int maximumEntryCount)
+    {
+        synchronized (globalLock)
+        {
+            int count = Math.max(0, maximumEntryCount);
+            int stripeCount = Math.min(Runtime.getRuntime().availableProcessors(), count / HEAVY_HITTER_STRIPE_SIZE);
+            heavyHitters = new HeavyHitterSketch(Math.max(1, count), Math.max(1, stripeCount));
+            PerformanceLogger.maximumEntryCount = count;
+        }
+    }
+
+    /**
+     * @return the number of calls recorded per second, 0 when all the calls
+     *         are recorded.
+     */
+    public static long getSamplingBudget()
+    {
+        return sampler.getBudget();
+    }
+
+    /**
+     * Record only a sample of the calls, keeping the number of recorded calls
+     * per second within a budget. Each operation is sampled at its own rate
+     * and recorded calls are weighted by the inverse of that rate, so counts
+     * and sums stay unbiased. Minimum, maximum and percentiles become
+     * estimates. Failed calls and calls slower than the sampling slow
+     * threshold are always recorded.
+     * 
+     * @param budget
+     *            the number of calls to record per second, 0 to record all
+     *            calls.
+     */
+    public static void setSamplingBudget(long budget)
+    {
+        sampler.setBudget(budget);
+    }
+
+    /**
+     * @return the duration in milliseconds above which calls are always
+     *         recorded when sampling, 0 when the rule is disabled.
+     */
+    public static long getSamplingSlowThresholdInMillisecond()
+    {
+        return sampler.getSlowThresholdInNanos() / MILLIS_PER_NANO;
+    }
+
+    /**
+     * @param slowThreshold
+     *            the duration in milliseconds above which calls are always
+     *            recorded when sampling, 0 to disable the rule.
+     */
+    public static void setSamplingSlowThresholdInMillisecond(long slowThreshold)
+    {
+        sampler.setSlowThresholdInNanos(slowThreshold * MILLIS_PER_NANO);
+    }
+
+    /**
+     * @return the delay in milliseconds between two updates of the moving
+     *         rates of the entries.
+     */
+    public static int getRateTickIntervalInMillisecond()
+    {
+        return rateTickIntervalInMillisecond;
+    }
+
+    /**
+     * Set the delay between two updates of the moving rates. The scheduler
+     * picks up the new delay when it is restarted.
+     * 
+     * @param tickInterval
+     *            the delay in milliseconds, at least 1.
+     */
+    public static void setRateTickIntervalInMillisecond(int tickInterval)
+    {
+        rateTickIntervalInMillisecond = Math.max(1, tickInterval);
+    }
+
+    /**
+     * Decide if a call is recorded.
+     * 
+     * @param id
+     *            the operation identifier.
+     * @param duration
+     *            the duration of the call in nanoseconds.
+     * @param failed
+     *            was call failed.
+     * @return the number of calls the recorded call stands for, 0 if the call
+     *         must not be recorded.
+     */
+    public static long sample(String id, long duration, boolean failed)
+    {
+        return sampler.sample(id, duration, failed);
+    }
+
+    /**
+     * Decide if a metric is recorded. The decision is kept in the metric so
+     * that the performance logger and all the metric gatherers receiving it
+     * make the same one. When the metric stands for more than one call, the
+     * weight is added to its {@link CommonMetricProperties#SAMPLE_WEIGHT}
+     * property.
+     * 
+     * @param metric
+     *            the metric.
+     * @return the number of calls the metric stands for, 0 if it must not be
+     *         recorded.
+     */
+    public static long sample(OperationMetric metric)
+    {
+        long weight = metric.getSampleWeight();
+        if (weight == OperationMetric.NOT_SAMPLED)
+        {
+            weight = sampler.sample(metric.getOperationName(), metric.getDuration(), !metric.isSuccessful());
+            metric.setSampleWeight(weight);
+            if (weight > 1)
+            {
+                metric.setProperty(CommonMetricProperties.SAMPLE_WEIGHT, Long.toString(weight));
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Log an operation execution and the time spent.
+     * 
+     * @param id
+     *            The operation name key.
+     * @param value
+     *            the time spent in the operation.
+     */
+    public static void increase(String id, long value)
+    {
+        increase(id, value, false, LogType.STATISTIC);
+    }
+
+    /**
+     * Log an operation execution and the time spent.
+     * 
+     * @param id
+     *            The operation name key.
+     * @param value
+     *            the time spent in the operation.
+     * @param logType
+     *            the type of log to use.
+     */
+    public static void increase(String id, long value, LogType logType)
+    {
+        increase(id, value, false, logType);
+    }
+
+    /**
+     * Log an operation execution and the time spent.
+     * 
+     * @param id
+     *            The operation name key.
+     * @param value
+     *            the time spent in the operation.
+     * @param failed
+     *            flag indicating if the operation failed.
+     */
+    public static void increase(String id, long value, boolean failed)
+    {
+        increase(id, value, failed, LogType.STATISTIC);
+    }
+
+    /**
+     * Log an operation execution and the time spent.
+     * 
+     * @param id
+     *            The operation name key.
+     * @param value
+     *            the time spent in the operation.
+     * @param failed
+     *            flag indicating if the operation failed.
+     * @param logType
+     *            the type of log to use.
      */
     public static void increase(String id, long value, boolean failed, LogType logType)
     {
@@ -663,9 +1363,152 @@ public class PerformanceLogger implements Serializable
 
         if (isEnabled)
         {
-            TimeIntervalLogEntryMXBean logEntry = PerformanceLogger.getOrCreateEntry(id, logType.name());
-            logEntry.addValue(value, failed);
+            long overheadStart = ProfilerOverhead.PERFORMANCE_LOGGER.start();
+            long weight = sampler.sample(id, value, failed);
+            if (weight != AdaptiveSampler.DROPPED)
+            {
+                TimeIntervalLogEntryMXBean logEntry = PerformanceLogger.getOrCreateEntry(id, logType.name());
+                logEntry.addValue(value, 0, false, false, failed, weight);
+            }
+            ProfilerOverhead.PERFORMANCE_LOGGER.stop(overheadStart, value);
+        }
+    }
+
+    /**
+     * Log an operation execution with tags, for example the tenant or the
+     * status of the call. The call is recorded under the operation name key as
+     * well as in the series of the operation and tags, which can be
+     * aggregated on any of the tags through
+     * {@link #aggregateTaggedMetrics(String...)}.
+     * 
+     * @param id
+     *            The operation name key.
+     * @param tags
+     *            the tags of the call, see {@link Tags#of(String...)}.
+     * @param value
+     *            the time spent in the operation.
+     * @param failed
+     *            flag indicating if the operation failed.
+     */
+    public static void increase(String id, Tags tags, long value, boolean failed)
+    {
+        if (isEnabled)
+        {
+            long overheadStart = ProfilerOverhead.PERFORMANCE_LOGGER.start();
+            long weight = sampler.sample(id, value, failed);
+            if (weight != AdaptiveSampler.DROPPED)
+            {
+                TimeIntervalLogEntryMXBean logEntry = PerformanceLogger.getOrCreateEntry(id, LogType.STATISTIC.name());
+                logEntry.addValue(value, 0, false, false, failed, weight);
+                taggedMetrics.record(id, tags == null ? Tags.NONE : tags, value, failed, weight);
+            }
+            ProfilerOverhead.PERFORMANCE_LOGGER.stop(overheadStart, value);
+        }
+    }
+
+    /**
+     * Aggregate the calls recorded with tags on some dimensions.
+     * 
+     * @param dimensions
+     *            the dimensions to group on, {@link Tags#OPERATION_DIMENSION}
+     *            or tag keys. Without dimensions, each series of operation and
+     *            tags is returned.
+     * @return the aggregates sorted by name.
+     */
+    public static List<TaggedMetricSnapshot> aggregateTaggedMetrics(String... dimensions)
+    {
+        return taggedMetrics.aggregate(dimensions);
+    }
+
+    /**
+     * @return the metrics of the calls recorded with tags.
+     */
+    public static TaggedMetrics getTaggedMetrics()
+    {
+        return taggedMetrics;
+    }
+
+    /**
+     * Get the cursor of an exporter, creating it on the first call. The first
+     * read of a new cursor returns the totals of all the operations, each
+     * following read returns the increments since the previous one. Exporters
+     * with different names read independently.
+     * 
+     * @param exporterName
+     *            the name of the exporter.
+     * @return the cursor of the exporter.
+     */
+    public static DeltaCursor getDeltaCursor(String exporterName)
+    {
+        if (StringUtils.isEmpty(exporterName))
+        {
+            throw new IllegalArgumentException("The exporter name must not be empty.");
+        }
+        DeltaCursor cursor = deltaCursors.get(exporterName);
+        if (cursor == null)
+        {
+            DeltaCursor newCursor = new DeltaCursor(exporterName);
+            cursor = deltaCursors.putIfAbsent(exporterName, newCursor);
+            if (cursor == null)
+            {
+                cursor = newCursor;
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Remove the cursor of an exporter that stopped, so the totals it
+     * remembers can be collected.
+     * 
+     * @param exporterName
+     *            the name of the exporter.
+     * @return true if the exporter had a cursor.
+     */
+    public static boolean removeDeltaCursor(String exporterName)
+    {
+        return deltaCursors.remove(exporterName) != null;
+    }
+
+    /**
+     * @return the names of the exporters with a cursor.
+     */
+    public static Set<String> getDeltaCursorNames()
+    {
+        return Collections.unmodifiableSet(deltaCursors.keySet());
+    }
+
+    /**
+     * @return the dimensions the tagged metrics are grouped on in the CSV
+     *         dump, empty to print each series.
+     */
+    public static String[] getCsvTagDimensions()
+    {
+        return csvTagDimensions.clone();
+    }
+
+    /**
+     * @param dimensions
+     *            the dimensions the tagged metrics are grouped on in the CSV
+     *            dump, separated by commas, empty to print each series.
+     */
+    public static void setCsvTagDimensions(String dimensions)
+    {
+        if (StringUtils.isBlank(dimensions))
+        {
+            csvTagDimensions = new String[0];
+            return;
+        }
+        String[] split = dimensions.split(",");
+        List<String> trimmed = new ArrayList<String>(split.length);
+        for (String dimension : split)
+        {
+            if (!StringUtils.isBlank(dimension))
+            {
+                trimmed.add(dimension.trim());
+            }
         }
+        csvTagDimensions = trimmed.toArray(new String[trimmed.size()]);
     }
 
     /**
@@ -679,17 +1522,24 @@ public class PerformanceLogger implements Serializable
 
         if (isEnabled)
         {
-            String operationName = metric.getOperationName();
-            String logTypeName = LogType.STATISTIC.name();
-            TimeIntervalLogEntryMXBean logEntry = PerformanceLogger.getOrCreateEntry(operationName, logTypeName);
-
+            long overheadStart = ProfilerOverhead.PERFORMANCE_LOGGER.start();
             long duration = metric.getDuration();
-            int resultSize = metric.getResultSize();
-            boolean operationCacheEnabled = metric.isOperationCacheEnabled();
-            boolean resultFetchedFromCache = metric.isResultFetchedFromCache();
-            boolean successful = metric.isSuccessful();
+            long weight = sample(metric);
+            if (weight != AdaptiveSampler.DROPPED)
+            {
+                String operationName = metric.getOperationName();
+                String logTypeName = LogType.STATISTIC.name();
+                TimeIntervalLogEntryMXBean logEntry = PerformanceLogger.getOrCreateEntry(operationName, logTypeName);
+
+                int resultSize = metric.getResultSize();
+                boolean operationCacheEnabled = metric.isOperationCacheEnabled();
+                boolean resultFetchedFromCache = metric.isResultFetchedFromCache();
+                boolean successful = metric.isSuccessful();
 
-            logEntry.addValue(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, !successful);
+                logEntry.addValue(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, !successful,
+                    weight);
+            }
+            ProfilerOverhead.PERFORMANCE_LOGGER.stop(overheadStart, duration);
         }
     }
 
@@ -737,182 +1587,464 @@ public class PerformanceLogger implements Serializable
         {
             return false;
         }
-        boolean success = true;
 
-        LogEntry match = _timers.get().get(id);
+        long overheadStart = ProfilerOverhead.TIMERS.start();
+        _timers.get().start(id, System.nanoTime());
+        ProfilerOverhead.TIMERS.stop(overheadStart);
+
+        return true;
+    }
+
+    /**
+     * Stop timer and increment values. The measurement is matched with the
+     * most recent start logging call made with the same ID in the current
+     * thread.
+     * 
+     * @param id
+     *            the operation ID to stop.
+     * @return true if a measurement was made.
+     */
+    public static boolean stopLogging(String id)
+    {
+        if (!isEnabled || id == null || id.equals(""))
+        {
+            return false;
+        }
+
+        long stopTime = System.nanoTime();
+        long overheadStart = ProfilerOverhead.TIMERS.start();
+        long duration = _timers.get().stop(id, stopTime);
+        if (duration < 0)
+        {
+            ProfilerOverhead.TIMERS.stop(overheadStart);
+            return false;
+        }
+
+        long weight = sampler.sample(id, duration, false);
+        if (weight != AdaptiveSampler.DROPPED)
+        {
+            TimeIntervalLogEntryMXBean myEntry = getOrCreateEntry(id, LogType.METRIC.name());
+            myEntry.addValue(duration, 0, false, false, false, weight);
+        }
+        ProfilerOverhead.TIMERS.stop(overheadStart, duration);
+        return true;
+    }
+
+    protected static final AtomicLong lastCheck = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Get or create the JMX bean that will track metrics for an operation. This
+     * method is thread safe. Only a single bean for a single operation ID will
+     * ever be created.
+     * 
+     * @param id
+     *            the operation identifier.
+     * @param type
+     *            the type of log to produce.
+     * @return The TimeIntervalLogEntryMXBean used to track metrics.
+     */
+    protected static TimeIntervalLogEntryMXBean getOrCreateEntry(final String id, final String type)
+    {
+
+        checkToPerformCleanupAndPrint();
+
+        TimeIntervalLogEntryMXBean myEntry = _logEntries.get(id);
+        if (myEntry == null)
+        {
+            int maximumCount = maximumEntryCount;
+            String entryId = id;
+            if (maximumCount > 0 && entryCount.get() >= maximumCount && !isOverflowId(id))
+            {
+                heavyHitters.offer(id, 1);
+                entryId = getOverflowId(id);
+                myEntry = _logEntries.get(entryId);
+                if (myEntry != null)
+                {
+                    return myEntry;
+                }
+            }
+
+            myEntry = _logEntries.computeIfAbsent(entryId, CREATE_LOG_ENTRY);
+
+            if (!isAsynchronousRegistration && registrar.hasPending())
+            {
+                registrar.flush();
+            }
+        }
+        return myEntry;
+    }
+
+    /**
+     * @param id
+     *            the operation identifier.
+     * @return the identifier of the overflow entry of the operation layer.
+     */
+    static String getOverflowId(String id)
+    {
+        // same bounds as TraceUtilities.getLayer, without the substring.
+        int end = id.indexOf(':');
+        int start = 0;
+        while (start < end && id.charAt(start) <= ' ')
+        {
+            ++start;
+        }
+        while (end > start && id.charAt(end - 1) <= ' ')
+        {
+            --end;
+        }
+        if (end <= start)
+        {
+            return OVERFLOW_OPERATION_NAME;
+        }
+
+        int length = end - start;
+        for (OverflowId overflowId : overflowIds)
+        {
+            if (overflowId.layer.length() == length && id.regionMatches(start, overflowId.layer, 0, length))
+            {
+                return overflowId.id;
+            }
+        }
+        return addOverflowId(id.substring(start, end)).id;
+    }
 
-        if (match == null)
+    private static OverflowId addOverflowId(String layer)
+    {
+        synchronized (OverflowId.class)
         {
-            match = new LogEntry(id, LogType.METRIC);
-            _timers.get().put(id, match);
+            OverflowId[] currentIds = overflowIds;
+            for (OverflowId overflowId : currentIds)
+            {
+                if (overflowId.layer.equals(layer))
+                {
+                    return overflowId;
+                }
+            }
+            OverflowId overflowId = new OverflowId(layer, layer + ":" + OVERFLOW_OPERATION_NAME);
+            if (currentIds.length < MAXIMUM_OVERFLOW_LAYER_COUNT)
+            {
+                OverflowId[] newIds = new OverflowId[currentIds.length + 1];
+                System.arraycopy(currentIds, 0, newIds, 0, currentIds.length);
+                newIds[currentIds.length] = overflowId;
+                overflowIds = newIds;
+            }
+            return overflowId;
         }
-        match.startTimer(System.nanoTime());
+    }
 
-        if (_timers.get().size() > LOCAL_TIMER_THRESHOLD)
+    /**
+     * Overflow entry identifier of a layer.
+     */
+    private static final class OverflowId
+    {
+        private final String layer;
+
+        private final String id;
+
+        private OverflowId(String layer, String id)
         {
-            flushTimers();
+            this.layer = layer;
+            this.id = id;
         }
+    }
 
-        return success;
+    private static boolean isOverflowId(String id)
+    {
+        return id.endsWith(OVERFLOW_OPERATION_NAME) && id.equals(getOverflowId(id));
     }
 
-    private static void flushTimers()
-    {
-        Map<String, LogEntry> localTimer = _timers.get();
-        for (String _key : Collections.unmodifiableMap(localTimer).keySet())
-        {
-            LogEntry check = localTimer.get(_key);
-            if (!check.isInFlight())
+    /**
+     * Create the log entry of an operation that isn't in the in memory cache.
+     * The entry is usable right away, its JMX registration is queued.
+     * 
+     * @param id
+     *            the logger ID.
+     * @return the log entry. Can be a proxy to the entry registered by another
+     *         classloader.
+     */
+    private static TimeIntervalLogEntryMXBean createLogEntry(final String id)
+    {
+        ObjectName channelMXBeanName = channelMXBeanName(id, TOTAL_INTERVAL_NAME, "TotalLogEntry");
+        TimeIntervalLogEntryMXBean myEntry = fetchSharedLogEntry(id, channelMXBeanName);
+
+        if (myEntry == null)
+        {
+            myEntry = fetchRegisteredPerformanceLogger(channelMXBeanName);
+        }
+
+        if (myEntry == null)
+        {
+            TotalLogEntry newEntry = new TotalLogEntry(id, intervals, false, isThreadShards);
+            if (isAsynchronousRegistration)
+            {
+                registrar.submit(newEntry);
+            }
+            else
+            {
+                // registered by the calling thread once the entry is cached.
+                registrar.queue(newEntry);
+            }
+            myEntry = newEntry;
+        }
+        return myEntry;
+    }
+
+    /**
+     * Register all the log entries created since the last registration in JMX
+     * on the calling thread. New entries are otherwise registered shortly after
+     * their creation on a background thread.
+     */
+    public static void flushPendingRegistrations()
+    {
+        registrar.flush();
+    }
+
+    /**
+     * Register a batch of pending log entries in JMX.
+     * 
+     * @param pending
+     *            the queue of entries waiting for registration.
+     * @param batch
+     *            the list used to hold the batch.
+     * @param batchSize
+     *            maximum number of entries to register.
+     */
+    static void registerPendingLogEntries(Queue<TotalLogEntry> pending, List<TotalLogEntry> batch, int batchSize)
+    {
+        synchronized (globalLock)
+        {
+            // entries are taken under the lock so a concurrent clear can't
+            // let them be registered after it completes.
+            TotalLogEntry entry = null;
+            while (batch.size() < batchSize && (entry = pending.poll()) != null)
+            {
+                batch.add(entry);
+            }
+
+            for (TotalLogEntry pendingEntry : batch)
+            {
+                registerPendingLogEntry(pendingEntry);
+            }
+        }
+    }
+
+    private static void registerPendingLogEntry(final TotalLogEntry entry)
+    {
+        final String methodName = "registerPendingLogEntry";
+        String id = entry.getId();
+        ObjectName channelMXBeanName = channelMXBeanName(id, TOTAL_INTERVAL_NAME, "TotalLogEntry");
+        try
+        {
+            JMXBeanRegistrar.JMXBeanProvider<TotalLogEntry> jmxBeanProvider = new JMXBeanRegistrar.JMXBeanProvider<TotalLogEntry>()
+            {
+                @Override
+                public TotalLogEntry provide()
+                {
+                    return entry;
+                }
+            };
+            TotalLogEntry registered = statsRegister.retrieveOrRegister(channelMXBeanName, jmxBeanProvider);
+            if (registered == entry)
+            {
+                entry.registerIntervalEntries();
+                // let the other classloaders record directly into this entry.
+                sharedRecorders.put(channelMXBeanName, new LogEntryRecorder(entry));
+            }
+            else
+            {
+                replaceLogEntry(id, entry, registered);
+            }
+        }
+        catch (MBeanRegistrationException e)
+        {
+            // the entry keeps working without JMX.
+            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, methodName, e);
+        }
+        catch (IllegalStateException e)
+        {
+            // another classloader registered the same entry first, use it.
+            TimeIntervalLogEntryMXBean registered = fetchSharedLogEntry(id, channelMXBeanName);
+            if (registered == null)
+            {
+                registered = fetchRegisteredPerformanceLogger(channelMXBeanName);
+            }
+
+            if (registered == null)
+            {
+                LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, methodName, e);
+            }
+            else
             {
-                localTimer.remove(_key);
+                replaceLogEntry(id, entry, registered);
             }
         }
-
     }
 
     /**
-     * Stop timer and increment values
+     * Fetch the recorder that another classloader published for an entry.
      * 
      * @param id
-     *            the operation ID to stop.
-     * @return true if a measurement was made.
+     *            the logger ID.
+     * @param channelMXBeanName
+     *            the bean name
+     * @return an entry recording directly into the entry of the other
+     *         classloader, null if none was published.
      */
-    public static boolean stopLogging(String id)
+    private static TimeIntervalLogEntryMXBean fetchSharedLogEntry(String id, ObjectName channelMXBeanName)
     {
-        if (!isEnabled || id == null || id.equals(""))
+        Object recorder = sharedRecorders.get(channelMXBeanName);
+        if (recorder instanceof LogEntryRecorder)
         {
-            return false;
+            // published by this classloader.
+            return ((LogEntryRecorder) recorder).getEntry();
         }
-
-        LogEntry match = _timers.get().get(id);
-        if (match == null)
+        if (recorder instanceof LongBinaryOperator)
         {
-            return false;
+            TimeIntervalLogEntryMXBean view = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                channelMXBeanName, TimeIntervalLogEntryMXBean.class);
+            return new SharedLogEntry(id, (LongBinaryOperator) recorder, view);
         }
-
-        match.stopTimer(System.nanoTime());
-        syncLocalStats(match);
-        match.clear();
-        return true;
-
+        return null;
     }
 
     /**
-     * Flush thread local values to global counters
+     * Replace an entry whose owner in another classloader removed it.
      * 
-     * @param localEntry
-     *            The log entry to add to the statistics.
+     * @param id
+     *            the logger ID.
+     * @param discarded
+     *            the entry that was removed by its owner.
+     * @return the entry to use from now on.
      */
-    private static void syncLocalStats(final LogEntry localEntry)
+    static TimeIntervalLogEntryMXBean replaceDiscardedEntry(String id, TimeIntervalLogEntryMXBean discarded)
     {
-        TimeIntervalLogEntryMXBean myEntry = getOrCreateEntry(localEntry.getId(), localEntry.getType());
-        myEntry.addValue((long) localEntry.getAverage());
+        if (_logEntries.remove(id, discarded))
+        {
+            entryCount.decrementAndGet();
+            entryGeneration.incrementAndGet();
+        }
+        return getOrCreateEntry(id, LogType.STATISTIC.name());
     }
 
-    protected static final AtomicLong lastCheck = new AtomicLong(System.currentTimeMillis());
-
     /**
-     * Get or create the JMX bean that will track metrics for an operation. This
-     * method is thread safe. Only a single bean for a single operation ID will
-     * ever be created.
+     * Stop sharing an entry with the other classloaders.
      * 
-     * @param id
-     *            the operation identifier.
-     * @param type
-     *            the type of log to produce.
-     * @return The TimeIntervalLogEntryMXBean used to track metrics.
+     * @param channelMXBeanName
+     *            the bean name
+     * @param entry
+     *            the entry being removed.
      */
-    protected static TimeIntervalLogEntryMXBean getOrCreateEntry(final String id, final String type)
+    private static void discardSharedRecorder(ObjectName channelMXBeanName, TotalLogEntry entry)
     {
-
-        checkToPerformCleanupAndPrint();
-
-        TimeIntervalLogEntryMXBean myEntry = _logEntries.get(id);
-        if (myEntry == null)
+        Object recorder = sharedRecorders.get(channelMXBeanName);
+        if (recorder instanceof LogEntryRecorder && ((LogEntryRecorder) recorder).getEntry() == entry)
         {
-            synchronized (globalLock)
-            {
-                // check the in memory cache first
-                myEntry = _logEntries.get(id);
-                if (myEntry != null)
-                {
-                    return myEntry;
-                }
-                myEntry = getOrCreateLogEntryOnCacheMiss(id);
-                _logEntries.put(id, myEntry);
-                return myEntry;
-            }
+            ((LogEntryRecorder) recorder).discard();
+            sharedRecorders.remove(channelMXBeanName, recorder);
         }
-        return myEntry;
     }
 
     /**
-     * Get or create a log entry for the specific ID.
+     * Replace a pending entry by the entry another classloader registered
+     * first, folding the calls recorded in the pending entry into it.
      * 
      * @param id
      *            the logger ID.
-     * @return the log entry.
+     * @param pending
+     *            the entry that couldn't be registered.
+     * @param registered
+     *            the entry registered by the other classloader.
      */
-    protected static TimeIntervalLogEntryMXBean getOrCreateLogEntryOnCacheMiss(final String id)
+    private static void replaceLogEntry(String id, TotalLogEntry pending, TimeIntervalLogEntryMXBean registered)
     {
-        TimeIntervalLogEntryMXBean myEntry = null;
-        ObjectName channelMXBeanName = channelMXBeanName(id, TOTAL_INTERVAL_NAME, "TotalLogEntry");
-        myEntry = fetchRegisteredPerformanceLogger(channelMXBeanName);
-
-        if (myEntry == null)
+        if (_logEntries.replace(id, pending, registered))
         {
-            myEntry = registerNewLogger(id, channelMXBeanName);
+            // re-bind the metric handles pointing to the pending entry.
+            entryGeneration.incrementAndGet();
+            mergePendingLogEntry(pending, registered);
         }
-        return myEntry;
     }
 
     /**
-     * Register a new logger with the specified ID using JMX.
+     * Fold the calls recorded in a pending entry into a registered entry. An
+     * entry of another classloader can only record values, the calls are
+     * replayed as weighted values, one per histogram bucket and call flags.
+     * The counts are kept, the durations are rounded to their histogram
+     * bucket except for the minimum and the maximum.
      * 
-     * @param id
-     *            The logger ID
-     * @param channelMXBeanName
-     *            the Logger bean name.
-     * @return The newly registered logger. Can also be the previously
-     *         registered logger if another classloader got there first.
+     * @param pending
+     *            the entry that couldn't be registered.
+     * @param registered
+     *            the entry receiving its calls.
      */
-    protected static TimeIntervalLogEntryMXBean registerNewLogger(final String id, ObjectName channelMXBeanName)
+    static void mergePendingLogEntry(TotalLogEntry pending, TimeIntervalLogEntryMXBean registered)
     {
-        TimeIntervalLogEntryMXBean myEntry;
-        final TotalLogEntry jmxEntry = new TotalLogEntry(id, intervals);
-        final String methodName = "TotalLogEntry getOrCreateEntry( final String id, final String type )";
-        try
+        if (registered instanceof TotalLogEntry)
         {
-            JMXBeanRegistrar.JMXBeanProvider<TotalLogEntry> jmxBeanProvider = new JMXBeanRegistrar.JMXBeanProvider<TotalLogEntry>()
-            {
-                @Override
-                public TotalLogEntry provide()
-                {
-                    return jmxEntry;
-                }
-            };
-            PerformanceLogger.statsRegister.retrieveOrRegister(channelMXBeanName, jmxBeanProvider);
-            myEntry = jmxEntry;
+            ((TotalLogEntry) registered).aggregateLogEntry(pending);
+            return;
         }
-        catch (MBeanRegistrationException e)
-        {
-            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, methodName, e);
 
-            // fallback to an unregistered bean if anything goes wrong.
-            myEntry = jmxEntry;
+        OperationStatistics statistics = pending.getStatistics();
+        LatencyHistogram histogram = statistics.getDurationHistogram();
+        long[] counts = histogram.getCounts();
+        long callCount = 0;
+        for (long count : counts)
+        {
+            callCount += count;
         }
-        catch (IllegalStateException e)
+        if (callCount == 0)
         {
-            myEntry = fetchRegisteredPerformanceLogger(channelMXBeanName);
-
-            if (myEntry == null)
+            return;
+        }
+        long errorCount = Math.min(statistics.getErrorCallCount(), callCount);
+        long cacheEnabledCount = Math.min(statistics.getCacheEnabledCallCount(), callCount);
+        long cacheHitCount = Math.min(statistics.getCacheHitCount(), cacheEnabledCount);
+        int resultSize = (int) Math.min(Integer.MAX_VALUE, statistics.getSumResultSizeAsLong() / callCount);
+        long minimum = statistics.getMinExecutionTime();
+        long maximum = statistics.getMaxExecutionTime();
+
+        // calls are numbered in bucket order, the first calls are the failed,
+        // cache enabled and cache hit ones. Each run of calls sharing the same
+        // duration and flags is replayed at once.
+        long call = 0;
+        for (int bucket = 0; bucket < counts.length; ++bucket)
+        {
+            long bucketEnd = call + counts[bucket];
+            long bucketDuration = Math.max(minimum, Math.min(maximum, histogram.getHighestValueInBucket(bucket)));
+            while (call < bucketEnd)
             {
-                LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, methodName, e);
-
-                myEntry = jmxEntry;
+                long end = bucketEnd;
+                end = nextBoundary(call, end, 1);
+                end = nextBoundary(call, end, callCount - 1);
+                end = nextBoundary(call, end, errorCount);
+                end = nextBoundary(call, end, cacheEnabledCount);
+                end = nextBoundary(call, end, cacheHitCount);
+                end = Math.min(end, call + LogEntryRecorder.MAXIMUM_WEIGHT);
+
+                long duration = bucketDuration;
+                if (call == 0)
+                {
+                    duration = minimum;
+                }
+                else if (call == callCount - 1)
+                {
+                    duration = maximum;
+                }
+                registered.addValue(duration, resultSize, call < cacheEnabledCount, call < cacheHitCount,
+                    call < errorCount, end - call);
+                call = end;
             }
         }
-        return myEntry;
+    }
+
+    private static long nextBoundary(long call, long end, long boundary)
+    {
+        if (boundary > call && boundary < end)
+        {
+            return boundary;
+        }
+        return end;
     }
 
     /**
@@ -931,7 +2063,7 @@ public class PerformanceLogger implements Serializable
         {
             if (platformMBeanServer.isRegistered(channelMXBeanName))
             {
-                myEntry = JMX.newMBeanProxy(platformMBeanServer, channelMXBeanName, TimeIntervalLogEntryMXBean.class);
+                myEntry = JMX.newMXBeanProxy(platformMBeanServer, channelMXBeanName, TimeIntervalLogEntryMXBean.class);
             }
         }
         catch (Exception ex)
@@ -944,10 +2076,16 @@ public class PerformanceLogger implements Serializable
 
     /**
      * This method will check once every hour to cleanup unused log entries to
-     * prevent memory leaks.
+     * prevent memory leaks. Does nothing when the cleanup and printing are
+     * handled by the scheduler.
      */
     private static void checkToPerformCleanupAndPrint()
     {
+        if (isHousekeepingScheduled)
+        {
+            return;
+        }
+
         long lastCheckTime = lastCheck.get();
         long currentTimeMillis = System.currentTimeMillis();
         // check every 1 hour
@@ -976,21 +2114,189 @@ public class PerformanceLogger implements Serializable
             {
                 if (lastPrint.compareAndSet(lastPrintTime, currentTimeMillis))
                 {
-                    try
-                    {
-                        periodicMetricPrinter.run();
-                    }
-                    catch (Exception ex)
-                    {
-                        LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "checkToPerformCleanupAndPrint()", ex);
-                    }
+                    runPeriodicMetricPrinter();
                 }
             }
         }
 
     }
 
+    /**
+     * Schedule the cleanup of unused log entries, the periodic metric
+     * printing, the ticks of the moving rates and the computation of the
+     * sampling rates. Once scheduled, the threads recording metrics no longer
+     * check if any of them is due.
+     * 
+     * @param scheduler
+     *            the scheduler that will run the cleanup and printing.
+     */
+    static void scheduleHousekeeping(ScheduledExecutorService scheduler)
+    {
+        Runnable cleanup = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                performScheduledCleanup();
+            }
+        };
+        long cleanupDelay = Math.max(1, cleanupDelayInMillisecond);
+        scheduler.scheduleWithFixedDelay(cleanup, cleanupDelay, cleanupDelay, TimeUnit.MILLISECONDS);
+
+        Runnable print = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                performScheduledPrint();
+            }
+        };
+        long printDelay = Math.max(1, periodicMetricPrintIntervalInMillisecond);
+        scheduler.scheduleWithFixedDelay(print, printDelay, printDelay, TimeUnit.MILLISECONDS);
+
+        Runnable rateTick = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                performScheduledRateTick();
+            }
+        };
+        long tickInterval = rateTickIntervalInMillisecond;
+        scheduler.scheduleAtFixedRate(rateTick, tickInterval, tickInterval, TimeUnit.MILLISECONDS);
+
+        Runnable samplingRates = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                performScheduledSamplingRates();
+            }
+        };
+        long samplingPeriod = sampler.getPeriodInMillisecond();
+        scheduler.scheduleAtFixedRate(samplingRates, samplingPeriod, samplingPeriod, TimeUnit.MILLISECONDS);
+        sampler.setScheduled(true);
+
+        isHousekeepingScheduled = true;
+    }
+
+    /**
+     * Give the cleanup, periodic printing and sampling rates back to the
+     * threads recording metrics.
+     */
+    static void unscheduleHousekeeping()
+    {
+        isHousekeepingScheduled = false;
+        sampler.setScheduled(false);
+    }
+
+    /**
+     * @return true if the cleanup and periodic printing are run by the
+     *         scheduler.
+     */
+    static boolean isHousekeepingScheduled()
+    {
+        return isHousekeepingScheduled;
+    }
+
+    /**
+     * Cleanup unused log entries. Called by the scheduler.
+     */
+    static void performScheduledCleanup()
+    {
+        try
+        {
+            synchronized (globalLock)
+            {
+                lastCheck.set(System.currentTimeMillis());
+                performCleanup();
+            }
+        }
+        catch (Exception ex)
+        {
+            // an exception would cancel the scheduled task.
+            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "performScheduledCleanup()", ex);
+        }
+    }
+
+    /**
+     * Update the moving rates of all the entries. Called by the scheduler so
+     * the threads recording metrics never update the rates.
+     */
+    static void performScheduledRateTick()
+    {
+        try
+        {
+            long tickTime = System.nanoTime();
+            for (TotalLogEntry entry : statsRegister.getAllRegisteredBeans().values())
+            {
+                entry.tickRates(tickTime);
+            }
+        }
+        catch (Exception ex)
+        {
+            // an exception would cancel the scheduled task.
+            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "performScheduledRateTick()", ex);
+        }
+    }
+
+    /**
+     * Compute the sampling rates. Called by the scheduler so the threads
+     * recording metrics never sort the sampled operations.
+     */
+    static void performScheduledSamplingRates()
+    {
+        try
+        {
+            sampler.adjustRates(System.currentTimeMillis());
+        }
+        catch (Exception ex)
+        {
+            // an exception would cancel the scheduled task.
+            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "performScheduledSamplingRates()", ex);
+        }
+    }
+
+    /**
+     * Print the metrics if periodic printing is enabled. Called by the
+     * scheduler.
+     */
+    static void performScheduledPrint()
+    {
+        if (isPeriodicMetricPrintEnabled && periodicMetricPrinter != null)
+        {
+            lastPrint.set(System.currentTimeMillis());
+            runPeriodicMetricPrinter();
+        }
+    }
+
+    private static void runPeriodicMetricPrinter()
+    {
+        try
+        {
+            periodicMetricPrinter.run();
+        }
+        catch (Exception ex)
+        {
+            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "checkToPerformCleanupAndPrint()", ex);
+        }
+    }
+
     private static void performCleanup()
+    {
+        // entries waiting for registration must be registered to be tracked.
+        registrar.flush();
+
+        removeUnusedLogEntries();
+
+        // drifts when an entry is created while the map is cleared.
+        entryCount.set(_logEntries.size());
+
+        // promoted entries have no calls yet, they must not be seen as unused.
+        promoteHeavyHitters();
+    }
+
+    private static void removeUnusedLogEntries()
     {
         Map<ObjectName, TotalLogEntry> allRegisteredBeans = statsRegister.getAllRegisteredBeans();
 
@@ -1006,20 +2312,155 @@ public class PerformanceLogger implements Serializable
             TotalLogEntry value = entry.getValue();
             if (!value.isUsedSinceLastCheck())
             {
-                statsRegister.unregisterBean(entry.getKey());
-                _logEntries.remove(value.getId());
-                List<TimeIntervalLogEntry> intervalStatistics = value.getIntervalStatistics();
-                for (TimeIntervalLogEntry timeIntervalLogEntry : intervalStatistics)
+                removeLogEntry(entry.getKey(), value);
+            }
+        }
+
+    }
+
+    /**
+     * Give a log entry to the operations recorded in the overflow entries
+     * that were called more often than the least called log entries. Both
+     * sides are compared on the calls of the period since the previous
+     * cleanup: the sketch is cleared and the entries start a new period once
+     * done. The replaced log entries are folded in the overflow entry of their
+     * layer.
+     */
+    private static void promoteHeavyHitters()
+    {
+        int maximumCount = maximumEntryCount;
+        if (maximumCount <= 0)
+        {
+            return;
+        }
+
+        HeavyHitterSketch sketch = heavyHitters;
+        List<HeavyHitter> candidates = sketch.getHeavyHitters();
+        PriorityQueue<EvictionCandidate> leastCalled = null;
+        for (HeavyHitter candidate : candidates)
+        {
+            String id = candidate.getId();
+            if (_logEntries.containsKey(id))
+            {
+                continue;
+            }
+
+            if (entryCount.get() >= maximumCount)
+            {
+                if (leastCalled == null)
+                {
+                    leastCalled = getEvictableLogEntries();
+                }
+                EvictionCandidate evicted = leastCalled.peek();
+                if (evicted == null || evicted.periodCallCount >= candidate.getGuaranteedCount())
                 {
+                    // candidates are sorted, no other one can be promoted.
+                    break;
+                }
+                leastCalled.poll();
+                evictLogEntry(evicted.entry);
+            }
+
+            _logEntries.computeIfAbsent(id, CREATE_LOG_ENTRY);
+        }
+        registrar.flush();
+
+        // the next cleanup compares the calls of the coming period.
+        sketch.clear();
+        for (TotalLogEntry entry : statsRegister.getAllRegisteredBeans().values())
+        {
+            entry.startPeriod();
+        }
+    }
 
-                    ObjectName channelMXBeanName = PerformanceLogger.channelMXBeanName(timeIntervalLogEntry.getId(),
-                        timeIntervalLogEntry.getIntervalName(), TimeIntervalLogEntry.class);
+    /**
+     * Log entry that can be replaced by a heavy hitter, with its period call
+     * count read once so the ordering doesn't change while recording.
+     */
+    private static final class EvictionCandidate
+    {
+        private final TotalLogEntry entry;
+
+        private final long periodCallCount;
+
+        EvictionCandidate(TotalLogEntry entry)
+        {
+            this.entry = entry;
+            periodCallCount = entry.getPeriodCallCount();
+        }
+    }
 
-                    TotalLogEntry.getIntervalStatsRegister().unregisterBean(channelMXBeanName);
+    /**
+     * @return the log entries owned by this classloader that can be replaced
+     *         by heavy hitters, least called in the period first.
+     */
+    private static PriorityQueue<EvictionCandidate> getEvictableLogEntries()
+    {
+        Map<ObjectName, TotalLogEntry> allRegisteredBeans = statsRegister.getAllRegisteredBeans();
+        PriorityQueue<EvictionCandidate> leastCalled = new PriorityQueue<EvictionCandidate>(
+            Math.max(1, allRegisteredBeans.size()), new Comparator<EvictionCandidate>()
+            {
+                @Override
+                public int compare(EvictionCandidate first, EvictionCandidate second)
+                {
+                    return Long.compare(first.periodCallCount, second.periodCallCount);
                 }
+            });
+        for (TotalLogEntry entry : allRegisteredBeans.values())
+        {
+            if (!isOverflowId(entry.getId()) && _logEntries.get(entry.getId()) == entry)
+            {
+                leastCalled.add(new EvictionCandidate(entry));
             }
         }
+        return leastCalled;
+    }
+
+    /**
+     * Remove a log entry and fold its statistics, time intervals included, in
+     * the overflow entry of its layer.
+     * 
+     * @param entry
+     *            the entry to remove.
+     */
+    private static void evictLogEntry(TotalLogEntry entry)
+    {
+        String id = entry.getId();
+        removeLogEntry(channelMXBeanName(id, TOTAL_INTERVAL_NAME, "TotalLogEntry"), entry);
+
+        TimeIntervalLogEntryMXBean overflow = _logEntries.computeIfAbsent(getOverflowId(id), CREATE_LOG_ENTRY);
+        if (overflow instanceof TotalLogEntry)
+        {
+            ((TotalLogEntry) overflow).aggregateLogEntry(entry);
+        }
+    }
+
+    /**
+     * Unregister a log entry and forget it.
+     * 
+     * @param channelMXBeanName
+     *            the bean name
+     * @param value
+     *            the entry to remove.
+     */
+    private static void removeLogEntry(ObjectName channelMXBeanName, TotalLogEntry value)
+    {
+        discardSharedRecorder(channelMXBeanName, value);
+        statsRegister.unregisterBean(channelMXBeanName);
+        if (_logEntries.remove(value.getId()) != null)
+        {
+            entryCount.decrementAndGet();
+        }
+        entryGeneration.incrementAndGet();
+        List<TimeIntervalLogEntry> intervalStatistics = value.getIntervalStatistics();
+        for (TimeIntervalLogEntry timeIntervalLogEntry : intervalStatistics)
+        {
 
+            ObjectName intervalMXBeanName = PerformanceLogger.channelMXBeanName(timeIntervalLogEntry.getId(),
+                timeIntervalLogEntry.getIntervalName(), TimeIntervalLogEntry.class);
+
+            TotalLogEntry.getIntervalStatsRegister().unregisterBean(intervalMXBeanName);
+        }
     }
 
 }
@@ -15,7 +15,14 @@
  */
 package com.ibm.logger;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.management.InstanceAlreadyExistsException;
@@ -28,6 +35,9 @@ import javax.management.ObjectName;
 
 import com.ibm.commerce.cache.LoggingHelper;
 import com.ibm.logger.jmx.PerformanceLoggerManagerMXBean;
+import com.ibm.logger.jmx.TaggedMetricSnapshot;
+import com.ibm.logger.stats.TopNRanking;
+import com.ibm.logger.trace.PrometheusPerformanceLogsEndpoint;
 
 /**
  * @author Bryan Johnson
@@ -43,6 +53,21 @@ public class PerformanceLoggerManager implements PerformanceLoggerManagerMXBean
 
     private static final Logger LOGGER = Logger.getLogger( PerformanceLoggerManager.class.getName() );
 
+    private static final String SCHEDULER_THREAD_NAME = "PerformanceLogger scheduler";
+
+    /** time given to a running periodic print to complete when the scheduler stops */
+    private static final long SCHEDULER_STOP_TIMEOUT_IN_MILLISECOND = 10000;
+
+    private static final Object schedulerLock = new Object();
+
+    /** runs the metric cleanup and periodic printing, null when stopped */
+    private static ScheduledExecutorService scheduler;
+
+    private static final Object prometheusLock = new Object();
+
+    /** serves the metrics to Prometheus, null when stopped */
+    private static PrometheusPerformanceLogsEndpoint prometheusEndpoint;
+
     static {
         PerformanceLoggerManagerMXBean setManager = createInitialPerformanceLoggerManager();
         manager = setManager;
@@ -70,7 +95,8 @@ public class PerformanceLoggerManager implements PerformanceLoggerManagerMXBean
             MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
             if (platformMBeanServer.isRegistered(objectName))
             {
-                setManager = JMX.newMBeanProxy(platformMBeanServer, objectName, PerformanceLoggerManagerMXBean.class);
+                // MXBean proxy so that composite data is converted back.
+                setManager = JMX.newMXBeanProxy(platformMBeanServer, objectName, PerformanceLoggerManagerMXBean.class);
             }
         }
         catch (Exception ex)
@@ -88,6 +114,130 @@ public class PerformanceLoggerManager implements PerformanceLoggerManagerMXBean
         return manager;
     }
 
+    /**
+     * Start a daemon thread that performs the cleanup of unused metrics, the periodic metric printing and the updates of
+     * the moving rates. Once started, threads recording metrics no longer check if cleanup or printing is due.
+     * 
+     * @return true if the scheduler was started, false if it was already running.
+     */
+    public static boolean startScheduler() {
+        synchronized ( schedulerLock ) {
+            if ( scheduler != null ) {
+                return false;
+            }
+
+            scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+                @Override
+                public Thread newThread( Runnable runnable ) {
+                    Thread thread = new Thread( runnable, SCHEDULER_THREAD_NAME );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+            PerformanceLogger.scheduleHousekeeping( scheduler );
+            LOGGER.log( Level.INFO, "PerformanceLogger scheduler started" );
+            return true;
+        }
+    }
+
+    /**
+     * Stop the scheduler. Threads recording metrics go back to checking if cleanup or printing is due. A periodic print
+     * in progress is given some time to complete, so the files it writes aren't truncated.
+     * 
+     * @return true if the scheduler was stopped, false if it wasn't running.
+     */
+    public static boolean stopScheduler() {
+        synchronized ( schedulerLock ) {
+            if ( scheduler == null ) {
+                return false;
+            }
+
+            PerformanceLogger.unscheduleHousekeeping();
+            scheduler.shutdown();
+            try {
+                if ( !scheduler.awaitTermination( SCHEDULER_STOP_TIMEOUT_IN_MILLISECOND, TimeUnit.MILLISECONDS ) ) {
+                    LOGGER.log( Level.WARNING, "PerformanceLogger scheduler task didn't complete in "
+                        + SCHEDULER_STOP_TIMEOUT_IN_MILLISECOND + " ms, interrupting it" );
+                    scheduler.shutdownNow();
+                }
+            } catch ( InterruptedException e ) {
+                scheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+            LOGGER.log( Level.INFO, "PerformanceLogger scheduler stopped" );
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the scheduler is running.
+     */
+    public static boolean isSchedulerRunning() {
+        synchronized ( schedulerLock ) {
+            return scheduler != null;
+        }
+    }
+
+    /**
+     * Start an HTTP endpoint serving the metrics in the Prometheus text format on the path
+     * {@value PrometheusPerformanceLogsEndpoint#METRICS_PATH}.
+     * 
+     * @param host
+     *            the address to listen on, null or empty for all the addresses.
+     * @param port
+     *            the port to listen on, 0 for any free port.
+     * @return true if the endpoint was started, false if it was already running or the port couldn't be opened.
+     */
+    public static boolean startPrometheusEndpoint( String host, int port ) {
+        synchronized ( prometheusLock ) {
+            if ( prometheusEndpoint != null ) {
+                return false;
+            }
+
+            PrometheusPerformanceLogsEndpoint endpoint = new PrometheusPerformanceLogsEndpoint( host, port );
+            try {
+                endpoint.start();
+            } catch ( IOException e ) {
+                LoggingHelper.logUnexpectedException( LOGGER, PerformanceLoggerManager.class.getName(),
+                    "startPrometheusEndpoint, failed to listen on port " + port, e );
+                return false;
+            }
+            prometheusEndpoint = endpoint;
+            return true;
+        }
+    }
+
+    /**
+     * Stop the Prometheus endpoint.
+     * 
+     * @return true if the endpoint was stopped, false if it wasn't running.
+     */
+    public static boolean stopPrometheusEndpoint() {
+        synchronized ( prometheusLock ) {
+            if ( prometheusEndpoint == null ) {
+                return false;
+            }
+
+            prometheusEndpoint.stop();
+            prometheusEndpoint = null;
+            LOGGER.log( Level.INFO, "Prometheus endpoint stopped" );
+            return true;
+        }
+    }
+
+    /**
+     * @return the port of the Prometheus endpoint, -1 if it isn't running.
+     */
+    public static int getPrometheusEndpointPort() {
+        synchronized ( prometheusLock ) {
+            if ( prometheusEndpoint == null ) {
+                return -1;
+            }
+            return prometheusEndpoint.getPort();
+        }
+    }
+
     /**
      * @return the JMX object name of the PerformanceLoggerManager
      */
@@ -179,4 +329,69 @@ public class PerformanceLoggerManager implements PerformanceLoggerManagerMXBean
 	public String dumpToCsv() {
 		return PerformanceLogger.dumpPerformanceLogsCsvToString();
 	}
+
+	@Override
+	public String dumpTopN( String metric, int count, String interval ) {
+		String[] split = new String[0];
+		if ( metric != null && metric.trim().length() > 0 ) {
+			split = metric.trim().split( " *, *" );
+		}
+		TopNRanking.Metric[] metrics = new TopNRanking.Metric[split.length];
+		for ( int i = 0; i < split.length; ++i ) {
+			metrics[i] = TopNRanking.Metric.parse( split[i] );
+		}
+		if ( interval != null && interval.trim().length() == 0 ) {
+			interval = null;
+		}
+		return PerformanceLogger.dumpTopNToString( count, interval, metrics );
+	}
+
+	@Override
+	public boolean isSchedulerEnabled() {
+		return isSchedulerRunning();
+	}
+
+	@Override
+	public void enableScheduler() {
+		startScheduler();
+	}
+
+	@Override
+	public void disableScheduler() {
+		stopScheduler();
+	}
+
+	@Override
+	public long getSamplingBudget() {
+		return PerformanceLogger.getSamplingBudget();
+	}
+
+	@Override
+	public void setSamplingBudget( long budget ) {
+		PerformanceLogger.setSamplingBudget( budget );
+	}
+
+	@Override
+	public long getSamplingSlowThresholdInMillisecond() {
+		return PerformanceLogger.getSamplingSlowThresholdInMillisecond();
+	}
+
+	@Override
+	public void setSamplingSlowThresholdInMillisecond( long slowThreshold ) {
+		PerformanceLogger.setSamplingSlowThresholdInMillisecond( slowThreshold );
+	}
+
+	@Override
+	public String[] getTagDimensions() {
+		return PerformanceLogger.getTaggedMetrics().getDimensions();
+	}
+
+	@Override
+	public List<TaggedMetricSnapshot> aggregateTaggedMetrics( String dimensions ) {
+		String[] split = new String[0];
+		if ( dimensions != null && dimensions.trim().length() > 0 ) {
+			split = dimensions.trim().split( " *, *" );
+		}
+		return PerformanceLogger.aggregateTaggedMetrics( split );
+	}
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.jmx.ProfilerOverheadMXBean;
+
+/**
+ * Accounts for the time spent by the profiler itself, so its cost can be
+ * compared to the time of the operations it measures. Each layer of the
+ * profiler times its bookkeeping with an {@link OverheadCounter}, and the
+ * counters are exposed through JMX as a {@link ProfilerOverheadMXBean}.
+ */
+public final class ProfilerOverhead {
+
+    private static final String CLASS_NAME = ProfilerOverhead.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger( CLASS_NAME );
+
+    private static final String PROPERTY_OVERHEAD_SAMPLING_INTERVAL = "com.ibm.logger.performanceLogger.overheadSamplingInterval";
+
+    private static final int DEFAULT_SAMPLING_INTERVAL = 100;
+
+    private static final ConcurrentMap<String, OverheadCounter> counters = new ConcurrentHashMap<String, OverheadCounter>();
+
+    private static volatile int samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+
+    /** calls to {@link PerformanceLogger#increase(String, long)} and its variants */
+    public static final OverheadCounter PERFORMANCE_LOGGER = getCounter( "PerformanceLogger" );
+
+    /** calls to {@link PerformanceLogger#startLogging(String)} and {@link PerformanceLogger#stopLogging(String)} */
+    public static final OverheadCounter TIMERS = getCounter( "Timers" );
+
+    /** serialization of operation metrics */
+    public static final OverheadCounter SERIALIZATION = getCounter( "Serialization" );
+
+    /** metrics handed to the asynchronous metric gatherers */
+    public static final OverheadCounter METRIC_GATHERER = getCounter( "MetricGatherer" );
+
+    static {
+        samplingInterval = PerformanceLogger.parseIntegerProperty( PROPERTY_OVERHEAD_SAMPLING_INTERVAL,
+            DEFAULT_SAMPLING_INTERVAL );
+        registerMBean();
+    }
+
+    /**
+     * Constructor
+     */
+    private ProfilerOverhead() {
+    }
+
+    /**
+     * Get the counter of a layer, creating it on the first call.
+     *
+     * @param layer
+     *            the name of the layer.
+     * @return the counter.
+     */
+    public static OverheadCounter getCounter( String layer ) {
+        OverheadCounter counter = counters.get( layer );
+        if ( counter == null ) {
+            counter = new OverheadCounter( layer );
+            OverheadCounter existing = counters.putIfAbsent( layer, counter );
+            if ( existing != null ) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return one call out of this number is timed, 0 when the overhead isn't
+     *         measured.
+     */
+    public static int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * @param interval
+     *            one call out of this number is timed, 1 to time all calls, 0
+     *            to stop measuring the overhead.
+     */
+    public static void setSamplingInterval( int interval ) {
+        samplingInterval = Math.max( 0, interval );
+    }
+
+    /**
+     * @return the JMX object name of the profiler overhead bean.
+     */
+    public static ObjectName getObjectName() {
+        try {
+            return new ObjectName( PerformanceLoggerManager.JMX_DOMAIN + ":PerformanceDomain=ProfilerOverhead" );
+        } catch ( MalformedObjectNameException e ) {
+            LoggingHelper.logUnexpectedException( LOGGER, CLASS_NAME, "getObjectName()", e );
+        }
+        return null;
+    }
+
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean( new ProfilerOverheadBean(), getObjectName() );
+        } catch ( InstanceAlreadyExistsException e ) {
+            // the profiler is loaded by several class loaders, the first one
+            // to load it is exposed.
+            LOGGER.log( Level.FINE, "Profiler overhead bean already registered", e );
+        } catch ( Exception e ) {
+            LoggingHelper.logUnexpectedException( LOGGER, CLASS_NAME, "registerMBean()", e );
+        }
+    }
+
+    /**
+     * JMX view of the counters.
+     */
+    private static final class ProfilerOverheadBean implements ProfilerOverheadMXBean {
+
+        @Override
+        public int getSamplingInterval() {
+            return samplingInterval;
+        }
+
+        @Override
+        public void setSamplingInterval( int samplingInterval ) {
+            ProfilerOverhead.setSamplingInterval( samplingInterval );
+        }
+
+        @Override
+        public String[] getLayers() {
+            Set<String> layers = new TreeMap<String, OverheadCounter>( counters ).keySet();
+            return layers.toArray( new String[layers.size()] );
+        }
+
+        @Override
+        public Map<String, Double> getOverheadPercentages() {
+            Map<String, Double> percentages = new TreeMap<String, Double>();
+            for ( OverheadCounter counter : counters.values() ) {
+                percentages.put( counter.getLayer(), Double.valueOf( counter.getOverheadPercentage() ) );
+            }
+            return percentages;
+        }
+
+        @Override
+        public Map<String, Long> getOverheadNanoseconds() {
+            Map<String, Long> overheads = new TreeMap<String, Long>();
+            for ( OverheadCounter counter : counters.values() ) {
+                overheads.put( counter.getLayer(), Long.valueOf( counter.getOverhead() ) );
+            }
+            return overheads;
+        }
+
+        @Override
+        public Map<String, Long> getMeasuredNanoseconds() {
+            Map<String, Long> measured = new TreeMap<String, Long>();
+            for ( OverheadCounter counter : counters.values() ) {
+                measured.put( counter.getLayer(), Long.valueOf( counter.getMeasured() ) );
+            }
+            return measured;
+        }
+
+        @Override
+        public Map<String, Long> getCallCounts() {
+            Map<String, Long> callCounts = new TreeMap<String, Long>();
+            for ( OverheadCounter counter : counters.values() ) {
+                callCounts.put( counter.getLayer(), Long.valueOf( counter.getCallCount() ) );
+            }
+            return callCounts;
+        }
+
+        @Override
+        public double getOverheadPercentage( String layer ) {
+            OverheadCounter counter = counters.get( layer );
+            if ( counter == null ) {
+                return 0.0;
+            }
+            return counter.getOverheadPercentage();
+        }
+
+        @Override
+        public void reset() {
+            for ( OverheadCounter counter : counters.values() ) {
+                counter.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger;
+
+import java.util.function.LongBinaryOperator;
+
+import com.ibm.logger.jmx.LogEntrySnapshot;
+import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+import com.ibm.logger.stats.LogEntryRecorder;
+
+/**
+ * Log entry owned by another classloader. Values are recorded directly through
+ * the recorder published by the owner in the shared registry, statistics are
+ * read through the JMX bean of the owner.
+ */
+final class SharedLogEntry implements TimeIntervalLogEntryMXBean
+{
+    private final String id;
+
+    private final String layer;
+
+    private final LongBinaryOperator recorder;
+
+    private final TimeIntervalLogEntryMXBean view;
+
+    /**
+     * Constructor
+     * 
+     * @param id
+     *            the operation identifier.
+     * @param recorder
+     *            the recorder published by the owning classloader.
+     * @param view
+     *            the JMX bean of the owning classloader.
+     */
+    SharedLogEntry(String id, LongBinaryOperator recorder, TimeIntervalLogEntryMXBean view)
+    {
+        this.id = id;
+        this.layer = TraceUtilities.getLayer(id);
+        this.recorder = recorder;
+        this.view = view;
+    }
+
+    @Override
+    public void addValue(long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache,
+        boolean failed)
+    {
+        addValue(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, failed, 1);
+    }
+
+    @Override
+    public void addValue(long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache,
+        boolean failed, long weight)
+    {
+        long packed = LogEntryRecorder.pack(resultSize, operationCacheEnabled, resultFetchedFromCache, failed, weight);
+        if (recorder.applyAsLong(duration, packed) == LogEntryRecorder.DISCARDED)
+        {
+            // the owner removed the entry, record into the one that replaces it.
+            TimeIntervalLogEntryMXBean replacement = PerformanceLogger.replaceDiscardedEntry(id, this);
+            if (replacement != this)
+            {
+                replacement.addValue(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, failed,
+                    weight);
+            }
+        }
+    }
+
+    @Override
+    public void addValue(long duration, boolean failed)
+    {
+        addValue(duration, 0, false, false, failed);
+    }
+
+    @Override
+    public void addValue(long duration)
+    {
+        addValue(duration, 0, false, false, false);
+    }
+
+    @Override
+    public String getId()
+    {
+        return id;
+    }
+
+    @Override
+    public String getName()
+    {
+        return id;
+    }
+
+    @Override
+    public String getLayer()
+    {
+        return layer;
+    }
+
+    @Override
+    public String getIntervalName()
+    {
+        return PerformanceLogger.TOTAL_INTERVAL_NAME;
+    }
+
+    @Override
+    public long getIntervalDuration()
+    {
+        return 0;
+    }
+
+    @Override
+    public void clear()
+    {
+        view.clear();
+    }
+
+    @Override
+    public double getAverageDuration()
+    {
+        return view.getAverageDuration();
+    }
+
+    @Override
+    public long getMinimumDuration()
+    {
+        return view.getMinimumDuration();
+    }
+
+    @Override
+    public long getMaximumDuration()
+    {
+        return view.getMaximumDuration();
+    }
+
+    @Override
+    public long getDurationPercentile50()
+    {
+        return view.getDurationPercentile50();
+    }
+
+    @Override
+    public long getDurationPercentile95()
+    {
+        return view.getDurationPercentile95();
+    }
+
+    @Override
+    public long getDurationPercentile99()
+    {
+        return view.getDurationPercentile99();
+    }
+
+    @Override
+    public long getDurationPercentile999()
+    {
+        return view.getDurationPercentile999();
+    }
+
+    @Override
+    public double getAverageResponseSize()
+    {
+        return view.getAverageResponseSize();
+    }
+
+    @Override
+    public long getMinimumResponseSize()
+    {
+        return view.getMinimumResponseSize();
+    }
+
+    @Override
+    public long getMaximumResponseSize()
+    {
+        return view.getMaximumResponseSize();
+    }
+
+    @Override
+    public long getCallCount()
+    {
+        return view.getCallCount();
+    }
+
+    @Override
+    public long getErrorCallCount()
+    {
+        return view.getErrorCallCount();
+    }
+
+    @Override
+    public float getErrorCallPercentage()
+    {
+        return view.getErrorCallPercentage();
+    }
+
+    @Override
+    public long getSuccessCallCount()
+    {
+        return view.getSuccessCallCount();
+    }
+
+    @Override
+    public float getSuccessCallPercentage()
+    {
+        return view.getSuccessCallPercentage();
+    }
+
+    @Override
+    public long getCacheEnabledCount()
+    {
+        return view.getCacheEnabledCount();
+    }
+
+    @Override
+    public float getCacheEnabledPercentage()
+    {
+        return view.getCacheEnabledPercentage();
+    }
+
+    @Override
+    public long getCacheHitCount()
+    {
+        return view.getCacheHitCount();
+    }
+
+    @Override
+    public float getCacheHitPercentage()
+    {
+        return view.getCacheHitPercentage();
+    }
+
+    @Override
+    public float getTotalDuration()
+    {
+        return view.getTotalDuration();
+    }
+
+    @Override
+    public float getTotalResponseSize()
+    {
+        return view.getTotalResponseSize();
+    }
+
+    @Override
+    public LogEntrySnapshot getSnapshot()
+    {
+        return view.getSnapshot();
+    }
+
+    @Override
+    public double getOneMinuteRate()
+    {
+        return view.getOneMinuteRate();
+    }
+
+    @Override
+    public double getFiveMinuteRate()
+    {
+        return view.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getFifteenMinuteRate()
+    {
+        return view.getFifteenMinuteRate();
+    }
+
+    @Override
+    public double getOneMinuteAverageDuration()
+    {
+        return view.getOneMinuteAverageDuration();
+    }
+
+    @Override
+    public double getFiveMinuteAverageDuration()
+    {
+        return view.getFiveMinuteAverageDuration();
+    }
+
+    @Override
+    public double getFifteenMinuteAverageDuration()
+    {
+        return view.getFifteenMinuteAverageDuration();
+    }
+
+    @Override
+    public TimeIntervalLogEntryMXBean getMetricByIntervalName(String intervalName)
+    {
+        return view.getMetricByIntervalName(intervalName);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SharedLogEntry [name=" + id + "]";
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.jmx;
+
+import javax.management.openmbean.CompositeData;
+
+import com.ibm.commerce.cache.OperationStatistics;
+
+/**
+ * Consistent copy of all the metrics of a log entry, taken from a single
+ * aggregation of the statistics. Reading the snapshot attribute is cheaper
+ * than reading each attribute of a bean, and the values can't change between
+ * two attributes.
+ *
+ * Durations are in nanoseconds.
+ */
+public final class LogEntrySnapshot {
+
+    private final String id;
+
+    private final String intervalName;
+
+    private final long callCount;
+
+    private final long successCallCount;
+
+    private final long errorCallCount;
+
+    private final long cacheEnabledCount;
+
+    private final long cacheHitCount;
+
+    private final float totalDuration;
+
+    private final double averageDuration;
+
+    private final long minimumDuration;
+
+    private final long maximumDuration;
+
+    private final long durationPercentile50;
+
+    private final long durationPercentile95;
+
+    private final long durationPercentile99;
+
+    private final long durationPercentile999;
+
+    private final float totalResponseSize;
+
+    private final double averageResponseSize;
+
+    private final long minimumResponseSize;
+
+    private final long maximumResponseSize;
+
+    /**
+     * Constructor
+     *
+     * @param id the operation identifier.
+     * @param intervalName the name of the interval.
+     * @param statistics the statistics to copy.
+     */
+    public LogEntrySnapshot( String id, String intervalName, OperationStatistics statistics ) {
+        this.id = id;
+        this.intervalName = intervalName;
+        // read the success count before the call count so the error count
+        // can't be negative.
+        successCallCount = statistics.getSuccessCallCount();
+        callCount = statistics.getCallCount();
+        errorCallCount = Math.max( 0, callCount - successCallCount );
+        cacheEnabledCount = statistics.getCacheEnabledCallCount();
+        cacheHitCount = statistics.getCacheHitCount();
+        totalDuration = statistics.getSumExecutionTime();
+        averageDuration = statistics.getAverageDuration();
+        minimumDuration = statistics.getMinExecutionTime();
+        maximumDuration = statistics.getMaxExecutionTime();
+        durationPercentile50 = statistics.getDurationPercentile( 50.0 );
+        durationPercentile95 = statistics.getDurationPercentile( 95.0 );
+        durationPercentile99 = statistics.getDurationPercentile( 99.0 );
+        durationPercentile999 = statistics.getDurationPercentile( 99.9 );
+        totalResponseSize = statistics.getSumResultSize();
+        averageResponseSize = statistics.getAverageResponseSize();
+        minimumResponseSize = statistics.getMinResultSize();
+        maximumResponseSize = statistics.getMaxResultSize();
+    }
+
+    private LogEntrySnapshot( CompositeData data ) {
+        id = (String) data.get( "id" );
+        intervalName = (String) data.get( "intervalName" );
+        callCount = (Long) data.get( "callCount" );
+        successCallCount = (Long) data.get( "successCallCount" );
+        errorCallCount = (Long) data.get( "errorCallCount" );
+        cacheEnabledCount = (Long) data.get( "cacheEnabledCount" );
+        cacheHitCount = (Long) data.get( "cacheHitCount" );
+        totalDuration = (Float) data.get( "totalDuration" );
+        averageDuration = (Double) data.get( "averageDuration" );
+        minimumDuration = (Long) data.get( "minimumDuration" );
+        maximumDuration = (Long) data.get( "maximumDuration" );
+        durationPercentile50 = (Long) data.get( "durationPercentile50" );
+        durationPercentile95 = (Long) data.get( "durationPercentile95" );
+        durationPercentile99 = (Long) data.get( "durationPercentile99" );
+        durationPercentile999 = (Long) data.get( "durationPercentile999" );
+        totalResponseSize = (Float) data.get( "totalResponseSize" );
+        averageResponseSize = (Double) data.get( "averageResponseSize" );
+        minimumResponseSize = (Long) data.get( "minimumResponseSize" );
+        maximumResponseSize = (Long) data.get( "maximumResponseSize" );
+    }
+
+    /**
+     * Rebuild a snapshot read through JMX.
+     *
+     * @param data the JMX representation of the snapshot.
+     * @return the snapshot, null if the data is null.
+     */
+    public static LogEntrySnapshot from( CompositeData data ) {
+        if ( data == null ) {
+            return null;
+        }
+        return new LogEntrySnapshot( data );
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getIntervalName() {
+        return intervalName;
+    }
+
+    public long getCallCount() {
+        return callCount;
+    }
+
+    public long getSuccessCallCount() {
+        return successCallCount;
+    }
+
+    public long getErrorCallCount() {
+        return errorCallCount;
+    }
+
+    public long getCacheEnabledCount() {
+        return cacheEnabledCount;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    public float getTotalDuration() {
+        return totalDuration;
+    }
+
+    public double getAverageDuration() {
+        return averageDuration;
+    }
+
+    public long getMinimumDuration() {
+        return minimumDuration;
+    }
+
+    public long getMaximumDuration() {
+        return maximumDuration;
+    }
+
+    public long getDurationPercentile50() {
+        return durationPercentile50;
+    }
+
+    public long getDurationPercentile95() {
+        return durationPercentile95;
+    }
+
+    public long getDurationPercentile99() {
+        return durationPercentile99;
+    }
+
+    public long getDurationPercentile999() {
+        return durationPercentile999;
+    }
+
+    public float getTotalResponseSize() {
+        return totalResponseSize;
+    }
+
+    public double getAverageResponseSize() {
+        return averageResponseSize;
+    }
+
+    public long getMinimumResponseSize() {
+        return minimumResponseSize;
+    }
+
+    public long getMaximumResponseSize() {
+        return maximumResponseSize;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.ibm.logger.jmx;
 
+import java.util.List;
+
 /**
  * 
  * 
@@ -64,4 +66,93 @@ public interface PerformanceLoggerManagerMXBean {
 	 */
 	public String dumpToCsv();
 
-}
\ No newline at end of file
+	/**
+	 * Dump the operations with the highest values of some metrics to a table
+	 * format, one table per metric.
+	 * 
+	 * @param metric
+	 *            The metrics to rank the operations on, separated by commas,
+	 *            among total_duration, call_count, error_count and
+	 *            maximum_duration. Empty for all of them.
+	 * @param count
+	 *            The number of operations to print for each metric.
+	 * @param interval
+	 *            The interval to rank, for example "1m". Empty for the total
+	 *            metrics.
+	 * @return The top operations tables.
+	 */
+	public String dumpTopN( String metric, int count, String interval );
+
+	/**
+	 * Determine if metric cleanup and periodic printing are performed by a
+	 * dedicated scheduler thread.
+	 * 
+	 * @return True if the scheduler is running. False otherwise.
+	 */
+	public boolean isSchedulerEnabled();
+
+	/**
+	 * Perform metric cleanup and periodic printing on a dedicated scheduler
+	 * thread instead of the threads recording metrics.
+	 */
+	public void enableScheduler();
+
+	/**
+	 * Stop the scheduler thread. Metric cleanup and periodic printing go back
+	 * to the threads recording metrics.
+	 */
+	public void disableScheduler();
+
+	/**
+	 * Get the number of calls recorded per second when sampling.
+	 * 
+	 * @return The number of calls recorded per second, 0 when all the calls
+	 *         are recorded.
+	 */
+	public long getSamplingBudget();
+
+	/**
+	 * Record only a sample of the calls of each operation, weighted so that
+	 * counts and sums stay unbiased. Failed and slow calls are always
+	 * recorded.
+	 * 
+	 * @param budget
+	 *            The number of calls to record per second, 0 to record all
+	 *            calls.
+	 */
+	public void setSamplingBudget( long budget );
+
+	/**
+	 * Get the duration above which calls are always recorded when sampling.
+	 * 
+	 * @return The duration in milliseconds, 0 when the rule is disabled.
+	 */
+	public long getSamplingSlowThresholdInMillisecond();
+
+	/**
+	 * Set the duration above which calls are always recorded when sampling.
+	 * 
+	 * @param slowThreshold
+	 *            The duration in milliseconds, 0 to disable the rule.
+	 */
+	public void setSamplingSlowThresholdInMillisecond( long slowThreshold );
+
+	/**
+	 * Get the dimensions the tagged metrics can be aggregated on.
+	 * 
+	 * @return "operation" followed by the tag keys in use.
+	 */
+	public String[] getTagDimensions();
+
+	/**
+	 * Aggregate the calls recorded with tags on some dimensions, for example
+	 * "operation" or "tenant" to group all the operations by tenant.
+	 * 
+	 * @param dimensions
+	 *            The dimensions separated by commas, empty to get each series
+	 *            of operation and tags.
+	 * @return The aggregates sorted by name.
+	 */
+	public List<TaggedMetricSnapshot> aggregateTaggedMetrics( String dimensions );
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.jmx;
+
+import java.util.Map;
+
+/**
+ * Time spent by the profiler itself, per layer. Values are estimated from a
+ * sample of the calls. A layer calling another one includes the time of the
+ * layer it calls, the metric gatherers include the performance logger for
+ * example.
+ */
+public interface ProfilerOverheadMXBean {
+
+	/**
+	 * Get the sampling interval.
+	 *
+	 * @return One call out of this number is timed, 0 when the overhead isn't
+	 *         measured.
+	 */
+	public int getSamplingInterval();
+
+	/**
+	 * Set the sampling interval.
+	 *
+	 * @param samplingInterval
+	 *            One call out of this number is timed, 1 to time all calls, 0
+	 *            to stop measuring the overhead.
+	 */
+	public void setSamplingInterval( int samplingInterval );
+
+	/**
+	 * @return The names of the measured layers.
+	 */
+	public String[] getLayers();
+
+	/**
+	 * @return The time spent by the profiler as a percentage of the time of
+	 *         the operations it measured, per layer.
+	 */
+	public Map<String, Double> getOverheadPercentages();
+
+	/**
+	 * @return The estimated time spent by the profiler in nanoseconds, per
+	 *         layer.
+	 */
+	public Map<String, Long> getOverheadNanoseconds();
+
+	/**
+	 * @return The estimated time of the operations measured in nanoseconds,
+	 *         per layer.
+	 */
+	public Map<String, Long> getMeasuredNanoseconds();
+
+	/**
+	 * @return The estimated number of calls, per layer.
+	 */
+	public Map<String, Long> getCallCounts();
+
+	/**
+	 * Get the overhead of a single layer.
+	 *
+	 * @param layer
+	 *            The layer name.
+	 * @return The time spent by the profiler as a percentage of the time of
+	 *         the operations it measured, 0 for an unknown layer.
+	 */
+	public double getOverheadPercentage( String layer );
+
+	/**
+	 * Reset all the counters.
+	 */
+	public void reset();
+}
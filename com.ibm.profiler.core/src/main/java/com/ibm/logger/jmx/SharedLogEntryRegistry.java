@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.ibm.commerce.cache.LoggingHelper;
+
+/**
+ * Registry of metric recorders shared by all the classloaders of the JVM.
+ * 
+ * The registry is a map of JMX bean name to recorder that is published through
+ * an MBean attribute. The map and the recorders only expose JDK types, which
+ * lets a classloader record metrics directly into the beans registered by
+ * another classloader instead of going through a JMX proxy.
+ */
+public final class SharedLogEntryRegistry implements DynamicMBean {
+
+    private static final String CLASS_NAME = SharedLogEntryRegistry.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger( CLASS_NAME );
+
+    private static final String RECORDERS_ATTRIBUTE = "Recorders";
+
+    private final ConcurrentMap<ObjectName, Object> recorders = new ConcurrentHashMap<ObjectName, Object>( 128 );
+
+    /**
+     * Constructor
+     */
+    private SharedLogEntryRegistry() {
+    }
+
+    /**
+     * @return the JMX object name of the registry.
+     */
+    public static ObjectName getObjectName() {
+        try {
+            return new ObjectName( "com.ibm.profiler:PerformanceDomain=SharedLogEntryRegistry" );
+        } catch ( MalformedObjectNameException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Get the recorders shared by all the classloaders. The first classloader to call this method registers the
+     * registry. If the registry can't be shared, a map local to the classloader is returned.
+     * 
+     * @return the shared recorders by JMX bean name.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static ConcurrentMap<ObjectName, Object> getSharedRecorders() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = getObjectName();
+        SharedLogEntryRegistry registry = new SharedLogEntryRegistry();
+        try {
+            if ( !server.isRegistered( objectName ) ) {
+                try {
+                    server.registerMBean( registry, objectName );
+                    return registry.recorders;
+                } catch ( InstanceAlreadyExistsException e ) {
+                    // another classloader registered it first.
+                }
+            }
+            Object attribute = server.getAttribute( objectName, RECORDERS_ATTRIBUTE );
+            if ( attribute instanceof ConcurrentMap ) {
+                return (ConcurrentMap<ObjectName, Object>) attribute;
+            }
+        } catch ( Exception e ) {
+            LoggingHelper.logUnexpectedException( LOGGER, CLASS_NAME, "getSharedRecorders", e );
+        }
+        return registry.recorders;
+    }
+
+    @Override
+    public Object getAttribute( String attribute ) throws AttributeNotFoundException {
+        if ( RECORDERS_ATTRIBUTE.equals( attribute ) ) {
+            return recorders;
+        }
+        throw new AttributeNotFoundException( attribute );
+    }
+
+    @Override
+    public void setAttribute( Attribute attribute ) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException( attribute.getName() );
+    }
+
+    @Override
+    public AttributeList getAttributes( String[] attributes ) {
+        AttributeList list = new AttributeList();
+        for ( String attribute : attributes ) {
+            if ( RECORDERS_ATTRIBUTE.equals( attribute ) ) {
+                list.add( new Attribute( attribute, recorders ) );
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes( AttributeList attributes ) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke( String actionName, Object[] params, String[] signature ) throws ReflectionException {
+        throw new ReflectionException( new NoSuchMethodException( actionName ) );
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[] { new MBeanAttributeInfo( RECORDERS_ATTRIBUTE,
+                ConcurrentMap.class.getName(), "Metric recorders by JMX bean name", true, false, false ) };
+        return new MBeanInfo( CLASS_NAME, "Metric recorders shared by all the classloaders", attributes,
+                new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0] );
+    }
+}
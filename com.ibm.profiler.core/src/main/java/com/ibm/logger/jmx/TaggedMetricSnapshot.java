@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.jmx;
+
+import javax.management.openmbean.CompositeData;
+
+import com.ibm.logger.stats.Tags;
+
+/**
+ * Metrics of the tagged calls sharing the same values on a set of dimensions,
+ * for example all the calls of one tenant across all operations. Exposed
+ * through JMX as composite data.
+ *
+ * Durations are in nanoseconds.
+ */
+public final class TaggedMetricSnapshot {
+
+    private final String name;
+
+    private final String[] dimensions;
+
+    private final String[] values;
+
+    private final long callCount;
+
+    private final long errorCallCount;
+
+    private final long totalDuration;
+
+    private final double averageDuration;
+
+    private final long minimumDuration;
+
+    private final long maximumDuration;
+
+    /**
+     * Constructor
+     *
+     * @param dimensions the names of the grouped dimensions.
+     * @param values the values of the dimensions, an empty string when the
+     *            calls have no value for a dimension.
+     * @param callCount the number of calls.
+     * @param errorCallCount the number of failed calls.
+     * @param totalDuration the total duration of the calls.
+     * @param minimumDuration the duration of the fastest call.
+     * @param maximumDuration the duration of the slowest call.
+     */
+    public TaggedMetricSnapshot( String[] dimensions, String[] values, long callCount, long errorCallCount,
+        long totalDuration, long minimumDuration, long maximumDuration ) {
+        this.dimensions = dimensions.clone();
+        this.values = values.clone();
+        this.callCount = callCount;
+        this.errorCallCount = errorCallCount;
+        this.totalDuration = totalDuration;
+        this.averageDuration = callCount == 0 ? 0.0 : (double) totalDuration / callCount;
+        this.minimumDuration = minimumDuration;
+        this.maximumDuration = maximumDuration;
+        this.name = buildName( this.dimensions, this.values );
+    }
+
+    private TaggedMetricSnapshot( CompositeData data ) {
+        name = (String) data.get( "name" );
+        dimensions = (String[]) data.get( "dimensions" );
+        values = (String[]) data.get( "values" );
+        callCount = (Long) data.get( "callCount" );
+        errorCallCount = (Long) data.get( "errorCallCount" );
+        totalDuration = (Long) data.get( "totalDuration" );
+        averageDuration = (Double) data.get( "averageDuration" );
+        minimumDuration = (Long) data.get( "minimumDuration" );
+        maximumDuration = (Long) data.get( "maximumDuration" );
+    }
+
+    /**
+     * Rebuild a snapshot read through JMX.
+     *
+     * @param data the JMX representation of the snapshot.
+     * @return the snapshot, null if the data is null.
+     */
+    public static TaggedMetricSnapshot from( CompositeData data ) {
+        if ( data == null ) {
+            return null;
+        }
+        return new TaggedMetricSnapshot( data );
+    }
+
+    /**
+     * Name the group as the operation followed by the other dimensions in
+     * braces, "operation{tenant=a;status=200}".
+     */
+    private static String buildName( String[] dimensions, String[] values ) {
+        StringBuilder operation = new StringBuilder();
+        StringBuilder tags = new StringBuilder();
+        for ( int i = 0; i < dimensions.length; ++i ) {
+            if ( Tags.OPERATION_DIMENSION.equals( dimensions[i] ) ) {
+                operation.append( values[i] );
+            }
+            else {
+                if ( tags.length() > 0 ) {
+                    tags.append( ';' );
+                }
+                tags.append( dimensions[i] ).append( '=' ).append( values[i] );
+            }
+        }
+        if ( tags.length() > 0 ) {
+            operation.append( '{' ).append( tags ).append( '}' );
+        }
+        return operation.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getDimensions() {
+        return dimensions.clone();
+    }
+
+    public String[] getValues() {
+        return values.clone();
+    }
+
+    /**
+     * Get the value of a dimension.
+     *
+     * @param dimension the name of the dimension.
+     * @return the value, null if the snapshot doesn't group on the dimension.
+     */
+    public String getValue( String dimension ) {
+        for ( int i = 0; i < dimensions.length; ++i ) {
+            if ( dimensions[i].equals( dimension ) ) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    public long getCallCount() {
+        return callCount;
+    }
+
+    public long getErrorCallCount() {
+        return errorCallCount;
+    }
+
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public double getAverageDuration() {
+        return averageDuration;
+    }
+
+    public long getMinimumDuration() {
+        return minimumDuration;
+    }
+
+    public long getMaximumDuration() {
+        return maximumDuration;
+    }
+}
@@ -44,6 +44,33 @@ public interface TimeIntervalLogEntryMXBean {
 	 */
 	public long getMaximumDuration();
 
+	/**
+	 * 
+	 * @return The median call duration during the interval in nanoseconds.
+	 */
+	public long getDurationPercentile50();
+
+	/**
+	 * 
+	 * @return The 95th percentile call duration during the interval in
+	 *         nanoseconds.
+	 */
+	public long getDurationPercentile95();
+
+	/**
+	 * 
+	 * @return The 99th percentile call duration during the interval in
+	 *         nanoseconds.
+	 */
+	public long getDurationPercentile99();
+
+	/**
+	 * 
+	 * @return The 99.9th percentile call duration during the interval in
+	 *         nanoseconds.
+	 */
+	public long getDurationPercentile999();
+
 	/**
 	 * 
 	 * @return The average call result size during the interval in bytes.
@@ -166,6 +193,55 @@ public interface TimeIntervalLogEntryMXBean {
 	 */
 	public float getTotalResponseSize();
 
+	/**
+	 * 
+	 * @return All the metrics, taken from a single aggregation of the
+	 *         statistics.
+	 */
+	public LogEntrySnapshot getSnapshot();
+
+	/**
+	 * 
+	 * @return The calls per second, as an exponentially weighted moving
+	 *         average over one minute. Zero for interval metrics.
+	 */
+	public double getOneMinuteRate();
+
+	/**
+	 * 
+	 * @return The calls per second, as an exponentially weighted moving
+	 *         average over five minutes. Zero for interval metrics.
+	 */
+	public double getFiveMinuteRate();
+
+	/**
+	 * 
+	 * @return The calls per second, as an exponentially weighted moving
+	 *         average over fifteen minutes. Zero for interval metrics.
+	 */
+	public double getFifteenMinuteRate();
+
+	/**
+	 * 
+	 * @return The call duration in nanoseconds, as an exponentially weighted
+	 *         moving average over one minute. Zero for interval metrics.
+	 */
+	public double getOneMinuteAverageDuration();
+
+	/**
+	 * 
+	 * @return The call duration in nanoseconds, as an exponentially weighted
+	 *         moving average over five minutes. Zero for interval metrics.
+	 */
+	public double getFiveMinuteAverageDuration();
+
+	/**
+	 * 
+	 * @return The call duration in nanoseconds, as an exponentially weighted
+	 *         moving average over fifteen minutes. Zero for interval metrics.
+	 */
+	public double getFifteenMinuteAverageDuration();
+
     /**
      * Add an execution statistic
      * @param duration the duration.
@@ -195,6 +271,26 @@ public interface TimeIntervalLogEntryMXBean {
      */
     public void addValue(long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache,
         boolean failed);
+
+    /**
+     * Add an execution statistic standing for several identical executions,
+     * used when the calls are sampled.
+     * 
+     * @param duration
+     *            Duration in nanoseconds.
+     * @param resultSize
+     *            result size.
+     * @param operationCacheEnabled
+     *            was cache enabled.
+     * @param resultFetchedFromCache
+     *            was result fetched from cache.
+     * @param failed
+     *            was call failed.
+     * @param weight
+     *            the number of executions the statistic stands for.
+     */
+    public void addValue(long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache,
+        boolean failed, long weight);
     
     
 	/**
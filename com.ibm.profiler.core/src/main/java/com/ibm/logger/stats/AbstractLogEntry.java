@@ -18,6 +18,7 @@ package com.ibm.logger.stats;
 import com.ibm.commerce.cache.IOperationMetric;
 import com.ibm.commerce.cache.OperationStatistics;
 import com.ibm.logger.TraceUtilities;
+import com.ibm.logger.jmx.LogEntrySnapshot;
 import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
 
 public abstract class AbstractLogEntry implements TimeIntervalLogEntryMXBean {
@@ -57,9 +58,15 @@ public abstract class AbstractLogEntry implements TimeIntervalLogEntryMXBean {
 		addValue(value, 0, false, false, failed);
 	}
 
+	@Override
+    public void addValue(long processed, int responseSize,
+			boolean cacheEnabled, boolean cacheHit, boolean failed) {
+		addValue(processed, responseSize, cacheEnabled, cacheHit, failed, 1);
+	}
+
 	@Override
     public abstract void addValue(long processed, int responseSize,
-			boolean cacheEnabled, boolean cacheHit, boolean failed);
+			boolean cacheEnabled, boolean cacheHit, boolean failed, long weight);
 
 	@Override
 	public String getId() {
@@ -107,6 +114,27 @@ public abstract class AbstractLogEntry implements TimeIntervalLogEntryMXBean {
 	}
 
 	
+	@Override
+    public long getDurationPercentile50() {
+		return getStatistics().getDurationPercentile(50.0);
+	}
+
+	@Override
+    public long getDurationPercentile95() {
+		return getStatistics().getDurationPercentile(95.0);
+	}
+
+	@Override
+    public long getDurationPercentile99() {
+		return getStatistics().getDurationPercentile(99.0);
+	}
+
+	@Override
+    public long getDurationPercentile999() {
+		return getStatistics().getDurationPercentile(99.9);
+	}
+
+	
 	@Override
     public double getAverageResponseSize() {
 		OperationStatistics statistics = getStatistics();
@@ -203,9 +231,44 @@ public abstract class AbstractLogEntry implements TimeIntervalLogEntryMXBean {
 		return statistics.getSumResultSize();
 	}
 	
+	@Override
+	public LogEntrySnapshot getSnapshot() {
+		return new LogEntrySnapshot(getId(), getIntervalName(), getStatistics());
+	}
+
 	@Override
 	public TimeIntervalLogEntryMXBean getMetricByIntervalName(
 			String intervalName) {
 		return null;
 	}
+
+	@Override
+	public double getOneMinuteRate() {
+		return 0;
+	}
+
+	@Override
+	public double getFiveMinuteRate() {
+		return 0;
+	}
+
+	@Override
+	public double getFifteenMinuteRate() {
+		return 0;
+	}
+
+	@Override
+	public double getOneMinuteAverageDuration() {
+		return 0;
+	}
+
+	@Override
+	public double getFiveMinuteAverageDuration() {
+		return 0;
+	}
+
+	@Override
+	public double getFifteenMinuteAverageDuration() {
+		return 0;
+	}
 }
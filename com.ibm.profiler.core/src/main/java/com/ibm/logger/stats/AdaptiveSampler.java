@@ -0,0 +1,353 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which calls are recorded so that the number of recorded calls stays
+ * within a budget of records per second.
+ *
+ * Each operation gets its own sampling rate, recomputed every period from the
+ * number of calls seen during the previous period. The budget is shared
+ * equally between the operations: operations called less often than their
+ * share are always recorded, and the budget they leave is split between the
+ * busier ones. Failed calls and calls slower than the slow threshold are
+ * always recorded and are taken out of the budget first.
+ *
+ * A recorded call is given a weight, the number of calls it stands for. The
+ * weight is the inverse of the sampling rate, randomly rounded to one of the
+ * two closest integers so that counts and sums computed from the weights are
+ * unbiased.
+ *
+ * The rates are computed by the first call sampled after the end of a period,
+ * which sorts all the active operations on the thread recording the call.
+ * When a scheduler is available, mark the sampler as scheduled and call
+ * {@link #adjustRates(long)} every {@link #getPeriodInMillisecond()} instead;
+ * the sampled calls then never compute the rates.
+ *
+ * This class is thread safe.
+ */
+public class AdaptiveSampler {
+
+	/** weight of a call that must not be recorded */
+	public static final long DROPPED = 0;
+
+	/** lowest sampling rate given to an operation */
+	public static final double MINIMUM_RATE = 0.0001;
+
+	private static final long DEFAULT_PERIOD_IN_MILLISECOND = 1000;
+
+	private static final double MILLIS_PER_SECOND = 1000.0;
+
+	private static final Comparator<OperationRate> DEMAND_ASCENDING = new Comparator<OperationRate>() {
+		@Override
+		public int compare(OperationRate first, OperationRate second) {
+			return Double.compare(first.demand, second.demand);
+		}
+	};
+
+	/**
+	 * Sampling state of a single operation.
+	 */
+	private static final class OperationRate {
+
+		/** calls subject to sampling seen during the current period */
+		private final LongAdder calls = new LongAdder();
+
+		/** probability of recording a call */
+		private volatile double rate = 1.0;
+
+		/** calls per second seen during the last period */
+		private double demand;
+
+		private void setRate(double newRate) {
+			rate = Math.max(MINIMUM_RATE, Math.min(1.0, newRate));
+		}
+	}
+
+	private final long periodInMillisecond;
+
+	private final ConcurrentHashMap<String, OperationRate> rates = new ConcurrentHashMap<String, OperationRate>();
+
+	/** calls recorded because of the failure and slow call rules */
+	private final LongAdder forcedCalls = new LongAdder();
+
+	private final AtomicLong periodStart = new AtomicLong(
+			System.currentTimeMillis());
+
+	private volatile long budget = 0;
+
+	private volatile long slowThresholdInNanos = 0;
+
+	private volatile boolean scheduled = false;
+
+	/**
+	 * Constructor, the sampling rates are recomputed every second.
+	 */
+	public AdaptiveSampler() {
+		this(DEFAULT_PERIOD_IN_MILLISECOND);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param periodInMillisecond
+	 *            the delay between two computations of the sampling rates.
+	 */
+	public AdaptiveSampler(long periodInMillisecond) {
+		this.periodInMillisecond = Math.max(1, periodInMillisecond);
+	}
+
+	/**
+	 *
+	 * @return the number of calls recorded per second, 0 when all the calls
+	 *         are recorded.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set the number of calls to record per second. Takes effect on the next
+	 * computation of the sampling rates.
+	 *
+	 * @param budget
+	 *            the number of calls to record per second, 0 to record all
+	 *            calls.
+	 */
+	public void setBudget(long budget) {
+		long newBudget = Math.max(0, budget);
+		if (newBudget == 0) {
+			clear();
+		}
+		this.budget = newBudget;
+	}
+
+	/**
+	 *
+	 * @return true when calls are sampled.
+	 */
+	public boolean isEnabled() {
+		return budget > 0;
+	}
+
+	/**
+	 *
+	 * @return the delay between two computations of the sampling rates.
+	 */
+	public long getPeriodInMillisecond() {
+		return periodInMillisecond;
+	}
+
+	/**
+	 *
+	 * @return true when the sampling rates are computed by a scheduler.
+	 */
+	public boolean isScheduled() {
+		return scheduled;
+	}
+
+	/**
+	 * @param scheduled
+	 *            true when a scheduler calls {@link #adjustRates(long)} every
+	 *            period, false to compute the rates from the sampled calls.
+	 */
+	public void setScheduled(boolean scheduled) {
+		this.scheduled = scheduled;
+	}
+
+	/**
+	 *
+	 * @return the duration in nanoseconds above which calls are always
+	 *         recorded, 0 when the rule is disabled.
+	 */
+	public long getSlowThresholdInNanos() {
+		return slowThresholdInNanos;
+	}
+
+	/**
+	 *
+	 * @param slowThresholdInNanos
+	 *            the duration in nanoseconds above which calls are always
+	 *            recorded, 0 to disable the rule.
+	 */
+	public void setSlowThresholdInNanos(long slowThresholdInNanos) {
+		this.slowThresholdInNanos = Math.max(0, slowThresholdInNanos);
+	}
+
+	/**
+	 * Decide if a call is recorded.
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @param duration
+	 *            the duration of the call in nanoseconds.
+	 * @param failed
+	 *            was call failed.
+	 * @return the number of calls the recorded call stands for,
+	 *         {@link #DROPPED} if the call must not be recorded.
+	 */
+	public long sample(String id, long duration, boolean failed) {
+		if (budget <= 0) {
+			return 1;
+		}
+		return sample(id, duration, failed, System.currentTimeMillis());
+	}
+
+	/**
+	 * Decide if a call is recorded.
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @param duration
+	 *            the duration of the call in nanoseconds.
+	 * @param failed
+	 *            was call failed.
+	 * @param currentTime
+	 *            the current time in milliseconds.
+	 * @return the number of calls the recorded call stands for,
+	 *         {@link #DROPPED} if the call must not be recorded.
+	 */
+	public long sample(String id, long duration, boolean failed,
+			long currentTime) {
+		if (!scheduled) {
+			checkToAdjustRates(currentTime);
+		}
+
+		long threshold = slowThresholdInNanos;
+		if (failed || (threshold > 0 && duration >= threshold)) {
+			forcedCalls.increment();
+			return 1;
+		}
+
+		OperationRate operationRate = rates.get(id);
+		if (operationRate == null) {
+			// new operations are recorded until the next computation.
+			operationRate = new OperationRate();
+			OperationRate existing = rates.putIfAbsent(id, operationRate);
+			if (existing != null) {
+				operationRate = existing;
+			}
+		}
+		operationRate.calls.increment();
+
+		double rate = operationRate.rate;
+		if (rate >= 1.0) {
+			return 1;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (random.nextDouble() >= rate) {
+			return DROPPED;
+		}
+		double inverse = 1.0 / rate;
+		long weight = (long) inverse;
+		if (random.nextDouble() < inverse - weight) {
+			++weight;
+		}
+		return weight;
+	}
+
+	/**
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @return the probability of recording a call to the operation.
+	 */
+	public double getRate(String id) {
+		OperationRate operationRate = rates.get(id);
+		if (operationRate == null) {
+			return 1.0;
+		}
+		return operationRate.rate;
+	}
+
+	/**
+	 * Forget the sampling rates of all operations.
+	 */
+	public void clear() {
+		rates.clear();
+		forcedCalls.reset();
+	}
+
+	private void checkToAdjustRates(long currentTime) {
+		long start = periodStart.get();
+		long elapsed = currentTime - start;
+		if (elapsed >= periodInMillisecond
+				&& periodStart.compareAndSet(start, currentTime)) {
+			computeRates(elapsed);
+		}
+	}
+
+	/**
+	 * Compute the sampling rates from the calls seen since the last
+	 * computation. Called by the scheduler every period.
+	 *
+	 * @param currentTime
+	 *            the current time in milliseconds.
+	 */
+	public void adjustRates(long currentTime) {
+		long start = periodStart.getAndSet(currentTime);
+		computeRates(Math.max(1, currentTime - start));
+	}
+
+	/**
+	 * Compute the sampling rates from the calls seen during the period.
+	 *
+	 * @param elapsed
+	 *            the duration of the period in milliseconds.
+	 */
+	private synchronized void computeRates(long elapsed) {
+		double seconds = elapsed / MILLIS_PER_SECOND;
+		double available = Math.max(0.0, budget - forcedCalls.sumThenReset()
+				/ seconds);
+
+		List<OperationRate> active = new ArrayList<OperationRate>(
+				rates.size());
+		for (Map.Entry<String, OperationRate> entry : rates.entrySet()) {
+			OperationRate operationRate = entry.getValue();
+			long calls = operationRate.calls.sumThenReset();
+			if (calls == 0) {
+				rates.remove(entry.getKey(), operationRate);
+			} else {
+				operationRate.demand = calls / seconds;
+				active.add(operationRate);
+			}
+		}
+		Collections.sort(active, DEMAND_ASCENDING);
+
+		int remainingOperations = active.size();
+		for (OperationRate operationRate : active) {
+			double share = available / remainingOperations;
+			if (operationRate.demand <= share) {
+				operationRate.setRate(1.0);
+				available -= operationRate.demand;
+			} else {
+				operationRate.setRate(share / operationRate.demand);
+				available -= share;
+			}
+			--remainingOperations;
+		}
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.commerce.cache.LatencyHistogram;
+import com.ibm.commerce.cache.OperationStatistics;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+
+/**
+ * Position of one exporter in the metrics of all the operations. Each read
+ * returns the increments since the previous read of the same cursor, so push
+ * exporters don't have to compute differences themselves.
+ *
+ * The cursor remembers the totals it returned last and subtracts them from
+ * the totals it reads, every counter being read once per read. Calls recorded
+ * during a read are either returned by this read or by the next one, so the
+ * sum of all the deltas of a cursor always matches the totals. Cursors are
+ * independent from each other and from the recording threads.
+ *
+ * When an operation is cleared or recreated, its next delta starts over from
+ * zero. Calls of an operation removed by the cleanup of unused entries after
+ * the last read are lost, the cleanup only removes operations without calls
+ * for a whole cleanup delay. Operations owned by another classloader are
+ * returned by the cursors of that classloader.
+ *
+ * Reads of the same cursor are serialized.
+ */
+public class DeltaCursor {
+
+	private static final long[] NO_BUCKETS = new long[0];
+
+	/**
+	 * Totals of an operation returned by the last read.
+	 */
+	private static final class Baseline {
+
+		private final TimeIntervalLogEntryMXBean entry;
+
+		private final int bucketCount;
+
+		private long readCount;
+
+		private long callCount;
+
+		private long successCallCount;
+
+		private long cacheEnabledCount;
+
+		private long cacheHitCount;
+
+		private long totalDuration;
+
+		private long totalResponseSize;
+
+		/** non empty buckets, in increasing order */
+		private int[] bucketIndexes = new int[0];
+
+		private long[] bucketCounts = NO_BUCKETS;
+
+		Baseline(TimeIntervalLogEntryMXBean entry, int bucketCount) {
+			this.entry = entry;
+			this.bucketCount = bucketCount;
+		}
+	}
+
+	private final String name;
+
+	private final Map<String, Baseline> baselines = new HashMap<String, Baseline>();
+
+	private long readCount;
+
+	private long lastReadTime;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name
+	 *            the name of the exporter owning the cursor.
+	 */
+	public DeltaCursor(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of the exporter owning the cursor.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the time of the last read in milliseconds since the epoch, 0 if
+	 *         the cursor was never read.
+	 */
+	public synchronized long getLastReadTime() {
+		return lastReadTime;
+	}
+
+	/**
+	 * Read the increments of all the operations of the performance logger.
+	 *
+	 * @return the increments since the previous read, operations without new
+	 *         calls are left out.
+	 */
+	public List<MetricDelta> read() {
+		return read(PerformanceLogger.getPerformanceLogs().values());
+	}
+
+	/**
+	 * Read the increments of a set of operations.
+	 *
+	 * @param entries
+	 *            the total metrics of the operations.
+	 * @return the increments since the previous read, operations without new
+	 *         calls are left out.
+	 */
+	public synchronized List<MetricDelta> read(
+			Collection<? extends TimeIntervalLogEntryMXBean> entries) {
+		++readCount;
+		lastReadTime = System.currentTimeMillis();
+		List<MetricDelta> deltas = new ArrayList<MetricDelta>();
+		for (TimeIntervalLogEntryMXBean entry : entries) {
+			if (!(entry instanceof AbstractLogEntry)) {
+				continue;
+			}
+			MetricDelta delta = readEntry(entry,
+					((AbstractLogEntry) entry).getStatistics());
+			if (delta != null) {
+				deltas.add(delta);
+			}
+		}
+
+		// forget the operations that were removed.
+		Iterator<Baseline> iterator = baselines.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().readCount != readCount) {
+				iterator.remove();
+			}
+		}
+		return deltas;
+	}
+
+	private MetricDelta readEntry(TimeIntervalLogEntryMXBean entry,
+			OperationStatistics statistics) {
+		String id = entry.getName();
+		long callCount = statistics.getCallCount();
+		long successCallCount = statistics.getSuccessCallCount();
+		long cacheEnabledCount = statistics.getCacheEnabledCallCount();
+		long cacheHitCount = statistics.getCacheHitCount();
+		long totalDuration = statistics.getSumExecutionTimeAsLong();
+		long totalResponseSize = statistics.getSumResultSizeAsLong();
+		LatencyHistogram histogram = statistics.getDurationHistogram();
+		long[] buckets = histogram.getCounts();
+
+		Baseline baseline = baselines.get(id);
+		if (baseline == null
+				|| baseline.entry != entry
+				|| isReset(baseline, callCount, successCallCount,
+						cacheEnabledCount, cacheHitCount, totalDuration,
+						totalResponseSize, buckets)) {
+			// new, recreated or cleared operation, start over from zero.
+			baseline = new Baseline(entry, buckets.length);
+			baselines.put(id, baseline);
+		}
+		baseline.readCount = readCount;
+
+		// diff the buckets against the sparse previous buckets.
+		int changedCount = 0;
+		long[] changedBounds = null;
+		long[] changedCounts = null;
+		int nonEmptyCount = 0;
+		int previous = 0;
+		for (int i = 0; i < buckets.length; ++i) {
+			long count = buckets[i];
+			if (count == 0) {
+				continue;
+			}
+			++nonEmptyCount;
+			long previousCount = 0;
+			while (previous < baseline.bucketIndexes.length
+					&& baseline.bucketIndexes[previous] < i) {
+				++previous;
+			}
+			if (previous < baseline.bucketIndexes.length
+					&& baseline.bucketIndexes[previous] == i) {
+				previousCount = baseline.bucketCounts[previous];
+			}
+			if (count != previousCount) {
+				if (changedBounds == null) {
+					changedBounds = new long[buckets.length];
+					changedCounts = new long[buckets.length];
+				}
+				changedBounds[changedCount] = histogram
+						.getHighestValueInBucket(i);
+				changedCounts[changedCount] = count - previousCount;
+				++changedCount;
+			}
+		}
+
+		MetricDelta delta = null;
+		if (callCount != baseline.callCount
+				|| successCallCount != baseline.successCallCount
+				|| cacheEnabledCount != baseline.cacheEnabledCount
+				|| cacheHitCount != baseline.cacheHitCount
+				|| totalDuration != baseline.totalDuration
+				|| totalResponseSize != baseline.totalResponseSize
+				|| changedCount > 0) {
+			long[] bounds = NO_BUCKETS;
+			long[] counts = NO_BUCKETS;
+			if (changedCount > 0) {
+				bounds = new long[changedCount];
+				counts = new long[changedCount];
+				System.arraycopy(changedBounds, 0, bounds, 0, changedCount);
+				System.arraycopy(changedCounts, 0, counts, 0, changedCount);
+			}
+			delta = new MetricDelta(id, callCount - baseline.callCount,
+					successCallCount - baseline.successCallCount,
+					cacheEnabledCount - baseline.cacheEnabledCount,
+					cacheHitCount - baseline.cacheHitCount, totalDuration
+							- baseline.totalDuration, totalResponseSize
+							- baseline.totalResponseSize, bounds, counts);
+		}
+
+		baseline.callCount = callCount;
+		baseline.successCallCount = successCallCount;
+		baseline.cacheEnabledCount = cacheEnabledCount;
+		baseline.cacheHitCount = cacheHitCount;
+		baseline.totalDuration = totalDuration;
+		baseline.totalResponseSize = totalResponseSize;
+		if (changedCount > 0) {
+			int[] bucketIndexes = new int[nonEmptyCount];
+			long[] bucketCounts = new long[nonEmptyCount];
+			int bucket = 0;
+			for (int i = 0; i < buckets.length; ++i) {
+				if (buckets[i] != 0) {
+					bucketIndexes[bucket] = i;
+					bucketCounts[bucket] = buckets[i];
+					++bucket;
+				}
+			}
+			baseline.bucketIndexes = bucketIndexes;
+			baseline.bucketCounts = bucketCounts;
+		}
+		return delta;
+	}
+
+	/**
+	 * @return true if a total went down since the last read, meaning the
+	 *         statistics were cleared.
+	 */
+	private static boolean isReset(Baseline baseline, long callCount,
+			long successCallCount, long cacheEnabledCount, long cacheHitCount,
+			long totalDuration, long totalResponseSize, long[] buckets) {
+		if (callCount < baseline.callCount
+				|| successCallCount < baseline.successCallCount
+				|| cacheEnabledCount < baseline.cacheEnabledCount
+				|| cacheHitCount < baseline.cacheHitCount
+				|| totalDuration < baseline.totalDuration
+				|| totalResponseSize < baseline.totalResponseSize
+				|| buckets.length != baseline.bucketCount) {
+			return true;
+		}
+		for (int i = 0; i < baseline.bucketIndexes.length; ++i) {
+			if (buckets[baseline.bucketIndexes[i]] < baseline.bucketCounts[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving sketch finding the most frequent operation identifiers among
+ * an unbounded number of identifiers in a fixed amount of memory.
+ *
+ * The sketch monitors a fixed number of identifiers. When a new identifier is
+ * offered and the sketch is full, it replaces the monitored identifier with
+ * the lowest count and inherits that count as its estimation error. Counts
+ * are therefore never under estimated, and any identifier whose real count is
+ * higher than the total count divided by the capacity is guaranteed to be
+ * monitored.
+ *
+ * Monitored identifiers are kept in a binary min-heap so offering a value is
+ * done in logarithmic time, without allocation for monitored identifiers.
+ *
+ * The identifiers can be spread by hash over stripes, each one monitoring a
+ * share of the capacity under its own lock, so threads offering different
+ * identifiers rarely contend. The guarantee then applies to the total count
+ * of each stripe. This class is thread safe.
+ */
+public class HeavyHitterSketch {
+
+	private static final Comparator<HeavyHitter> GUARANTEED_COUNT_DESCENDING = new Comparator<HeavyHitter>() {
+		@Override
+		public int compare(HeavyHitter first, HeavyHitter second) {
+			return Long.compare(second.getGuaranteedCount(),
+					first.getGuaranteedCount());
+		}
+	};
+
+	/**
+	 * Identifier monitored by the sketch.
+	 */
+	public static final class HeavyHitter {
+
+		private final String id;
+
+		private final long count;
+
+		private final long error;
+
+		HeavyHitter(String id, long count, long error) {
+			this.id = id;
+			this.count = count;
+			this.error = error;
+		}
+
+		/**
+		 *
+		 * @return the operation identifier.
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 *
+		 * @return the estimated count, never lower than the real count.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 *
+		 * @return the maximum over estimation of the count.
+		 */
+		public long getError() {
+			return error;
+		}
+
+		/**
+		 *
+		 * @return the count the identifier is guaranteed to have reached.
+		 */
+		public long getGuaranteedCount() {
+			return count - error;
+		}
+	}
+
+	/**
+	 * Identifier monitored by a stripe, reused when the identifier is
+	 * replaced.
+	 */
+	private static final class Slot {
+
+		private String id;
+
+		private long count;
+
+		private long error;
+
+		/** position in the heap */
+		private int index;
+	}
+
+	/**
+	 * Space-Saving min-heap monitoring a share of the identifiers, guarded by
+	 * its own lock.
+	 */
+	private static final class Stripe {
+
+		private final Slot[] heap;
+
+		private final Map<String, Slot> slots;
+
+		private int size;
+
+		Stripe(int capacity) {
+			heap = new Slot[capacity];
+			slots = new HashMap<String, Slot>(capacity * 2);
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized void offer(String id, long weight) {
+			Slot slot = slots.get(id);
+			if (slot != null) {
+				slot.count += weight;
+				siftDown(slot.index);
+			} else if (size < heap.length) {
+				slot = new Slot();
+				slot.id = id;
+				slot.count = weight;
+				slot.index = size;
+				heap[size++] = slot;
+				slots.put(id, slot);
+				siftUp(slot.index);
+			} else {
+				// replace the identifier with the lowest count.
+				slot = heap[0];
+				slots.remove(slot.id);
+				slot.id = id;
+				slot.error = slot.count;
+				slot.count += weight;
+				slots.put(id, slot);
+				siftDown(0);
+			}
+		}
+
+		synchronized void remove(String id) {
+			Slot slot = slots.remove(id);
+			if (slot == null) {
+				return;
+			}
+			int index = slot.index;
+			int last = --size;
+			Slot lastSlot = heap[last];
+			heap[last] = null;
+			if (index != last) {
+				lastSlot.index = index;
+				heap[index] = lastSlot;
+				siftDown(index);
+				siftUp(lastSlot.index);
+			}
+		}
+
+		synchronized long getCount(String id) {
+			Slot slot = slots.get(id);
+			if (slot == null) {
+				return 0;
+			}
+			return slot.count;
+		}
+
+		synchronized void addHeavyHitters(List<HeavyHitter> heavyHitters) {
+			for (int i = 0; i < size; ++i) {
+				Slot slot = heap[i];
+				heavyHitters.add(new HeavyHitter(slot.id, slot.count,
+						slot.error));
+			}
+		}
+
+		synchronized void clear() {
+			for (int i = 0; i < size; ++i) {
+				heap[i] = null;
+			}
+			slots.clear();
+			size = 0;
+		}
+
+		private void swap(int first, int second) {
+			Slot slot = heap[first];
+			heap[first] = heap[second];
+			heap[first].index = first;
+			heap[second] = slot;
+			slot.index = second;
+		}
+
+		private void siftUp(int index) {
+			while (index > 0) {
+				int parent = (index - 1) >>> 1;
+				if (heap[parent].count <= heap[index].count) {
+					return;
+				}
+				swap(index, parent);
+				index = parent;
+			}
+		}
+
+		private void siftDown(int index) {
+			while (true) {
+				int smallest = index;
+				int left = 2 * index + 1;
+				int right = left + 1;
+				if (left < size && heap[left].count < heap[smallest].count) {
+					smallest = left;
+				}
+				if (right < size && heap[right].count < heap[smallest].count) {
+					smallest = right;
+				}
+				if (smallest == index) {
+					return;
+				}
+				swap(index, smallest);
+				index = smallest;
+			}
+		}
+	}
+
+	private final int capacity;
+
+	private final Stripe[] stripes;
+
+	private final int stripeMask;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            the number of monitored identifiers.
+	 */
+	public HeavyHitterSketch(int capacity) {
+		this(capacity, 1);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            the number of monitored identifiers.
+	 * @param stripeCount
+	 *            the number of stripes, rounded down to a power of two and
+	 *            limited to the capacity.
+	 */
+	public HeavyHitterSketch(int capacity, int stripeCount) {
+		this.capacity = Math.max(1, capacity);
+		int count = Integer.highestOneBit(Math.max(1,
+				Math.min(stripeCount, this.capacity)));
+		stripes = new Stripe[count];
+		int stripeCapacity = (this.capacity + count - 1) / count;
+		for (int i = 0; i < count; ++i) {
+			stripes[i] = new Stripe(stripeCapacity);
+		}
+		stripeMask = count - 1;
+	}
+
+	/**
+	 *
+	 * @return the number of monitored identifiers.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 *
+	 * @return the number of stripes.
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 *
+	 * @return the number of identifiers currently monitored.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Count occurrences of an identifier.
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @param weight
+	 *            the number of occurrences.
+	 */
+	public void offer(String id, long weight) {
+		stripe(id).offer(id, weight);
+	}
+
+	/**
+	 * Stop monitoring an identifier.
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 */
+	public void remove(String id) {
+		stripe(id).remove(id);
+	}
+
+	/**
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @return the estimated count of the identifier, 0 if not monitored.
+	 */
+	public long getCount(String id) {
+		return stripe(id).getCount(id);
+	}
+
+	/**
+	 *
+	 * @return the monitored identifiers, highest guaranteed count first.
+	 */
+	public List<HeavyHitter> getHeavyHitters() {
+		List<HeavyHitter> heavyHitters = new ArrayList<HeavyHitter>();
+		for (Stripe stripe : stripes) {
+			stripe.addHeavyHitters(heavyHitters);
+		}
+		Collections.sort(heavyHitters, GUARANTEED_COUNT_DESCENDING);
+		return heavyHitters;
+	}
+
+	/**
+	 * Stop monitoring all identifiers.
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
+	private Stripe stripe(String id) {
+		if (stripeMask == 0) {
+			return stripes[0];
+		}
+		int hash = id.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+	}
+}
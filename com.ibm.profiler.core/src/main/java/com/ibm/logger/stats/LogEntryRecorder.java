@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Records values into a log entry on behalf of other classloaders.
+ * 
+ * The recorder is shared as a JDK {@link LongBinaryOperator} so classloaders
+ * that can't see the classes of the owning classloader can still call it
+ * directly. The first operand is the duration, the second one packs the
+ * result size and the call flags, see {@link #pack(int, boolean, boolean, boolean)}.
+ * The operation returns {@link #RECORDED}, or {@link #DISCARDED} once the
+ * entry was removed by its owner, in which case the caller must look up the
+ * entry again.
+ */
+public final class LogEntryRecorder implements LongBinaryOperator {
+
+	/** value returned when the call was recorded */
+	public static final long RECORDED = 0;
+
+	/** value returned when the entry was removed by its owner */
+	public static final long DISCARDED = -1;
+
+	private static final long CACHE_ENABLED = 1;
+
+	private static final long CACHE_HIT = 2;
+
+	private static final long FAILED = 4;
+
+	private static final int WEIGHT_SHIFT = 3;
+
+	/** highest weight that fits between the flags and the result size */
+	public static final long MAXIMUM_WEIGHT = (1L << 29) - 1;
+
+	private static final int RESULT_SIZE_SHIFT = 32;
+
+	private final TotalLogEntry entry;
+
+	private volatile boolean discarded = false;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param entry
+	 *            the entry receiving the values.
+	 */
+	public LogEntryRecorder(TotalLogEntry entry) {
+		this.entry = entry;
+	}
+
+	/**
+	 * Pack the attributes of a call in a single value.
+	 * 
+	 * @param resultSize
+	 *            result size.
+	 * @param cacheEnabled
+	 *            was cache enabled.
+	 * @param cacheHit
+	 *            was result fetched from cache.
+	 * @param failed
+	 *            was call failed.
+	 * @return the packed attributes.
+	 */
+	public static long pack(int resultSize, boolean cacheEnabled,
+			boolean cacheHit, boolean failed) {
+		return pack(resultSize, cacheEnabled, cacheHit, failed, 1);
+	}
+
+	/**
+	 * Pack the attributes of a sampled call in a single value.
+	 * 
+	 * @param resultSize
+	 *            result size.
+	 * @param cacheEnabled
+	 *            was cache enabled.
+	 * @param cacheHit
+	 *            was result fetched from cache.
+	 * @param failed
+	 *            was call failed.
+	 * @param weight
+	 *            the number of calls the value stands for, capped to
+	 *            {@link #MAXIMUM_WEIGHT}.
+	 * @return the packed attributes.
+	 */
+	public static long pack(int resultSize, boolean cacheEnabled,
+			boolean cacheHit, boolean failed, long weight) {
+		long packed = ((long) resultSize) << RESULT_SIZE_SHIFT;
+		packed |= Math.min(weight, MAXIMUM_WEIGHT) << WEIGHT_SHIFT;
+		if (cacheEnabled) {
+			packed |= CACHE_ENABLED;
+		}
+		if (cacheHit) {
+			packed |= CACHE_HIT;
+		}
+		if (failed) {
+			packed |= FAILED;
+		}
+		return packed;
+	}
+
+	@Override
+	public long applyAsLong(long duration, long packed) {
+		if (discarded) {
+			return DISCARDED;
+		}
+		int resultSize = (int) (packed >> RESULT_SIZE_SHIFT);
+		long weight = (packed >>> WEIGHT_SHIFT) & MAXIMUM_WEIGHT;
+		if (weight == 0) {
+			// packed by a version without weights.
+			weight = 1;
+		}
+		entry.addValue(duration, resultSize, (packed & CACHE_ENABLED) != 0,
+				(packed & CACHE_HIT) != 0, (packed & FAILED) != 0, weight);
+		return RECORDED;
+	}
+
+	/**
+	 * @return the entry receiving the values.
+	 */
+	public TotalLogEntry getEntry() {
+		return entry;
+	}
+
+	/**
+	 * Mark the entry as removed. Other classloaders will look up the entry
+	 * again on their next call.
+	 */
+	public void discard() {
+		discarded = true;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+/**
+ * Increments of the metrics of an operation between two reads of a
+ * {@link DeltaCursor}.
+ *
+ * Durations are in nanoseconds. The histogram only lists the buckets that
+ * changed, each bucket being identified by the highest duration it counts.
+ */
+public final class MetricDelta {
+
+	private final String id;
+
+	private final long callCount;
+
+	private final long successCallCount;
+
+	private final long cacheEnabledCount;
+
+	private final long cacheHitCount;
+
+	private final long totalDuration;
+
+	private final long totalResponseSize;
+
+	private final long[] bucketUpperBounds;
+
+	private final long[] bucketCounts;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @param callCount
+	 *            the number of new calls.
+	 * @param successCallCount
+	 *            the number of new successful calls.
+	 * @param cacheEnabledCount
+	 *            the number of new calls with cache enabled.
+	 * @param cacheHitCount
+	 *            the number of new calls fetched from cache.
+	 * @param totalDuration
+	 *            the duration of the new calls.
+	 * @param totalResponseSize
+	 *            the response size of the new calls.
+	 * @param bucketUpperBounds
+	 *            the highest duration of each changed histogram bucket, in
+	 *            increasing order.
+	 * @param bucketCounts
+	 *            the number of new calls in each changed bucket.
+	 */
+	public MetricDelta(String id, long callCount, long successCallCount,
+			long cacheEnabledCount, long cacheHitCount, long totalDuration,
+			long totalResponseSize, long[] bucketUpperBounds,
+			long[] bucketCounts) {
+		this.id = id;
+		this.callCount = callCount;
+		this.successCallCount = successCallCount;
+		this.cacheEnabledCount = cacheEnabledCount;
+		this.cacheHitCount = cacheHitCount;
+		this.totalDuration = totalDuration;
+		this.totalResponseSize = totalResponseSize;
+		this.bucketUpperBounds = bucketUpperBounds.clone();
+		this.bucketCounts = bucketCounts.clone();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getCallCount() {
+		return callCount;
+	}
+
+	public long getSuccessCallCount() {
+		return successCallCount;
+	}
+
+	/**
+	 * Calls are counted before their success. A call in flight during a read
+	 * can show as an error in one delta and be taken back by the next one, the
+	 * sum of the deltas is always exact.
+	 *
+	 * @return the number of new failed calls.
+	 */
+	public long getErrorCallCount() {
+		return callCount - successCallCount;
+	}
+
+	public long getCacheEnabledCount() {
+		return cacheEnabledCount;
+	}
+
+	public long getCacheHitCount() {
+		return cacheHitCount;
+	}
+
+	public long getTotalDuration() {
+		return totalDuration;
+	}
+
+	public long getTotalResponseSize() {
+		return totalResponseSize;
+	}
+
+	/**
+	 * @return the highest duration counted by each changed bucket.
+	 */
+	public long[] getBucketUpperBounds() {
+		return bucketUpperBounds.clone();
+	}
+
+	/**
+	 * @return the number of new calls of each changed bucket.
+	 */
+	public long[] getBucketCounts() {
+		return bucketCounts.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "MetricDelta [id=" + id + ", calls=" + callCount + ", errors="
+				+ getErrorCallCount() + ", totalDuration=" + totalDuration
+				+ "]";
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponentially weighted moving averages of the call rate and of the call
+ * duration of an operation over one, five and fifteen minutes.
+ *
+ * The averages are updated by ticks that read the call count and the total
+ * duration of the operation, the calls themselves don't touch this class.
+ * Each tick weighs the calls since the previous tick by the time elapsed, so
+ * ticks don't need to be evenly spaced.
+ *
+ * Ticks are synchronized, reading the averages doesn't lock.
+ */
+public class MovingRates {
+
+	private static final long ONE_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+	private static final long FIVE_MINUTES = TimeUnit.MINUTES.toNanos(5);
+
+	private static final long FIFTEEN_MINUTES = TimeUnit.MINUTES.toNanos(15);
+
+	/** ticks closer than this to the previous one are ignored */
+	private static final long MINIMUM_TICK_INTERVAL = TimeUnit.MILLISECONDS
+			.toNanos(1);
+
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private long lastTickTime;
+
+	private long lastCallCount;
+
+	private long lastTotalDuration;
+
+	private boolean hasRate;
+
+	private boolean hasDuration;
+
+	private volatile double oneMinuteRate;
+
+	private volatile double fiveMinuteRate;
+
+	private volatile double fifteenMinuteRate;
+
+	private volatile double oneMinuteAverageDuration;
+
+	private volatile double fiveMinuteAverageDuration;
+
+	private volatile double fifteenMinuteAverageDuration;
+
+	/**
+	 * Constructor
+	 *
+	 * @param creationTime
+	 *            the time the operation started counting calls, from
+	 *            {@link System#nanoTime()}.
+	 */
+	public MovingRates(long creationTime) {
+		lastTickTime = creationTime;
+	}
+
+	/**
+	 * Update the averages with the calls since the previous tick.
+	 *
+	 * @param callCount
+	 *            the number of calls of the operation.
+	 * @param totalDuration
+	 *            the total duration of the calls in nanoseconds.
+	 * @param tickTime
+	 *            the current time, from {@link System#nanoTime()}.
+	 */
+	public synchronized void tick(long callCount, long totalDuration,
+			long tickTime) {
+		long elapsed = tickTime - lastTickTime;
+		if (elapsed < MINIMUM_TICK_INTERVAL) {
+			return;
+		}
+		long calls = callCount - lastCallCount;
+		long duration = totalDuration - lastTotalDuration;
+		lastTickTime = tickTime;
+		lastCallCount = callCount;
+		lastTotalDuration = totalDuration;
+		if (calls < 0 || duration < 0) {
+			// the statistics were cleared, start over from the new values.
+			return;
+		}
+
+		double rate = calls * NANOS_PER_SECOND / elapsed;
+		if (hasRate) {
+			oneMinuteRate = average(oneMinuteRate, rate, elapsed, ONE_MINUTE);
+			fiveMinuteRate = average(fiveMinuteRate, rate, elapsed,
+					FIVE_MINUTES);
+			fifteenMinuteRate = average(fifteenMinuteRate, rate, elapsed,
+					FIFTEEN_MINUTES);
+		} else {
+			hasRate = true;
+			oneMinuteRate = rate;
+			fiveMinuteRate = rate;
+			fifteenMinuteRate = rate;
+		}
+
+		// without calls, the duration has nothing new to average.
+		if (calls == 0) {
+			return;
+		}
+		double averageDuration = (double) duration / calls;
+		if (hasDuration) {
+			oneMinuteAverageDuration = average(oneMinuteAverageDuration,
+					averageDuration, elapsed, ONE_MINUTE);
+			fiveMinuteAverageDuration = average(fiveMinuteAverageDuration,
+					averageDuration, elapsed, FIVE_MINUTES);
+			fifteenMinuteAverageDuration = average(
+					fifteenMinuteAverageDuration, averageDuration, elapsed,
+					FIFTEEN_MINUTES);
+		} else {
+			hasDuration = true;
+			oneMinuteAverageDuration = averageDuration;
+			fiveMinuteAverageDuration = averageDuration;
+			fifteenMinuteAverageDuration = averageDuration;
+		}
+	}
+
+	private static double average(double current, double sample,
+			long elapsed, long window) {
+		double alpha = 1.0 - Math.exp(-(double) elapsed / window);
+		return current + alpha * (sample - current);
+	}
+
+	/**
+	 * Forget the averages, for example when the statistics are cleared.
+	 *
+	 * @param resetTime
+	 *            the current time, from {@link System#nanoTime()}.
+	 */
+	public synchronized void reset(long resetTime) {
+		lastTickTime = resetTime;
+		lastCallCount = 0;
+		lastTotalDuration = 0;
+		hasRate = false;
+		hasDuration = false;
+		oneMinuteRate = 0;
+		fiveMinuteRate = 0;
+		fifteenMinuteRate = 0;
+		oneMinuteAverageDuration = 0;
+		fiveMinuteAverageDuration = 0;
+		fifteenMinuteAverageDuration = 0;
+	}
+
+	/**
+	 * @return the time of the last tick, from {@link System#nanoTime()}.
+	 */
+	public synchronized long getLastTickTime() {
+		return lastTickTime;
+	}
+
+	/**
+	 * @return the calls per second averaged over one minute.
+	 */
+	public double getOneMinuteRate() {
+		return oneMinuteRate;
+	}
+
+	/**
+	 * @return the calls per second averaged over five minutes.
+	 */
+	public double getFiveMinuteRate() {
+		return fiveMinuteRate;
+	}
+
+	/**
+	 * @return the calls per second averaged over fifteen minutes.
+	 */
+	public double getFifteenMinuteRate() {
+		return fifteenMinuteRate;
+	}
+
+	/**
+	 * @return the call duration in nanoseconds averaged over one minute.
+	 */
+	public double getOneMinuteAverageDuration() {
+		return oneMinuteAverageDuration;
+	}
+
+	/**
+	 * @return the call duration in nanoseconds averaged over five minutes.
+	 */
+	public double getFiveMinuteAverageDuration() {
+		return fiveMinuteAverageDuration;
+	}
+
+	/**
+	 * @return the call duration in nanoseconds averaged over fifteen minutes.
+	 */
+	public double getFifteenMinuteAverageDuration() {
+		return fifteenMinuteAverageDuration;
+	}
+}
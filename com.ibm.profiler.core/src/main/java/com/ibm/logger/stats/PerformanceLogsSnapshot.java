@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.Collection;
+
+import com.ibm.logger.jmx.LogEntrySnapshot;
+import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+
+/**
+ * Immutable snapshot of the metrics of many operations for one interval,
+ * stored as one primitive array per metric. Row i of every column belongs to
+ * the operation {@link #getId(int)}.
+ *
+ * Each row is taken from a single aggregation of the statistics of its
+ * operation, so the columns of a row are consistent with each other. Rows
+ * are captured one after the other in a single pass over the operations.
+ *
+ * Durations are in nanoseconds. The column getters return copies, use the
+ * row getters to read the snapshot without copying.
+ */
+public final class PerformanceLogsSnapshot {
+
+	private final String intervalName;
+
+	private final long captureTime;
+
+	private final int size;
+
+	private final String[] ids;
+
+	private final long[] callCounts;
+
+	private final long[] errorCallCounts;
+
+	private final long[] cacheEnabledCounts;
+
+	private final long[] cacheHitCounts;
+
+	private final double[] totalDurations;
+
+	private final double[] averageDurations;
+
+	private final long[] minimumDurations;
+
+	private final long[] maximumDurations;
+
+	private final long[] durationPercentiles50;
+
+	private final long[] durationPercentiles95;
+
+	private final long[] durationPercentiles99;
+
+	private final long[] durationPercentiles999;
+
+	private final double[] totalResponseSizes;
+
+	private final double[] averageResponseSizes;
+
+	private final long[] minimumResponseSizes;
+
+	private final long[] maximumResponseSizes;
+
+	private PerformanceLogsSnapshot(String intervalName, int capacity) {
+		this.intervalName = intervalName;
+		captureTime = System.currentTimeMillis();
+		ids = new String[capacity];
+		callCounts = new long[capacity];
+		errorCallCounts = new long[capacity];
+		cacheEnabledCounts = new long[capacity];
+		cacheHitCounts = new long[capacity];
+		totalDurations = new double[capacity];
+		averageDurations = new double[capacity];
+		minimumDurations = new long[capacity];
+		maximumDurations = new long[capacity];
+		durationPercentiles50 = new long[capacity];
+		durationPercentiles95 = new long[capacity];
+		durationPercentiles99 = new long[capacity];
+		durationPercentiles999 = new long[capacity];
+		totalResponseSizes = new double[capacity];
+		averageResponseSizes = new double[capacity];
+		minimumResponseSizes = new long[capacity];
+		maximumResponseSizes = new long[capacity];
+		size = 0;
+	}
+
+	private PerformanceLogsSnapshot(PerformanceLogsSnapshot rows, int size) {
+		intervalName = rows.intervalName;
+		captureTime = rows.captureTime;
+		this.size = size;
+		ids = rows.ids;
+		callCounts = rows.callCounts;
+		errorCallCounts = rows.errorCallCounts;
+		cacheEnabledCounts = rows.cacheEnabledCounts;
+		cacheHitCounts = rows.cacheHitCounts;
+		totalDurations = rows.totalDurations;
+		averageDurations = rows.averageDurations;
+		minimumDurations = rows.minimumDurations;
+		maximumDurations = rows.maximumDurations;
+		durationPercentiles50 = rows.durationPercentiles50;
+		durationPercentiles95 = rows.durationPercentiles95;
+		durationPercentiles99 = rows.durationPercentiles99;
+		durationPercentiles999 = rows.durationPercentiles999;
+		totalResponseSizes = rows.totalResponseSizes;
+		averageResponseSizes = rows.averageResponseSizes;
+		minimumResponseSizes = rows.minimumResponseSizes;
+		maximumResponseSizes = rows.maximumResponseSizes;
+	}
+
+	/**
+	 * Capture the metrics of a set of operations.
+	 *
+	 * @param entries
+	 *            the metrics of the operations, usually the total metrics of
+	 *            each operation.
+	 * @param intervalName
+	 *            the name of the interval to capture, for example "total" or
+	 *            "1m". Operations without that interval are left out.
+	 * @return the snapshot, in the iteration order of the entries.
+	 */
+	public static PerformanceLogsSnapshot capture(
+			Collection<? extends TimeIntervalLogEntryMXBean> entries,
+			String intervalName) {
+		TimeIntervalLogEntryMXBean[] toCapture = entries
+				.toArray(new TimeIntervalLogEntryMXBean[0]);
+		PerformanceLogsSnapshot rows = new PerformanceLogsSnapshot(
+				intervalName, toCapture.length);
+		int row = 0;
+		for (TimeIntervalLogEntryMXBean entry : toCapture) {
+			TimeIntervalLogEntryMXBean interval = entry
+					.getMetricByIntervalName(intervalName);
+			if (interval == null) {
+				continue;
+			}
+			rows.set(row, entry.getName(), interval.getSnapshot());
+			++row;
+		}
+		return new PerformanceLogsSnapshot(rows, row);
+	}
+
+	private void set(int row, String id, LogEntrySnapshot entry) {
+		ids[row] = id;
+		callCounts[row] = entry.getCallCount();
+		errorCallCounts[row] = entry.getErrorCallCount();
+		cacheEnabledCounts[row] = entry.getCacheEnabledCount();
+		cacheHitCounts[row] = entry.getCacheHitCount();
+		totalDurations[row] = entry.getTotalDuration();
+		averageDurations[row] = entry.getAverageDuration();
+		minimumDurations[row] = entry.getMinimumDuration();
+		maximumDurations[row] = entry.getMaximumDuration();
+		durationPercentiles50[row] = entry.getDurationPercentile50();
+		durationPercentiles95[row] = entry.getDurationPercentile95();
+		durationPercentiles99[row] = entry.getDurationPercentile99();
+		durationPercentiles999[row] = entry.getDurationPercentile999();
+		totalResponseSizes[row] = entry.getTotalResponseSize();
+		averageResponseSizes[row] = entry.getAverageResponseSize();
+		minimumResponseSizes[row] = entry.getMinimumResponseSize();
+		maximumResponseSizes[row] = entry.getMaximumResponseSize();
+	}
+
+	/**
+	 * Find the row of an operation.
+	 *
+	 * @param id
+	 *            the operation name key.
+	 * @return the row, -1 if the snapshot has no row for the operation.
+	 */
+	public int indexOf(String id) {
+		for (int row = 0; row < size; ++row) {
+			if (ids[row].equals(id)) {
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the name of the captured interval.
+	 */
+	public String getIntervalName() {
+		return intervalName;
+	}
+
+	/**
+	 * @return the time of the capture in milliseconds since the epoch.
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/**
+	 * @return the number of rows.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public String getId(int row) {
+		return ids[checkRow(row)];
+	}
+
+	public long getCallCount(int row) {
+		return callCounts[checkRow(row)];
+	}
+
+	public long getErrorCallCount(int row) {
+		return errorCallCounts[checkRow(row)];
+	}
+
+	public long getCacheEnabledCount(int row) {
+		return cacheEnabledCounts[checkRow(row)];
+	}
+
+	public long getCacheHitCount(int row) {
+		return cacheHitCounts[checkRow(row)];
+	}
+
+	public double getTotalDuration(int row) {
+		return totalDurations[checkRow(row)];
+	}
+
+	public double getAverageDuration(int row) {
+		return averageDurations[checkRow(row)];
+	}
+
+	public long getMinimumDuration(int row) {
+		return minimumDurations[checkRow(row)];
+	}
+
+	public long getMaximumDuration(int row) {
+		return maximumDurations[checkRow(row)];
+	}
+
+	public long getDurationPercentile50(int row) {
+		return durationPercentiles50[checkRow(row)];
+	}
+
+	public long getDurationPercentile95(int row) {
+		return durationPercentiles95[checkRow(row)];
+	}
+
+	public long getDurationPercentile99(int row) {
+		return durationPercentiles99[checkRow(row)];
+	}
+
+	public long getDurationPercentile999(int row) {
+		return durationPercentiles999[checkRow(row)];
+	}
+
+	public double getTotalResponseSize(int row) {
+		return totalResponseSizes[checkRow(row)];
+	}
+
+	public double getAverageResponseSize(int row) {
+		return averageResponseSizes[checkRow(row)];
+	}
+
+	public long getMinimumResponseSize(int row) {
+		return minimumResponseSizes[checkRow(row)];
+	}
+
+	public long getMaximumResponseSize(int row) {
+		return maximumResponseSizes[checkRow(row)];
+	}
+
+	public String[] getIds() {
+		return copy(ids);
+	}
+
+	public long[] getCallCounts() {
+		return copy(callCounts);
+	}
+
+	public long[] getErrorCallCounts() {
+		return copy(errorCallCounts);
+	}
+
+	public long[] getCacheEnabledCounts() {
+		return copy(cacheEnabledCounts);
+	}
+
+	public long[] getCacheHitCounts() {
+		return copy(cacheHitCounts);
+	}
+
+	public double[] getTotalDurations() {
+		return copy(totalDurations);
+	}
+
+	public double[] getAverageDurations() {
+		return copy(averageDurations);
+	}
+
+	public long[] getMinimumDurations() {
+		return copy(minimumDurations);
+	}
+
+	public long[] getMaximumDurations() {
+		return copy(maximumDurations);
+	}
+
+	public long[] getDurationPercentiles50() {
+		return copy(durationPercentiles50);
+	}
+
+	public long[] getDurationPercentiles95() {
+		return copy(durationPercentiles95);
+	}
+
+	public long[] getDurationPercentiles99() {
+		return copy(durationPercentiles99);
+	}
+
+	public long[] getDurationPercentiles999() {
+		return copy(durationPercentiles999);
+	}
+
+	public double[] getTotalResponseSizes() {
+		return copy(totalResponseSizes);
+	}
+
+	public double[] getAverageResponseSizes() {
+		return copy(averageResponseSizes);
+	}
+
+	public long[] getMinimumResponseSizes() {
+		return copy(minimumResponseSizes);
+	}
+
+	public long[] getMaximumResponseSizes() {
+		return copy(maximumResponseSizes);
+	}
+
+	private int checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row
+					+ " is out of the snapshot of " + size + " rows.");
+		}
+		return row;
+	}
+
+	private String[] copy(String[] column) {
+		String[] copy = new String[size];
+		System.arraycopy(column, 0, copy, 0, size);
+		return copy;
+	}
+
+	private long[] copy(long[] column) {
+		long[] copy = new long[size];
+		System.arraycopy(column, 0, copy, 0, size);
+		return copy;
+	}
+
+	private double[] copy(double[] column) {
+		double[] copy = new double[size];
+		System.arraycopy(column, 0, copy, 0, size);
+		return copy;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns strings to dense integer identifiers, so that metrics can be keyed
+ * and grouped on integers stored in primitive arrays. Identifiers start at 0
+ * and are never reused.
+ *
+ * Looking up an existing symbol doesn't lock, this class is thread safe.
+ */
+public class SymbolTable {
+
+	/** identifier returned for a symbol that isn't interned */
+	public static final int UNKNOWN = -1;
+
+	private final ConcurrentHashMap<String, Integer> identifiers = new ConcurrentHashMap<String, Integer>();
+
+	private volatile String[] symbols = new String[16];
+
+	private volatile int size;
+
+	/**
+	 * Get the identifier of a symbol, interning it on the first call.
+	 *
+	 * @param symbol
+	 *            the symbol.
+	 * @return the identifier.
+	 */
+	public int intern(String symbol) {
+		Integer identifier = identifiers.get(symbol);
+		if (identifier != null) {
+			return identifier.intValue();
+		}
+		synchronized (this) {
+			identifier = identifiers.get(symbol);
+			if (identifier != null) {
+				return identifier.intValue();
+			}
+			int newIdentifier = size;
+			String[] currentSymbols = symbols;
+			if (newIdentifier == currentSymbols.length) {
+				currentSymbols = Arrays.copyOf(currentSymbols,
+						currentSymbols.length * 2);
+			}
+			currentSymbols[newIdentifier] = symbol;
+			// publish the symbol before its identifier.
+			symbols = currentSymbols;
+			size = newIdentifier + 1;
+			identifiers.put(symbol, Integer.valueOf(newIdentifier));
+			return newIdentifier;
+		}
+	}
+
+	/**
+	 * Get the identifier of a symbol without interning it.
+	 *
+	 * @param symbol
+	 *            the symbol.
+	 * @return the identifier, {@link #UNKNOWN} if the symbol isn't interned.
+	 */
+	public int find(String symbol) {
+		Integer identifier = identifiers.get(symbol);
+		if (identifier == null) {
+			return UNKNOWN;
+		}
+		return identifier.intValue();
+	}
+
+	/**
+	 * Get the symbol of an identifier.
+	 *
+	 * @param identifier
+	 *            the identifier.
+	 * @return the symbol, null if the identifier wasn't returned by this
+	 *         table.
+	 */
+	public String getSymbol(int identifier) {
+		if (identifier < 0 || identifier >= size) {
+			return null;
+		}
+		return symbols[identifier];
+	}
+
+	/**
+	 * @return the number of interned symbols.
+	 */
+	public int size() {
+		return size;
+	}
+}
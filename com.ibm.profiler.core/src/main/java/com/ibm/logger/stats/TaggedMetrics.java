@@ -0,0 +1,457 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.jmx.TaggedMetricSnapshot;
+
+/**
+ * Metrics of tagged calls. Each distinct pair of operation and
+ * {@link Tags} is a series, identified by the interned operation identifier
+ * and the interned tag set. The statistics of the series are stored in primitive arrays,
+ * by chunks so that adding series never copies the statistics.
+ *
+ * Only the series are stored. Aggregates on a subset of the dimensions, the
+ * operation or the tenant across all operations for example, are computed on
+ * demand by {@link #aggregate(String...)}.
+ *
+ * The number of series is capped. Past the cap, calls of an operation that
+ * already has a series are recorded with the {@link Tags#OVERFLOW} tags, and
+ * calls of other operations under the overflow operation with the same tags.
+ * The series keep their tag sets from being released, clearing the metrics
+ * releases them.
+ *
+ * This class is thread safe, recording a call on an existing series or on an
+ * existing overflow series doesn't lock.
+ */
+public class TaggedMetrics {
+
+	/** default maximum number of series */
+	public static final int DEFAULT_MAXIMUM_SERIES_COUNT = 10000;
+
+	private static final int CHUNK_SHIFT = 8;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static final int COUNT = 0;
+
+	private static final int ERROR_COUNT = 1;
+
+	private static final int TOTAL_DURATION = 2;
+
+	private static final int MINIMUM_DURATION = 3;
+
+	private static final int MAXIMUM_DURATION = 4;
+
+	private static final int FIELD_COUNT = 5;
+
+	private static final Comparator<TaggedMetricSnapshot> NAME_ORDER = new Comparator<TaggedMetricSnapshot>() {
+		@Override
+		public int compare(TaggedMetricSnapshot first,
+				TaggedMetricSnapshot second) {
+			return first.getName().compareTo(second.getName());
+		}
+	};
+
+	/**
+	 * Statistics of a fixed number of series, one row of fields per series.
+	 */
+	private static final class Chunk {
+
+		private final int[] operations = new int[CHUNK_SIZE];
+
+		private final Tags[] tagSets = new Tags[CHUNK_SIZE];
+
+		private final AtomicLongArray fields = new AtomicLongArray(
+				CHUNK_SIZE * FIELD_COUNT);
+	}
+
+	/**
+	 * All the series, replaced as a whole when the metrics are cleared so that
+	 * calls recorded during a clear can't reach the new series.
+	 */
+	private static final class Store {
+
+		private final SymbolTable operations = new SymbolTable();
+
+		private final ConcurrentHashMap<SeriesKey, Integer> series = new ConcurrentHashMap<SeriesKey, Integer>();
+
+		private volatile Chunk[] chunks = new Chunk[4];
+
+		private volatile int size;
+
+		/**
+		 * index of the series of the overflow operation, recording the calls
+		 * of operations without series past the cap. -1 until created.
+		 */
+		private volatile int overflowSeries = -1;
+	}
+
+	/**
+	 * Operation identifier and interned tag set of a series.
+	 */
+	private static final class SeriesKey {
+
+		private final int operation;
+
+		private final Tags tags;
+
+		SeriesKey(int operation, Tags tags) {
+			this.operation = operation;
+			this.tags = tags;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * operation + System.identityHashCode(tags);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof SeriesKey)) {
+				return false;
+			}
+			SeriesKey key = (SeriesKey) other;
+			return operation == key.operation && tags == key.tags;
+		}
+	}
+
+	/**
+	 * Values of the aggregated dimensions.
+	 */
+	private static final class GroupKey {
+
+		private final String[] values;
+
+		private final int hash;
+
+		GroupKey(String[] values) {
+			this.values = values;
+			hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof GroupKey
+					&& Arrays.equals(values, ((GroupKey) other).values);
+		}
+	}
+
+	private volatile Store store = new Store();
+
+	private volatile int maximumSeriesCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maximumSeriesCount
+	 *            the maximum number of series.
+	 */
+	public TaggedMetrics(int maximumSeriesCount) {
+		setMaximumSeriesCount(maximumSeriesCount);
+	}
+
+	/**
+	 * @return the maximum number of series.
+	 */
+	public int getMaximumSeriesCount() {
+		return maximumSeriesCount;
+	}
+
+	/**
+	 * @param maximumSeriesCount
+	 *            the maximum number of series, existing series are kept when
+	 *            lowered.
+	 */
+	public void setMaximumSeriesCount(int maximumSeriesCount) {
+		this.maximumSeriesCount = Math.max(1, maximumSeriesCount);
+	}
+
+	/**
+	 * Record a call.
+	 *
+	 * @param operation
+	 *            the operation identifier.
+	 * @param tags
+	 *            the tags of the call.
+	 * @param duration
+	 *            the duration of the call in nanoseconds.
+	 * @param failed
+	 *            true if the call failed.
+	 * @param weight
+	 *            the number of calls the recorded call stands for.
+	 */
+	public void record(String operation, Tags tags, long duration,
+			boolean failed, long weight) {
+		Store current = store;
+		int index = getSeries(current, operation, tags);
+		Chunk chunk = current.chunks[index >>> CHUNK_SHIFT];
+		AtomicLongArray fields = chunk.fields;
+		int row = (index & CHUNK_MASK) * FIELD_COUNT;
+		fields.addAndGet(row + COUNT, weight);
+		if (failed) {
+			fields.addAndGet(row + ERROR_COUNT, weight);
+		}
+		fields.addAndGet(row + TOTAL_DURATION, duration * weight);
+
+		long minimum = fields.get(row + MINIMUM_DURATION);
+		while (duration < minimum
+				&& !fields.compareAndSet(row + MINIMUM_DURATION, minimum,
+						duration)) {
+			minimum = fields.get(row + MINIMUM_DURATION);
+		}
+		long maximum = fields.get(row + MAXIMUM_DURATION);
+		while (duration > maximum
+				&& !fields.compareAndSet(row + MAXIMUM_DURATION, maximum,
+						duration)) {
+			maximum = fields.get(row + MAXIMUM_DURATION);
+		}
+	}
+
+	private int getSeries(Store current, String operation, Tags tags) {
+		int operationIdentifier = current.operations.find(operation);
+		if (operationIdentifier != SymbolTable.UNKNOWN) {
+			Integer index = current.series.get(new SeriesKey(
+					operationIdentifier, tags));
+			if (index != null) {
+				return index.intValue();
+			}
+		}
+		if (current.size >= maximumSeriesCount) {
+			// the cap is reached, the overflow series are created once.
+			if (operationIdentifier == SymbolTable.UNKNOWN) {
+				int index = current.overflowSeries;
+				if (index != -1) {
+					return index;
+				}
+			} else {
+				Integer index = current.series.get(new SeriesKey(
+						operationIdentifier, Tags.OVERFLOW));
+				if (index != null) {
+					return index.intValue();
+				}
+			}
+		}
+		synchronized (current) {
+			if (current.size < maximumSeriesCount) {
+				return getOrCreateSeries(current,
+						current.operations.intern(operation), tags);
+			}
+			if (operationIdentifier != SymbolTable.UNKNOWN) {
+				return getOrCreateSeries(current, operationIdentifier,
+						Tags.OVERFLOW);
+			}
+			int index = getOrCreateSeries(current, current.operations
+					.intern(PerformanceLogger.OVERFLOW_OPERATION_NAME),
+					Tags.OVERFLOW);
+			current.overflowSeries = index;
+			return index;
+		}
+	}
+
+	private static int getOrCreateSeries(Store current,
+			int operationIdentifier, Tags tags) {
+		SeriesKey key = new SeriesKey(operationIdentifier, tags);
+		Integer existing = current.series.get(key);
+		if (existing != null) {
+			return existing.intValue();
+		}
+
+		int index = current.size;
+		Chunk[] chunks = current.chunks;
+		int chunkIndex = index >>> CHUNK_SHIFT;
+		if (chunkIndex == chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunks.length * 2);
+		}
+		if (chunks[chunkIndex] == null) {
+			chunks[chunkIndex] = new Chunk();
+		}
+		Chunk chunk = chunks[chunkIndex];
+		int slot = index & CHUNK_MASK;
+		chunk.operations[slot] = operationIdentifier;
+		chunk.tagSets[slot] = tags;
+		chunk.fields.set(slot * FIELD_COUNT + MINIMUM_DURATION,
+				Long.MAX_VALUE);
+
+		// publish the chunk before the size and the size before the key.
+		current.chunks = chunks;
+		current.size = index + 1;
+		current.series.put(key, Integer.valueOf(index));
+		return index;
+	}
+
+	/**
+	 * @return the number of series.
+	 */
+	public int getSeriesCount() {
+		return store.size;
+	}
+
+	/**
+	 * @return the dimensions that can be aggregated,
+	 *         {@link Tags#OPERATION_DIMENSION} followed by the tag keys of all
+	 *         the series, sorted.
+	 */
+	public String[] getDimensions() {
+		Store current = store;
+		int size = current.size;
+		Chunk[] chunks = current.chunks;
+		TreeSet<String> keys = new TreeSet<String>();
+		for (int i = 0; i < size; ++i) {
+			Tags tags = chunks[i >>> CHUNK_SHIFT].tagSets[i & CHUNK_MASK];
+			for (int j = 0; j < tags.size(); ++j) {
+				keys.add(tags.getKey(j));
+			}
+		}
+		List<String> dimensions = new ArrayList<String>(keys.size() + 1);
+		dimensions.add(Tags.OPERATION_DIMENSION);
+		dimensions.addAll(keys);
+		return dimensions.toArray(new String[dimensions.size()]);
+	}
+
+	/**
+	 * Aggregate the calls sharing the same values on some dimensions. Calls
+	 * without a tag for an aggregated dimension are grouped under an empty
+	 * value. The statistics of a series are read without locking, so a
+	 * series being recorded can be off by the calls in progress.
+	 *
+	 * @param dimensions
+	 *            the dimensions to group on, {@link Tags#OPERATION_DIMENSION}
+	 *            or tag keys. Without dimensions, each series is returned on
+	 *            its own.
+	 * @return the aggregates sorted by name.
+	 */
+	public List<TaggedMetricSnapshot> aggregate(String... dimensions) {
+		if (dimensions == null || dimensions.length == 0) {
+			return getSeries();
+		}
+
+		Store current = store;
+		int size = current.size;
+		Chunk[] chunks = current.chunks;
+
+		Map<GroupKey, long[]> groups = new HashMap<GroupKey, long[]>();
+		for (int i = 0; i < size; ++i) {
+			Chunk chunk = chunks[i >>> CHUNK_SHIFT];
+			int slot = i & CHUNK_MASK;
+			Tags tags = chunk.tagSets[slot];
+			String[] values = new String[dimensions.length];
+			for (int j = 0; j < dimensions.length; ++j) {
+				String value;
+				if (Tags.OPERATION_DIMENSION.equals(dimensions[j])) {
+					value = current.operations
+							.getSymbol(chunk.operations[slot]);
+				} else {
+					value = tags.get(dimensions[j]);
+				}
+				values[j] = value == null ? "" : value;
+			}
+			GroupKey key = new GroupKey(values);
+			long[] statistics = groups.get(key);
+			if (statistics == null) {
+				statistics = new long[FIELD_COUNT];
+				statistics[MINIMUM_DURATION] = Long.MAX_VALUE;
+				groups.put(key, statistics);
+			}
+			addSeries(chunk, slot, statistics);
+		}
+
+		List<TaggedMetricSnapshot> snapshots = new ArrayList<TaggedMetricSnapshot>(
+				groups.size());
+		for (Entry<GroupKey, long[]> group : groups.entrySet()) {
+			snapshots.add(createSnapshot(dimensions, group.getKey().values,
+					group.getValue()));
+		}
+		Collections.sort(snapshots, NAME_ORDER);
+		return snapshots;
+	}
+
+	private List<TaggedMetricSnapshot> getSeries() {
+		Store current = store;
+		int size = current.size;
+		Chunk[] chunks = current.chunks;
+		List<TaggedMetricSnapshot> snapshots = new ArrayList<TaggedMetricSnapshot>(
+				size);
+		for (int i = 0; i < size; ++i) {
+			Chunk chunk = chunks[i >>> CHUNK_SHIFT];
+			int slot = i & CHUNK_MASK;
+			Tags tags = chunk.tagSets[slot];
+			String[] dimensions = new String[tags.size() + 1];
+			String[] values = new String[tags.size() + 1];
+			dimensions[0] = Tags.OPERATION_DIMENSION;
+			values[0] = current.operations.getSymbol(chunk.operations[slot]);
+			for (int j = 0; j < tags.size(); ++j) {
+				dimensions[j + 1] = tags.getKey(j);
+				values[j + 1] = tags.getValue(j);
+			}
+			long[] statistics = new long[FIELD_COUNT];
+			statistics[MINIMUM_DURATION] = Long.MAX_VALUE;
+			addSeries(chunk, slot, statistics);
+			snapshots.add(createSnapshot(dimensions, values, statistics));
+		}
+		Collections.sort(snapshots, NAME_ORDER);
+		return snapshots;
+	}
+
+	private static void addSeries(Chunk chunk, int slot, long[] statistics) {
+		int row = slot * FIELD_COUNT;
+		statistics[COUNT] += chunk.fields.get(row + COUNT);
+		statistics[ERROR_COUNT] += chunk.fields.get(row + ERROR_COUNT);
+		statistics[TOTAL_DURATION] += chunk.fields.get(row + TOTAL_DURATION);
+		statistics[MINIMUM_DURATION] = Math.min(statistics[MINIMUM_DURATION],
+				chunk.fields.get(row + MINIMUM_DURATION));
+		statistics[MAXIMUM_DURATION] = Math.max(statistics[MAXIMUM_DURATION],
+				chunk.fields.get(row + MAXIMUM_DURATION));
+	}
+
+	private static TaggedMetricSnapshot createSnapshot(String[] dimensions,
+			String[] values, long[] statistics) {
+		long minimum = statistics[MINIMUM_DURATION];
+		if (minimum == Long.MAX_VALUE) {
+			minimum = 0;
+		}
+		return new TaggedMetricSnapshot(dimensions, values,
+				statistics[COUNT], statistics[ERROR_COUNT],
+				statistics[TOTAL_DURATION], minimum,
+				statistics[MAXIMUM_DURATION]);
+	}
+
+	/**
+	 * Remove all the series.
+	 */
+	public void clear() {
+		store = new Store();
+	}
+}
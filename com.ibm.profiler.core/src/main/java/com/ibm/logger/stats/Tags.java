@@ -0,0 +1,273 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interned set of dimensions of a tagged metric, for example the tenant and
+ * the status of a call. Each distinct set of tags is interned, so the same set
+ * is always the same instance and can be compared by reference.
+ *
+ * Call sites recording often with the same tags should keep the instance.
+ * Otherwise, the last sets returned are cached by their key value pairs as
+ * given, so asking again for a recent set costs a comparison of the pairs;
+ * other sets are sorted and looked up by their text. Sets are interned
+ * through weak references, a set nobody refers to anymore, neither a caller,
+ * the cache nor the series of a {@link TaggedMetrics}, is released. The number of sets recorded is
+ * capped by the maximum number of series of the metrics.
+ *
+ * This class is thread safe.
+ */
+public final class Tags {
+
+	/**
+	 * dimension of the operation identifier, reserved for grouping and can't
+	 * be used as a tag key
+	 */
+	public static final String OPERATION_DIMENSION = "operation";
+
+	private static final Comparator<String[]> KEY_ORDER = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] first, String[] second) {
+			return first[0].compareTo(second[0]);
+		}
+	};
+
+	/**
+	 * Weak reference to an interned set, keeping its key to remove it from
+	 * the interned sets once released.
+	 */
+	private static final class InternedTags extends WeakReference<Tags> {
+
+		private final String key;
+
+		InternedTags(Tags tags, String key) {
+			super(tags, released);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Set of tags returned for key value pairs, in the order they were given.
+	 */
+	private static final class CachedTags {
+
+		private final String[] keyValuePairs;
+
+		private final Tags tags;
+
+		CachedTags(String[] keyValuePairs, Tags tags) {
+			this.keyValuePairs = keyValuePairs;
+			this.tags = tags;
+		}
+	}
+
+	/** number of recent sets cached by their key value pairs */
+	private static final int CACHE_SIZE = 256;
+
+	private static final AtomicReferenceArray<CachedTags> cache = new AtomicReferenceArray<CachedTags>(
+			CACHE_SIZE);
+
+	private static final ReferenceQueue<Tags> released = new ReferenceQueue<Tags>();
+
+	private static final ConcurrentHashMap<String, InternedTags> interned = new ConcurrentHashMap<String, InternedTags>();
+
+	/** the empty set of tags */
+	public static final Tags NONE = intern(new String[0][]);
+
+	/** replaces the sets of tags of the calls past the maximum number of series */
+	public static final Tags OVERFLOW = intern(new String[][] { { "tags",
+			"(other)" } });
+
+	private final String[] keys;
+
+	private final String[] values;
+
+	private final String text;
+
+	private Tags(String[] keys, String[] values, String text) {
+		this.keys = keys;
+		this.values = values;
+		this.text = text;
+	}
+
+	/**
+	 * Get the interned set of tags.
+	 *
+	 * @param keyValuePairs
+	 *            the tags, each key followed by its value. The order of the
+	 *            keys doesn't matter.
+	 * @return the set of tags.
+	 * @throws IllegalArgumentException
+	 *             if a key has no value, a key or value is null, a key is
+	 *             repeated or is {@link #OPERATION_DIMENSION}.
+	 */
+	public static Tags of(String... keyValuePairs) {
+		if (keyValuePairs == null || keyValuePairs.length == 0) {
+			return NONE;
+		}
+		int slot = Arrays.hashCode(keyValuePairs) & (CACHE_SIZE - 1);
+		CachedTags cached = cache.get(slot);
+		if (cached != null && Arrays.equals(cached.keyValuePairs, keyValuePairs)) {
+			return cached.tags;
+		}
+		if (keyValuePairs.length % 2 != 0) {
+			throw new IllegalArgumentException(
+					"Tags must be given as key value pairs.");
+		}
+		String[][] pairs = new String[keyValuePairs.length / 2][];
+		for (int i = 0; i < pairs.length; ++i) {
+			String key = keyValuePairs[2 * i];
+			String value = keyValuePairs[2 * i + 1];
+			if (key == null || value == null) {
+				throw new IllegalArgumentException(
+						"Tag keys and values must not be null.");
+			}
+			if (OPERATION_DIMENSION.equals(key)) {
+				throw new IllegalArgumentException("The tag key "
+						+ OPERATION_DIMENSION + " is reserved.");
+			}
+			pairs[i] = new String[] { key, value };
+		}
+		Arrays.sort(pairs, KEY_ORDER);
+		for (int i = 1; i < pairs.length; ++i) {
+			if (pairs[i][0].equals(pairs[i - 1][0])) {
+				throw new IllegalArgumentException("The tag key "
+						+ pairs[i][0] + " is repeated.");
+			}
+		}
+		Tags tags = intern(pairs);
+		// the caller may change its array after the call.
+		cache.set(slot, new CachedTags(keyValuePairs.clone(), tags));
+		return tags;
+	}
+
+	private static Tags intern(String[][] sortedPairs) {
+		StringBuilder internKey = new StringBuilder();
+		for (String[] pair : sortedPairs) {
+			internKey.append(pair[0]).append('\0').append(pair[1]).append('\0');
+		}
+		String key = internKey.toString();
+		Tags tags = getInterned(key);
+		if (tags != null) {
+			return tags;
+		}
+		synchronized (Tags.class) {
+			tags = getInterned(key);
+			if (tags != null) {
+				return tags;
+			}
+			removeReleased();
+			String[] keys = new String[sortedPairs.length];
+			String[] values = new String[sortedPairs.length];
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < sortedPairs.length; ++i) {
+				keys[i] = sortedPairs[i][0];
+				values[i] = sortedPairs[i][1];
+				if (i > 0) {
+					text.append(';');
+				}
+				text.append(keys[i]).append('=').append(values[i]);
+			}
+			tags = new Tags(keys, values, text.toString());
+			interned.put(key, new InternedTags(tags, key));
+			return tags;
+		}
+	}
+
+	private static Tags getInterned(String key) {
+		InternedTags reference = interned.get(key);
+		if (reference == null) {
+			return null;
+		}
+		return reference.get();
+	}
+
+	/**
+	 * Remove the sets released since the last call. Called while holding the
+	 * class lock, so a released set can't be removed after being replaced.
+	 */
+	private static void removeReleased() {
+		InternedTags reference = (InternedTags) released.poll();
+		while (reference != null) {
+			interned.remove(reference.key, reference);
+			reference = (InternedTags) released.poll();
+		}
+	}
+
+	/**
+	 * @return the number of interned sets of tags, including the sets released
+	 *         but not removed yet.
+	 */
+	static int getInternedCount() {
+		return interned.size();
+	}
+
+	/**
+	 * @return the number of tags in the set.
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * @param index
+	 *            the position of the tag, tags are sorted by key.
+	 * @return the key of the tag.
+	 */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * @param index
+	 *            the position of the tag, tags are sorted by key.
+	 * @return the value of the tag.
+	 */
+	public String getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Get the value of a tag.
+	 *
+	 * @param key
+	 *            the key of the tag.
+	 * @return the value, null if the set has no tag with that key.
+	 */
+	public String get(String key) {
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i].equals(key)) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the tags as "key=value" separated by semicolons.
+	 */
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -94,10 +94,7 @@ public class TimeIntervalLogEntry extends AbstractLogEntry {
 
 	@Override
     public void addValue(IOperationMetric metric) {
-		long stopTime = metric.getStopTime();
-		OperationStatistics intervalStatistics = statistics
-				.getInterval(stopTime);
-		intervalStatistics.logStatistic(metric);
+		statistics.logStatistic(metric);
 	}
 
 	/**
@@ -106,9 +103,24 @@ public class TimeIntervalLogEntry extends AbstractLogEntry {
 	 * */
 	@Override
     public void addValue(long processed, int responseSize,
-			boolean cacheEnabled, boolean cacheHit, boolean failed) {
-		statistics.getCurrentInterval().logStatistic(processed,
-				responseSize, cacheEnabled, cacheHit, !failed);
+			boolean cacheEnabled, boolean cacheHit, boolean failed, long weight) {
+		if (!statistics.logStatistic(System.nanoTime(), processed,
+				responseSize, cacheEnabled, cacheHit, !failed, weight)) {
+			// the slot was recycled while recording, the call ended now.
+			statistics.logStatistic(System.nanoTime(), processed,
+					responseSize, cacheEnabled, cacheHit, !failed, weight);
+		}
+	}
+
+	/**
+	 * Add the statistics of another entry of the same interval duration to
+	 * this entry.
+	 * 
+	 * @param other
+	 *            the entry to fold in this one.
+	 */
+	public void aggregateLogEntry(TimeIntervalLogEntry other) {
+		statistics.aggregateIntervals(other.statistics);
 	}
 
 	/**
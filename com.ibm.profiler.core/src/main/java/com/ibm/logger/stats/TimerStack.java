@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+/**
+ * Stack of running timers owned by a single thread.
+ *
+ * Operation identifiers and start times are kept in parallel arrays that are
+ * reused between calls, so starting and stopping nested timers doesn't
+ * allocate or hash once the stack reached its working depth. A stop call
+ * matches the most recent start call with the same identifier, which supports
+ * recursive operations as well as timers that are not stopped in the reverse
+ * order of their start.
+ *
+ * This class is not thread safe.
+ */
+public class TimerStack {
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+	private final int maximumDepth;
+
+	private String[] ids;
+
+	private long[] startTimes;
+
+	private int depth;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maximumDepth
+	 *            the maximum number of running timers. When the stack is full,
+	 *            the oldest timer is discarded to make room for a new one.
+	 */
+	public TimerStack(int maximumDepth) {
+		this.maximumDepth = Math.max(1, maximumDepth);
+		int initialCapacity = Math.min(DEFAULT_INITIAL_CAPACITY,
+				this.maximumDepth);
+		ids = new String[initialCapacity];
+		startTimes = new long[initialCapacity];
+	}
+
+	/**
+	 * Start a timer.
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @param startTime
+	 *            the start time in nanoseconds.
+	 */
+	public void start(String id, long startTime) {
+		if (depth == maximumDepth) {
+			// timers that are never stopped would otherwise grow the stack
+			// forever.
+			discardOldest();
+		} else if (depth == ids.length) {
+			grow();
+		}
+		ids[depth] = id;
+		startTimes[depth] = startTime;
+		++depth;
+	}
+
+	/**
+	 * Stop the most recently started timer with the specified identifier.
+	 *
+	 * @param id
+	 *            the operation identifier.
+	 * @param stopTime
+	 *            the stop time in nanoseconds.
+	 * @return the elapsed time in nanoseconds. -1 if no timer is running for
+	 *         that identifier.
+	 */
+	public long stop(String id, long stopTime) {
+		int index = indexOf(id);
+		if (index < 0) {
+			return -1;
+		}
+		long duration = stopTime - startTimes[index];
+		remove(index);
+		return duration;
+	}
+
+	/**
+	 *
+	 * @return the number of running timers.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Discard all the running timers.
+	 */
+	public void clear() {
+		for (int i = 0; i < depth; ++i) {
+			ids[i] = null;
+		}
+		depth = 0;
+	}
+
+	private int indexOf(String id) {
+		// nested timers are stopped in reverse order, the match is almost
+		// always at the top of the stack.
+		for (int i = depth - 1; i >= 0; --i) {
+			String current = ids[i];
+			if (current == id || current.equals(id)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void remove(int index) {
+		int moved = depth - index - 1;
+		if (moved > 0) {
+			System.arraycopy(ids, index + 1, ids, index, moved);
+			System.arraycopy(startTimes, index + 1, startTimes, index, moved);
+		}
+		--depth;
+		ids[depth] = null;
+	}
+
+	private void discardOldest() {
+		remove(0);
+	}
+
+	private void grow() {
+		int capacity = Math.min(maximumDepth, ids.length * 2);
+		String[] newIds = new String[capacity];
+		long[] newStartTimes = new long[capacity];
+		System.arraycopy(ids, 0, newIds, 0, depth);
+		System.arraycopy(startTimes, 0, newStartTimes, 0, depth);
+		ids = newIds;
+		startTimes = newStartTimes;
+	}
+}
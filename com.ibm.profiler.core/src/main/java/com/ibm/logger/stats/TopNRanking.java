@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.ibm.commerce.cache.OperationStatistics;
+import com.ibm.logger.jmx.LogEntrySnapshot;
+import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+
+/**
+ * The N operations with the highest values of some metrics, for example the
+ * 20 operations with the longest total duration and the 20 with the most
+ * errors.
+ *
+ * All the rankings are computed in a single pass over the operations, each
+ * ranking keeping its N best operations in a bounded min-heap. Only the
+ * counters are read during the pass, the full metrics with the percentiles
+ * are captured afterwards for the ranked operations only, so the cost of a
+ * ranking barely grows with the number of operations.
+ *
+ * Operations with a value of zero aren't ranked. Ties are ranked by name.
+ */
+public final class TopNRanking {
+
+	/**
+	 * Metrics the operations can be ranked on.
+	 */
+	public enum Metric {
+
+		/** sum of the durations of the calls */
+		TOTAL_DURATION("total duration"),
+
+		/** number of calls */
+		CALL_COUNT("call count"),
+
+		/** number of failed calls */
+		ERROR_COUNT("error count"),
+
+		/** longest call */
+		MAXIMUM_DURATION("maximum duration");
+
+		private final String description;
+
+		private Metric(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Parse a metric name, ignoring the case and accepting dashes or
+		 * spaces instead of underscores, for example "total-duration".
+		 *
+		 * @param name
+		 *            the name of the metric.
+		 * @return the metric.
+		 * @throws IllegalArgumentException
+		 *             if the name isn't a metric.
+		 */
+		public static Metric parse(String name) {
+			String normalized = name.trim().toUpperCase(Locale.ENGLISH)
+					.replace('-', '_').replace(' ', '_');
+			for (Metric metric : values()) {
+				if (metric.name().equals(normalized)) {
+					return metric;
+				}
+			}
+			throw new IllegalArgumentException("Unknown metric " + name
+					+ ", expected one of total_duration, call_count,"
+					+ " error_count or maximum_duration");
+		}
+	}
+
+	/**
+	 * Min-heap of the N best operations of a metric, the root being the
+	 * operation that leaves first.
+	 */
+	private static final class BoundedHeap {
+
+		private final long[] values;
+
+		private final String[] names;
+
+		private final TimeIntervalLogEntryMXBean[] entries;
+
+		private int size;
+
+		BoundedHeap(int capacity) {
+			values = new long[capacity];
+			names = new String[capacity];
+			entries = new TimeIntervalLogEntryMXBean[capacity];
+		}
+
+		void offer(long value, String name, TimeIntervalLogEntryMXBean entry) {
+			if (value <= 0 || values.length == 0) {
+				return;
+			}
+			if (size < values.length) {
+				set(size, value, name, entry);
+				siftUp(size);
+				++size;
+			} else if (isBelow(values[0], names[0], value, name)) {
+				set(0, value, name, entry);
+				siftDown(0, size);
+			}
+		}
+
+		/**
+		 * Sort the heap in place from the best to the worst operation.
+		 */
+		void sort() {
+			for (int last = size - 1; last > 0; --last) {
+				swap(0, last);
+				siftDown(0, last);
+			}
+		}
+
+		private void siftUp(int index) {
+			while (index > 0) {
+				int parent = (index - 1) / 2;
+				if (!isBelow(values[index], names[index], values[parent],
+						names[parent])) {
+					return;
+				}
+				swap(index, parent);
+				index = parent;
+			}
+		}
+
+		private void siftDown(int index, int end) {
+			while (true) {
+				int lowest = index;
+				int left = 2 * index + 1;
+				int right = left + 1;
+				if (left < end
+						&& isBelow(values[left], names[left], values[lowest],
+								names[lowest])) {
+					lowest = left;
+				}
+				if (right < end
+						&& isBelow(values[right], names[right],
+								values[lowest], names[lowest])) {
+					lowest = right;
+				}
+				if (lowest == index) {
+					return;
+				}
+				swap(index, lowest);
+				index = lowest;
+			}
+		}
+
+		private void set(int index, long value, String name,
+				TimeIntervalLogEntryMXBean entry) {
+			values[index] = value;
+			names[index] = name;
+			entries[index] = entry;
+		}
+
+		private void swap(int first, int second) {
+			long value = values[first];
+			String name = names[first];
+			TimeIntervalLogEntryMXBean entry = entries[first];
+			set(first, values[second], names[second], entries[second]);
+			set(second, value, name, entry);
+		}
+
+		/**
+		 * @return true if the first operation ranks below the second one.
+		 */
+		private static boolean isBelow(long value, String name,
+				long otherValue, String otherName) {
+			if (value != otherValue) {
+				return value < otherValue;
+			}
+			return name.compareTo(otherName) > 0;
+		}
+	}
+
+	private final String intervalName;
+
+	private final int count;
+
+	private final Metric[] metrics;
+
+	private final PerformanceLogsSnapshot snapshot;
+
+	/** rows of the snapshot of each ranking, best first */
+	private final int[][] rows;
+
+	/** ranked value of each row of each ranking */
+	private final long[][] values;
+
+	private TopNRanking(String intervalName, int count, Metric[] metrics,
+			PerformanceLogsSnapshot snapshot, int[][] rows, long[][] values) {
+		this.intervalName = intervalName;
+		this.count = count;
+		this.metrics = metrics;
+		this.snapshot = snapshot;
+		this.rows = rows;
+		this.values = values;
+	}
+
+	/**
+	 * Rank a set of operations.
+	 *
+	 * @param entries
+	 *            the total metrics of the operations.
+	 * @param intervalName
+	 *            the interval to rank, for example "1m" or "total".
+	 *            Operations without that interval are left out.
+	 * @param count
+	 *            the number of operations to keep in each ranking.
+	 * @param metrics
+	 *            the metrics to rank the operations on.
+	 * @return the rankings.
+	 */
+	public static TopNRanking rank(
+			Collection<? extends TimeIntervalLogEntryMXBean> entries,
+			String intervalName, int count, Metric... metrics) {
+		count = Math.max(0, count);
+		BoundedHeap[] heaps = new BoundedHeap[metrics.length];
+		for (int i = 0; i < metrics.length; ++i) {
+			heaps[i] = new BoundedHeap(count);
+		}
+
+		for (TimeIntervalLogEntryMXBean entry : entries) {
+			TimeIntervalLogEntryMXBean interval = entry
+					.getMetricByIntervalName(intervalName);
+			if (interval == null) {
+				continue;
+			}
+			long callCount;
+			long errorCount;
+			long totalDuration;
+			long maximumDuration;
+			if (interval instanceof AbstractLogEntry) {
+				// one aggregation of the counters, without the percentiles.
+				OperationStatistics statistics = ((AbstractLogEntry) interval)
+						.getStatistics();
+				callCount = statistics.getCallCount();
+				errorCount = statistics.getErrorCallCount();
+				totalDuration = statistics.getSumExecutionTimeAsLong();
+				maximumDuration = callCount == 0 ? 0 : statistics
+						.getMaxExecutionTime();
+			} else {
+				LogEntrySnapshot entrySnapshot = interval.getSnapshot();
+				callCount = entrySnapshot.getCallCount();
+				errorCount = entrySnapshot.getErrorCallCount();
+				totalDuration = (long) entrySnapshot.getTotalDuration();
+				maximumDuration = entrySnapshot.getMaximumDuration();
+			}
+			String name = entry.getName();
+			for (int i = 0; i < metrics.length; ++i) {
+				long value;
+				switch (metrics[i]) {
+				case CALL_COUNT:
+					value = callCount;
+					break;
+				case ERROR_COUNT:
+					value = errorCount;
+					break;
+				case MAXIMUM_DURATION:
+					value = maximumDuration;
+					break;
+				default:
+					value = totalDuration;
+					break;
+				}
+				heaps[i].offer(value, name, entry);
+			}
+		}
+
+		// capture each ranked operation once, even if it is in many rankings.
+		Map<TimeIntervalLogEntryMXBean, Integer> captured = new IdentityHashMap<TimeIntervalLogEntryMXBean, Integer>();
+		List<TimeIntervalLogEntryMXBean> toCapture = new ArrayList<TimeIntervalLogEntryMXBean>();
+		int[][] rows = new int[metrics.length][];
+		long[][] values = new long[metrics.length][];
+		for (int i = 0; i < metrics.length; ++i) {
+			BoundedHeap heap = heaps[i];
+			heap.sort();
+			rows[i] = new int[heap.size];
+			values[i] = new long[heap.size];
+			for (int rank = 0; rank < heap.size; ++rank) {
+				Integer row = captured.get(heap.entries[rank]);
+				if (row == null) {
+					row = Integer.valueOf(toCapture.size());
+					captured.put(heap.entries[rank], row);
+					toCapture.add(heap.entries[rank]);
+				}
+				rows[i][rank] = row.intValue();
+				values[i][rank] = heap.values[rank];
+			}
+		}
+
+		PerformanceLogsSnapshot snapshot = PerformanceLogsSnapshot.capture(
+				toCapture, intervalName);
+		if (snapshot.size() != toCapture.size()) {
+			// an interval went away since the ranking, shouldn't happen.
+			throw new IllegalStateException("Ranked operations changed");
+		}
+		return new TopNRanking(intervalName, count, metrics.clone(),
+				snapshot, rows, values);
+	}
+
+	/**
+	 * @return the name of the ranked interval.
+	 */
+	public String getIntervalName() {
+		return intervalName;
+	}
+
+	/**
+	 * @return the maximum number of operations in each ranking.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the ranked metrics, in the order they were asked for.
+	 */
+	public Metric[] getMetrics() {
+		return metrics.clone();
+	}
+
+	/**
+	 * @return the metrics of the ranked operations.
+	 */
+	public PerformanceLogsSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the ranking, in the order of
+	 *            {@link #getMetrics()}.
+	 * @return the rows of the snapshot of the ranked operations, best first.
+	 */
+	public int[] getRows(int index) {
+		return rows[index].clone();
+	}
+
+	/**
+	 * @param index
+	 *            the index of the ranking, in the order of
+	 *            {@link #getMetrics()}.
+	 * @return the value each operation was ranked on, best first.
+	 */
+	public long[] getValues(int index) {
+		return values[index].clone();
+	}
+}
@@ -17,6 +17,8 @@ package com.ibm.logger.stats;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Logger;
 
 import javax.management.MBeanRegistrationException;
@@ -29,17 +31,55 @@ import com.ibm.logger.PerformanceLogger;
 import com.ibm.logger.jmx.JMXBeanRegistrar;
 import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
 
+/**
+ * Log entry tracking all the calls of an operation since its creation.
+ * 
+ * When thread shards are enabled, the total statistics are striped over a
+ * fixed number of shards chosen by thread id, so threads calling the same
+ * operation rarely update the same minimum, maximum and histogram buckets. The
+ * shard count is bounded by the processor count, the memory of an entry
+ * doesn't grow with the number of threads. The shards are merged when the
+ * statistics are read. The time interval statistics aren't sharded, all the
+ * threads record in them.
+ */
 public class TotalLogEntry extends AbstractLogEntry {
 
 	private static final Logger LOGGER = Logger.getLogger(TotalLogEntry.class
 			.getName());
 
+	/** highest number of shards of an entry */
+	private static final int MAXIMUM_SHARD_COUNT = 16;
+
+	/**
+	 * number of shards of an entry, a power of two so the thread id is masked
+	 * to pick a shard.
+	 */
+	private static final int SHARD_COUNT = Math.min(MAXIMUM_SHARD_COUNT,
+			Integer.highestOneBit(Math.max(1, Runtime.getRuntime()
+					.availableProcessors() * 2 - 1)));
+
+	/**
+	 * the statistics of the entry. With thread shards, holds the values of the
+	 * removed entries folded in this one.
+	 */
 	private final OperationStatistics totalStatistics = new OperationStatistics();
 
+	/**
+	 * the shards, allocated on the first value recorded in them. Null when
+	 * shards are disabled.
+	 */
+	private final AtomicReferenceArray<OperationStatistics> shards;
+
 	private final TimeIntervalLogEntry[] intervalStatistics;
 	
 	private long markedCallCount = 0;
 
+	/** call count when the current period started, see {@link #startPeriod()} */
+	private volatile long periodStartCallCount = 0;
+
+	/** moving averages of the call rate and duration, updated by ticks */
+	private final MovingRates rates = new MovingRates(System.nanoTime());
+
 	/**
 	 * Constructor that builds a log entry.
 	 * 
@@ -49,7 +89,44 @@ public class TotalLogEntry extends AbstractLogEntry {
 	 *            the list of time intervals to measure.
 	 */
 	public TotalLogEntry(String id, long[] intervals) {
+		this(id, intervals, true);
+	}
+
+	/**
+	 * Constructor that builds a log entry.
+	 * 
+	 * @param id
+	 *            the initial id for the object to build
+	 * @param intervals
+	 *            the list of time intervals to measure.
+	 * @param registerIntervals
+	 *            register the time interval entries in JMX right away. When
+	 *            false, {@link #registerIntervalEntries()} must be called
+	 *            later on.
+	 */
+	public TotalLogEntry(String id, long[] intervals, boolean registerIntervals) {
+		this(id, intervals, registerIntervals, false);
+	}
+
+	/**
+	 * Constructor that builds a log entry.
+	 * 
+	 * @param id
+	 *            the initial id for the object to build
+	 * @param intervals
+	 *            the list of time intervals to measure.
+	 * @param registerIntervals
+	 *            register the time interval entries in JMX right away. When
+	 *            false, {@link #registerIntervalEntries()} must be called
+	 *            later on.
+	 * @param threadShards
+	 *            record the total statistics of each thread separately.
+	 */
+	public TotalLogEntry(String id, long[] intervals,
+			boolean registerIntervals, boolean threadShards) {
 		super(id);
+		shards = threadShards ? new AtomicReferenceArray<OperationStatistics>(
+				SHARD_COUNT) : null;
 		int intervalCount = 0;
 		if( intervals != null ) {
 			intervalCount = intervals.length;
@@ -58,14 +135,25 @@ public class TotalLogEntry extends AbstractLogEntry {
 		for (int i = 0; i < intervalCount; ++i) {
 			TimeIntervalLogEntry currentIntervalStatistics = new TimeIntervalLogEntry(
 					id, intervals[i]);
-			registerIntervalEntry(currentIntervalStatistics);
+			if (registerIntervals) {
+				registerIntervalEntry(currentIntervalStatistics);
+			}
 			intervalStatistics[i] = currentIntervalStatistics;
 		}
 	}
 
+	/**
+	 * Register the time interval entries in JMX.
+	 */
+	public void registerIntervalEntries() {
+		for (TimeIntervalLogEntry interval : intervalStatistics) {
+			registerIntervalEntry(interval);
+		}
+	}
+
 	@Override
     public void addValue(IOperationMetric metric) {
-		totalStatistics.logStatistic(metric);
+		getRecordingStatistics().logStatistic(metric);
 		for (int i = 0; i < intervalStatistics.length; i++) {
 			intervalStatistics[i].addValue(metric);
 		}
@@ -77,12 +165,12 @@ public class TotalLogEntry extends AbstractLogEntry {
 	 * */
 	@Override
     public void addValue(long processed, int responseSize,
-			boolean cacheEnabled, boolean cacheHit, boolean failed) {
-		totalStatistics.logStatistic(processed, responseSize, cacheEnabled,
-				cacheHit, !failed);
+			boolean cacheEnabled, boolean cacheHit, boolean failed, long weight) {
+		getRecordingStatistics().logStatistic(processed, responseSize,
+				cacheEnabled, cacheHit, !failed, weight);
 		for (int i = 0; i < intervalStatistics.length; i++) {
 			intervalStatistics[i].addValue(processed, responseSize,
-					cacheEnabled, cacheHit, failed);
+					cacheEnabled, cacheHit, failed, weight);
 		}
 	}
 
@@ -92,11 +180,180 @@ public class TotalLogEntry extends AbstractLogEntry {
 	@Override
 	public void clear() {
 		totalStatistics.reset();
+		if (shards != null) {
+			for (int i = 0; i < shards.length(); ++i) {
+				OperationStatistics shard = shards.get(i);
+				if (shard != null) {
+					shard.reset();
+				}
+			}
+		}
+		rates.reset(System.nanoTime());
+		periodStartCallCount = 0;
+	}
+
+	/**
+	 * Update the moving rates with the calls since the previous tick. Called
+	 * by the scheduler.
+	 * 
+	 * @param tickTime
+	 *            the current time, from {@link System#nanoTime()}.
+	 */
+	public void tickRates(long tickTime) {
+		// avoids merging all the statistics to count.
+		long callCount = totalStatistics.getCallCount();
+		long totalDuration = totalStatistics.getSumExecutionTimeAsLong();
+		if (shards != null) {
+			for (int i = 0; i < shards.length(); ++i) {
+				OperationStatistics shard = shards.get(i);
+				if (shard != null) {
+					callCount += shard.getCallCount();
+					totalDuration += shard.getSumExecutionTimeAsLong();
+				}
+			}
+		}
+		rates.tick(callCount, totalDuration, tickTime);
+	}
+
+	/**
+	 * Tick the moving rates when the scheduler didn't for a whole tick
+	 * interval, so the rates are still updated when the scheduler isn't
+	 * running.
+	 * 
+	 * @return the moving rates.
+	 */
+	private MovingRates getRates() {
+		long now = System.nanoTime();
+		long tickInterval = TimeUnit.MILLISECONDS.toNanos(PerformanceLogger
+				.getRateTickIntervalInMillisecond());
+		if (now - rates.getLastTickTime() >= tickInterval) {
+			tickRates(now);
+		}
+		return rates;
+	}
+
+	@Override
+	public double getOneMinuteRate() {
+		return getRates().getOneMinuteRate();
+	}
+
+	@Override
+	public double getFiveMinuteRate() {
+		return getRates().getFiveMinuteRate();
+	}
+
+	@Override
+	public double getFifteenMinuteRate() {
+		return getRates().getFifteenMinuteRate();
+	}
+
+	@Override
+	public double getOneMinuteAverageDuration() {
+		return getRates().getOneMinuteAverageDuration();
 	}
 
+	@Override
+	public double getFiveMinuteAverageDuration() {
+		return getRates().getFiveMinuteAverageDuration();
+	}
+
+	@Override
+	public double getFifteenMinuteAverageDuration() {
+		return getRates().getFifteenMinuteAverageDuration();
+	}
+
+	/**
+	 * @return true if the threads record into shards of the statistics.
+	 */
+	public boolean isThreadShards() {
+		return shards != null;
+	}
+
+	/**
+	 * @return the number of shards holding values.
+	 */
+	int getAllocatedShardCount() {
+		int count = 0;
+		if (shards != null) {
+			for (int i = 0; i < shards.length(); ++i) {
+				if (shards.get(i) != null) {
+					++count;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the statistics of the entry. With thread shards, the returned
+	 * statistics are a merged copy.
+	 */
 	@Override
 	public OperationStatistics getStatistics() {
-		return totalStatistics;
+		if (shards == null) {
+			return totalStatistics;
+		}
+		OperationStatistics merged = new OperationStatistics();
+		merged.aggregateStatistics(totalStatistics);
+		for (int i = 0; i < shards.length(); ++i) {
+			OperationStatistics shard = shards.get(i);
+			if (shard != null) {
+				merged.aggregateStatistics(shard);
+			}
+		}
+		return merged;
+	}
+
+	@Override
+	public long getCallCount() {
+		// avoids merging all the statistics to count.
+		long callCount = totalStatistics.getCallCount();
+		if (shards != null) {
+			for (int i = 0; i < shards.length(); ++i) {
+				OperationStatistics shard = shards.get(i);
+				if (shard != null) {
+					callCount += shard.getCallCount();
+				}
+			}
+		}
+		return callCount;
+	}
+
+	/**
+	 * Fold the statistics of an entry that is removed in this entry,
+	 * including its time interval statistics. The moving rates of the other
+	 * entry are not folded.
+	 * 
+	 * @param other
+	 *            the removed entry.
+	 */
+	public void aggregateLogEntry(TotalLogEntry other) {
+		totalStatistics.aggregateStatistics(other.getStatistics());
+		for (TimeIntervalLogEntry interval : intervalStatistics) {
+			for (TimeIntervalLogEntry otherInterval : other.intervalStatistics) {
+				if (interval.getIntervalDuration() == otherInterval
+						.getIntervalDuration()) {
+					interval.aggregateLogEntry(otherInterval);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the statistics the current thread records into.
+	 */
+	private OperationStatistics getRecordingStatistics() {
+		if (shards == null) {
+			return totalStatistics;
+		}
+		int index = (int) Thread.currentThread().getId() & (SHARD_COUNT - 1);
+		OperationStatistics statistics = shards.get(index);
+		if (statistics == null) {
+			shards.compareAndSet(index, null, new OperationStatistics());
+			statistics = shards.get(index);
+		}
+		return statistics;
 	}
 
 	@Override
@@ -152,7 +409,7 @@ public class TotalLogEntry extends AbstractLogEntry {
 	 */
     public boolean isUsedSinceLastCheck() {
 		boolean used = false;
-		long callCount = totalStatistics.getCallCount();
+		long callCount = getCallCount();
 		if( callCount > markedCallCount ) {
 			used = true;
 			markedCallCount = callCount;
@@ -160,6 +417,23 @@ public class TotalLogEntry extends AbstractLogEntry {
 		return used;
 	}
 	
+	/**
+	 * Start a new period, the period call count counts the calls from now on.
+	 * Called by the cleanup.
+	 */
+	public void startPeriod() {
+		periodStartCallCount = getCallCount();
+	}
+
+	/**
+	 * 
+	 * @return the number of calls since the current period started, or since
+	 *         the creation of the entry.
+	 */
+	public long getPeriodCallCount() {
+		return Math.max(0, getCallCount() - periodStartCallCount);
+	}
+
 	/**
 	 * Get the list of interval statistics.
 	 * @return  the list of interval statistics.
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.commerce.cache.LoggingHelper;
+
+/**
+ * Base of the printers pushing the performance logs to a metric server in a
+ * line based text protocol, over UDP or TCP.
+ *
+ * Lines are encoded in ASCII into a direct buffer kept from one run to the
+ * next. Over UDP, as many lines as fit are packed in each datagram, a line is
+ * never split between two datagrams. Over TCP, the buffer is written each time
+ * it reaches the packet size.
+ *
+ * When the server can't be reached, the metrics of the run are dropped and the
+ * connection is opened again on the next run. A TCP connection that can't be
+ * established within the connect timeout fails the run instead of blocking the
+ * printing thread.
+ */
+public abstract class AbstractPushPerformanceLogsPrinter implements Runnable {
+
+	/** largest UDP payload that fits an ethernet frame without fragmenting */
+	public static final int DEFAULT_MAXIMUM_PACKET_SIZE = 1432;
+
+	/** default TCP connect timeout in milliseconds */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+	public static final String UDP = "udp";
+
+	public static final String TCP = "tcp";
+
+	private static final Logger LOGGER = Logger
+			.getLogger(AbstractPushPerformanceLogsPrinter.class.getName());
+
+	private static final int DECIMAL_DIGITS = 6;
+
+	private static final long DECIMAL_SCALE = 1000000L;
+
+	private String host = "localhost";
+
+	private int port;
+
+	private String transport = UDP;
+
+	private int maximumPacketSize = DEFAULT_MAXIMUM_PACKET_SIZE;
+
+	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+	private String namePrefix = "";
+
+	private ByteBuffer buffer;
+
+	private ByteChannel stream;
+
+	private DatagramChannel datagram;
+
+	private InetSocketAddress address;
+
+	/** start of the line being written */
+	private int lineStart;
+
+	private long packetCount;
+
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Constructor
+	 *
+	 * @param port
+	 *            the default port of the server.
+	 */
+	protected AbstractPushPerformanceLogsPrinter(int port) {
+		this.port = port;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+		close();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+		close();
+	}
+
+	/**
+	 * @return {@value #UDP} or {@value #TCP}.
+	 */
+	public String getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @param transport
+	 *            {@value #UDP} or {@value #TCP}.
+	 */
+	public void setTransport(String transport) {
+		if (!UDP.equals(transport) && !TCP.equals(transport)) {
+			throw new IllegalArgumentException("Unknown transport : "
+					+ transport);
+		}
+		this.transport = transport;
+		close();
+	}
+
+	public int getMaximumPacketSize() {
+		return maximumPacketSize;
+	}
+
+	/**
+	 * @param maximumPacketSize
+	 *            the largest number of bytes sent at once.
+	 */
+	public synchronized void setMaximumPacketSize(int maximumPacketSize) {
+		if (maximumPacketSize <= 0) {
+			throw new IllegalArgumentException(
+					"The maximum packet size must be positive.");
+		}
+		this.maximumPacketSize = maximumPacketSize;
+		buffer = null;
+	}
+
+	/**
+	 * @return the TCP connect timeout in milliseconds.
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            the TCP connect timeout in milliseconds, 0 waits until the
+	 *            connection is established or refused.
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException(
+					"The connect timeout must not be negative.");
+		}
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return the text written in front of each metric name.
+	 */
+	public String getNamePrefix() {
+		return namePrefix;
+	}
+
+	public void setNamePrefix(String namePrefix) {
+		this.namePrefix = namePrefix == null ? "" : namePrefix;
+	}
+
+	/**
+	 * @return the number of packets sent since the printer was created.
+	 */
+	public synchronized long getPacketCount() {
+		return packetCount;
+	}
+
+	@Override
+	public synchronized void run() {
+		try {
+			open();
+			buffer.clear();
+			lineStart = 0;
+			writeMetrics(System.currentTimeMillis());
+			send(buffer.position());
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to push the performance logs to "
+					+ transport + "://" + host + ":" + port, e);
+			close();
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOGGER,
+					AbstractPushPerformanceLogsPrinter.class.getName(), "run",
+					e);
+		}
+	}
+
+	/**
+	 * Close the connection to the server, it is opened again on the next run.
+	 */
+	public synchronized void close() {
+		try {
+			if (stream != null) {
+				stream.close();
+			}
+			if (datagram != null) {
+				datagram.close();
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Failed to close the connection", e);
+		}
+		stream = null;
+		datagram = null;
+		address = null;
+	}
+
+	private void open() throws IOException {
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(Math.max(maximumPacketSize * 2,
+					4096));
+		}
+		if (address != null) {
+			return;
+		}
+		InetSocketAddress newAddress = new InetSocketAddress(host, port);
+		if (newAddress.isUnresolved()) {
+			throw new IOException("Unknown host : " + host);
+		}
+		if (TCP.equals(transport)) {
+			SocketChannel channel = SocketChannel.open();
+			try {
+				channel.socket().connect(newAddress, connectTimeout);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			stream = channel;
+		} else {
+			datagram = DatagramChannel.open();
+		}
+		address = newAddress;
+	}
+
+	/**
+	 * Write the metrics of one run with the put methods, ending each line with
+	 * {@link #endLine()}.
+	 *
+	 * @param time
+	 *            the time of the run in milliseconds since the epoch.
+	 * @throws IOException
+	 *             if the metrics can't be sent.
+	 */
+	protected abstract void writeMetrics(long time) throws IOException;
+
+	/**
+	 * End the current line, sending the previous lines first if the packet
+	 * would get too large.
+	 */
+	protected void endLine() throws IOException {
+		put('\n');
+		int position = buffer.position();
+		if (position > maximumPacketSize && lineStart > 0) {
+			// send the complete lines, keep the new one for the next packet.
+			send(lineStart);
+			position = buffer.position();
+		}
+		if (position >= maximumPacketSize) {
+			send(position);
+		}
+		lineStart = buffer.position();
+	}
+
+	/**
+	 * Send the first bytes of the buffer and move the rest to the front.
+	 */
+	private void send(int length) throws IOException {
+		if (length == 0) {
+			return;
+		}
+		int end = buffer.position();
+		buffer.position(0);
+		buffer.limit(length);
+		if (datagram != null) {
+			datagram.send(buffer, address);
+		} else {
+			while (buffer.hasRemaining()) {
+				stream.write(buffer);
+			}
+		}
+		++packetCount;
+		buffer.limit(end);
+		buffer.position(length);
+		buffer.compact();
+	}
+
+	/**
+	 * Write an ASCII text.
+	 */
+	protected void put(String text) {
+		int length = text.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; ++i) {
+			buffer.put((byte) text.charAt(i));
+		}
+	}
+
+	/**
+	 * Write a text as a single metric name segment, all the characters other
+	 * than letters, digits and dashes being replaced by underscores.
+	 */
+	protected void putSegment(String text) {
+		int length = text.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; ++i) {
+			char character = text.charAt(i);
+			if ((character >= 'a' && character <= 'z')
+					|| (character >= 'A' && character <= 'Z')
+					|| (character >= '0' && character <= '9')
+					|| character == '-') {
+				buffer.put((byte) character);
+			} else {
+				buffer.put((byte) '_');
+			}
+		}
+	}
+
+	/**
+	 * Write the prefix of the metric names.
+	 */
+	protected void putNamePrefix() {
+		put(namePrefix);
+	}
+
+	protected void put(char character) {
+		ensureCapacity(1);
+		buffer.put((byte) character);
+	}
+
+	protected void put(long value) {
+		ensureCapacity(20);
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				put(Long.toString(value));
+				return;
+			}
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int digitCount = 0;
+		do {
+			digits[digitCount++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		while (digitCount > 0) {
+			buffer.put(digits[--digitCount]);
+		}
+	}
+
+	/**
+	 * Write a decimal number with up to 6 decimals, 0 if the number isn't
+	 * finite.
+	 */
+	protected void put(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			put(0L);
+			return;
+		}
+		if (Math.abs(value) >= Long.MAX_VALUE / DECIMAL_SCALE) {
+			put((long) value);
+			return;
+		}
+		long scaled = Math.round(value * DECIMAL_SCALE);
+		if (scaled < 0) {
+			put('-');
+			scaled = -scaled;
+		}
+		put(scaled / DECIMAL_SCALE);
+		putFraction(scaled % DECIMAL_SCALE, DECIMAL_DIGITS);
+	}
+
+	/**
+	 * Write the decimals of a fixed point number, without the trailing zeros.
+	 *
+	 * @param fraction
+	 *            the decimals as a positive integer.
+	 * @param digitCount
+	 *            the number of decimals of the fraction.
+	 */
+	protected void putFraction(long fraction, int digitCount) {
+		if (fraction == 0) {
+			return;
+		}
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			--digitCount;
+		}
+		ensureCapacity(digitCount + 1);
+		buffer.put((byte) '.');
+		int start = buffer.position();
+		for (int i = digitCount - 1; i >= 0; --i) {
+			buffer.put(start + i, (byte) ('0' + fraction % 10));
+			fraction /= 10;
+		}
+		buffer.position(start + digitCount);
+	}
+
+	private void ensureCapacity(int additional) {
+		if (buffer.remaining() >= additional) {
+			return;
+		}
+		// a line longer than the buffer, rare enough to allocate.
+		ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(
+				buffer.capacity() * 2, buffer.position() + additional));
+		buffer.flip();
+		larger.put(buffer);
+		buffer = larger;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.ibm.commerce.cache.CacheUtilities;
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.DeltaCursor;
+
+/**
+ * This class is used to periodically append the performance logs to binary
+ * snapshot files, written by {@link BinarySnapshotWriter}.
+ *
+ * Each snapshot holds the calls recorded since the previous one, read from
+ * the delta cursor of the printer. A new file is started every day, the files
+ * of the last {@link #getFileHistoryCount()} days are kept.
+ */
+public class BinarySnapshotToFilePrinter implements Runnable {
+
+	public static final String DATE_TOKEN = "%DATE%";
+
+	public static final String FILE_NAME_PATTERN_PROPERTY_NAME = "com.ibm.logger.trace.BinarySnapshotToFilePrinter.fileNamePattern";
+
+	public static final String FILE_HISTORY_COUNT_PROPERTY_NAME = "com.ibm.logger.trace.BinarySnapshotToFilePrinter.fileHistoryCount";
+
+	public static Logger LOGGER = Logger
+			.getLogger(BinarySnapshotToFilePrinter.class.getName());
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final DateFormat dateFormat;
+
+	private final DeltaCursor cursor;
+
+	private String fileNamePattern = "./performance-metrics-" + DATE_TOKEN
+			+ ".plbs";
+
+	private int fileHistoryCount = 31;
+
+	private String currentFileName;
+
+	private BinarySnapshotWriter writer;
+
+	public BinarySnapshotToFilePrinter() {
+		this(PerformanceLogger.getDeltaCursor(BinarySnapshotToFilePrinter.class
+				.getName()));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param cursor
+	 *            the cursor the calls to write are read from.
+	 */
+	public BinarySnapshotToFilePrinter(DeltaCursor cursor) {
+		this.cursor = cursor;
+		dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		fileNamePattern = PerformanceLogger.parseStringProperty(
+				FILE_NAME_PATTERN_PROPERTY_NAME, fileNamePattern);
+		fileHistoryCount = PerformanceLogger.parseIntegerProperty(
+				FILE_HISTORY_COUNT_PROPERTY_NAME, fileHistoryCount);
+	}
+
+	public String getFileNamePattern() {
+		return fileNamePattern;
+	}
+
+	/**
+	 * @param fileNamePattern
+	 *            the name of the files, {@value #DATE_TOKEN} being replaced by
+	 *            the UTC date.
+	 */
+	public synchronized void setFileNamePattern(String fileNamePattern) {
+		this.fileNamePattern = fileNamePattern;
+		close();
+	}
+
+	public int getFileHistoryCount() {
+		return fileHistoryCount;
+	}
+
+	public void setFileHistoryCount(int fileHistoryCount) {
+		this.fileHistoryCount = fileHistoryCount;
+	}
+
+	@Override
+	public synchronized void run() {
+		long time = System.currentTimeMillis();
+		try {
+			String fileName = getFileName(time);
+			if (!fileName.equals(currentFileName)) {
+				close();
+				open(fileName, time);
+				deleteOldFiles(new File(fileName));
+			}
+			writer.writeSnapshot(time, cursor.read());
+			writer.flush();
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOGGER,
+					BinarySnapshotToFilePrinter.class.getName(), "run", e);
+			// start a new session on the next run.
+			close();
+		}
+	}
+
+	/**
+	 * Close the current file, the next run appends to it again.
+	 */
+	public synchronized void close() {
+		if (writer != null) {
+			CacheUtilities.closeQuietly(writer);
+		}
+		writer = null;
+		currentFileName = null;
+	}
+
+	private void open(String fileName, long time) throws IOException {
+		File file = new File(fileName);
+		boolean newFile = cutTornBlock(file) == 0;
+		FileOutputStream fos = new FileOutputStream(file, true);
+		try {
+			writer = new BinarySnapshotWriter(new BufferedOutputStream(fos,
+					BUFFER_SIZE), newFile, time);
+		} catch (IOException e) {
+			CacheUtilities.closeQuietly(fos);
+			throw e;
+		}
+		currentFileName = fileName;
+	}
+
+	/**
+	 * Cut off the block torn by a crash at the end of a file before appending
+	 * to it.
+	 *
+	 * @return the length of the complete part of the file, 0 if there is
+	 *         nothing to keep.
+	 */
+	private static long cutTornBlock(File file) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long length = BinarySnapshotWriter.getCompleteLength(channel);
+			if (length < channel.size()) {
+				LOGGER.log(Level.WARNING, "Removing "
+						+ (channel.size() - length)
+						+ " bytes torn at the end of the snapshot file : "
+						+ file.getName());
+				channel.truncate(length);
+			}
+			return length;
+		} finally {
+			CacheUtilities.closeQuietly(channel);
+		}
+	}
+
+	/**
+	 * Delete the files beyond the history, the dates in the names sort the
+	 * files from the oldest to the newest.
+	 */
+	private void deleteOldFiles(File currentFile) {
+		File directory = currentFile.getAbsoluteFile().getParentFile();
+		int lastIndexOfAny = StringUtils.lastIndexOfAny(fileNamePattern, "\\",
+				"/");
+		String namePattern = fileNamePattern.substring(lastIndexOfAny + 1);
+		String[] parts = namePattern.split(Pattern.quote(DATE_TOKEN), -1);
+		StringBuilder regularExpression = new StringBuilder();
+		for (int i = 0; i < parts.length; ++i) {
+			if (i > 0) {
+				regularExpression.append("[0-9]{4}-[0-9]{2}-[0-9]{2}");
+			}
+			regularExpression.append(Pattern.quote(parts[i]));
+		}
+		final Pattern nameMatcher = Pattern.compile(regularExpression
+				.toString());
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return nameMatcher.matcher(name).matches();
+			}
+		});
+		if (names == null || names.length <= fileHistoryCount) {
+			return;
+		}
+		Arrays.sort(names);
+		for (int i = 0; i < names.length - fileHistoryCount; ++i) {
+			File oldFile = new File(directory, names[i]);
+			if (!oldFile.delete()) {
+				LOGGER.log(Level.WARNING,
+						"Failed to delete old performance metric snapshot file : "
+								+ oldFile.getName());
+			}
+		}
+	}
+
+	private String getFileName(long time) {
+		return StringUtils.replace(fileNamePattern, DATE_TOKEN,
+				dateFormat.format(new Date(time)));
+	}
+}
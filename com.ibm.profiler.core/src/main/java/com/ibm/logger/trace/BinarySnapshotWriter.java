@@ -0,0 +1,337 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.ibm.logger.stats.MetricDelta;
+
+/**
+ * Writes periodic snapshots of the performance logs in a compact, append-only
+ * binary format.
+ *
+ * A file starts with the {@link #MAGIC} number and the {@link #VERSION}, then
+ * is a sequence of blocks. Each block starts with a frame : its type on one
+ * byte, the length of its payload on four bytes, its time as a long and the
+ * CRC32 of these on four bytes. The payload follows, then the CRC32 of the
+ * payload on four bytes. A reader can check the frame alone and skip a block
+ * by its type and time without reading the payload, and stops at a block torn
+ * by a crash. A writer appending to a file first cuts off such a torn block,
+ * see {@link #getCompleteLength(FileChannel)}.
+ * <ul>
+ * <li>{@link #SESSION_BLOCK} : empty, its time is the time the writer
+ * started. Starts a new dictionary, a file can be appended to by several
+ * processes in turn.</li>
+ * <li>{@link #DICTIONARY_BLOCK} : the operation ids used for the first time by
+ * the snapshot of the same time, numbered in order from the index of the first
+ * one : varint first index, varint count, then each id as a varint length and
+ * UTF-8 bytes.</li>
+ * <li>{@link #SNAPSHOT_BLOCK} : a varint entry count, then one entry per
+ * operation with new calls, by increasing index : varint index increment,
+ * varint length of the entry, then the entry. Its time is the time of the
+ * snapshot.</li>
+ * </ul>
+ * An entry holds the increments since the previous snapshot as zigzag
+ * varints : calls, errors, cache enabled calls, cache hits, total duration,
+ * total response size, the number of changed histogram buckets, then for each
+ * bucket the increment of its highest duration from the previous bucket and
+ * its number of new calls. Longs are big endian and durations in nanoseconds.
+ */
+public class BinarySnapshotWriter implements Closeable {
+
+	/** "PLBS" */
+	public static final int MAGIC = 0x504C4253;
+
+	public static final int VERSION = 2;
+
+	public static final int SESSION_BLOCK = 1;
+
+	public static final int DICTIONARY_BLOCK = 2;
+
+	public static final int SNAPSHOT_BLOCK = 3;
+
+	/** magic number and version */
+	private static final int HEADER_SIZE = 5;
+
+	/** block type, payload length, time and checksum of the frame */
+	public static final int FRAME_SIZE = 17;
+
+	/** bytes of the frame covered by its checksum */
+	private static final int FRAME_CHECKED_SIZE = 13;
+
+	private static final int CHECKSUM_SIZE = 4;
+
+	private final OutputStream output;
+
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+	private final CRC32 crc = new CRC32();
+
+	/** payload of the block being written */
+	private byte[] block = new byte[4096];
+
+	private int blockSize;
+
+	/** entry being written, copied to the block once its length is known */
+	private byte[] entry = new byte[256];
+
+	private int entrySize;
+
+	private final byte[] frame = new byte[FRAME_SIZE];
+
+	/**
+	 * Constructor, writes the session block.
+	 *
+	 * @param output
+	 *            the stream to write to, positioned at the end of the file.
+	 * @param newFile
+	 *            true if the file is empty and needs the file header.
+	 * @param time
+	 *            the time the session starts in milliseconds since the epoch.
+	 * @throws IOException
+	 *             if the stream fails.
+	 */
+	public BinarySnapshotWriter(OutputStream output, boolean newFile, long time)
+			throws IOException {
+		this.output = output;
+		if (newFile) {
+			writeInt(frame, 0, MAGIC);
+			output.write(frame, 0, 4);
+			output.write(VERSION);
+		}
+		blockSize = 0;
+		writeBlock(SESSION_BLOCK, time);
+	}
+
+	/**
+	 * Find the end of the last complete block of a file. A process that
+	 * crashed while writing leaves a torn block at the end of the file, it has
+	 * to be cut off before a new session is appended or the reader would take
+	 * the start of the new session as the rest of the torn block.
+	 *
+	 * @param channel
+	 *            the file to check.
+	 * @return the length of the file without the torn block, 0 if the file
+	 *         header itself is torn.
+	 * @throws IOException
+	 *             if the file can't be read or isn't a snapshot file of this
+	 *             version.
+	 */
+	public static long getCompleteLength(FileChannel channel)
+			throws IOException {
+		long size = channel.size();
+		if (size < HEADER_SIZE) {
+			return 0;
+		}
+		ByteBuffer header = ByteBuffer.allocate(Math.max(HEADER_SIZE,
+				FRAME_SIZE));
+		header.limit(HEADER_SIZE);
+		readFully(channel, header, 0);
+		if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+			throw new IOException(
+					"Not a performance snapshot file of version " + VERSION);
+		}
+		CRC32 frameCrc = new CRC32();
+		long position = HEADER_SIZE;
+		while (position + FRAME_SIZE <= size) {
+			header.clear();
+			header.limit(FRAME_SIZE);
+			readFully(channel, header, position);
+			frameCrc.reset();
+			frameCrc.update(header.array(), 0, FRAME_CHECKED_SIZE);
+			int length = header.getInt(1);
+			long next = position + FRAME_SIZE + length + CHECKSUM_SIZE;
+			if ((int) frameCrc.getValue() != header.getInt(FRAME_CHECKED_SIZE)
+					|| length < 0 || next > size) {
+				break;
+			}
+			position = next;
+		}
+		return position;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Snapshot file truncated while reading");
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Write one snapshot.
+	 *
+	 * @param time
+	 *            the time of the snapshot in milliseconds since the epoch.
+	 * @param deltas
+	 *            the increments of the operations since the previous snapshot.
+	 * @throws IOException
+	 *             if the stream fails.
+	 */
+	public void writeSnapshot(long time, List<MetricDelta> deltas)
+			throws IOException {
+		int count = deltas.size();
+
+		// number the new operations.
+		int firstNewIndex = dictionary.size();
+		for (int i = 0; i < count; ++i) {
+			String id = deltas.get(i).getId();
+			if (!dictionary.containsKey(id)) {
+				dictionary.put(id, Integer.valueOf(dictionary.size()));
+			}
+		}
+		int newCount = dictionary.size() - firstNewIndex;
+		if (newCount > 0) {
+			blockSize = 0;
+			putVarint(firstNewIndex);
+			putVarint(newCount);
+			// same order as the numbering.
+			for (int i = 0; i < count; ++i) {
+				String id = deltas.get(i).getId();
+				if (dictionary.get(id).intValue() >= firstNewIndex) {
+					byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+					putVarint(bytes.length);
+					ensureBlockCapacity(bytes.length);
+					System.arraycopy(bytes, 0, block, blockSize, bytes.length);
+					blockSize += bytes.length;
+				}
+			}
+			writeBlock(DICTIONARY_BLOCK, time);
+		}
+
+		// entries by increasing index, so the index increments stay small.
+		long[] order = new long[count];
+		for (int i = 0; i < count; ++i) {
+			long index = dictionary.get(deltas.get(i).getId()).longValue();
+			order[i] = (index << 32) | i;
+		}
+		Arrays.sort(order);
+
+		blockSize = 0;
+		putVarint(count);
+		long previousIndex = 0;
+		for (int i = 0; i < count; ++i) {
+			long index = order[i] >>> 32;
+			MetricDelta delta = deltas.get((int) order[i]);
+			putVarint(index - previousIndex);
+			previousIndex = index;
+			writeEntry(delta);
+			putVarint(entrySize);
+			ensureBlockCapacity(entrySize);
+			System.arraycopy(entry, 0, block, blockSize, entrySize);
+			blockSize += entrySize;
+		}
+		writeBlock(SNAPSHOT_BLOCK, time);
+	}
+
+	private void writeEntry(MetricDelta delta) {
+		entrySize = 0;
+		putEntrySigned(delta.getCallCount());
+		putEntrySigned(delta.getErrorCallCount());
+		putEntrySigned(delta.getCacheEnabledCount());
+		putEntrySigned(delta.getCacheHitCount());
+		putEntrySigned(delta.getTotalDuration());
+		putEntrySigned(delta.getTotalResponseSize());
+		long[] bounds = delta.getBucketUpperBounds();
+		long[] counts = delta.getBucketCounts();
+		putEntrySigned(bounds.length);
+		long previousBound = 0;
+		for (int i = 0; i < bounds.length; ++i) {
+			putEntrySigned(bounds[i] - previousBound);
+			previousBound = bounds[i];
+			putEntrySigned(counts[i]);
+		}
+	}
+
+	private void writeBlock(int type, long time) throws IOException {
+		frame[0] = (byte) type;
+		writeInt(frame, 1, blockSize);
+		writeInt(frame, 5, (int) (time >>> 32));
+		writeInt(frame, 9, (int) time);
+		crc.reset();
+		crc.update(frame, 0, FRAME_CHECKED_SIZE);
+		writeInt(frame, FRAME_CHECKED_SIZE, (int) crc.getValue());
+		output.write(frame, 0, FRAME_SIZE);
+		crc.reset();
+		crc.update(block, 0, blockSize);
+		output.write(block, 0, blockSize);
+		writeInt(frame, 0, (int) crc.getValue());
+		output.write(frame, 0, CHECKSUM_SIZE);
+	}
+
+	/**
+	 * Flush the stream.
+	 *
+	 * @throws IOException
+	 *             if the stream fails.
+	 */
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+	private static void writeInt(byte[] destination, int offset, int value) {
+		destination[offset] = (byte) (value >>> 24);
+		destination[offset + 1] = (byte) (value >>> 16);
+		destination[offset + 2] = (byte) (value >>> 8);
+		destination[offset + 3] = (byte) value;
+	}
+
+	private void putVarint(long value) {
+		ensureBlockCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			block[blockSize++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		block[blockSize++] = (byte) value;
+	}
+
+	private void putEntrySigned(long value) {
+		if (entrySize + 10 > entry.length) {
+			entry = Arrays.copyOf(entry, entry.length * 2);
+		}
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			entry[entrySize++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		entry[entrySize++] = (byte) zigzag;
+	}
+
+	private void ensureBlockCapacity(int additional) {
+		if (blockSize + additional > block.length) {
+			block = Arrays.copyOf(block,
+					Math.max(block.length * 2, blockSize + additional));
+		}
+	}
+}
@@ -15,10 +15,14 @@
  */
 package com.ibm.logger.trace;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.DateFormat;
@@ -31,6 +35,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -49,6 +54,13 @@ public class CsvPerformanceLogsToFilePrinter implements Runnable {
 
 	public static final String CSV_FILE_NAME_PATTERN_PROPERTY_NAME = "com.ibm.logger.trace.CsvPerformanceLogsToFilePrinter.csvFileNamePattern";
 
+	public static final String COMPRESS_HISTORY_PROPERTY_NAME = "com.ibm.logger.trace.CsvPerformanceLogsToFilePrinter.compressHistory";
+
+	/** suffix added to the name of the compressed history files */
+	public static final String COMPRESSED_FILE_SUFFIX = ".gz";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	public static Logger LOGGER = Logger
 			.getLogger(CsvPerformanceLogsToFilePrinter.class.getName());
 
@@ -65,6 +77,8 @@ public class CsvPerformanceLogsToFilePrinter implements Runnable {
 
 	private int fileHistoryCount = 3;
 
+	private boolean compressHistory = false;
+
 	private List<String> printedFileNameList = new LinkedList<String>();
 
 	private boolean lastDeleteSuccessful = true;
@@ -81,6 +95,8 @@ public class CsvPerformanceLogsToFilePrinter implements Runnable {
 				CSV_FILE_NAME_PATTERN_PROPERTY_NAME, csvFileNamePattern);
 		fileHistoryCount = PerformanceLogger.parseIntegerProperty(
 				FILE_HISTORY_COUNT_PROPERTY_NAME, fileHistoryCount);
+		compressHistory = PerformanceLogger.parseBooleanProperty(
+				COMPRESS_HISTORY_PROPERTY_NAME, compressHistory);
 	}
 
 	public String getCsvFileNamePattern() {
@@ -99,12 +115,26 @@ public class CsvPerformanceLogsToFilePrinter implements Runnable {
 		this.fileHistoryCount = fileHistoryCount;
 	}
 
+	/**
+	 * @return true if the previous files are compressed with gzip when a new
+	 *         file is printed.
+	 */
+	public boolean isCompressHistory() {
+		return compressHistory;
+	}
+
+	public void setCompressHistory(boolean compressHistory) {
+		this.compressHistory = compressHistory;
+	}
+
 	@Override
 	public synchronized void run() {
 		deleteOldFilesOnFirstRun();
 
 		dumpPerformanceLogsCsvToFile();
 
+		compressPreviousCsvFile();
+
 		deleteOldCsvFile();
 	}
 
@@ -164,7 +194,61 @@ public class CsvPerformanceLogsToFilePrinter implements Runnable {
 		}
 		fileNameMatchPattern = StringUtils.replace(fileNameMatchPattern,
 				DATE_ISO_8601_TOKEN, "[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}-[0-9]{2}-[0-9]{2}Z");
-		return fileNameMatchPattern;
+		// the compressed history files are cleaned up too.
+		return fileNameMatchPattern + "(" + Pattern.quote(COMPRESSED_FILE_SUFFIX)
+				+ ")?";
+	}
+
+	/**
+	 * Compress the file printed before the last one, the last file is left as
+	 * is so it can be read while it is current.
+	 */
+	private void compressPreviousCsvFile() {
+		int previousIndex = printedFileNameList.size() - 2;
+		if (!compressHistory || previousIndex < 0) {
+			return;
+		}
+		String previousFileName = printedFileNameList.get(previousIndex);
+		String lastFileName = printedFileNameList.get(previousIndex + 1);
+		if (previousFileName.endsWith(COMPRESSED_FILE_SUFFIX)
+				|| previousFileName.equals(lastFileName)) {
+			return;
+		}
+
+		File previousFile = new File(previousFileName);
+		String compressedFileName = previousFileName + COMPRESSED_FILE_SUFFIX;
+		try {
+			compressFile(previousFile, new File(compressedFileName));
+			printedFileNameList.set(previousIndex, compressedFileName);
+			deleteFile(previousFile);
+		} catch (Exception e) {
+			// keep the uncompressed file.
+			deleteFile(compressedFileName);
+			LoggingHelper.logUnexpectedException(LOGGER,
+					CsvPerformanceLogsToFilePrinter.class.getName(),
+					"compressPreviousCsvFile", e);
+		}
+	}
+
+	private static void compressFile(File source, File destination)
+			throws IOException {
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = new FileInputStream(source);
+			out = new GZIPOutputStream(new FileOutputStream(destination),
+					BUFFER_SIZE);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			out.close();
+			out = null;
+		} finally {
+			CacheUtilities.closeQuietly(in);
+			CacheUtilities.closeQuietly(out);
+		}
 	}
 
 	private void deleteOldCsvFile() {
@@ -218,19 +302,16 @@ public class CsvPerformanceLogsToFilePrinter implements Runnable {
 	private void dumpPerformanceLogsCsvToFile() {
 		Writer createReportWriter = null;
 		FileOutputStream fos = null;
-		BufferedOutputStream bos = null;
 		try {
 			String fileName = getCsvFileName();
 			printedFileNameList.add(fileName);
 
 			fos = new FileOutputStream(fileName);
-			bos = new BufferedOutputStream(fos);
-			createReportWriter = new OutputStreamWriter(bos, "UTF-8");
-
-			String performanceLogsTable = PerformanceLogger
-					.dumpPerformanceLogsCsvToString();
+			createReportWriter = new BufferedWriter(new OutputStreamWriter(
+					fos, "UTF-8"), BUFFER_SIZE);
 
-			createReportWriter.append(performanceLogsTable);
+			// streamed row by row, the dump is never built whole.
+			PerformanceLogger.dumpPerformanceLogsCsv(createReportWriter);
 
 		} catch (Exception e) {
 			LoggingHelper.logUnexpectedException(LOGGER,
@@ -239,7 +320,6 @@ public class CsvPerformanceLogsToFilePrinter implements Runnable {
 		} finally {
 			CacheUtilities.closeQuietly(createReportWriter);
 			CacheUtilities.closeQuietly(fos);
-			CacheUtilities.closeQuietly(bos);
 		}
 	}
 
@@ -27,20 +27,40 @@ import com.ibm.service.summary.SummaryLogger;
  */
 public class CsvPerformanceLogsToLoggerPrinter implements Runnable {
 
+	public static final String MAXIMUM_RECORD_LENGTH_PROPERTY_NAME = "com.ibm.logger.trace.CsvPerformanceLogsToLoggerPrinter.maximumRecordLength";
+
 	public static Logger LOGGER = Logger
 			.getLogger(CsvPerformanceLogsToLoggerPrinter.class.getName());
 
+	private int maximumRecordLength = LoggerWriter.DEFAULT_MAXIMUM_RECORD_LENGTH;
+
 	public CsvPerformanceLogsToLoggerPrinter() {
 		super();
+		maximumRecordLength = PerformanceLogger.parseIntegerProperty(
+				MAXIMUM_RECORD_LENGTH_PROPERTY_NAME, maximumRecordLength);
+	}
+
+	/**
+	 * @return the length at which the lines printed so far are logged as one
+	 *         record, 0 or less to log everything in a single record.
+	 */
+	public int getMaximumRecordLength() {
+		return maximumRecordLength;
+	}
+
+	public void setMaximumRecordLength(int maximumRecordLength) {
+		this.maximumRecordLength = maximumRecordLength;
 	}
 
 	@Override
 	public void run() {
-		dumpPerformanceLogsCsvToLogger(SummaryLogger.LOGGER, Level.INFO);
+		dumpPerformanceLogsCsvToLogger(SummaryLogger.LOGGER, Level.INFO,
+				maximumRecordLength);
 	}
 
 	/**
-	 * Dump the performance logs csv to the specified logger.
+	 * Dump the csv performance logs to the specified logger, in records of
+	 * {@value LoggerWriter#DEFAULT_MAXIMUM_RECORD_LENGTH} characters at most.
 	 * 
 	 * @param logger
 	 *            The logger to use.
@@ -48,11 +68,31 @@ public class CsvPerformanceLogsToLoggerPrinter implements Runnable {
 	 *            The level to use.
 	 */
 	public static void dumpPerformanceLogsCsvToLogger(Logger logger, Level level) {
+		dumpPerformanceLogsCsvToLogger(logger, level,
+				LoggerWriter.DEFAULT_MAXIMUM_RECORD_LENGTH);
+	}
+
+	/**
+	 * Dump the csv performance logs to the specified logger. The lines are
+	 * streamed to the logger in records of complete lines, only the first
+	 * record has the headers.
+	 * 
+	 * @param logger
+	 *            The logger to use.
+	 * @param level
+	 *            The level to use.
+	 * @param maximumRecordLength
+	 *            the length at which the lines printed so far are logged as
+	 *            one record, 0 or less to log everything in a single record.
+	 */
+	public static void dumpPerformanceLogsCsvToLogger(Logger logger, Level level,
+			int maximumRecordLength) {
 		try {
 			if (logger.isLoggable(level)) {
-				String performanceLogsTable = PerformanceLogger
-						.dumpPerformanceLogsCsvToString();
-				logger.log(level, performanceLogsTable);
+				LoggerWriter writer = new LoggerWriter(logger, level,
+						maximumRecordLength);
+				PerformanceLogger.dumpPerformanceLogsCsv(writer);
+				writer.flush();
 			}
 		} catch (Exception e) {
 			LoggingHelper.logUnexpectedException(LOGGER,
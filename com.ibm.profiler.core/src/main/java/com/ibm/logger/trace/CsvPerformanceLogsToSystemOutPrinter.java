@@ -46,8 +46,9 @@ public class CsvPerformanceLogsToSystemOutPrinter implements Runnable
     {
         try
         {
-            String performanceLogsTable = PerformanceLogger.dumpPerformanceLogsCsvToString();
-            System.out.println(performanceLogsTable);
+            // streamed line by line, the dump is never built whole.
+            PerformanceLogger.dumpPerformanceLogsCsv(System.out);
+            System.out.println();
         }
         catch (Exception e)
         {
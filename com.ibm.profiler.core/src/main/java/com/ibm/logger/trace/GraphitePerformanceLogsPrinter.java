@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.IOException;
+
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.PerformanceLogsSnapshot;
+
+/**
+ * This class is used to periodically push the performance logs to Graphite in
+ * the plaintext protocol.
+ *
+ * The metrics are named like jmxtrans-agent names the attributes of the JMX
+ * beans, so the Grafana dashboards of the site read them without the agent :
+ * "prefix.com_ibm_profiler.ID__id.MetricType__TotalLogEntry.interval__total.CallCount".
+ * Each interval of the operations is written with the MetricType
+ * TimeIntervalLogEntry. The metrics are read from a snapshot of each interval,
+ * see {@link PerformanceLogger#snapshot(String)}.
+ */
+public class GraphitePerformanceLogsPrinter extends
+		AbstractPushPerformanceLogsPrinter {
+
+	public static final String HOST_PROPERTY_NAME = "com.ibm.logger.trace.GraphitePerformanceLogsPrinter.host";
+
+	public static final String PORT_PROPERTY_NAME = "com.ibm.logger.trace.GraphitePerformanceLogsPrinter.port";
+
+	/** "udp" or "tcp" */
+	public static final String TRANSPORT_PROPERTY_NAME = "com.ibm.logger.trace.GraphitePerformanceLogsPrinter.transport";
+
+	public static final String NAME_PREFIX_PROPERTY_NAME = "com.ibm.logger.trace.GraphitePerformanceLogsPrinter.namePrefix";
+
+	public static final String MAXIMUM_PACKET_SIZE_PROPERTY_NAME = "com.ibm.logger.trace.GraphitePerformanceLogsPrinter.maximumPacketSize";
+
+	public static final int DEFAULT_PORT = 2003;
+
+	private static final String DOMAIN = "com_ibm_profiler.ID__";
+
+	private static final String TOTAL_TYPE = ".MetricType__TotalLogEntry.interval__";
+
+	private static final String INTERVAL_TYPE = ".MetricType__TimeIntervalLogEntry.interval__";
+
+	private long timestamp;
+
+	public GraphitePerformanceLogsPrinter() {
+		super(DEFAULT_PORT);
+		initializePropertiesFromSystem();
+	}
+
+	private void initializePropertiesFromSystem() {
+		setHost(PerformanceLogger.parseStringProperty(HOST_PROPERTY_NAME,
+				getHost()));
+		setPort(PerformanceLogger.parseIntegerProperty(PORT_PROPERTY_NAME,
+				getPort()));
+		setTransport(PerformanceLogger.parseStringProperty(
+				TRANSPORT_PROPERTY_NAME, getTransport()));
+		setNamePrefix(PerformanceLogger.parseStringProperty(
+				NAME_PREFIX_PROPERTY_NAME, getNamePrefix()));
+		setMaximumPacketSize(PerformanceLogger.parseIntegerProperty(
+				MAXIMUM_PACKET_SIZE_PROPERTY_NAME, getMaximumPacketSize()));
+	}
+
+	@Override
+	protected void writeMetrics(long time) throws IOException {
+		timestamp = time / 1000;
+		writeTotals(PerformanceLogger
+				.snapshot(PerformanceLogger.TOTAL_INTERVAL_NAME));
+		for (String intervalName : PerformanceLogger.getIntervalNames()) {
+			writeIntervals(PerformanceLogger.snapshot(intervalName));
+		}
+	}
+
+	/**
+	 * Write the total metrics of the operations.
+	 *
+	 * @param snapshot
+	 *            the total metrics.
+	 * @throws IOException
+	 *             if the metrics can't be sent.
+	 */
+	protected void writeTotals(PerformanceLogsSnapshot snapshot)
+			throws IOException {
+		String intervalName = snapshot.getIntervalName();
+		for (int row = 0; row < snapshot.size(); ++row) {
+			String id = snapshot.getId(row);
+			writeMetric(id, TOTAL_TYPE, intervalName, "CallCount",
+					snapshot.getCallCount(row));
+			writeMetric(id, TOTAL_TYPE, intervalName, "ErrorCallCount",
+					snapshot.getErrorCallCount(row));
+			writeMetric(id, TOTAL_TYPE, intervalName, "TotalDuration",
+					snapshot.getTotalDuration(row));
+			writeMetric(id, TOTAL_TYPE, intervalName, "TotalResponseSize",
+					snapshot.getTotalResponseSize(row));
+		}
+	}
+
+	/**
+	 * Write the metrics of the operations over a time interval.
+	 *
+	 * @param snapshot
+	 *            the metrics of the interval.
+	 * @throws IOException
+	 *             if the metrics can't be sent.
+	 */
+	protected void writeIntervals(PerformanceLogsSnapshot snapshot)
+			throws IOException {
+		String intervalName = snapshot.getIntervalName();
+		for (int row = 0; row < snapshot.size(); ++row) {
+			String id = snapshot.getId(row);
+			long callCount = snapshot.getCallCount(row);
+			writeMetric(id, INTERVAL_TYPE, intervalName, "AverageDuration",
+					snapshot.getAverageDuration(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "MinimumDuration",
+					snapshot.getMinimumDuration(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "MaximumDuration",
+					snapshot.getMaximumDuration(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName,
+					"AverageResponseSize", snapshot.getAverageResponseSize(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName,
+					"MinimumResponseSize", snapshot.getMinimumResponseSize(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName,
+					"MaximumResponseSize", snapshot.getMaximumResponseSize(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "CallCount",
+					callCount);
+			writeMetric(id, INTERVAL_TYPE, intervalName, "ErrorCallCount",
+					snapshot.getErrorCallCount(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName,
+					"ErrorCallPercentage",
+					ratio(snapshot.getErrorCallCount(row), callCount));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "CacheEnabledCount",
+					snapshot.getCacheEnabledCount(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName,
+					"CacheEnabledPercentage",
+					ratio(snapshot.getCacheEnabledCount(row), callCount));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "CacheHitCount",
+					snapshot.getCacheHitCount(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "CacheHitPercentage",
+					ratio(snapshot.getCacheHitCount(row), callCount));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "TotalDuration",
+					snapshot.getTotalDuration(row));
+			writeMetric(id, INTERVAL_TYPE, intervalName, "TotalResponseSize",
+					snapshot.getTotalResponseSize(row));
+		}
+	}
+
+	private static double ratio(long count, long callCount) {
+		if (callCount == 0) {
+			return 0;
+		}
+		return (double) count / callCount;
+	}
+
+	private void writeName(String id, String type, String intervalName,
+			String attribute) {
+		putNamePrefix();
+		put(DOMAIN);
+		putSegment(id);
+		put(type);
+		putSegment(intervalName);
+		put('.');
+		put(attribute);
+		put(' ');
+	}
+
+	private void writeMetric(String id, String type, String intervalName,
+			String attribute, long value) throws IOException {
+		writeName(id, type, intervalName, attribute);
+		put(value);
+		writeTimestamp();
+	}
+
+	private void writeMetric(String id, String type, String intervalName,
+			String attribute, double value) throws IOException {
+		writeName(id, type, intervalName, attribute);
+		put(value);
+		writeTimestamp();
+	}
+
+	private void writeTimestamp() throws IOException {
+		put(' ');
+		put(timestamp);
+		endLine();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writer logging the text written to it, so a large dump can be streamed to a
+ * logger without building it whole.
+ *
+ * The text is logged in records of complete lines, a record being logged once
+ * it reaches the maximum record length. A line longer than the maximum is
+ * logged in a record of its own.
+ */
+public class LoggerWriter extends Writer {
+
+	/** default maximum length of a record, in characters */
+	public static final int DEFAULT_MAXIMUM_RECORD_LENGTH = 64 * 1024;
+
+	private final Logger logger;
+
+	private final Level level;
+
+	private final int maximumRecordLength;
+
+	private final StringBuilder record;
+
+	/**
+	 * Constructor
+	 *
+	 * @param logger
+	 *            the logger to use.
+	 * @param level
+	 *            the level to use.
+	 * @param maximumRecordLength
+	 *            the length a record is logged at, 0 or less to log
+	 *            everything in a single record on flush.
+	 */
+	public LoggerWriter(Logger logger, Level level, int maximumRecordLength) {
+		this.logger = logger;
+		this.level = level;
+		this.maximumRecordLength = maximumRecordLength;
+		record = new StringBuilder(maximumRecordLength > 0 ? Math.min(
+				maximumRecordLength + 1024, DEFAULT_MAXIMUM_RECORD_LENGTH) : 1024);
+	}
+
+	@Override
+	public void write(char[] buffer, int offset, int length) {
+		record.append(buffer, offset, length);
+		logCompleteLines();
+	}
+
+	@Override
+	public void write(String text, int offset, int length) {
+		record.append(text, offset, offset + length);
+		logCompleteLines();
+	}
+
+	@Override
+	public Writer append(CharSequence text) {
+		record.append(text);
+		logCompleteLines();
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence text, int start, int end) {
+		record.append(text, start, end);
+		logCompleteLines();
+		return this;
+	}
+
+	@Override
+	public Writer append(char character) {
+		record.append(character);
+		logCompleteLines();
+		return this;
+	}
+
+	private void logCompleteLines() {
+		if (maximumRecordLength <= 0 || record.length() < maximumRecordLength) {
+			return;
+		}
+		int lastLineEnd = record.lastIndexOf("\n");
+		if (lastLineEnd < 0) {
+			return;
+		}
+		logger.log(level, record.substring(0, lastLineEnd + 1));
+		record.delete(0, lastLineEnd + 1);
+	}
+
+	/**
+	 * Log the text written since the last record.
+	 */
+	@Override
+	public void flush() {
+		if (record.length() > 0) {
+			logger.log(level, record.toString());
+			record.setLength(0);
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.ibm.commerce.cache.LatencyHistogram;
+import com.ibm.commerce.cache.OperationStatistics;
+import com.ibm.logger.jmx.LogEntrySnapshot;
+import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+import com.ibm.logger.stats.AbstractLogEntry;
+
+/**
+ * Writes the metrics of the performance logger in the Prometheus text
+ * exposition format, straight from the statistics in memory.
+ *
+ * The text is encoded in UTF-8 into a buffer kept from one write to the next,
+ * numbers and labels are written without creating strings, so a scrape of
+ * many operations allocates almost nothing once the buffer is big enough.
+ *
+ * Durations are written in seconds. The duration histogram is rolled up into a
+ * fixed set of bucket bounds, see {@link #setBucketBounds(long...)}, and every
+ * bound is written for every operation plus the mandatory +Inf bucket, so all
+ * the series and instances can be aggregated. A bucket of the latency
+ * histogram is counted in the first bound above all its values. Operations
+ * owned by another classloader have no histogram, their bucket counts are the
+ * calls their snapshot percentiles guarantee below each bound.
+ *
+ * This class isn't thread safe.
+ */
+public final class PrometheusMetricsWriter {
+
+	/** content type of the Prometheus text format */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final String DURATION = "performance_logger_duration_seconds";
+
+	private static final String ERRORS = "performance_logger_errors_total";
+
+	private static final String CACHE_ENABLED = "performance_logger_cache_enabled_total";
+
+	private static final String CACHE_HITS = "performance_logger_cache_hits_total";
+
+	private static final String RESPONSE_SIZE = "performance_logger_response_size_bytes_total";
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	/** upper bounds of the default duration buckets, from 1ms to 10s */
+	private static final long[] DEFAULT_BUCKET_BOUNDS = { NANOS_PER_MILLI,
+			5 * NANOS_PER_MILLI / 2, 5 * NANOS_PER_MILLI, 10 * NANOS_PER_MILLI,
+			25 * NANOS_PER_MILLI, 50 * NANOS_PER_MILLI, 100 * NANOS_PER_MILLI,
+			250 * NANOS_PER_MILLI, 500 * NANOS_PER_MILLI, NANOS_PER_SECOND,
+			5 * NANOS_PER_SECOND / 2, 5 * NANOS_PER_SECOND,
+			10 * NANOS_PER_SECOND };
+
+	/** upper bounds of the duration buckets in nanoseconds, increasing */
+	private long[] bucketBounds = DEFAULT_BUCKET_BOUNDS;
+
+	/** calls counted in each bucket bound, reused for all the histograms */
+	private long[] boundCounts = new long[DEFAULT_BUCKET_BOUNDS.length];
+
+	private byte[] buffer = new byte[64 * 1024];
+
+	private int size;
+
+	private final byte[] digits = new byte[20];
+
+	/** bucket counters, reused for all the histograms */
+	private long[] bucketCounts;
+
+	/** operations written by the histogram pass */
+	private TimeIntervalLogEntryMXBean[] written = new TimeIntervalLogEntryMXBean[0];
+
+	/** metrics of the families written after the histogram, by operation */
+	private long[] errorCounts = new long[0];
+
+	private long[] cacheEnabledCounts = new long[0];
+
+	private long[] cacheHitCounts = new long[0];
+
+	private long[] responseSizes = new long[0];
+
+	/** position of the encoded labels of each operation in the buffer */
+	private int[] labelOffsets = new int[0];
+
+	private int[] labelLengths = new int[0];
+
+	/**
+	 * 
+	 * @return the upper bounds of the duration buckets in nanoseconds.
+	 */
+	public long[] getBucketBounds() {
+		return bucketBounds.clone();
+	}
+
+	/**
+	 * Set the upper bounds of the duration buckets. The bounds are sorted and
+	 * the ones that aren't positive are ignored, the +Inf bucket is always
+	 * written.
+	 * 
+	 * @param boundsInNanos
+	 *            the upper bounds in nanoseconds.
+	 */
+	public void setBucketBounds(long... boundsInNanos) {
+		long[] bounds = boundsInNanos.clone();
+		Arrays.sort(bounds);
+		int count = 0;
+		for (long bound : bounds) {
+			if (bound > 0 && (count == 0 || bounds[count - 1] != bound)) {
+				bounds[count++] = bound;
+			}
+		}
+		bucketBounds = Arrays.copyOf(bounds, count);
+		boundCounts = new long[count];
+	}
+
+	/**
+	 * Parse bucket bounds written in seconds, separated by commas, like
+	 * "0.005,0.05,0.5,5".
+	 * 
+	 * @param text
+	 *            the bounds in seconds.
+	 * @return the bounds in nanoseconds.
+	 * @throws NumberFormatException
+	 *             if a bound isn't a number.
+	 */
+	public static long[] parseBucketBounds(String text) {
+		String[] values = text.split(",");
+		long[] bounds = new long[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			bounds[i] = Math.round(Double.parseDouble(values[i].trim())
+					* NANOS_PER_SECOND);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Write the metrics of a set of operations, replacing the previous
+	 * content of the buffer.
+	 *
+	 * @param entries
+	 *            the total metrics of the operations.
+	 */
+	public void write(Collection<? extends TimeIntervalLogEntryMXBean> entries) {
+		size = 0;
+		int count = entries.size();
+		if (written.length < count) {
+			int capacity = Math.max(count, written.length * 2);
+			written = new TimeIntervalLogEntryMXBean[capacity];
+			errorCounts = new long[capacity];
+			cacheEnabledCounts = new long[capacity];
+			cacheHitCounts = new long[capacity];
+			responseSizes = new long[capacity];
+			labelOffsets = new int[capacity];
+			labelLengths = new int[capacity];
+		}
+
+		// the histogram pass reads each operation once, the counters are
+		// kept for the other families.
+		header(DURATION, "Duration of the operations.", "histogram");
+		int index = 0;
+		for (TimeIntervalLogEntryMXBean entry : entries) {
+			if (index == count) {
+				// added during the write, left for the next scrape.
+				break;
+			}
+			written[index] = entry;
+			labelLengths[index] = 0;
+			if (entry instanceof AbstractLogEntry) {
+				writeHistogram(entry,
+						((AbstractLogEntry) entry).getStatistics(), index);
+			} else {
+				writeHistogram(entry, entry.getSnapshot(), index);
+			}
+			++index;
+		}
+
+		writeCounters(ERRORS, "Number of failed calls.", written, index,
+				errorCounts);
+		writeCounters(CACHE_ENABLED, "Number of calls with cache enabled.",
+				written, index, cacheEnabledCounts);
+		writeCounters(CACHE_HITS, "Number of calls fetched from cache.",
+				written, index, cacheHitCounts);
+		writeCounters(RESPONSE_SIZE, "Total size of the responses.", written,
+				index, responseSizes);
+
+		// don't keep removed operations alive until the next scrape.
+		Arrays.fill(written, 0, index, null);
+	}
+
+	private void writeHistogram(TimeIntervalLogEntryMXBean entry,
+			OperationStatistics statistics, int index) {
+		long successCallCount = statistics.getSuccessCallCount();
+		long callCount = statistics.getCallCount();
+		errorCounts[index] = Math.max(0, callCount - successCallCount);
+		cacheEnabledCounts[index] = statistics.getCacheEnabledCallCount();
+		cacheHitCounts[index] = statistics.getCacheHitCount();
+		responseSizes[index] = statistics.getSumResultSizeAsLong();
+		long totalDuration = statistics.getSumExecutionTimeAsLong();
+
+		LatencyHistogram histogram = statistics.getDurationHistogram();
+		bucketCounts = histogram.getCounts(bucketCounts);
+		Arrays.fill(boundCounts, 0);
+		long cumulative = 0;
+		int bound = 0;
+		for (int i = 0; i < bucketCounts.length; ++i) {
+			long count = bucketCounts[i];
+			if (count == 0) {
+				continue;
+			}
+			long highestValue = histogram.getHighestValueInBucket(i);
+			while (bound < bucketBounds.length
+					&& bucketBounds[bound] < highestValue) {
+				++bound;
+			}
+			if (bound < bucketBounds.length) {
+				boundCounts[bound] += count;
+			}
+			cumulative += count;
+		}
+		long boundCumulative = 0;
+		for (int i = 0; i < bucketBounds.length; ++i) {
+			boundCumulative += boundCounts[i];
+			writeBucket(entry, index, bucketBounds[i], boundCumulative);
+		}
+		// the buckets are the most consistent count of the operation.
+		writeHistogramTotals(entry, index, cumulative, totalDuration);
+	}
+
+	private void writeBucket(TimeIntervalLogEntryMXBean entry, int index,
+			long bound, long cumulative) {
+		ascii(DURATION);
+		ascii("_bucket");
+		labels(entry, index);
+		ascii(",le=\"");
+		seconds(bound);
+		ascii("\"} ");
+		number(cumulative);
+		newLine();
+	}
+
+	private void writeHistogram(TimeIntervalLogEntryMXBean entry,
+			LogEntrySnapshot snapshot, int index) {
+		errorCounts[index] = snapshot.getErrorCallCount();
+		cacheEnabledCounts[index] = snapshot.getCacheEnabledCount();
+		cacheHitCounts[index] = snapshot.getCacheHitCount();
+		responseSizes[index] = (long) snapshot.getTotalResponseSize();
+		long callCount = snapshot.getCallCount();
+		for (long bound : bucketBounds) {
+			writeBucket(entry, index, bound, getCallCountBelow(snapshot, bound));
+		}
+		writeHistogramTotals(entry, index, callCount,
+				(long) snapshot.getTotalDuration());
+	}
+
+	/**
+	 * @return the number of calls the percentiles of a snapshot guarantee to
+	 *         be at or below a duration.
+	 */
+	private static long getCallCountBelow(LogEntrySnapshot snapshot,
+			long bound) {
+		long callCount = snapshot.getCallCount();
+		if (callCount == 0 || bound < snapshot.getMinimumDuration()) {
+			return 0;
+		}
+		if (bound >= snapshot.getMaximumDuration()) {
+			return callCount;
+		}
+		if (bound >= snapshot.getDurationPercentile999()) {
+			return callCount * 999 / 1000;
+		}
+		if (bound >= snapshot.getDurationPercentile99()) {
+			return callCount * 99 / 100;
+		}
+		if (bound >= snapshot.getDurationPercentile95()) {
+			return callCount * 95 / 100;
+		}
+		if (bound >= snapshot.getDurationPercentile50()) {
+			return callCount / 2;
+		}
+		return 0;
+	}
+
+	private void writeHistogramTotals(TimeIntervalLogEntryMXBean entry,
+			int index, long callCount, long totalDuration) {
+		ascii(DURATION);
+		ascii("_bucket");
+		labels(entry, index);
+		ascii(",le=\"+Inf\"} ");
+		number(callCount);
+		newLine();
+
+		ascii(DURATION);
+		ascii("_sum");
+		labels(entry, index);
+		ascii("} ");
+		seconds(totalDuration);
+		newLine();
+
+		ascii(DURATION);
+		ascii("_count");
+		labels(entry, index);
+		ascii("} ");
+		number(callCount);
+		newLine();
+	}
+
+	private void writeCounters(String name, String help,
+			TimeIntervalLogEntryMXBean[] entries, int count, long[] values) {
+		header(name, help, "counter");
+		for (int i = 0; i < count; ++i) {
+			ascii(name);
+			labels(entries[i], i);
+			ascii("} ");
+			number(values[i]);
+			newLine();
+		}
+	}
+
+	private void header(String name, String help, String type) {
+		ascii("# HELP ");
+		ascii(name);
+		ascii(" ");
+		ascii(help);
+		newLine();
+		ascii("# TYPE ");
+		ascii(name);
+		ascii(" ");
+		ascii(type);
+		newLine();
+	}
+
+	/**
+	 * Write the opening brace and the labels of an operation, without the
+	 * closing brace so more labels can follow. The labels are encoded once per
+	 * write, the following lines of the operation copy them.
+	 */
+	private void labels(TimeIntervalLogEntryMXBean entry, int index) {
+		int length = labelLengths[index];
+		if (length > 0) {
+			ensureCapacity(length);
+			System.arraycopy(buffer, labelOffsets[index], buffer, size, length);
+			size += length;
+			return;
+		}
+		int offset = size;
+		ascii("{operation=\"");
+		labelValue(entry.getName());
+		ascii("\",layer=\"");
+		labelValue(entry.getLayer());
+		ascii("\"");
+		labelOffsets[index] = offset;
+		labelLengths[index] = size - offset;
+	}
+
+	/**
+	 * Write a label value, escaping backslashes, double quotes and line
+	 * feeds.
+	 */
+	private void labelValue(String value) {
+		if (value == null) {
+			return;
+		}
+		int length = value.length();
+		ensureCapacity(length * 4);
+		for (int i = 0; i < length; ++i) {
+			char character = value.charAt(i);
+			if (character == '\\' || character == '"') {
+				buffer[size++] = '\\';
+				buffer[size++] = (byte) character;
+			} else if (character == '\n') {
+				buffer[size++] = '\\';
+				buffer[size++] = 'n';
+			} else if (character < 0x80) {
+				buffer[size++] = (byte) character;
+			} else if (character < 0x800) {
+				buffer[size++] = (byte) (0xC0 | (character >> 6));
+				buffer[size++] = (byte) (0x80 | (character & 0x3F));
+			} else if (Character.isHighSurrogate(character) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(character,
+						value.charAt(++i));
+				buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(character)) {
+				buffer[size++] = '?';
+			} else {
+				buffer[size++] = (byte) (0xE0 | (character >> 12));
+				buffer[size++] = (byte) (0x80 | ((character >> 6) & 0x3F));
+				buffer[size++] = (byte) (0x80 | (character & 0x3F));
+			}
+		}
+	}
+
+	private void ascii(String text) {
+		int length = text.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; ++i) {
+			buffer[size++] = (byte) text.charAt(i);
+		}
+	}
+
+	private void newLine() {
+		ensureCapacity(1);
+		buffer[size++] = '\n';
+	}
+
+	private void number(long value) {
+		ensureCapacity(20);
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				ascii(Long.toString(value));
+				return;
+			}
+			buffer[size++] = '-';
+			value = -value;
+		}
+		int digitCount = 0;
+		do {
+			digits[digitCount++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		while (digitCount > 0) {
+			buffer[size++] = digits[--digitCount];
+		}
+	}
+
+	/**
+	 * Write nanoseconds as seconds, with up to 9 decimals.
+	 */
+	private void seconds(long nanos) {
+		if (nanos < 0) {
+			ascii("-");
+			nanos = -nanos;
+		}
+		number(nanos / NANOS_PER_SECOND);
+		long fraction = nanos % NANOS_PER_SECOND;
+		if (fraction == 0) {
+			return;
+		}
+		ensureCapacity(10);
+		buffer[size++] = '.';
+		int digitCount = 9;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			--digitCount;
+		}
+		for (int i = digitCount - 1; i >= 0; --i) {
+			buffer[size + i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		size += digitCount;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > buffer.length) {
+			buffer = Arrays.copyOf(buffer,
+					Math.max(buffer.length * 2, size + additional));
+		}
+	}
+
+	/**
+	 * @return the number of bytes written.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copy the written bytes to a stream.
+	 *
+	 * @param output
+	 *            the stream.
+	 * @throws IOException
+	 *             if the stream fails.
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		output.write(buffer, 0, size);
+	}
+
+	/**
+	 * @return the written text.
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, size, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.PerformanceLogger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP endpoint serving the metrics of the performance logger in
+ * the Prometheus text format, so Prometheus can scrape the JVM directly
+ * instead of going through the JMX beans.
+ *
+ * The endpoint runs on the HTTP server of the JDK with a single daemon
+ * thread, scrapes are served one at a time from the same reused buffer.
+ */
+public class PrometheusPerformanceLogsEndpoint {
+
+	public static final String PORT_PROPERTY_NAME = "com.ibm.logger.trace.PrometheusPerformanceLogsEndpoint.port";
+
+	public static final String HOST_PROPERTY_NAME = "com.ibm.logger.trace.PrometheusPerformanceLogsEndpoint.host";
+
+	/** upper bounds of the duration buckets in seconds, separated by commas */
+	public static final String BUCKETS_PROPERTY_NAME = "com.ibm.logger.trace.PrometheusPerformanceLogsEndpoint.buckets";
+
+	/** path of the metrics */
+	public static final String METRICS_PATH = "/metrics";
+
+	private static final String THREAD_NAME = "PerformanceLogger-prometheus";
+
+	public static Logger LOGGER = Logger
+			.getLogger(PrometheusPerformanceLogsEndpoint.class.getName());
+
+	private final String host;
+
+	private final int port;
+
+	private final PrometheusMetricsWriter writer = new PrometheusMetricsWriter();
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param host
+	 *            the address to listen on, null or empty for all the
+	 *            addresses.
+	 * @param port
+	 *            the port to listen on, 0 for any free port.
+	 */
+	public PrometheusPerformanceLogsEndpoint(String host, int port) {
+		this.host = host;
+		this.port = port;
+		String buckets = PerformanceLogger.parseStringProperty(
+				BUCKETS_PROPERTY_NAME, null);
+		if (!StringUtils.isEmpty(buckets)) {
+			try {
+				writer.setBucketBounds(PrometheusMetricsWriter
+						.parseBucketBounds(buckets));
+			} catch (NumberFormatException e) {
+				LOGGER.log(Level.WARNING, "Invalid " + BUCKETS_PROPERTY_NAME
+						+ " : " + buckets);
+			}
+		}
+	}
+
+	/**
+	 * Set the upper bounds of the duration buckets.
+	 *
+	 * @param boundsInNanos
+	 *            the upper bounds in nanoseconds.
+	 */
+	public void setBucketBounds(long... boundsInNanos) {
+		synchronized (writer) {
+			writer.setBucketBounds(boundsInNanos);
+		}
+	}
+
+	/**
+	 * Start listening.
+	 *
+	 * @throws IOException
+	 *             if the port can't be opened.
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			return;
+		}
+		InetSocketAddress address;
+		if (StringUtils.isEmpty(host)) {
+			address = new InetSocketAddress(port);
+		} else {
+			address = new InetSocketAddress(host, port);
+		}
+		HttpServer newServer = HttpServer.create(address, 0);
+		newServer.createContext(METRICS_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleScrape(exchange);
+			}
+		});
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, THREAD_NAME);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		newServer.setExecutor(executor);
+		newServer.start();
+		server = newServer;
+		LOGGER.log(Level.INFO, "Prometheus endpoint listening on "
+				+ newServer.getAddress());
+	}
+
+	/**
+	 * Stop listening.
+	 */
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+		executor = null;
+	}
+
+	/**
+	 * @return true if the endpoint is listening.
+	 */
+	public synchronized boolean isRunning() {
+		return server != null;
+	}
+
+	/**
+	 * @return the port the endpoint listens on, -1 if it isn't running.
+	 */
+	public synchronized int getPort() {
+		if (server == null) {
+			return -1;
+		}
+		return server.getAddress().getPort();
+	}
+
+	private void handleScrape(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			boolean head = "HEAD".equals(method);
+			if (!head && !"GET".equals(method)) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			synchronized (writer) {
+				writer.write(PerformanceLogger.getPerformanceLogs().values());
+				exchange.getResponseHeaders().set("Content-Type",
+						PrometheusMetricsWriter.CONTENT_TYPE);
+				if (head) {
+					exchange.sendResponseHeaders(200, -1);
+					return;
+				}
+				exchange.sendResponseHeaders(200, writer.size());
+				OutputStream body = exchange.getResponseBody();
+				writer.writeTo(body);
+				body.flush();
+			}
+		} catch (IOException e) {
+			// the scraper went away.
+			LOGGER.log(Level.FINE, "Prometheus scrape interrupted", e);
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOGGER,
+					PrometheusPerformanceLogsEndpoint.class.getName(),
+					"handleScrape", e);
+			if (exchange.getResponseCode() == -1) {
+				exchange.sendResponseHeaders(500, -1);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.DeltaCursor;
+import com.ibm.logger.stats.MetricDelta;
+
+/**
+ * This class is used to periodically push the performance logs to StatsD.
+ *
+ * Each run sends the calls recorded since the previous run, read from the
+ * delta cursor of the printer. The counts are sent as counters named
+ * "prefix.id.calls", "errors", "cacheEnabled", "cacheHits" and
+ * "responseSize". The durations are sent as one timing per histogram bucket,
+ * in milliseconds, with a sample rate of one over the number of calls in the
+ * bucket so StatsD counts each call. Buckets of more than a thousand calls
+ * are split in several timings.
+ */
+public class StatsdPerformanceLogsPrinter extends
+		AbstractPushPerformanceLogsPrinter {
+
+	public static final String HOST_PROPERTY_NAME = "com.ibm.logger.trace.StatsdPerformanceLogsPrinter.host";
+
+	public static final String PORT_PROPERTY_NAME = "com.ibm.logger.trace.StatsdPerformanceLogsPrinter.port";
+
+	/** "udp" or "tcp" */
+	public static final String TRANSPORT_PROPERTY_NAME = "com.ibm.logger.trace.StatsdPerformanceLogsPrinter.transport";
+
+	public static final String NAME_PREFIX_PROPERTY_NAME = "com.ibm.logger.trace.StatsdPerformanceLogsPrinter.namePrefix";
+
+	public static final String MAXIMUM_PACKET_SIZE_PROPERTY_NAME = "com.ibm.logger.trace.StatsdPerformanceLogsPrinter.maximumPacketSize";
+
+	public static final int DEFAULT_PORT = 8125;
+
+	private static final long NANOS_PER_MICRO = 1000;
+
+	/**
+	 * calls counted by one timing, keeps the rounding of the sample rate under
+	 * a thousandth
+	 */
+	private static final long MAXIMUM_SAMPLED_CALLS = 1000;
+
+	private final DeltaCursor cursor;
+
+	public StatsdPerformanceLogsPrinter() {
+		this(PerformanceLogger
+				.getDeltaCursor(StatsdPerformanceLogsPrinter.class.getName()));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param cursor
+	 *            the cursor the calls to send are read from.
+	 */
+	public StatsdPerformanceLogsPrinter(DeltaCursor cursor) {
+		super(DEFAULT_PORT);
+		this.cursor = cursor;
+		initializePropertiesFromSystem();
+	}
+
+	private void initializePropertiesFromSystem() {
+		setHost(PerformanceLogger.parseStringProperty(HOST_PROPERTY_NAME,
+				getHost()));
+		setPort(PerformanceLogger.parseIntegerProperty(PORT_PROPERTY_NAME,
+				getPort()));
+		setTransport(PerformanceLogger.parseStringProperty(
+				TRANSPORT_PROPERTY_NAME, getTransport()));
+		setNamePrefix(PerformanceLogger.parseStringProperty(
+				NAME_PREFIX_PROPERTY_NAME, getNamePrefix()));
+		setMaximumPacketSize(PerformanceLogger.parseIntegerProperty(
+				MAXIMUM_PACKET_SIZE_PROPERTY_NAME, getMaximumPacketSize()));
+	}
+
+	@Override
+	protected void writeMetrics(long time) throws IOException {
+		writeDeltas(cursor.read());
+	}
+
+	/**
+	 * Write the increments of a set of operations.
+	 *
+	 * @param deltas
+	 *            the increments.
+	 * @throws IOException
+	 *             if the metrics can't be sent.
+	 */
+	protected void writeDeltas(List<MetricDelta> deltas) throws IOException {
+		for (MetricDelta delta : deltas) {
+			String id = delta.getId();
+			writeCounter(id, "calls", delta.getCallCount());
+			writeCounter(id, "errors", delta.getErrorCallCount());
+			writeCounter(id, "cacheEnabled", delta.getCacheEnabledCount());
+			writeCounter(id, "cacheHits", delta.getCacheHitCount());
+			writeCounter(id, "responseSize", delta.getTotalResponseSize());
+
+			long[] bounds = delta.getBucketUpperBounds();
+			long[] counts = delta.getBucketCounts();
+			for (int i = 0; i < bounds.length; ++i) {
+				long remaining = counts[i];
+				while (remaining > 0) {
+					long sampled = Math.min(remaining, MAXIMUM_SAMPLED_CALLS);
+					remaining -= sampled;
+					writeName(id, "duration");
+					long micros = bounds[i] / NANOS_PER_MICRO;
+					put(micros / 1000);
+					putFraction(micros % 1000, 3);
+					put("|ms");
+					if (sampled > 1) {
+						put("|@");
+						put(1.0 / sampled);
+					}
+					endLine();
+				}
+			}
+		}
+	}
+
+	private void writeName(String id, String metric) {
+		putNamePrefix();
+		putSegment(id);
+		put('.');
+		put(metric);
+		put(':');
+	}
+
+	private void writeCounter(String id, String metric, long value)
+			throws IOException {
+		if (value == 0) {
+			return;
+		}
+		writeName(id, metric);
+		put(value);
+		put("|c");
+		endLine();
+	}
+}
@@ -27,33 +27,72 @@ import com.ibm.service.summary.SummaryLogger;
  */
 public class SummaryPerformanceLogsToLoggerPrinter implements Runnable {
 
+	public static final String MAXIMUM_RECORD_LENGTH_PROPERTY_NAME = "com.ibm.logger.trace.SummaryPerformanceLogsToLoggerPrinter.maximumRecordLength";
+
 	public static Logger LOGGER = Logger
 			.getLogger(SummaryPerformanceLogsToLoggerPrinter.class.getName());
 
+	private int maximumRecordLength = LoggerWriter.DEFAULT_MAXIMUM_RECORD_LENGTH;
+
 	public SummaryPerformanceLogsToLoggerPrinter() {
 		super();
+		maximumRecordLength = PerformanceLogger.parseIntegerProperty(
+				MAXIMUM_RECORD_LENGTH_PROPERTY_NAME, maximumRecordLength);
+	}
+
+	/**
+	 * @return the length at which the lines printed so far are logged as one
+	 *         record, 0 or less to log everything in a single record.
+	 */
+	public int getMaximumRecordLength() {
+		return maximumRecordLength;
+	}
+
+	public void setMaximumRecordLength(int maximumRecordLength) {
+		this.maximumRecordLength = maximumRecordLength;
 	}
 
 	@Override
 	public void run() {
-		dumpPerformanceLogsTableToLogger(SummaryLogger.LOGGER, Level.INFO);
+		dumpPerformanceLogsTableToLogger(SummaryLogger.LOGGER, Level.INFO,
+				maximumRecordLength);
+	}
+
+	/**
+	 * Dump the performance logs table to the specified logger, in records of
+	 * {@value LoggerWriter#DEFAULT_MAXIMUM_RECORD_LENGTH} characters at most.
+	 * 
+	 * @param logger
+	 *            The logger to use.
+	 * @param level
+	 *            The level to use.
+	 */
+	public static void dumpPerformanceLogsTableToLogger(Logger logger, Level level) {
+		dumpPerformanceLogsTableToLogger(logger, level,
+				LoggerWriter.DEFAULT_MAXIMUM_RECORD_LENGTH);
 	}
 
 	/**
-	 * Dump the performance logs table to the specified logger.
+	 * Dump the performance logs table to the specified logger. The lines are
+	 * streamed to the logger in records of complete lines, only the first
+	 * record has the headers.
 	 * 
 	 * @param logger
 	 *            The logger to use.
 	 * @param level
 	 *            The level to use.
+	 * @param maximumRecordLength
+	 *            the length at which the lines printed so far are logged as
+	 *            one record, 0 or less to log everything in a single record.
 	 */
-	public static void dumpPerformanceLogsTableToLogger(Logger logger,
-			Level level) {
+	public static void dumpPerformanceLogsTableToLogger(Logger logger, Level level,
+			int maximumRecordLength) {
 		try {
 			if (logger.isLoggable(level)) {
-				String performanceLogsTable = PerformanceLogger
-						.dumpPerformanceLogsTableToString();
-				logger.log(level, performanceLogsTable);
+				LoggerWriter writer = new LoggerWriter(logger, level,
+						maximumRecordLength);
+				PerformanceLogger.dumpPerformanceLogsTable(writer);
+				writer.flush();
 			}
 		} catch (Exception e) {
 			LoggingHelper.logUnexpectedException(LOGGER,
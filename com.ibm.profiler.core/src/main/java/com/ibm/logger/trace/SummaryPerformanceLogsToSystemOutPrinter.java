@@ -46,8 +46,9 @@ public class SummaryPerformanceLogsToSystemOutPrinter implements Runnable
     {
         try
         {
-            String performanceLogsTable = PerformanceLogger.dumpPerformanceLogsTableToString();
-            System.out.println(performanceLogsTable);
+            // streamed line by line, the dump is never built whole.
+            PerformanceLogger.dumpPerformanceLogsTable(System.out);
+            System.out.println();
         }
         catch (Exception e)
         {
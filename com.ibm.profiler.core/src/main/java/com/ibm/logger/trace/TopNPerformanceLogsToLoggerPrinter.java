@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.TopNRanking;
+import com.ibm.service.summary.SummaryLogger;
+
+/**
+ * This class is used to periodically print the operations with the highest
+ * total duration, call count, error count and maximum duration to a logger.
+ * Only the ranked operations are printed, so the printing cost doesn't grow
+ * with the number of operations like the full summary does.
+ */
+public class TopNPerformanceLogsToLoggerPrinter implements Runnable {
+
+	public static final String COUNT_PROPERTY_NAME = "com.ibm.logger.trace.TopNPerformanceLogsToLoggerPrinter.count";
+
+	public static final String INTERVAL_NAME_PROPERTY_NAME = "com.ibm.logger.trace.TopNPerformanceLogsToLoggerPrinter.intervalName";
+
+	public static final String METRICS_PROPERTY_NAME = "com.ibm.logger.trace.TopNPerformanceLogsToLoggerPrinter.metrics";
+
+	public static final String MAXIMUM_RECORD_LENGTH_PROPERTY_NAME = "com.ibm.logger.trace.TopNPerformanceLogsToLoggerPrinter.maximumRecordLength";
+
+	public static Logger LOGGER = Logger
+			.getLogger(TopNPerformanceLogsToLoggerPrinter.class.getName());
+
+	private int count = 20;
+
+	private String intervalName = PerformanceLogger.TOTAL_INTERVAL_NAME;
+
+	private TopNRanking.Metric[] metrics = TopNRanking.Metric.values();
+
+	private int maximumRecordLength = LoggerWriter.DEFAULT_MAXIMUM_RECORD_LENGTH;
+
+	public TopNPerformanceLogsToLoggerPrinter() {
+		super();
+		count = PerformanceLogger.parseIntegerProperty(COUNT_PROPERTY_NAME,
+				count);
+		intervalName = PerformanceLogger.parseStringProperty(
+				INTERVAL_NAME_PROPERTY_NAME, intervalName);
+		String metricNames = PerformanceLogger.parseStringProperty(
+				METRICS_PROPERTY_NAME, null);
+		if (metricNames != null && metricNames.trim().length() > 0) {
+			try {
+				setMetrics(metricNames);
+			} catch (IllegalArgumentException e) {
+				LoggingHelper.logUnexpectedException(LOGGER,
+						TopNPerformanceLogsToLoggerPrinter.class.getName(),
+						"TopNPerformanceLogsToLoggerPrinter", e);
+			}
+		}
+		maximumRecordLength = PerformanceLogger.parseIntegerProperty(
+				MAXIMUM_RECORD_LENGTH_PROPERTY_NAME, maximumRecordLength);
+	}
+
+	/**
+	 * @return the number of operations printed for each metric.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	/**
+	 * @return the interval the operations are ranked on, for example "1m".
+	 */
+	public String getIntervalName() {
+		return intervalName;
+	}
+
+	public void setIntervalName(String intervalName) {
+		this.intervalName = intervalName;
+	}
+
+	public TopNRanking.Metric[] getMetrics() {
+		return metrics.clone();
+	}
+
+	/**
+	 * @param metricNames
+	 *            the metrics to rank the operations on, separated by commas,
+	 *            for example "total_duration,error_count".
+	 * @throws IllegalArgumentException
+	 *             if a name isn't a metric.
+	 */
+	public void setMetrics(String metricNames) {
+		String[] split = metricNames.trim().split(" *, *");
+		TopNRanking.Metric[] parsed = new TopNRanking.Metric[split.length];
+		for (int i = 0; i < split.length; ++i) {
+			parsed[i] = TopNRanking.Metric.parse(split[i]);
+		}
+		metrics = parsed;
+	}
+
+	/**
+	 * @return the length at which the lines printed so far are logged as one
+	 *         record, 0 or less to log everything in a single record.
+	 */
+	public int getMaximumRecordLength() {
+		return maximumRecordLength;
+	}
+
+	public void setMaximumRecordLength(int maximumRecordLength) {
+		this.maximumRecordLength = maximumRecordLength;
+	}
+
+	@Override
+	public void run() {
+		dumpTopNToLogger(SummaryLogger.LOGGER, Level.INFO);
+	}
+
+	/**
+	 * Dump the top operations tables to the specified logger, in records of
+	 * complete lines.
+	 * 
+	 * @param logger
+	 *            The logger to use.
+	 * @param level
+	 *            The level to use.
+	 */
+	public void dumpTopNToLogger(Logger logger, Level level) {
+		try {
+			if (logger.isLoggable(level)) {
+				LoggerWriter writer = new LoggerWriter(logger, level,
+						maximumRecordLength);
+				PerformanceLogger.dumpTopN(writer, count, intervalName,
+						metrics);
+				writer.flush();
+			}
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOGGER,
+					TopNPerformanceLogsToLoggerPrinter.class.getName(),
+					"dumpTopNToLogger", e);
+		}
+	}
+
+}
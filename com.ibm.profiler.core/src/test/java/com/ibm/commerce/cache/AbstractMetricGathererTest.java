@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ibm.commerce.cache.AbstractMetricGatherer.FullBufferPolicy;
+
+public class AbstractMetricGathererTest {
+
+	/**
+	 * Gatherer keeping the written metrics in memory.
+	 */
+	private static class MemoryMetricGatherer extends AbstractMetricGatherer {
+
+		private final List<OperationMetric> written = new ArrayList<OperationMetric>();
+
+		@Override
+		public boolean writeMetrics() {
+			List<OperationMetric> metrics = getPendingMetricsToWrite();
+			synchronized (written) {
+				written.addAll(metrics);
+			}
+			return !metrics.isEmpty();
+		}
+
+		List<String> getWrittenNames() {
+			List<String> names = new ArrayList<String>();
+			synchronized (written) {
+				for (OperationMetric metric : written) {
+					names.add(metric.getOperationName());
+				}
+			}
+			return names;
+		}
+	}
+
+	private static OperationMetric metric(String name) {
+		OperationMetric metric = new OperationMetric();
+		metric.startOperation(name, false);
+		metric.stopOperation(20, false, true);
+		return metric;
+	}
+
+	/**
+	 * Gatherer accepting metrics without a writing thread, so the buffer fills
+	 * up.
+	 */
+	private static MemoryMetricGatherer fullGatherer(FullBufferPolicy policy) {
+		MemoryMetricGatherer gatherer = new MemoryMetricGatherer();
+		gatherer.setMaximumPendingSize(4);
+		gatherer.setPendingFlushSize(Integer.MAX_VALUE);
+		gatherer.setFullBufferPolicy(policy);
+		gatherer.setRunning(true);
+		for (int i = 0; i < 10; ++i) {
+			gatherer.gatherMetric(metric("operation" + i));
+		}
+		return gatherer;
+	}
+
+	private static List<String> names(String... names) {
+		List<String> list = new ArrayList<String>();
+		for (String name : names) {
+			list.add(name);
+		}
+		return list;
+	}
+
+	@Test
+	public void testRingBuffer() {
+		BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<Integer>(5);
+		assertEquals(8, buffer.capacity());
+		assertNull(buffer.poll());
+
+		for (int lap = 0; lap < 3; ++lap) {
+			for (int i = 0; i < 8; ++i) {
+				assertTrue(buffer.offer(i));
+			}
+			assertFalse(buffer.offer(8));
+			assertEquals(8, buffer.size());
+			assertEquals(Integer.valueOf(0), buffer.poll());
+			assertTrue(buffer.offer(8));
+
+			List<Integer> drained = new ArrayList<Integer>();
+			assertEquals(3, buffer.drainTo(drained, 3));
+			assertEquals(5, buffer.drainTo(drained, 100));
+			assertEquals(0, buffer.drainTo(drained, 100));
+			assertEquals(names("1", "2", "3", "4", "5", "6", "7", "8")
+					.toString(), drained.toString());
+			assertEquals(0, buffer.size());
+		}
+	}
+
+	@Test
+	public void testDropNewest() {
+		MemoryMetricGatherer gatherer = fullGatherer(FullBufferPolicy.DROP_NEWEST);
+		assertEquals(6, gatherer.getDroppedMetricCount());
+		assertEquals(0, gatherer.getBlockedMetricCount());
+		assertEquals(4, gatherer.getPendingMetricCount());
+		gatherer.writeMetrics();
+		assertEquals(names("operation0", "operation1", "operation2",
+				"operation3"), gatherer.getWrittenNames());
+	}
+
+	@Test
+	public void testDropOldest() {
+		MemoryMetricGatherer gatherer = fullGatherer(FullBufferPolicy.DROP_OLDEST);
+		assertEquals(6, gatherer.getDroppedMetricCount());
+		gatherer.writeMetrics();
+		assertEquals(names("operation6", "operation7", "operation8",
+				"operation9"), gatherer.getWrittenNames());
+	}
+
+	@Test
+	public void testSample() {
+		MemoryMetricGatherer gatherer = new MemoryMetricGatherer();
+		gatherer.setFullBufferSampleRate(3);
+		assertEquals(3, gatherer.getFullBufferSampleRate());
+		gatherer.setMaximumPendingSize(4);
+		gatherer.setPendingFlushSize(Integer.MAX_VALUE);
+		gatherer.setFullBufferPolicy(FullBufferPolicy.SAMPLE);
+		gatherer.setRunning(true);
+		for (int i = 0; i < 10; ++i) {
+			gatherer.gatherMetric(metric("operation" + i));
+		}
+
+		// operation4, 7 replace the oldest, the others are dropped.
+		assertEquals(6, gatherer.getDroppedMetricCount());
+		gatherer.writeMetrics();
+		assertEquals(names("operation2", "operation3", "operation4",
+				"operation7"), gatherer.getWrittenNames());
+	}
+
+	@Test
+	public void testBlockTimeout() {
+		MemoryMetricGatherer gatherer = new MemoryMetricGatherer();
+		gatherer.setMaximumPendingSize(4);
+		gatherer.setMaximumBlockTime(20);
+		gatherer.setRunning(true);
+		assertEquals(FullBufferPolicy.BLOCK, gatherer.getFullBufferPolicy());
+		for (int i = 0; i < 5; ++i) {
+			gatherer.gatherMetric(metric("operation" + i));
+		}
+
+		// nobody writes, the last metric gives up.
+		assertEquals(1, gatherer.getBlockedMetricCount());
+		assertEquals(1, gatherer.getDroppedMetricCount());
+		assertEquals(4, gatherer.getPendingMetricCount());
+	}
+
+	@Test
+	public void testNotRunning() {
+		MemoryMetricGatherer gatherer = new MemoryMetricGatherer();
+		gatherer.gatherMetric(metric("ignored"));
+		assertEquals(0, gatherer.getPendingMetricCount());
+		assertEquals(0, gatherer.getDroppedMetricCount());
+	}
+
+	@Test
+	public void testInternalPendingMetrics() {
+		MemoryMetricGatherer gatherer = new MemoryMetricGatherer();
+		gatherer.setRunning(true);
+		gatherer.gatherMetric(metric("gathered"));
+		gatherer.internalGetPendingMetrics().add(metric("direct"));
+		assertEquals(2, gatherer.getPendingMetricCount());
+
+		assertTrue(gatherer.writeMetrics());
+		assertEquals(names("gathered", "direct"), gatherer.getWrittenNames());
+		assertFalse(gatherer.writeMetrics());
+
+		// metrics pending in the buffer survive a resize.
+		gatherer.gatherMetric(metric("resized"));
+		gatherer.setMaximumPendingSize(100);
+		assertEquals(1, gatherer.getPendingMetricCount());
+		assertTrue(gatherer.writeMetrics());
+		assertEquals(names("gathered", "direct", "resized"),
+				gatherer.getWrittenNames());
+		assertFalse(gatherer.writeMetrics());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final MemoryMetricGatherer gatherer = new MemoryMetricGatherer();
+		gatherer.setMaximumPendingSize(64);
+		gatherer.setPendingFlushSize(32);
+		gatherer.setWriterMaximumSleepTime(5);
+		gatherer.setMaximumBlockTime(60000);
+		gatherer.start();
+
+		final int threadCount = 4;
+		final int metricCount = 20000;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; ++i) {
+			final int threadIndex = i;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < metricCount; ++j) {
+						gatherer.gatherMetric(metric(threadIndex + "-" + j));
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		gatherer.stop();
+
+		// every metric is written exactly once, in order for each thread.
+		List<String> writtenNames = gatherer.getWrittenNames();
+		assertEquals(0, gatherer.getDroppedMetricCount());
+		assertEquals(threadCount * metricCount, writtenNames.size());
+		assertEquals(writtenNames.size(),
+				new HashSet<String>(writtenNames).size());
+		int[] nextIndexes = new int[threadCount];
+		for (String name : writtenNames) {
+			int separator = name.indexOf('-');
+			int threadIndex = Integer.parseInt(name.substring(0, separator));
+			int index = Integer.parseInt(name.substring(separator + 1));
+			assertEquals(nextIndexes[threadIndex], index);
+			nextIndexes[threadIndex] = index + 1;
+		}
+	}
+
+	@Test
+	public void testConcurrentDropOldest() throws Exception {
+		final MemoryMetricGatherer gatherer = new MemoryMetricGatherer();
+		gatherer.setMaximumPendingSize(16);
+		gatherer.setPendingFlushSize(8);
+		gatherer.setWriterMaximumSleepTime(5);
+		gatherer.setFullBufferPolicy(FullBufferPolicy.DROP_OLDEST);
+		gatherer.start();
+
+		final int threadCount = 4;
+		final int metricCount = 20000;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; ++i) {
+			final int threadIndex = i;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < metricCount; ++j) {
+						gatherer.gatherMetric(metric(threadIndex + "-" + j));
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		gatherer.stop();
+
+		// no metric is lost without being counted, or written twice.
+		List<String> writtenNames = gatherer.getWrittenNames();
+		Set<String> uniqueNames = new HashSet<String>(writtenNames);
+		assertEquals(writtenNames.size(), uniqueNames.size());
+		assertEquals(threadCount * metricCount, writtenNames.size()
+				+ gatherer.getDroppedMetricCount());
+		assertEquals(0, gatherer.getBlockedMetricCount());
+	}
+}
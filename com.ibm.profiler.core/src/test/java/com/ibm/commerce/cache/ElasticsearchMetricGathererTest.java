@@ -0,0 +1,375 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ElasticsearchMetricGathererTest {
+
+	/**
+	 * HTTP server accepting pipelined bulk requests. It holds its responses
+	 * until {@link #holdCount} requests are waiting or no request comes for a
+	 * while, to see how many requests the client pipelines.
+	 */
+	private static final class StubServer implements Runnable {
+
+		private final ServerSocket serverSocket;
+
+		private final List<String> paths = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		private final List<String> contentTypes = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		private final List<String> bodies = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		/** status line and body of the next responses, 200 when empty */
+		private final Queue<String[]> responses = new ConcurrentLinkedQueue<String[]>();
+
+		private final AtomicInteger connectionCount = new AtomicInteger();
+
+		private volatile int holdCount = 1;
+
+		private volatile int maximumUnanswered;
+
+		/** close the connections once all the requests are answered */
+		private volatile boolean closeWhenIdle;
+
+		StubServer() throws IOException {
+			serverSocket = new ServerSocket(0, 50,
+					InetAddress.getByName("127.0.0.1"));
+			Thread thread = new Thread(this, "elasticsearch-stub");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		@Override
+		public void run() {
+			while (!serverSocket.isClosed()) {
+				try {
+					final Socket socket = serverSocket.accept();
+					connectionCount.incrementAndGet();
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							handle(socket);
+						}
+					});
+					thread.setDaemon(true);
+					thread.start();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private void handle(Socket socket) {
+			try {
+				InputStream input = new BufferedInputStream(
+						socket.getInputStream());
+				OutputStream output = socket.getOutputStream();
+				int unanswered = 0;
+				while (true) {
+					if (unanswered < holdCount) {
+						socket.setSoTimeout(unanswered == 0 ? 0 : 300);
+						try {
+							if (!readRequest(input)) {
+								return;
+							}
+							++unanswered;
+							maximumUnanswered = Math.max(maximumUnanswered,
+									unanswered);
+							continue;
+						} catch (SocketTimeoutException e) {
+							// nothing more is coming.
+						}
+					}
+					for (; unanswered > 0; --unanswered) {
+						respond(output);
+					}
+					if (closeWhenIdle) {
+						return;
+					}
+				}
+			} catch (IOException e) {
+				// client went away.
+			} finally {
+				CacheUtilities.closeQuietly(socket);
+			}
+		}
+
+		private boolean readRequest(InputStream input) throws IOException {
+			String requestLine = readLine(input);
+			if (requestLine == null) {
+				return false;
+			}
+			int contentLength = 0;
+			String contentType = null;
+			String header;
+			while (!(header = readLine(input)).isEmpty()) {
+				int colon = header.indexOf(':');
+				String name = header.substring(0, colon);
+				String value = header.substring(colon + 1).trim();
+				if (name.equalsIgnoreCase("Content-Length")) {
+					contentLength = Integer.parseInt(value);
+				} else if (name.equalsIgnoreCase("Content-Type")) {
+					contentType = value;
+				}
+			}
+			byte[] body = new byte[contentLength];
+			int read = 0;
+			while (read < contentLength) {
+				int count = input.read(body, read, contentLength - read);
+				if (count < 0) {
+					return false;
+				}
+				read += count;
+			}
+			paths.add(requestLine.split(" ")[1]);
+			contentTypes.add(contentType);
+			bodies.add(new String(body, StandardCharsets.UTF_8));
+			return true;
+		}
+
+		private static String readLine(InputStream input) throws IOException {
+			StringBuilder line = new StringBuilder();
+			while (true) {
+				int value = input.read();
+				if (value < 0) {
+					return null;
+				}
+				if (value == '\n') {
+					return line.toString().trim();
+				}
+				line.append((char) value);
+			}
+		}
+
+		private void respond(OutputStream output) throws IOException {
+			String[] response = responses.poll();
+			if (response == null) {
+				response = new String[] { "200 OK", "{\"errors\":false}" };
+			}
+			byte[] body = response[1].getBytes(StandardCharsets.UTF_8);
+			String headers = "HTTP/1.1 " + response[0]
+					+ "\r\nContent-Type: application/json; charset=UTF-8"
+					+ "\r\nContent-Length: " + body.length + "\r\n\r\n";
+			output.write(headers.getBytes(StandardCharsets.US_ASCII));
+			output.write(body);
+			output.flush();
+		}
+
+		int getDocumentCount() {
+			int count = 0;
+			synchronized (bodies) {
+				for (String body : bodies) {
+					count += body.split("\n").length / 2;
+				}
+			}
+			return count;
+		}
+
+		void close() {
+			CacheUtilities.closeQuietly(serverSocket);
+		}
+	}
+
+	private StubServer server;
+
+	private ElasticsearchMetricGatherer gatherer;
+
+	@Before
+	public void init() throws IOException {
+		server = new StubServer();
+		gatherer = new ElasticsearchMetricGatherer();
+		gatherer.setUrl("http://127.0.0.1:" + server.getPort());
+	}
+
+	@After
+	public void cleanup() {
+		gatherer.closeConnection();
+		server.close();
+	}
+
+	private static OperationMetric metric(String name, boolean successful) {
+		OperationMetric metric = new OperationMetric();
+		metric.startOperation(name, false);
+		metric.stopOperation(20, false, successful);
+		return metric;
+	}
+
+	private void addPending(int count) {
+		for (int i = 0; i < count; ++i) {
+			gatherer.internalGetPendingMetrics().add(metric("operation" + i, true));
+		}
+	}
+
+	@Test
+	public void testDocuments() {
+		gatherer.setApplication("myapp");
+		gatherer.setHost("server1.example.com");
+
+		OperationMetric cached = new OperationMetric();
+		cached.startOperation("op \"quoted\" é", true, "key", "value");
+		cached.stopOperation(10, true);
+		cached.setDuration(1234567);
+		cached.setProperty("tenant", "t1");
+		gatherer.internalGetPendingMetrics().add(cached);
+		gatherer.internalGetPendingMetrics().add(metric("failing", false));
+
+		assertTrue(gatherer.writeMetrics());
+		assertEquals(1, server.bodies.size());
+		assertEquals("/_bulk?filter_path=errors,items.*.error",
+				server.paths.get(0));
+		assertEquals("application/x-ndjson", server.contentTypes.get(0));
+
+		String body = server.bodies.get(0);
+		assertTrue(body.endsWith("\n"));
+		String[] lines = body.split("\n");
+		assertEquals(4, lines.length);
+
+		SimpleDateFormat format = new SimpleDateFormat("yyyy.MM.dd");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String today = format.format(new Date());
+		assertEquals("{\"index\":{\"_index\":\"profiler-" + today
+				+ "\",\"_type\":\"metric\"}}", lines[0]);
+
+		String document = lines[1];
+		assertTrue(document, document.startsWith("{\"@timestamp\":\""
+				+ today.replace('.', '-') + "T"));
+		assertTrue(document.contains(",\"operation\":\"op \\\"quoted\\\" é\""));
+		assertTrue(document.contains(",\"application\":\"myapp\""));
+		assertTrue(document.contains(",\"host\":\"server1.example.com\""));
+		assertTrue(document.contains(",\"shortHost\":\"server1\""));
+		assertTrue(document.contains(",\"parameters\":\"key=value\""));
+		assertTrue(document.contains(",\"tenant\":\"t1\""));
+		assertTrue(document.contains(",\"duration\":1234567,"));
+		assertTrue(document.contains(",\"durationMs\":1.234,"));
+		assertTrue(document.contains(",\"cacheHit\":true"));
+		assertTrue(document.contains(",\"callCount\":1,"));
+		assertTrue(document.contains(",\"totalDurationMs\":1.234,"));
+		assertTrue(document.contains(",\"totalSize\":10,"));
+		assertTrue(document.contains(",\"cacheHitCount\":1,"));
+		assertTrue(document.contains(",\"errorCount\":0,"));
+		assertTrue(document.contains(",\"callCountRecent\":1,"));
+		assertTrue(document.endsWith(",\"errorCountRecent\":0}"));
+
+		assertTrue(lines[3].contains(",\"successful\":false"));
+		assertTrue(lines[3].contains(",\"errorCount\":1,"));
+		assertTrue(lines[3].contains(",\"parameters\":\"\""));
+	}
+
+	@Test
+	public void testPipelinedRequests() {
+		gatherer.setMaximumRequestSize(2000);
+		gatherer.setMaximumPipelinedRequests(4);
+		server.holdCount = 4;
+
+		addPending(60);
+		assertTrue(gatherer.writeMetrics());
+		int requestCount = server.bodies.size();
+		assertTrue(requestCount > 4);
+		assertEquals(requestCount, gatherer.getRequestCount());
+		assertEquals(60, server.getDocumentCount());
+		// the requests were sent without waiting for the responses.
+		assertEquals(4, server.maximumUnanswered);
+
+		// the connection is kept for the next batches.
+		addPending(10);
+		assertTrue(gatherer.writeMetrics());
+		assertEquals(70, server.getDocumentCount());
+		assertEquals(1, server.connectionCount.get());
+		assertEquals(0, gatherer.getFailedRequestCount());
+	}
+
+	@Test
+	public void testFailedRequest() {
+		server.responses.add(new String[] { "503 Service Unavailable",
+				"{\"error\":\"overloaded\"}" });
+		addPending(2);
+		assertFalse(gatherer.writeMetrics());
+		assertEquals(1, gatherer.getFailedRequestCount());
+
+		// a new connection is opened for the next batch.
+		addPending(3);
+		assertTrue(gatherer.writeMetrics());
+		assertEquals(5, server.getDocumentCount());
+		assertEquals(2, server.connectionCount.get());
+		assertEquals(1, gatherer.getFailedRequestCount());
+	}
+
+	@Test
+	public void testIdleConnectionClosed() {
+		server.closeWhenIdle = true;
+		addPending(2);
+		assertTrue(gatherer.writeMetrics());
+
+		// the closed connection is detected and the batch sent again.
+		addPending(3);
+		assertTrue(gatherer.writeMetrics());
+		assertEquals(5, server.getDocumentCount());
+		assertEquals(2, server.connectionCount.get());
+		assertEquals(0, gatherer.getFailedRequestCount());
+	}
+
+	@Test
+	public void testRejectedDocuments() {
+		server.responses.add(new String[] { "200 OK",
+				"{\"errors\":true,\"items\":[{\"index\":{\"error\":{\"type\":\"mapper_parsing_exception\"}}}]}" });
+		addPending(2);
+		assertTrue(gatherer.writeMetrics());
+		assertEquals(1, gatherer.getRejectedRequestCount());
+		assertEquals(0, gatherer.getFailedRequestCount());
+	}
+
+	@Test
+	public void testGatherAndStop() {
+		gatherer.start();
+		for (int i = 0; i < 5; ++i) {
+			gatherer.gatherMetric(metric("gathered", true));
+		}
+		gatherer.stop();
+		assertEquals(5, server.getDocumentCount());
+	}
+}
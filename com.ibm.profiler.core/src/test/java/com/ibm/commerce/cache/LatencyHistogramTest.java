@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	private static final long MILLISECOND = 1000000;
+
+	@Test
+	public void testEmptyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getTotalCount());
+		assertEquals(0, histogram.getValueAtPercentile(50.0));
+		assertEquals(0, histogram.getValueAtPercentile(99.9));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram(4);
+
+		// 1 to 1000 milliseconds
+		for (int i = 1; i <= 1000; ++i) {
+			histogram.record(i * MILLISECOND);
+		}
+
+		assertEquals(1000, histogram.getTotalCount());
+		assertWithinPrecision(500 * MILLISECOND,
+				histogram.getValueAtPercentile(50.0), 4);
+		assertWithinPrecision(950 * MILLISECOND,
+				histogram.getValueAtPercentile(95.0), 4);
+		assertWithinPrecision(990 * MILLISECOND,
+				histogram.getValueAtPercentile(99.0), 4);
+		assertWithinPrecision(999 * MILLISECOND,
+				histogram.getValueAtPercentile(99.9), 4);
+		assertWithinPrecision(1000 * MILLISECOND,
+				histogram.getValueAtPercentile(100.0), 4);
+		assertWithinPrecision(1 * MILLISECOND,
+				histogram.getValueAtPercentile(0.0), 4);
+	}
+
+	@Test
+	public void testPrecisionBound() {
+		for (int precision = LatencyHistogram.MINIMUM_PRECISION; precision <= LatencyHistogram.MAXIMUM_PRECISION; ++precision) {
+			LatencyHistogram histogram = new LatencyHistogram(precision);
+			for (long value = 2000; value < 100000 * MILLISECOND; value = value * 3 / 2) {
+				histogram.reset();
+				histogram.record(value);
+				assertWithinPrecision(value,
+						histogram.getValueAtPercentile(50.0), precision);
+			}
+		}
+	}
+
+	@Test
+	public void testOutOfRangeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(0);
+		histogram.record(Long.MAX_VALUE);
+
+		assertEquals(3, histogram.getTotalCount());
+		assertTrue(histogram.getValueAtPercentile(50.0) < 1024);
+		assertTrue(histogram.getValueAtPercentile(100.0) > 3600 * 1000 * MILLISECOND);
+	}
+
+	@Test
+	public void testAdd() {
+		LatencyHistogram first = new LatencyHistogram(3);
+		LatencyHistogram second = new LatencyHistogram(3);
+		LatencyHistogram otherPrecision = new LatencyHistogram(6);
+
+		for (int i = 0; i < 90; ++i) {
+			first.record(MILLISECOND);
+		}
+		for (int i = 0; i < 9; ++i) {
+			second.record(10 * MILLISECOND);
+		}
+		otherPrecision.record(100 * MILLISECOND);
+
+		first.add(second);
+		first.add(otherPrecision);
+		first.add(new LatencyHistogram());
+
+		assertEquals(100, first.getTotalCount());
+		assertWithinPrecision(MILLISECOND, first.getValueAtPercentile(90.0), 3);
+		assertWithinPrecision(10 * MILLISECOND,
+				first.getValueAtPercentile(99.0), 3);
+		assertWithinPrecision(100 * MILLISECOND,
+				first.getValueAtPercentile(100.0), 3);
+	}
+
+	@Test
+	public void testReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(MILLISECOND);
+		histogram.reset();
+		assertEquals(0, histogram.getTotalCount());
+		assertEquals(0, histogram.getValueAtPercentile(50.0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPrecision() {
+		new LatencyHistogram(LatencyHistogram.MAXIMUM_PRECISION + 1);
+	}
+
+	@Test
+	public void testOperationStatisticsPercentiles() {
+		OperationStatistics statistics = new OperationStatistics();
+		assertEquals(0, statistics.getDurationPercentile(99.0));
+
+		for (int i = 1; i <= 100; ++i) {
+			statistics.logStatistic(i * MILLISECOND, 0, false, false);
+		}
+
+		// percentiles are bounded by the minimum and maximum
+		assertEquals(100 * MILLISECOND, statistics.getDurationPercentile(100.0));
+		assertWithinPrecision(MILLISECOND,
+				statistics.getDurationPercentile(0.0),
+				statistics.getDurationHistogram().getPrecision());
+		assertWithinPrecision(50 * MILLISECOND,
+				statistics.getDurationPercentile(50.0),
+				statistics.getDurationHistogram().getPrecision());
+
+		statistics.reset();
+		assertEquals(0, statistics.getDurationPercentile(50.0));
+	}
+
+	@Test
+	public void testRelease() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertFalse(histogram.isAllocated());
+		histogram.record(MILLISECOND);
+		assertTrue(histogram.isAllocated());
+
+		histogram.release();
+		assertFalse(histogram.isAllocated());
+		assertEquals(0, histogram.getTotalCount());
+		assertEquals(0, histogram.getValueAtPercentile(50.0));
+
+		// a released array comes back cleared.
+		LatencyHistogram other = new LatencyHistogram();
+		other.record(2 * MILLISECOND);
+		assertEquals(1, other.getTotalCount());
+		histogram.record(MILLISECOND);
+		assertEquals(1, histogram.getTotalCount());
+	}
+
+	/**
+	 * The reported value is the upper bound of the bucket holding the
+	 * expected value.
+	 */
+	private static void assertWithinPrecision(long expected, long actual,
+			int precision) {
+		long tolerance = Math.max(1024, expected >> precision);
+		assertTrue("expected " + expected + " got " + actual,
+				actual >= expected && actual - expected <= tolerance);
+	}
+}
@@ -88,4 +88,68 @@ public class OperationStatisticsTest {
 		stats.logStatistic(123, 456, false, false);
 		Assert.assertEquals( 456,stats.getMinResultSize() );
 	}
+
+	@Test
+	public void testConcurrentLogStatistic() throws InterruptedException {
+		final OperationStatistics stats = new OperationStatistics();
+		final int threadCount = 16;
+		final int callsPerThread = 100000;
+		List<Thread> threadList = new ArrayList<Thread>();
+		for (int j = 0; j < threadCount; ++j) {
+			final int threadIndex = j;
+			Thread myThread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < callsPerThread; ++i) {
+						long duration = threadIndex * callsPerThread + i + 1;
+						stats.logStatistic(duration, i, i % 2 == 0,
+								i % 4 == 0, i % 10 != 0);
+					}
+				}
+			});
+			myThread.start();
+			threadList.add(myThread);
+		}
+
+		for (Thread thread : threadList) {
+			thread.join();
+		}
+
+		long callCount = threadCount * callsPerThread;
+		Assert.assertEquals(callCount, stats.getCallCount());
+		Assert.assertEquals(callCount / 10, stats.getErrorCallCount());
+		Assert.assertEquals(callCount / 2, stats.getCacheEnabledCallCount());
+		Assert.assertEquals(callCount / 4, stats.getCacheHitCount());
+		Assert.assertEquals(1, stats.getMinExecutionTime());
+		Assert.assertEquals(callCount, stats.getMaxExecutionTime());
+		Assert.assertEquals(0, stats.getMinResultSize());
+		Assert.assertEquals(callsPerThread - 1, stats.getMaxResultSize());
+		Assert.assertEquals(callCount * (callCount + 1) / 2,
+				stats.getSumExecutionTime(), callCount * callCount * 0.001);
+	}
+
+	@Test
+	public void testAggregateStatistics() {
+		OperationStatistics first = new OperationStatistics();
+		first.logStatistic(100, 10, true, false, true);
+		first.logStatistic(300, 30, false, false, false);
+		OperationStatistics second = new OperationStatistics();
+		second.logStatistic(50, 40, true, true, true);
+
+		OperationStatistics aggregate = new OperationStatistics();
+		aggregate.aggregateStatistics(first);
+		aggregate.aggregateStatistics(second);
+
+		Assert.assertEquals(3, aggregate.getCallCount());
+		Assert.assertEquals(1, aggregate.getErrorCallCount());
+		Assert.assertEquals(2, aggregate.getCacheEnabledCallCount());
+		Assert.assertEquals(1, aggregate.getCacheHitCount());
+		Assert.assertEquals(50, aggregate.getMinExecutionTime());
+		Assert.assertEquals(300, aggregate.getMaxExecutionTime());
+		Assert.assertEquals(450, aggregate.getSumExecutionTime(), 0.001);
+		Assert.assertEquals(10, aggregate.getMinResultSize());
+		Assert.assertEquals(40, aggregate.getMaxResultSize());
+		Assert.assertEquals(80, aggregate.getSumResultSize(), 0.001);
+	}
 }
@@ -17,9 +17,12 @@ package com.ibm.commerce.cache;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.junit.Assume;
 import org.junit.Test;
 
 public class TimeIntervalStatisticsAggregatorTest {
@@ -64,4 +67,326 @@ public class TimeIntervalStatisticsAggregatorTest {
 		assertEquals( callCount, statistics.getCallCount());
 	}
 
+	@Test
+	public void testPercentilesAggregatedAcrossIntervals() {
+		long intervalWidthInNanos = 10000000;
+		int intervalCount = 10;
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, intervalCount);
+
+		// 90 fast calls in the first interval, 10 slow calls in the next one
+		long firstInterval = 5 * intervalWidthInNanos;
+		for (int i = 0; i < 90; ++i) {
+			stats.getInterval(firstInterval).logStatistic(1000000, 0,
+					false, false, true);
+		}
+		long secondInterval = firstInterval + intervalWidthInNanos;
+		for (int i = 0; i < 10; ++i) {
+			stats.getInterval(secondInterval).logStatistic(100000000, 0,
+					false, false, true);
+		}
+
+		OperationStatistics statistics = stats.getStatisticsAtTime(
+				intervalCount * intervalWidthInNanos, false, secondInterval);
+
+		assertEquals(100, statistics.getCallCount());
+		assertEquals(100, statistics.getDurationHistogram().getTotalCount());
+		assertTrue(statistics.getDurationPercentile(50.0) < 2000000);
+		assertEquals(100000000, statistics.getDurationPercentile(95.0));
+	}
+
+	@Test
+	public void testIntervalsRecycled() {
+		long intervalWidthInNanos = 10000000;
+		int intervalCount = 4;
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, intervalCount);
+
+		OperationStatistics first = stats.getInterval(0);
+		first.logStatistic(1000000, 10, true, true, true);
+
+		// the interval replaced when time wraps around the array is reused
+		// and cleared by the next roll over.
+		long wrapped = intervalCount * intervalWidthInNanos;
+		assertNotSame(first, stats.getInterval(wrapped));
+		OperationStatistics recycled = stats.getInterval(wrapped
+				+ intervalWidthInNanos);
+		assertSame(first, recycled);
+		assertEquals(intervalCount + 1, recycled.getIndex());
+		assertEquals(0, recycled.getCallCount());
+		assertEquals(0, recycled.getDurationHistogram().getTotalCount());
+
+		// values older than the slot content are not kept.
+		OperationStatistics expired = stats.getInterval(0);
+		assertNotSame(recycled, expired);
+		expired.logStatistic(1000000, 10, true, true, true);
+		assertEquals(0, stats.getStatisticsAtTime(wrapped, false, wrapped)
+				.getCallCount());
+	}
+
+	/**
+	 * @return the thread allocation counter, skips the test when the JVM
+	 *         doesn't have one.
+	 */
+	private static com.sun.management.ThreadMXBean getAllocationBean() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported()
+				&& allocationBean.isThreadAllocatedMemoryEnabled());
+		return allocationBean;
+	}
+
+	@Test
+	public void testRolloverAllocation() {
+		com.sun.management.ThreadMXBean allocationBean = getAllocationBean();
+
+		long intervalWidthInNanos = 1000;
+		int intervalCount = 12;
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, intervalCount);
+		long threadId = Thread.currentThread().getId();
+
+		// every call rolls over to a new interval
+		int rolloverCount = 100000;
+		long time = 0;
+		for (int i = 0; i < rolloverCount; ++i) {
+			time += intervalWidthInNanos;
+			stats.getInterval(time).logStatistic(1000000, 10, true, false, true);
+		}
+
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < rolloverCount; ++i) {
+			time += intervalWidthInNanos;
+			stats.getInterval(time).logStatistic(1000000, 10, true, false, true);
+		}
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId)
+				- allocatedBefore;
+
+		// a new interval with its histogram is more than 2 kilobytes.
+		assertTrue("allocated " + allocated + " bytes for " + rolloverCount
+				+ " rollovers", allocated < 1024);
+	}
+
+	@Test
+	public void testFootprint() {
+		com.sun.management.ThreadMXBean allocationBean = getAllocationBean();
+		long threadId = Thread.currentThread().getId();
+		long intervalWidthInNanos = 1000;
+		int intervalCount = 12;
+		// load the classes before measuring.
+		new TimeIntervalStatisticsAggregator(intervalWidthInNanos,
+				intervalCount).getInterval(intervalWidthInNanos).logStatistic(
+				1000000, 10, true, false, true);
+
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		OperationStatistics emptyInterval = new OperationStatistics();
+		long emptyIntervalSize = allocationBean
+				.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		assertFalse(emptyInterval.getDurationHistogram().isAllocated());
+
+		allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		OperationStatistics interval = new OperationStatistics();
+		interval.logStatistic(1000000, 10, true, false, true);
+		long intervalSize = allocationBean.getThreadAllocatedBytes(threadId)
+				- allocatedBefore;
+		assertEquals(1, interval.getCallCount());
+		long baseline = (intervalCount + 1) * intervalSize;
+
+		// every slot rolled over once, the spare interval is allocated.
+		allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, intervalCount);
+		for (int i = 1; i <= 2 * intervalCount; ++i) {
+			stats.getInterval(i * intervalWidthInNanos).logStatistic(1000000,
+					10, true, false, true);
+		}
+		long footprint = allocationBean.getThreadAllocatedBytes(threadId)
+				- allocatedBefore;
+
+		// the slots with their histogram, the spare interval without one,
+		// plus the arrays. Keeping the spare histogram costs the baseline.
+		assertTrue("footprint " + footprint + " bytes, baseline " + baseline
+				+ " bytes", footprint <= baseline
+				- (intervalSize - emptyIntervalSize) + 512);
+		assertEquals(intervalCount, stats.getStatisticsAtTime(intervalCount
+				* intervalWidthInNanos, false, 2 * intervalCount
+				* intervalWidthInNanos).getCallCount());
+
+		// once idle for a lap, the aggregator doesn't hold any histogram.
+		long idleTime = 3 * intervalCount * intervalWidthInNanos;
+		for (int i = 1; i <= intervalCount; ++i) {
+			stats.getInterval(2 * intervalCount * intervalWidthInNanos + i
+					* intervalWidthInNanos);
+		}
+		List<OperationStatistics> intervals = stats.getIntervalsInRange(
+				intervalCount * intervalWidthInNanos, false, idleTime);
+		assertEquals(intervalCount, intervals.size());
+		for (OperationStatistics idleInterval : intervals) {
+			assertFalse(idleInterval.getDurationHistogram().isAllocated());
+		}
+	}
+
+	@Test
+	public void testIntervalCurrent() {
+		long intervalWidthInNanos = 10000000;
+		int intervalCount = 4;
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, intervalCount);
+
+		OperationStatistics first = stats.getInterval(0);
+		assertTrue(stats.isIntervalCurrent(first, 0));
+		assertFalse(stats.isIntervalCurrent(first, intervalCount
+				* intervalWidthInNanos));
+
+		// values recorded while the slot moves on are not kept.
+		long wrapped = intervalCount * intervalWidthInNanos;
+		OperationStatistics recycled = stats.getInterval(wrapped);
+		assertFalse(stats.isIntervalCurrent(first, 0));
+		assertTrue(stats.isIntervalCurrent(recycled, wrapped));
+		assertFalse(stats.isIntervalCurrent(stats.getInterval(0), 0));
+	}
+
+	@Test
+	public void testLiveWindowReads() {
+		long intervalWidthInNanos = 10000000;
+		int intervalCount = 12;
+		long windowDuration = 10 * intervalWidthInNanos;
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, intervalCount);
+
+		long time = 20 * intervalWidthInNanos;
+		for (int i = 0; i < 5; ++i) {
+			stats.getInterval(time + i * intervalWidthInNanos).logStatistic(
+					1000000 * (i + 1), 10, false, false, true);
+		}
+		long now = time + 4 * intervalWidthInNanos;
+
+		OperationStatistics statistics = stats.getStatisticsAtTime(
+				windowDuration, false, now);
+		assertEquals(5, statistics.getCallCount());
+		assertEquals(5000000, statistics.getMaxExecutionTime());
+
+		// reads of the same window share the statistics, they can't be
+		// changed.
+		assertSame(statistics,
+				stats.getStatisticsAtTime(windowDuration, false, now));
+		try {
+			statistics.logStatistic(90000000, 10, false, false, true);
+			fail("shared statistics modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			statistics.reset();
+			fail("shared statistics modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		assertEquals(5, statistics.getCallCount());
+		OperationStatistics completed = stats.getStatisticsAtTime(
+				windowDuration, true, now);
+		assertEquals(4, completed.getCallCount());
+		assertSame(completed,
+				stats.getStatisticsAtTime(windowDuration, true, now));
+
+		// values recorded in the current interval are seen right away, by
+		// the same statistics.
+		statistics = stats.getStatisticsAtTime(windowDuration, false, now);
+		stats.getInterval(now).logStatistic(9000000, 10, false, false, true);
+		assertSame(statistics,
+				stats.getStatisticsAtTime(windowDuration, false, now));
+		assertEquals(6, statistics.getCallCount());
+		assertEquals(9000000, statistics.getDurationPercentile(100.0));
+		OperationStatistics copy = new OperationStatistics();
+		copy.aggregateStatistics(statistics);
+		assertEquals(6, copy.getCallCount());
+		assertEquals(60, copy.getSumResultSizeAsLong());
+		statistics = stats.getStatisticsAtTime(windowDuration, false, now);
+		assertEquals(6, statistics.getCallCount());
+		assertEquals(9000000, statistics.getMaxExecutionTime());
+		assertEquals(1000000, statistics.getMinExecutionTime());
+
+		// intervals leave the window as it moves
+		long later = now + 9 * intervalWidthInNanos;
+		statistics = stats.getStatisticsAtTime(windowDuration, false, later);
+		assertEquals(3, statistics.getCallCount());
+		assertEquals(4000000, statistics.getMinExecutionTime());
+		assertEquals(4, stats.getStatisticsAtTime(windowDuration, true, later)
+				.getCallCount());
+	}
+
+	@Test
+	public void testLiveReadAllocation() {
+		com.sun.management.ThreadMXBean allocationBean = getAllocationBean();
+		long threadId = Thread.currentThread().getId();
+		long intervalWidthInNanos = 10000000;
+		long windowDuration = 10 * intervalWidthInNanos;
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, 12);
+		long now = 20 * intervalWidthInNanos;
+		stats.getInterval(now - intervalWidthInNanos).logStatistic(1000000,
+				10, false, false, true);
+		long callCount = 0;
+		for (int i = 0; i < 2; ++i) {
+			stats.getInterval(now).logStatistic(2000000, 10, false, false,
+					true);
+			callCount += stats.getStatisticsAtTime(windowDuration, false, now)
+					.getCallCount();
+		}
+
+		// reads between recordings don't aggregate the intervals again.
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < 1000; ++i) {
+			stats.getInterval(now).logStatistic(2000000, 10, false, false,
+					true);
+			OperationStatistics statistics = stats.getStatisticsAtTime(
+					windowDuration, false, now);
+			callCount += statistics.getCallCount()
+					+ statistics.getErrorCallCount()
+					+ statistics.getMaxExecutionTime()
+					+ statistics.getMinResultSize()
+					+ (long) statistics.getAverageDuration()
+					+ (long) statistics.getCacheHitPercentage();
+		}
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId)
+				- allocatedBefore;
+		assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+		assertEquals(1003, stats.getStatisticsAtTime(windowDuration, false,
+				now).getCallCount());
+		assertTrue(callCount > 0);
+	}
+
+	@Test
+	public void testLateRecords() {
+		long intervalWidthInNanos = 10000000;
+		int intervalCount = 12;
+		long windowDuration = 10 * intervalWidthInNanos;
+		TimeIntervalStatisticsAggregator stats = new TimeIntervalStatisticsAggregator(
+				intervalWidthInNanos, intervalCount);
+
+		long time = 20 * intervalWidthInNanos;
+		long now = time + 4 * intervalWidthInNanos;
+		assertTrue(stats.logStatistic(time, 1000000, 10, false, false, true, 1));
+		assertEquals(1, stats.getStatisticsAtTime(windowDuration, true, now)
+				.getCallCount());
+		assertEquals(1, stats.getStatisticsAtTime(windowDuration, false, now)
+				.getCallCount());
+
+		// values recorded in completed intervals are seen by the next reads
+		assertTrue(stats.logStatistic(time + intervalWidthInNanos, 2000000,
+				10, false, false, true, 2));
+		OperationStatistics statistics = stats.getStatisticsAtTime(
+				windowDuration, true, now);
+		assertEquals(3, statistics.getCallCount());
+		assertEquals(2000000, statistics.getMaxExecutionTime());
+		assertEquals(3, stats.getStatisticsAtTime(windowDuration, false, now)
+				.getCallCount());
+
+		// values of intervals that aren't tracked anymore are lost
+		assertFalse(stats.logStatistic(time - intervalCount
+				* intervalWidthInNanos, 1000000, 10, false, false, true, 1));
+		assertEquals(3, stats.getStatisticsAtTime(windowDuration, false, now)
+				.getCallCount());
+	}
 }
@@ -17,23 +17,40 @@ package com.ibm.logger;
 
 
 import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.management.InstanceNotFoundException;
+import javax.management.JMX;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.ibm.commerce.cache.CacheUtilities;
+import com.ibm.commerce.cache.CommonMetricProperties;
+import com.ibm.commerce.cache.OperationMetric;
+import com.ibm.logger.jmx.LogEntrySnapshot;
 import com.ibm.logger.jmx.PerformanceLoggerManagerMXBean;
+import com.ibm.logger.jmx.TaggedMetricSnapshot;
 import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+import com.ibm.logger.stats.AdaptiveSampler;
+import com.ibm.logger.stats.DeltaCursor;
+import com.ibm.logger.stats.LogEntryRecorder;
 import com.ibm.logger.stats.LogType;
+import com.ibm.logger.stats.MetricDelta;
+import com.ibm.logger.stats.PerformanceLogsSnapshot;
+import com.ibm.logger.stats.Tags;
 import com.ibm.logger.stats.TimeIntervalLogEntry;
 import com.ibm.logger.stats.TotalLogEntry;
 
@@ -71,6 +88,780 @@ public class PerformanceLoggerTest {
         System.out.println( "basicPerformanceTest total Time: " + ( System.currentTimeMillis() - start ) );
     }
 
+    @Test
+    public void testMetricHandle() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        MetricHandle handle = PerformanceLogger.handle( "HandleMetric", LogType.STATISTIC );
+        Assert.assertEquals( "HandleMetric", handle.getId() );
+
+        handle.increase( 100 );
+        handle.increase( 200, true );
+        handle.increase( 300, 10, true, true, false );
+        TimeIntervalLogEntryMXBean log = PerformanceLogger.getPerformanceLog( "HandleMetric" );
+        Assert.assertSame( log, handle.getEntry() );
+        Assert.assertEquals( 3, log.getCallCount() );
+        Assert.assertEquals( 1, log.getErrorCallCount() );
+        Assert.assertEquals( 1, log.getCacheHitCount() );
+
+        // values recorded by ID and through the handle end up in the same metric
+        PerformanceLogger.increase( "HandleMetric", 400 );
+        Assert.assertEquals( 4, log.getCallCount() );
+
+        // the handle re-binds itself after a clear
+        PerformanceLogger.clear();
+        handle.increase( 100 );
+        TimeIntervalLogEntryMXBean newLog = PerformanceLogger.getPerformanceLog( "HandleMetric" );
+        Assert.assertNotSame( log, newLog );
+        Assert.assertEquals( 1, newLog.getCallCount() );
+
+        // nothing is recorded while the logger is disabled
+        PerformanceLogger.setEnabled( false );
+        handle.increase( 100 );
+        PerformanceLogger.setEnabled( true );
+        Assert.assertEquals( 1, newLog.getCallCount() );
+    }
+
+    @Test
+    public void testMetricHandleSamplingDecision() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        MetricHandle handle = PerformanceLogger.handle( "HandleSampled", LogType.STATISTIC );
+
+        // the decision taken for the metric is kept for the gatherers.
+        OperationMetric metric = new OperationMetric();
+        metric.startOperation( "SampledMetric", false );
+        metric.stopOperation( 0, false, false );
+        handle.increase( metric );
+        Assert.assertEquals( 1, metric.getSampleWeight() );
+        Assert.assertEquals( 1, handle.getEntry().getCallCount() );
+
+        // a decision already taken by a gatherer is reused.
+        metric = new OperationMetric();
+        metric.startOperation( "SampledMetric", false );
+        metric.stopOperation( 0, false, false );
+        metric.setSampleWeight( 3 );
+        handle.increase( metric );
+        Assert.assertEquals( 4, handle.getEntry().getCallCount() );
+
+        metric.setSampleWeight( AdaptiveSampler.DROPPED );
+        handle.increase( metric );
+        Assert.assertEquals( 4, handle.getEntry().getCallCount() );
+        PerformanceLogger.clear();
+    }
+
+    @Test
+    public void testMetricHandleAfterCleanup() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        int loggerCountBeforeCleanup = PerformanceLogger.loggerCountBeforeCleanup;
+        try {
+            PerformanceLogger.loggerCountBeforeCleanup = 0;
+            MetricHandle handle = PerformanceLogger.handle( "HandleCleanup", null );
+            handle.increase( 100 );
+            TimeIntervalLogEntryMXBean log = handle.getEntry();
+
+            // first cleanup marks the entry as used, the second one removes it
+            long currentTimeMillis = System.currentTimeMillis();
+            PerformanceLogger.lastCheck.set( currentTimeMillis - 61 * 60 * 1000 );
+            PerformanceLogger.increase( "HandleCleanupTrigger", 1 );
+            PerformanceLogger.lastCheck.set( currentTimeMillis - 61 * 60 * 1000 );
+            PerformanceLogger.increase( "HandleCleanupTrigger", 1 );
+            Assert.assertNull( PerformanceLogger.getPerformanceLog( "HandleCleanup" ) );
+
+            handle.increase( 200 );
+            TimeIntervalLogEntryMXBean newLog = PerformanceLogger.getPerformanceLog( "HandleCleanup" );
+            Assert.assertNotNull( newLog );
+            Assert.assertNotSame( log, newLog );
+            Assert.assertEquals( 1, newLog.getCallCount() );
+        } finally {
+            PerformanceLogger.loggerCountBeforeCleanup = loggerCountBeforeCleanup;
+        }
+    }
+
+    @Test
+    public void testMetricHandleConcurrentRebind() throws InterruptedException {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        final MetricHandle handle = PerformanceLogger.handle( "HandleRebind", LogType.STATISTIC );
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int i = 0; i < 4; ++i ) {
+            Thread thread = new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    for ( int j = 0; j < 20000; ++j ) {
+                        handle.increase( 100 );
+                    }
+                }
+            } );
+            threads.add( thread );
+            thread.start();
+        }
+        // every clear makes the recording threads race to re-bind the handle.
+        for ( int i = 0; i < 200; ++i ) {
+            PerformanceLogger.clear();
+            Thread.yield();
+        }
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+
+        // the handle never stays bound to an entry that was removed.
+        handle.increase( 100 );
+        TimeIntervalLogEntryMXBean log = PerformanceLogger.getPerformanceLog( "HandleRebind" );
+        Assert.assertNotNull( log );
+        Assert.assertSame( log, handle.getEntry() );
+        PerformanceLogger.clear();
+    }
+
+    @Test
+    public void testMetricHandleInOverflow() {
+        PerformanceLogger.setEnabled( true );
+        int maximumEntryCount = PerformanceLogger.getMaximumEntryCount();
+        try {
+            PerformanceLogger.setMaximumEntryCount( 3 );
+            PerformanceLogger.clear();
+            for ( int i = 0; i < 3; ++i ) {
+                PerformanceLogger.increase( "DB:query" + i, 1 );
+            }
+            MetricHandle handle = PerformanceLogger.handle( "DB:hot", LogType.STATISTIC );
+            for ( int i = 0; i < 100; ++i ) {
+                handle.increase( 1 );
+            }
+            Assert.assertEquals( "DB:(other)", handle.getEntry().getId() );
+
+            // the calls through the handle make it a heavy hitter.
+            PerformanceLogger.increase( "DB:query1", 1 );
+            PerformanceLogger.increase( "DB:query2", 1 );
+            PerformanceLogger.performScheduledCleanup();
+            handle.increase( 1 );
+            Assert.assertEquals( "DB:hot", handle.getEntry().getId() );
+            Assert.assertEquals( 1, PerformanceLogger.getPerformanceLog( "DB:hot" ).getCallCount() );
+        }
+        finally {
+            PerformanceLogger.setMaximumEntryCount( maximumEntryCount );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMetricHandleEmptyId() {
+        PerformanceLogger.handle( "", LogType.STATISTIC );
+    }
+
+    /**
+     * @return a classloader holding a second copy of the performance logger,
+     *         as a separate web application would.
+     */
+    private static URLClassLoader newForeignClassLoader() {
+        URL location = PerformanceLogger.class.getProtectionDomain().getCodeSource().getLocation();
+        URL commonsLocation = StringUtils.class.getProtectionDomain().getCodeSource().getLocation();
+        return new URLClassLoader( new URL[] { location, commonsLocation },
+            ClassLoader.getSystemClassLoader().getParent() );
+    }
+
+    @Test
+    public void testSharedEntryAcrossClassLoaders() throws Exception {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        PerformanceLogger.increase( "SharedId", 1 );
+        PerformanceLogger.flushPendingRegistrations();
+
+        URLClassLoader loader = newForeignClassLoader();
+        try {
+            Class<?> foreignLogger = loader.loadClass( PerformanceLogger.class.getName() );
+            Assert.assertNotSame( PerformanceLogger.class, foreignLogger );
+            foreignLogger.getMethod( "setEnabled", boolean.class ).invoke( null, true );
+            Method increase = foreignLogger.getMethod( "increase", String.class, long.class );
+            for ( int i = 0; i < 10; ++i ) {
+                increase.invoke( null, "SharedId", 2 );
+            }
+
+            TimeIntervalLogEntryMXBean entry = PerformanceLogger.getOrCreateEntry( "SharedId", null );
+            Assert.assertEquals( 11, entry.getCallCount() );
+            Assert.assertEquals( 2, entry.getMaximumDuration() );
+
+            // once the owner removed the entry, the foreign classloader takes
+            // over a new one.
+            PerformanceLogger.clear();
+            increase.invoke( null, "SharedId", 3 );
+            foreignLogger.getMethod( "flushPendingRegistrations" ).invoke( null );
+            entry = PerformanceLogger.getOrCreateEntry( "SharedId", null );
+            Assert.assertEquals( 1, entry.getCallCount() );
+            Assert.assertEquals( 3, entry.getMaximumDuration() );
+            foreignLogger.getMethod( "clear" ).invoke( null );
+        }
+        finally {
+            PerformanceLogger.clear();
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testSharedEntryReadAcrossClassLoaders() throws Exception {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        PerformanceLogger.setIntervals( new long[] { 60000000000l } );
+        URLClassLoader loader = newForeignClassLoader();
+        try {
+            PerformanceLogger.increase( "SharedReadId", 1000000 );
+            PerformanceLogger.flushPendingRegistrations();
+            TotalLogEntry owned = (TotalLogEntry) PerformanceLogger.getOrCreateEntry( "SharedReadId", null );
+            String intervalName = owned.getIntervalStatistics().get( 0 ).getIntervalName();
+
+            // the foreign classloader reads the entry through the JMX bean of
+            // the owner.
+            Class<?> foreignLogger = loader.loadClass( PerformanceLogger.class.getName() );
+            foreignLogger.getMethod( "setEnabled", boolean.class ).invoke( null, true );
+            foreignLogger.getMethod( "increase", String.class, long.class ).invoke( null, "SharedReadId", 3000000 );
+            Object entry = foreignLogger.getMethod( "getPerformanceLog", String.class ).invoke( null, "SharedReadId" );
+            Assert.assertEquals( "SharedLogEntry", entry.getClass().getSimpleName() );
+
+            Class<?> foreignView = loader.loadClass( TimeIntervalLogEntryMXBean.class.getName() );
+            Object snapshot = foreignView.getMethod( "getSnapshot" ).invoke( entry );
+            Assert.assertEquals( 2L, snapshot.getClass().getMethod( "getCallCount" ).invoke( snapshot ) );
+            Assert.assertEquals( 3000000L, snapshot.getClass().getMethod( "getMaximumDuration" ).invoke( snapshot ) );
+
+            Object interval = foreignView.getMethod( "getMetricByIntervalName", String.class ).invoke( entry,
+                intervalName );
+            Assert.assertEquals( intervalName, foreignView.getMethod( "getIntervalName" ).invoke( interval ) );
+
+            Object columns = foreignLogger.getMethod( "snapshot", String.class ).invoke( null, intervalName );
+            Assert.assertEquals( 1, columns.getClass().getMethod( "size" ).invoke( columns ) );
+            String csv = (String) foreignLogger.getMethod( "dumpPerformanceLogsCsvToString" ).invoke( null );
+            Assert.assertTrue( csv, csv.contains( "SharedReadId" ) );
+            foreignLogger.getMethod( "clear" ).invoke( null );
+        }
+        finally {
+            PerformanceLogger.setIntervals( new long[0] );
+            PerformanceLogger.clear();
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testMaximumEntryCount() {
+        PerformanceLogger.setEnabled( true );
+        int maximumEntryCount = PerformanceLogger.getMaximumEntryCount();
+        try {
+            PerformanceLogger.setMaximumEntryCount( 5 );
+            PerformanceLogger.clear();
+            for ( int i = 0; i < 5; ++i ) {
+                PerformanceLogger.increase( "DB:query" + i, 1 );
+            }
+
+            // new operations are recorded in the overflow entry of their layer
+            for ( int i = 0; i < 50; ++i ) {
+                PerformanceLogger.increase( "DB:rare" + i, 1 );
+            }
+            for ( int i = 0; i < 100; ++i ) {
+                PerformanceLogger.increase( "DB:hot", 1 );
+            }
+            PerformanceLogger.increase( "rare", 1 );
+
+            Map<String, TimeIntervalLogEntryMXBean> logs = PerformanceLogger.getPerformanceLogs();
+            Assert.assertEquals( 7, logs.size() );
+            Assert.assertNull( logs.get( "DB:hot" ) );
+            Assert.assertEquals( 150, logs.get( "DB:(other)" ).getCallCount() );
+            Assert.assertEquals( 1, logs.get( "(other)" ).getCallCount() );
+
+            // the cleanup gives the most called operation a log entry and
+            // folds the least called one in the overflow entry.
+            PerformanceLogger.increase( "DB:query1", 1 );
+            PerformanceLogger.increase( "DB:query2", 1 );
+            PerformanceLogger.increase( "DB:query3", 1 );
+            PerformanceLogger.increase( "DB:query4", 1 );
+            PerformanceLogger.performScheduledCleanup();
+            PerformanceLogger.increase( "DB:hot", 1 );
+
+            logs = PerformanceLogger.getPerformanceLogs();
+            Assert.assertEquals( 7, logs.size() );
+            Assert.assertNull( logs.get( "DB:query0" ) );
+            Assert.assertEquals( 1, logs.get( "DB:hot" ).getCallCount() );
+            Assert.assertEquals( 151, logs.get( "DB:(other)" ).getCallCount() );
+        }
+        finally {
+            PerformanceLogger.setMaximumEntryCount( maximumEntryCount );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testStableHeavyHitters() {
+        PerformanceLogger.setEnabled( true );
+        int maximumEntryCount = PerformanceLogger.getMaximumEntryCount();
+        try {
+            PerformanceLogger.setMaximumEntryCount( 2 );
+            PerformanceLogger.clear();
+            TimeIntervalLogEntryMXBean hot = null;
+            TimeIntervalLogEntryMXBean warm = null;
+            for ( int round = 0; round < 6; ++round ) {
+                for ( int i = 0; i < 3; ++i ) {
+                    PerformanceLogger.increase( "DB:cold", 1 );
+                }
+                for ( int i = 0; i < 10; ++i ) {
+                    PerformanceLogger.increase( "DB:hot", 1 );
+                }
+                for ( int i = 0; i < 4; ++i ) {
+                    PerformanceLogger.increase( "DB:warm", 1 );
+                }
+                PerformanceLogger.performScheduledCleanup();
+
+                // the warm operation replaces the cold one once, the calls of
+                // each cleanup period are compared so it stays.
+                Map<String, TimeIntervalLogEntryMXBean> logs = PerformanceLogger.getPerformanceLogs();
+                Assert.assertNull( logs.get( "DB:cold" ) );
+                if ( round == 0 ) {
+                    hot = logs.get( "DB:hot" );
+                    warm = logs.get( "DB:warm" );
+                    Assert.assertNotNull( warm );
+                }
+                Assert.assertSame( hot, logs.get( "DB:hot" ) );
+                Assert.assertSame( warm, logs.get( "DB:warm" ) );
+            }
+            Assert.assertEquals( 60, hot.getCallCount() );
+            Assert.assertEquals( 20, warm.getCallCount() );
+            Assert.assertEquals( 22, PerformanceLogger.getPerformanceLog( "DB:(other)" ).getCallCount() );
+        }
+        finally {
+            PerformanceLogger.setMaximumEntryCount( maximumEntryCount );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testMaximumEntryCountWithThreadShards() {
+        PerformanceLogger.setEnabled( true );
+        int maximumEntryCount = PerformanceLogger.getMaximumEntryCount();
+        boolean threadShards = PerformanceLogger.isThreadShards();
+        try {
+            PerformanceLogger.setThreadShards( true );
+            PerformanceLogger.setMaximumEntryCount( 2 );
+            PerformanceLogger.clear();
+            PerformanceLogger.increase( "DB:query0", 1 );
+            for ( int i = 0; i < 3; ++i ) {
+                PerformanceLogger.increase( "DB:query1", 1 );
+            }
+            for ( int i = 0; i < 100; ++i ) {
+                PerformanceLogger.increase( "DB:hot", 1 );
+            }
+
+            // the evicted entry is folded in the overflow entry, time
+            // intervals included.
+            PerformanceLogger.performScheduledCleanup();
+            Map<String, TimeIntervalLogEntryMXBean> logs = PerformanceLogger.getPerformanceLogs();
+            Assert.assertNull( logs.get( "DB:query0" ) );
+            Assert.assertNotNull( logs.get( "DB:hot" ) );
+            TotalLogEntry overflow = (TotalLogEntry) logs.get( "DB:(other)" );
+            Assert.assertTrue( overflow.isThreadShards() );
+            Assert.assertEquals( 101, overflow.getCallCount() );
+            for ( TimeIntervalLogEntry interval : overflow.getIntervalStatistics() ) {
+                Assert.assertEquals( 101, interval.getStatistics( false ).getCallCount() );
+            }
+        }
+        finally {
+            PerformanceLogger.setMaximumEntryCount( maximumEntryCount );
+            PerformanceLogger.setThreadShards( threadShards );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testGetOverflowId() {
+        Assert.assertEquals( "(other)", PerformanceLogger.getOverflowId( "query" ) );
+        Assert.assertEquals( "(other)", PerformanceLogger.getOverflowId( " :query" ) );
+        Assert.assertEquals( "DB:(other)", PerformanceLogger.getOverflowId( "DB:query" ) );
+        Assert.assertEquals( "DB:(other)", PerformanceLogger.getOverflowId( " DB :query" ) );
+        Assert.assertEquals( "DBX:(other)", PerformanceLogger.getOverflowId( "DBX:query" ) );
+        Assert.assertEquals( "D:(other)", PerformanceLogger.getOverflowId( "D:query" ) );
+
+        // the identifier of a layer is built once.
+        Assert.assertSame( PerformanceLogger.getOverflowId( "DB:first" ), PerformanceLogger.getOverflowId( "DB:second" ) );
+    }
+
+    @Test
+    public void testSamplingBudget() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        PerformanceLoggerManagerMXBean manager = JMX.newMBeanProxy( ManagementFactory.getPlatformMBeanServer(),
+            PerformanceLoggerManager.getObjectName(), PerformanceLoggerManagerMXBean.class );
+        long slowThreshold = manager.getSamplingSlowThresholdInMillisecond();
+        try {
+            manager.setSamplingBudget( 10 );
+            manager.setSamplingSlowThresholdInMillisecond( 5 );
+            Assert.assertEquals( 10, PerformanceLogger.getSamplingBudget() );
+            Assert.assertEquals( 5, PerformanceLogger.getSamplingSlowThresholdInMillisecond() );
+
+            // failed and slow calls are never sampled out.
+            for ( int i = 0; i < 500; ++i ) {
+                PerformanceLogger.increase( "SampledId", 100, true );
+                PerformanceLogger.increase( "SampledId", 5000000, false );
+            }
+            TimeIntervalLogEntryMXBean entry = PerformanceLogger.getPerformanceLogs().get( "SampledId" );
+            Assert.assertEquals( 1000, entry.getCallCount() );
+            Assert.assertEquals( 500, entry.getErrorCallCount() );
+
+            OperationMetric metric = new OperationMetric();
+            metric.startOperation( "SampledMetric", false );
+            metric.stopOperation( 0, false, false );
+            Assert.assertEquals( 1, PerformanceLogger.sample( metric ) );
+            Assert.assertEquals( 1, metric.getSampleWeight() );
+            Assert.assertNull( metric.getProperty( CommonMetricProperties.SAMPLE_WEIGHT ) );
+        }
+        finally {
+            manager.setSamplingBudget( 0 );
+            manager.setSamplingSlowThresholdInMillisecond( slowThreshold );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testTaggedMetrics() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        PerformanceLoggerManagerMXBean manager = JMX.newMXBeanProxy( ManagementFactory.getPlatformMBeanServer(),
+            PerformanceLoggerManager.getObjectName(), PerformanceLoggerManagerMXBean.class );
+        try {
+            Tags tenantA = Tags.of( "tenant", "a" );
+            PerformanceLogger.increase( "TaggedId", tenantA, 1000000, false );
+            PerformanceLogger.increase( "TaggedId", Tags.of( "tenant", "b" ), 3000000, true );
+            PerformanceLogger.increase( "OtherTaggedId", tenantA, 2000000, false );
+
+            // tagged calls are also recorded under the operation.
+            Assert.assertEquals( 2, PerformanceLogger.getPerformanceLog( "TaggedId" ).getCallCount() );
+
+            Assert.assertTrue( Arrays.asList( manager.getTagDimensions() ).contains( "tenant" ) );
+            List<TaggedMetricSnapshot> tenants = manager.aggregateTaggedMetrics( "tenant" );
+            Assert.assertEquals( 2, tenants.size() );
+            Assert.assertEquals( "{tenant=a}", tenants.get( 0 ).getName() );
+            Assert.assertEquals( 2, tenants.get( 0 ).getCallCount() );
+            Assert.assertEquals( 3000000, tenants.get( 0 ).getTotalDuration() );
+            Assert.assertEquals( 1, tenants.get( 1 ).getErrorCallCount() );
+
+            Assert.assertEquals( 3, manager.aggregateTaggedMetrics( "" ).size() );
+            Assert.assertEquals( 3, manager.aggregateTaggedMetrics( "operation, tenant" ).size() );
+
+            String csv = PerformanceLogger.dumpPerformanceLogsCsvToString();
+            Assert.assertTrue( csv, csv.contains( "TaggedId{tenant=a},1,1.000,1,1,1.000,,,,,,0,,,," ) );
+
+            PerformanceLogger.setCsvTagDimensions( "tenant" );
+            csv = PerformanceLogger.dumpPerformanceLogsCsvToString();
+            Assert.assertTrue( csv, csv.contains( "{tenant=a},2," ) );
+        }
+        finally {
+            PerformanceLogger.setCsvTagDimensions( "" );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testCsvCountLimit() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        int csvPrintCountLimit = PerformanceLogger.csvPrintCountLimit;
+        try {
+            PerformanceLogger.csvPrintCountLimit = 1;
+            PerformanceLogger.increase( "TaggedId", Tags.of( "tenant", "a" ), 1000000, false );
+            PerformanceLogger.increase( "OtherTaggedId", Tags.of( "tenant", "a" ), 1000000, false );
+
+            // the tagged rows are skipped once the limit is reached.
+            String csv = PerformanceLogger.dumpPerformanceLogsCsvToString();
+            Assert.assertEquals( csv, 2, csv.split( "\\r?\\n" ).length );
+            Assert.assertFalse( csv, csv.contains( "{tenant=a}" ) );
+        }
+        finally {
+            PerformanceLogger.csvPrintCountLimit = csvPrintCountLimit;
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testTaggedCsvWithInterval() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        String csvPrintIntervalName = PerformanceLogger.csvPrintIntervalName;
+        try {
+            PerformanceLogger.csvPrintIntervalName = "1m";
+            PerformanceLogger.increase( "TaggedId", Tags.of( "tenant", "a" ), 1000000, false );
+
+            // the tagged rows have as many columns as the header.
+            String[] lines = PerformanceLogger.dumpPerformanceLogsCsvToString().split( "\\r?\\n" );
+            Assert.assertEquals( 3, lines.length );
+            int columns = lines[0].split( ",", -1 ).length;
+            Assert.assertTrue( lines[2], lines[2].startsWith( "TaggedId{tenant=a}," ) );
+            Assert.assertEquals( lines[2], columns, lines[2].split( ",", -1 ).length );
+        }
+        finally {
+            PerformanceLogger.csvPrintIntervalName = csvPrintIntervalName;
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testSnapshotThroughJmx() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        PerformanceLogger.increase( "SnapshotId", 100 );
+        PerformanceLogger.increase( "SnapshotId", 300, true );
+        PerformanceLogger.flushPendingRegistrations();
+
+        ObjectName name = PerformanceLogger.channelMXBeanName( "SnapshotId", PerformanceLogger.TOTAL_INTERVAL_NAME,
+            "TotalLogEntry" );
+        TimeIntervalLogEntryMXBean proxy = JMX.newMXBeanProxy( ManagementFactory.getPlatformMBeanServer(), name,
+            TimeIntervalLogEntryMXBean.class );
+        LogEntrySnapshot snapshot = proxy.getSnapshot();
+        Assert.assertEquals( "SnapshotId", snapshot.getId() );
+        Assert.assertEquals( 2, snapshot.getCallCount() );
+        Assert.assertEquals( 1, snapshot.getErrorCallCount() );
+        Assert.assertEquals( 100, snapshot.getMinimumDuration() );
+        Assert.assertEquals( 300, snapshot.getMaximumDuration() );
+        PerformanceLogger.clear();
+    }
+
+    @Test
+    public void testColumnarSnapshot() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        try {
+            PerformanceLogger.increase( "ColumnId", 1000000 );
+            PerformanceLogger.increase( "ColumnId", 3000000, true );
+            PerformanceLogger.increase( "OtherColumnId", 2000000 );
+
+            PerformanceLogsSnapshot snapshot = PerformanceLogger.snapshot( null );
+            Assert.assertEquals( PerformanceLogger.TOTAL_INTERVAL_NAME, snapshot.getIntervalName() );
+            Assert.assertEquals( 2, snapshot.size() );
+
+            int row = snapshot.indexOf( "ColumnId" );
+            Assert.assertEquals( "ColumnId", snapshot.getId( row ) );
+            Assert.assertEquals( 2, snapshot.getCallCount( row ) );
+            Assert.assertEquals( 1, snapshot.getErrorCallCount( row ) );
+            Assert.assertEquals( 4000000, snapshot.getTotalDuration( row ), 0.0 );
+            Assert.assertEquals( 2000000, snapshot.getAverageDuration( row ), 0.0 );
+            Assert.assertEquals( 1000000, snapshot.getMinimumDuration( row ) );
+            Assert.assertEquals( 3000000, snapshot.getMaximumDuration( row ) );
+            Assert.assertEquals( -1, snapshot.indexOf( "MissingId" ) );
+
+            // the columns are copies of the immutable snapshot.
+            long[] callCounts = snapshot.getCallCounts();
+            Assert.assertEquals( 2, callCounts.length );
+            callCounts[row] = 0;
+            Assert.assertEquals( 2, snapshot.getCallCount( row ) );
+
+            // later calls don't change a captured snapshot.
+            PerformanceLogger.increase( "ColumnId", 1000000 );
+            Assert.assertEquals( 2, snapshot.getCallCount( row ) );
+            PerformanceLogsSnapshot next = PerformanceLogger.snapshot( PerformanceLogger.TOTAL_INTERVAL_NAME );
+            Assert.assertEquals( 3, next.getCallCount( next.indexOf( "ColumnId" ) ) );
+
+            Assert.assertEquals( 0, PerformanceLogger.snapshot( "UnknownInterval" ).size() );
+        }
+        finally {
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testDeltaCursor() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        try {
+            DeltaCursor cursor = PerformanceLogger.getDeltaCursor( "testExporter" );
+            Assert.assertSame( cursor, PerformanceLogger.getDeltaCursor( "testExporter" ) );
+            Assert.assertTrue( PerformanceLogger.getDeltaCursorNames().contains( "testExporter" ) );
+
+            PerformanceLogger.increase( "DeltaId", 1000 );
+            PerformanceLogger.increase( "DeltaId", 2000 );
+            List<MetricDelta> deltas = cursor.read();
+            Assert.assertEquals( 1, deltas.size() );
+            Assert.assertEquals( 2, deltas.get( 0 ).getCallCount() );
+            Assert.assertEquals( 3000, deltas.get( 0 ).getTotalDuration() );
+
+            PerformanceLogger.increase( "DeltaId", 4000 );
+            Assert.assertEquals( 4000, cursor.read().get( 0 ).getTotalDuration() );
+            Assert.assertTrue( cursor.read().isEmpty() );
+
+            // another exporter starts from the totals.
+            Assert.assertEquals( 3, PerformanceLogger.getDeltaCursor( "otherExporter" ).read().get( 0 ).getCallCount() );
+        }
+        finally {
+            Assert.assertTrue( PerformanceLogger.removeDeltaCursor( "testExporter" ) );
+            Assert.assertFalse( PerformanceLogger.removeDeltaCursor( "testExporter" ) );
+            PerformanceLogger.removeDeltaCursor( "otherExporter" );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test( expected = IndexOutOfBoundsException.class )
+    public void testColumnarSnapshotRowOutOfBounds() {
+        PerformanceLogger.clear();
+        PerformanceLogger.snapshot( null ).getCallCount( 0 );
+    }
+
+    @Test
+    public void testScheduler() {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        boolean wasRunning = PerformanceLoggerManager.stopScheduler();
+        int loggerCountBeforeCleanup = PerformanceLogger.loggerCountBeforeCleanup;
+        try {
+            Assert.assertTrue( PerformanceLoggerManager.startScheduler() );
+            Assert.assertFalse( PerformanceLoggerManager.startScheduler() );
+            Assert.assertTrue( PerformanceLoggerManager.getManager().isSchedulerEnabled() );
+            Assert.assertTrue( PerformanceLogger.isHousekeepingScheduled() );
+
+            boolean foundDaemonThread = false;
+            for ( Thread thread : Thread.getAllStackTraces().keySet() ) {
+                if ( thread.getName().equals( "PerformanceLogger scheduler" ) ) {
+                    foundDaemonThread = thread.isDaemon();
+                }
+            }
+            Assert.assertTrue( foundDaemonThread );
+
+            // recording threads no longer perform the cleanup when it is due
+            PerformanceLogger.loggerCountBeforeCleanup = 0;
+            PerformanceLogger.increase( "SchedulerInactive", 1 );
+            long overdue = System.currentTimeMillis() - 61 * 60 * 1000;
+            PerformanceLogger.lastCheck.set( overdue );
+            PerformanceLogger.increase( "SchedulerActive", 1 );
+            Assert.assertEquals( overdue, PerformanceLogger.lastCheck.get() );
+
+            // the scheduled cleanup removes the unused entries
+            PerformanceLogger.performScheduledCleanup();
+            PerformanceLogger.increase( "SchedulerActive", 1 );
+            PerformanceLogger.performScheduledCleanup();
+            Assert.assertNull( PerformanceLogger.getPerformanceLog( "SchedulerInactive" ) );
+            Assert.assertNotNull( PerformanceLogger.getPerformanceLog( "SchedulerActive" ) );
+            Assert.assertTrue( PerformanceLogger.lastCheck.get() > overdue );
+
+            Assert.assertTrue( PerformanceLoggerManager.stopScheduler() );
+            Assert.assertFalse( PerformanceLoggerManager.stopScheduler() );
+            Assert.assertFalse( PerformanceLoggerManager.getManager().isSchedulerEnabled() );
+            Assert.assertFalse( PerformanceLogger.isHousekeepingScheduled() );
+        } finally {
+            PerformanceLogger.loggerCountBeforeCleanup = loggerCountBeforeCleanup;
+            PerformanceLoggerManager.stopScheduler();
+            if ( wasRunning ) {
+                PerformanceLoggerManager.startScheduler();
+            }
+        }
+    }
+
+    @Test
+    public void testAsynchronousRegistration() throws Exception {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try {
+            PerformanceLogger.setAsynchronousRegistration( true );
+
+            // the entry is usable before it is registered
+            PerformanceLogger.increase( "AsyncRegistration", 123 );
+            TimeIntervalLogEntryMXBean log = PerformanceLogger.getPerformanceLog( "AsyncRegistration" );
+            Assert.assertNotNull( log );
+            Assert.assertEquals( 1, log.getCallCount() );
+
+            ObjectName beanName = PerformanceLogger.channelMXBeanName( "AsyncRegistration",
+                PerformanceLogger.TOTAL_INTERVAL_NAME, TotalLogEntry.class );
+            long timeout = System.currentTimeMillis() + 10000;
+            while ( !mbs.isRegistered( beanName ) && System.currentTimeMillis() < timeout ) {
+                Thread.sleep( 10 );
+            }
+            Assert.assertTrue( mbs.isRegistered( beanName ) );
+            Assert.assertSame( log, PerformanceLogger.getPerformanceLog( "AsyncRegistration" ) );
+            Assert.assertEquals( 1L, mbs.getAttribute( beanName, "CallCount" ) );
+
+            // entries that are cleared before registration are never registered
+            PerformanceLogger.increase( "AsyncCleared", 123 );
+            PerformanceLogger.clear();
+            PerformanceLogger.flushPendingRegistrations();
+            Assert.assertFalse( mbs.isRegistered( PerformanceLogger.channelMXBeanName( "AsyncCleared",
+                PerformanceLogger.TOTAL_INTERVAL_NAME, TotalLogEntry.class ) ) );
+        }
+        finally {
+            PerformanceLogger.setAsynchronousRegistration( false );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testMergePendingLogEntry() {
+        TotalLogEntry pending = new TotalLogEntry( "MergePending", null, false );
+        pending.addValue( 1000, 10, true, true, false );
+        pending.addValue( 25000, 20, true, false, true );
+        pending.addValue( 25100, 30, false, false, false, 5 );
+        pending.addValue( 900000, 40, false, false, true );
+
+        // an entry of another classloader only takes values through its recorder.
+        TotalLogEntry owner = new TotalLogEntry( "MergePending", null, false );
+        owner.addValue( 5000 );
+        PerformanceLogger.mergePendingLogEntry( pending,
+            new SharedLogEntry( "MergePending", new LogEntryRecorder( owner ), owner ) );
+        Assert.assertEquals( 9, owner.getCallCount() );
+        Assert.assertEquals( 2, owner.getErrorCallCount() );
+        Assert.assertEquals( 2, owner.getCacheEnabledCount() );
+        Assert.assertEquals( 1, owner.getCacheHitCount() );
+        Assert.assertEquals( 1000, owner.getMinimumDuration() );
+        Assert.assertEquals( 900000, owner.getMaximumDuration() );
+
+        // an entry of the same classloader is aggregated.
+        TotalLogEntry registered = new TotalLogEntry( "MergePending", null, false );
+        PerformanceLogger.mergePendingLogEntry( pending, registered );
+        Assert.assertEquals( 8, registered.getCallCount() );
+        Assert.assertEquals( 1000, registered.getMinimumDuration() );
+    }
+
+    @Test
+    public void testConcurrentEntryCreation() throws Exception {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        final int idCount = 500;
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; ++t ) {
+            Thread thread = new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < idCount; ++i ) {
+                        PerformanceLogger.increase( "ConcurrentCreation." + i, 1 );
+                    }
+                }
+            } );
+            thread.start();
+            threads.add( thread );
+        }
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+        PerformanceLogger.flushPendingRegistrations();
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for ( int i = 0; i < idCount; ++i ) {
+            String id = "ConcurrentCreation." + i;
+            Assert.assertEquals( 8, PerformanceLogger.getPerformanceLog( id ).getCallCount() );
+            Assert.assertTrue( mbs.isRegistered( PerformanceLogger.channelMXBeanName( id,
+                PerformanceLogger.TOTAL_INTERVAL_NAME, TotalLogEntry.class ) ) );
+        }
+        PerformanceLogger.clear();
+    }
+
+    @Test
+    public void testRecursiveStartLogging() throws InterruptedException {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        PerformanceLogger.startLogging( "Recursive" );
+        Thread.sleep( 10 );
+        PerformanceLogger.startLogging( "Recursive" );
+        Thread.sleep( 10 );
+        Assert.assertTrue( PerformanceLogger.stopLogging( "Recursive" ) );
+        Assert.assertTrue( PerformanceLogger.stopLogging( "Recursive" ) );
+        Assert.assertFalse( PerformanceLogger.stopLogging( "Recursive" ) );
+
+        TimeIntervalLogEntryMXBean log = PerformanceLogger.getPerformanceLog( "Recursive" );
+        Assert.assertEquals( 2, log.getCallCount() );
+        // the outer call includes the inner call
+        Assert.assertTrue( log.getMinimumDuration() >= 10000000 );
+        Assert.assertTrue( log.getMaximumDuration() >= 20000000 );
+    }
+
 //    @Test
 //    public void test50SessonMetric() {
 //        runThreaded( "50 Session : Type Metric", 50, 100000, LogType.METRIC );
@@ -218,6 +1009,7 @@ public class PerformanceLoggerTest {
 
 		long currentTimeMillis = System.currentTimeMillis();
 		PerformanceLogger.lastCheck.set(currentTimeMillis);
+		PerformanceLogger.flushPendingRegistrations();
 
 		mbs.getMBeanInfo(activeBeanName);
 		mbs.getMBeanInfo(inactiveBeanName);
@@ -227,6 +1019,7 @@ public class PerformanceLoggerTest {
 		TimeIntervalLogEntryMXBean dummyEntry = PerformanceLogger.getOrCreateEntry("dummy",
 				"metric");
 		dummyEntry.addValue(123);
+		PerformanceLogger.flushPendingRegistrations();
 		mbs.getMBeanInfo(activeBeanName);
 		mbs.getMBeanInfo(inactiveBeanName);
 		mbs.getMBeanInfo(activeBeanNameInterval);
@@ -362,39 +1155,79 @@ public class PerformanceLoggerTest {
     @Test
     public void testMultipleJVMUsingTheSameLogEntry()
     {
-
+        PerformanceLogger.setEnabled( true );
         String id = "random";
-        TimeIntervalLogEntryMXBean firstGet = PerformanceLogger.getOrCreateLogEntryOnCacheMiss(id);
-        TimeIntervalLogEntryMXBean secondGet = PerformanceLogger.getOrCreateLogEntryOnCacheMiss(id);
-        Assert.assertNotSame(firstGet, secondGet);
+        TimeIntervalLogEntryMXBean firstGet = PerformanceLogger.getOrCreateEntry( id, null );
+        PerformanceLogger.flushPendingRegistrations();
 
-        firstGet.addValue(123);
-        Assert.assertEquals(1, firstGet.getCallCount());
-        Assert.assertEquals(1, secondGet.getCallCount());
-        firstGet.addValue(123);
-        Assert.assertEquals(2, firstGet.getCallCount());
-        Assert.assertEquals(2, secondGet.getCallCount());
+        // another classloader finds the registered bean.
+        ObjectName channelMXBeanName = PerformanceLogger.channelMXBeanName( id, "total", "TotalLogEntry" );
+        TimeIntervalLogEntryMXBean secondGet = PerformanceLogger.fetchRegisteredPerformanceLogger( channelMXBeanName );
+        Assert.assertNotNull( secondGet );
+        Assert.assertNotSame( firstGet, secondGet );
+
+        long callCount = firstGet.getCallCount();
+        firstGet.addValue( 123 );
+        Assert.assertEquals( callCount + 1, firstGet.getCallCount() );
+        Assert.assertEquals( callCount + 1, secondGet.getCallCount() );
+        firstGet.addValue( 123 );
+        Assert.assertEquals( callCount + 2, firstGet.getCallCount() );
+        Assert.assertEquals( callCount + 2, secondGet.getCallCount() );
     }
-    
+
     @Test
-    public void testMultipleJVMRegisteringTheSameLogger()
+    public void testMultipleJVMRegisteringTheSameLogger() throws Exception
     {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
         String id = "random1";
-        ObjectName channelMXBeanName = PerformanceLogger.channelMXBeanName(id, "total", "TotalLogEntry");
-        
-        TimeIntervalLogEntryMXBean fetch1 = PerformanceLogger.fetchRegisteredPerformanceLogger(channelMXBeanName);
-        Assert.assertNull(fetch1);
-        
-        // first class loader registers first
-        TimeIntervalLogEntryMXBean firstGet = PerformanceLogger.registerNewLogger(id, channelMXBeanName);
-        // second class loader should attempt to reload the first on failure.
-        TimeIntervalLogEntryMXBean secondGet = PerformanceLogger.registerNewLogger(id, channelMXBeanName);
-
-        Assert.assertNotNull(firstGet);
-        Assert.assertNotNull(secondGet);
-        Assert.assertNotSame(firstGet, secondGet);
+        ObjectName channelMXBeanName = PerformanceLogger.channelMXBeanName( id, "total", "TotalLogEntry" );
+
+        TimeIntervalLogEntryMXBean fetch1 = PerformanceLogger.fetchRegisteredPerformanceLogger( channelMXBeanName );
+        Assert.assertNull( fetch1 );
+
+        // another class loader registers the logger first
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        TotalLogEntry foreignEntry = new TotalLogEntry( id, null );
+        mbs.registerMBean( foreignEntry, channelMXBeanName );
+        try {
+            // this class loader records into the registered logger
+            TimeIntervalLogEntryMXBean firstGet = PerformanceLogger.getOrCreateEntry( id, null );
+            PerformanceLogger.flushPendingRegistrations();
+            TimeIntervalLogEntryMXBean secondGet = PerformanceLogger.getOrCreateEntry( id, null );
+            Assert.assertNotNull( firstGet );
+            Assert.assertNotSame( foreignEntry, firstGet );
+            Assert.assertSame( firstGet, secondGet );
+
+            firstGet.addValue( 123 );
+            Assert.assertEquals( 1, foreignEntry.getCallCount() );
+        }
+        finally {
+            mbs.unregisterMBean( channelMXBeanName );
+            PerformanceLogger.clear();
+        }
     }
-    
+
+    @Test
+    public void testSynchronousRegistration()
+    {
+        PerformanceLogger.setEnabled( true );
+        PerformanceLogger.clear();
+        try {
+            // synchronous unless configured otherwise.
+            Assert.assertFalse( PerformanceLogger.isAsynchronousRegistration() );
+
+            // registered before the call returns, without the background thread
+            PerformanceLogger.increase( "SyncRegistration", 123 );
+            Assert.assertTrue( ManagementFactory.getPlatformMBeanServer().isRegistered(
+                PerformanceLogger.channelMXBeanName( "SyncRegistration", PerformanceLogger.TOTAL_INTERVAL_NAME,
+                    TotalLogEntry.class ) ) );
+        }
+        finally {
+            PerformanceLogger.clear();
+        }
+    }
+
     @Test
     public void testPrintToString()
     {
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.JMX;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.ibm.commerce.cache.OperationMetric;
+import com.ibm.logger.jmx.ProfilerOverheadMXBean;
+
+public class ProfilerOverheadTest {
+
+    private static ProfilerOverheadMXBean getBean() {
+        // loading the class registers the bean.
+        ProfilerOverhead.getSamplingInterval();
+        return JMX.newMXBeanProxy( ManagementFactory.getPlatformMBeanServer(), ProfilerOverhead.getObjectName(),
+            ProfilerOverheadMXBean.class );
+    }
+
+    @Test
+    public void testOverheadThroughJmx() {
+        ProfilerOverheadMXBean bean = getBean();
+        int samplingInterval = bean.getSamplingInterval();
+        boolean enabled = PerformanceLogger.isEnabled();
+        try {
+            bean.setSamplingInterval( 1 );
+            bean.reset();
+            PerformanceLogger.setEnabled( true );
+
+            for ( int i = 0; i < 100; ++i ) {
+                PerformanceLogger.increase( "OverheadId", 1000000 );
+                PerformanceLogger.startLogging( "OverheadTimer" );
+                PerformanceLogger.stopLogging( "OverheadTimer" );
+            }
+            OperationMetric metric = new OperationMetric();
+            metric.startOperation( "OverheadMetric", false );
+            metric.stopOperation( 0, false );
+            metric.toSerializedString();
+
+            Assert.assertTrue( Arrays.asList( bean.getLayers() ).containsAll(
+                Arrays.asList( "PerformanceLogger", "Timers", "Serialization", "MetricGatherer" ) ) );
+            Assert.assertEquals( Long.valueOf( 100 ), bean.getCallCounts().get( "PerformanceLogger" ) );
+            Assert.assertEquals( Long.valueOf( 200 ), bean.getCallCounts().get( "Timers" ) );
+            Assert.assertEquals( Long.valueOf( 1 ), bean.getCallCounts().get( "Serialization" ) );
+            Assert.assertEquals( Long.valueOf( 100000000 ), bean.getMeasuredNanoseconds().get( "PerformanceLogger" ) );
+            Assert.assertTrue( bean.getOverheadNanoseconds().get( "PerformanceLogger" ) > 0 );
+
+            double percentage = bean.getOverheadPercentage( "PerformanceLogger" );
+            Assert.assertTrue( percentage > 0 );
+            Assert.assertEquals( percentage, bean.getOverheadPercentages().get( "PerformanceLogger" ), 0.0 );
+            Assert.assertEquals( 0.0, bean.getOverheadPercentage( "UnknownLayer" ), 0.0 );
+
+            bean.reset();
+            Assert.assertEquals( Long.valueOf( 0 ), bean.getCallCounts().get( "PerformanceLogger" ) );
+        }
+        finally {
+            bean.setSamplingInterval( samplingInterval );
+            PerformanceLogger.setEnabled( enabled );
+            PerformanceLogger.clear();
+        }
+    }
+
+    @Test
+    public void testSampledCalls() {
+        int samplingInterval = ProfilerOverhead.getSamplingInterval();
+        OverheadCounter counter = ProfilerOverhead.getCounter( "SampledLayer" );
+        try {
+            ProfilerOverhead.setSamplingInterval( 0 );
+            Assert.assertEquals( OverheadCounter.NOT_SAMPLED, counter.start() );
+
+            ProfilerOverhead.setSamplingInterval( 10 );
+            int sampled = 0;
+            for ( int i = 0; i < 10000; ++i ) {
+                long start = counter.start();
+                if ( start != OverheadCounter.NOT_SAMPLED ) {
+                    ++sampled;
+                }
+                counter.stop( start, 100 );
+            }
+
+            // each sampled call counts for the whole interval.
+            Assert.assertEquals( 1000, sampled, 200 );
+            Assert.assertEquals( sampled * 10L, counter.getCallCount() );
+            Assert.assertEquals( sampled * 1000L, counter.getMeasured() );
+        }
+        finally {
+            ProfilerOverhead.setSamplingInterval( samplingInterval );
+            counter.reset();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AdaptiveSamplerTest {
+
+	private static final long PERIOD = 1000;
+
+	private static final long SLOW = 1000000;
+
+	/**
+	 * @return a time far enough from the creation of a sampler for its first
+	 *         call to start a new period.
+	 */
+	private static long getStart() {
+		return System.currentTimeMillis() + 2 * PERIOD;
+	}
+
+	/**
+	 * Create a sampler and feed it a period of calls.
+	 */
+	private static AdaptiveSampler createSampler(long budget, long start) {
+		AdaptiveSampler sampler = new AdaptiveSampler(PERIOD);
+		sampler.setBudget(budget);
+		sampler.setSlowThresholdInNanos(SLOW);
+		for (int i = 0; i < 7000; ++i) {
+			assertEquals(1, sampler.sample("hot", 10, false, start));
+		}
+		for (int i = 0; i < 20; ++i) {
+			assertEquals(1, sampler.sample("cold", 10, false, start));
+		}
+		return sampler;
+	}
+
+	@Test
+	public void testDisabled() {
+		AdaptiveSampler sampler = new AdaptiveSampler(PERIOD);
+		assertFalse(sampler.isEnabled());
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(1, sampler.sample("op", 10, false));
+		}
+		assertEquals(1.0, sampler.getRate("op"), 0.0);
+	}
+
+	@Test
+	public void testRatesShareTheBudget() {
+		long start = getStart();
+		AdaptiveSampler sampler = createSampler(100, start);
+
+		// the next call after the period computes the rates, the quiet
+		// operation keeps all its calls and leaves 80 records to the busy one.
+		sampler.sample("cold", 10, false, start + PERIOD);
+		assertEquals(1.0, sampler.getRate("cold"), 0.0);
+		assertEquals(80.0 / 7000, sampler.getRate("hot"), 0.0000001);
+	}
+
+	@Test
+	public void testWeightedCountIsUnbiased() {
+		long start = getStart();
+		AdaptiveSampler sampler = createSampler(100, start);
+		sampler.sample("cold", 10, false, start + PERIOD);
+
+		long recorded = 0;
+		long weightedCount = 0;
+		int calls = 200000;
+		for (int i = 0; i < calls; ++i) {
+			long weight = sampler.sample("hot", 10, false, start + PERIOD);
+			if (weight != AdaptiveSampler.DROPPED) {
+				++recorded;
+				// 87.5 calls per record, rounded either way.
+				assertTrue(weight == 87 || weight == 88);
+				weightedCount += weight;
+			}
+		}
+		assertEquals(calls * 80.0 / 7000, recorded, calls * 0.02);
+		assertEquals(calls, weightedCount, calls * 0.1);
+	}
+
+	@Test
+	public void testFailedAndSlowCallsAlwaysRecorded() {
+		long start = getStart();
+		AdaptiveSampler sampler = createSampler(100, start);
+		sampler.sample("cold", 10, false, start + PERIOD);
+
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(1, sampler.sample("hot", 10, true, start + PERIOD));
+			assertEquals(1, sampler.sample("hot", SLOW, false, start + PERIOD));
+			sampler.sample("hot", 10, false, start + PERIOD);
+		}
+
+		// forced calls use the budget first.
+		sampler.sample("hot", 10, false, start + 2 * PERIOD);
+		assertEquals(AdaptiveSampler.MINIMUM_RATE, sampler.getRate("hot"),
+				0.0);
+	}
+
+	@Test
+	public void testIdleOperationsForgotten() {
+		long start = getStart();
+		AdaptiveSampler sampler = createSampler(100, start);
+		sampler.sample("cold", 10, false, start + PERIOD);
+		assertTrue(sampler.getRate("hot") < 1.0);
+
+		// no call to the busy operation during the last period.
+		sampler.sample("cold", 10, false, start + 2 * PERIOD);
+		assertEquals(1.0, sampler.getRate("hot"), 0.0);
+	}
+
+	@Test
+	public void testScheduledRates() {
+		long start = getStart();
+		AdaptiveSampler sampler = createSampler(100, start);
+		sampler.setScheduled(true);
+
+		// the sampled calls leave the rates to the scheduler.
+		assertEquals(1, sampler.sample("hot", 10, false, start + PERIOD));
+		assertEquals(1.0, sampler.getRate("hot"), 0.0);
+
+		sampler.adjustRates(start + PERIOD);
+		assertEquals(1.0, sampler.getRate("cold"), 0.0);
+		assertEquals(80.0 / 7001, sampler.getRate("hot"), 0.0000001);
+
+		// back to the sampled calls once the scheduler stops.
+		sampler.setScheduled(false);
+		sampler.sample("cold", 10, false, start + 3 * PERIOD);
+		assertEquals(1.0, sampler.getRate("hot"), 0.0);
+	}
+
+	@Test
+	public void testDisablingClearsRates() {
+		long start = getStart();
+		AdaptiveSampler sampler = createSampler(100, start);
+		sampler.sample("cold", 10, false, start + PERIOD);
+
+		sampler.setBudget(0);
+		assertEquals(1.0, sampler.getRate("hot"), 0.0);
+		assertEquals(1, sampler.sample("hot", 10, false));
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DeltaCursorTest {
+
+	private static long sumBuckets(MetricDelta delta) {
+		long sum = 0;
+		for (long count : delta.getBucketCounts()) {
+			sum += count;
+		}
+		return sum;
+	}
+
+	@Test
+	public void testIncrements() {
+		TotalLogEntry entry = new TotalLogEntry("deltaId", null);
+		List<TotalLogEntry> entries = Collections.singletonList(entry);
+		DeltaCursor cursor = new DeltaCursor("exporter");
+
+		entry.addValue(1000000, 10, true, false, false);
+		entry.addValue(3000000, 20, true, true, true);
+		List<MetricDelta> deltas = cursor.read(entries);
+		assertEquals(1, deltas.size());
+		MetricDelta delta = deltas.get(0);
+		assertEquals("deltaId", delta.getId());
+		assertEquals(2, delta.getCallCount());
+		assertEquals(1, delta.getErrorCallCount());
+		assertEquals(2, delta.getCacheEnabledCount());
+		assertEquals(1, delta.getCacheHitCount());
+		assertEquals(4000000, delta.getTotalDuration());
+		assertEquals(30, delta.getTotalResponseSize());
+		assertEquals(2, sumBuckets(delta));
+		assertEquals(2, delta.getBucketUpperBounds().length);
+
+		// nothing new.
+		assertTrue(cursor.read(entries).isEmpty());
+
+		entry.addValue(1000000);
+		delta = cursor.read(entries).get(0);
+		assertEquals(1, delta.getCallCount());
+		assertEquals(0, delta.getErrorCallCount());
+		assertEquals(1000000, delta.getTotalDuration());
+		// only the bucket that changed is listed.
+		assertEquals(1, delta.getBucketCounts().length);
+		assertEquals(1, delta.getBucketCounts()[0]);
+		assertTrue(delta.getBucketUpperBounds()[0] >= 1000000);
+	}
+
+	@Test
+	public void testIndependentCursors() {
+		TotalLogEntry entry = new TotalLogEntry("deltaId", null);
+		List<TotalLogEntry> entries = Collections.singletonList(entry);
+		DeltaCursor first = new DeltaCursor("first");
+		DeltaCursor second = new DeltaCursor("second");
+
+		entry.addValue(100);
+		assertEquals(1, first.read(entries).get(0).getCallCount());
+		entry.addValue(100);
+		assertEquals(1, first.read(entries).get(0).getCallCount());
+		assertEquals(2, second.read(entries).get(0).getCallCount());
+		assertTrue(first.read(entries).isEmpty());
+		assertTrue(second.read(entries).isEmpty());
+	}
+
+	@Test
+	public void testClearedEntry() {
+		TotalLogEntry entry = new TotalLogEntry("deltaId", null);
+		List<TotalLogEntry> entries = Collections.singletonList(entry);
+		DeltaCursor cursor = new DeltaCursor("exporter");
+		entry.addValue(100);
+		entry.addValue(100);
+		cursor.read(entries);
+
+		entry.clear();
+		entry.addValue(200);
+		MetricDelta delta = cursor.read(entries).get(0);
+		assertEquals(1, delta.getCallCount());
+		assertEquals(200, delta.getTotalDuration());
+		assertEquals(1, sumBuckets(delta));
+	}
+
+	@Test
+	public void testRecreatedEntry() {
+		TotalLogEntry entry = new TotalLogEntry("deltaId", null);
+		DeltaCursor cursor = new DeltaCursor("exporter");
+		for (int i = 0; i < 5; ++i) {
+			entry.addValue(100);
+		}
+		cursor.read(Collections.singletonList(entry));
+
+		// removed by the cleanup, then recreated with fewer calls.
+		assertTrue(cursor.read(Collections.<TotalLogEntry> emptyList())
+				.isEmpty());
+		TotalLogEntry recreated = new TotalLogEntry("deltaId", null);
+		recreated.addValue(100);
+		List<MetricDelta> deltas = cursor.read(Collections
+				.singletonList(recreated));
+		assertEquals(1, deltas.get(0).getCallCount());
+
+		// an entry replaced between two reads also starts over.
+		TotalLogEntry replacement = new TotalLogEntry("deltaId", null);
+		for (int i = 0; i < 3; ++i) {
+			replacement.addValue(100);
+		}
+		deltas = cursor.read(Collections.singletonList(replacement));
+		assertEquals(3, deltas.get(0).getCallCount());
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		final TotalLogEntry entry = new TotalLogEntry("deltaId", null,
+				false, true);
+		final TotalLogEntry otherEntry = new TotalLogEntry("otherId", null);
+		List<TotalLogEntry> entries = Arrays.asList(entry, otherEntry);
+		DeltaCursor cursor = new DeltaCursor("exporter");
+		final int recordCount = 20000;
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; ++i) {
+			final int threadIndex = i;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < recordCount; ++j) {
+						long duration = 1000L << (j % 20);
+						entry.addValue(duration, 1, false, false, j % 3 == 0);
+						if (threadIndex == 0) {
+							otherEntry.addValue(duration);
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		long calls = 0;
+		long errors = 0;
+		long buckets = 0;
+		long responseSize = 0;
+		long otherCalls = 0;
+		boolean recording = true;
+		while (recording) {
+			// read once more after the threads stopped.
+			recording = false;
+			for (Thread thread : threads) {
+				recording |= thread.isAlive();
+			}
+			for (MetricDelta delta : cursor.read(entries)) {
+				if (delta.getId().equals("deltaId")) {
+					calls += delta.getCallCount();
+					errors += delta.getErrorCallCount();
+					buckets += sumBuckets(delta);
+					responseSize += delta.getTotalResponseSize();
+				} else {
+					otherCalls += delta.getCallCount();
+				}
+			}
+		}
+
+		// no call is lost or counted twice.
+		assertEquals(4 * recordCount, calls);
+		assertEquals(4 * ((recordCount + 2) / 3), errors);
+		assertEquals(4 * recordCount, buckets);
+		assertEquals(4 * recordCount, responseSize);
+		assertEquals(recordCount, otherCalls);
+		assertEquals(entry.getCallCount(), calls);
+	}
+}
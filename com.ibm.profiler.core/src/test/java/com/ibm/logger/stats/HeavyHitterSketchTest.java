@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.logger.stats.HeavyHitterSketch.HeavyHitter;
+
+public class HeavyHitterSketchTest {
+
+	@Test
+	public void testExactCountsBelowCapacity() {
+		HeavyHitterSketch sketch = new HeavyHitterSketch(10);
+		sketch.offer("a", 3);
+		sketch.offer("b", 1);
+		sketch.offer("a", 2);
+
+		assertEquals(2, sketch.size());
+		assertEquals(5, sketch.getCount("a"));
+		assertEquals(1, sketch.getCount("b"));
+		assertEquals(0, sketch.getCount("c"));
+
+		List<HeavyHitter> heavyHitters = sketch.getHeavyHitters();
+		assertEquals("a", heavyHitters.get(0).getId());
+		assertEquals(0, heavyHitters.get(0).getError());
+		assertEquals("b", heavyHitters.get(1).getId());
+	}
+
+	@Test
+	public void testHeavyHittersFoundAmongManyIds() {
+		HeavyHitterSketch sketch = new HeavyHitterSketch(50);
+		int total = 0;
+		for (int i = 0; i < 10000; ++i) {
+			sketch.offer("rare" + i, 1);
+			++total;
+			if (i % 5 == 0) {
+				sketch.offer("hot", 1);
+				++total;
+			}
+			if (i % 10 == 0) {
+				sketch.offer("warm", 1);
+				++total;
+			}
+		}
+
+		assertEquals(50, sketch.size());
+		List<HeavyHitter> heavyHitters = sketch.getHeavyHitters();
+		assertEquals("hot", heavyHitters.get(0).getId());
+		assertEquals("warm", heavyHitters.get(1).getId());
+
+		// counts are never under estimated, the error is bounded by the
+		// total divided by the capacity.
+		assertTrue(sketch.getCount("hot") >= 2000);
+		assertTrue(heavyHitters.get(0).getGuaranteedCount() <= 2000);
+		assertTrue(heavyHitters.get(0).getError() <= total / 50);
+	}
+
+	@Test
+	public void testRemove() {
+		HeavyHitterSketch sketch = new HeavyHitterSketch(3);
+		sketch.offer("a", 5);
+		sketch.offer("b", 1);
+		sketch.offer("c", 3);
+		sketch.remove("b");
+		sketch.remove("unknown");
+
+		assertEquals(2, sketch.size());
+		assertEquals(0, sketch.getCount("b"));
+
+		// the removed slot is reused without replacing a monitored id.
+		sketch.offer("d", 1);
+		assertEquals(5, sketch.getCount("a"));
+		assertEquals(3, sketch.getCount("c"));
+		assertEquals(1, sketch.getCount("d"));
+
+		// a new id now replaces the lowest count.
+		sketch.offer("e", 1);
+		assertEquals(0, sketch.getCount("d"));
+		assertEquals(2, sketch.getCount("e"));
+
+		sketch.clear();
+		assertEquals(0, sketch.size());
+		assertTrue(sketch.getHeavyHitters().isEmpty());
+	}
+
+	@Test
+	public void testStripes() throws InterruptedException {
+		final HeavyHitterSketch sketch = new HeavyHitterSketch(64, 6);
+		assertEquals(4, sketch.getStripeCount());
+		assertEquals(64, sketch.getCapacity());
+
+		// concurrent offers of monitored ids are all counted.
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; ++t) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; ++i) {
+						sketch.offer("id" + (i % 8), 1);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(8, sketch.size());
+		for (int i = 0; i < 8; ++i) {
+			assertEquals(5000, sketch.getCount("id" + i));
+		}
+
+		// the heavy hitters of all the stripes are merged.
+		for (int i = 0; i < 10000; ++i) {
+			sketch.offer("rare" + i, 1);
+			if (i % 4 == 0) {
+				sketch.offer("hot", 1);
+			}
+		}
+		List<HeavyHitter> heavyHitters = sketch.getHeavyHitters();
+		assertEquals(64, heavyHitters.size());
+		assertTrue(sketch.getCount("hot") >= 2500);
+		for (int i = 1; i < heavyHitters.size(); ++i) {
+			assertTrue(heavyHitters.get(i - 1).getGuaranteedCount() >= heavyHitters
+					.get(i).getGuaranteedCount());
+		}
+
+		sketch.clear();
+		assertEquals(0, sketch.size());
+	}
+}
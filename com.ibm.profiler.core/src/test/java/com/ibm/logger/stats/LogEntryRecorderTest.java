@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LogEntryRecorderTest {
+
+	@Test
+	public void testRecord() {
+		TotalLogEntry entry = new TotalLogEntry("RecorderId", new long[0],
+				false);
+		LogEntryRecorder recorder = new LogEntryRecorder(entry);
+
+		assertEquals(LogEntryRecorder.RECORDED, recorder.applyAsLong(100,
+				LogEntryRecorder.pack(12, true, true, false)));
+		assertEquals(LogEntryRecorder.RECORDED, recorder.applyAsLong(300,
+				LogEntryRecorder.pack(Integer.MAX_VALUE, true, false, true)));
+
+		assertEquals(2, entry.getCallCount());
+		assertEquals(1, entry.getErrorCallCount());
+		assertEquals(2, entry.getCacheEnabledCount());
+		assertEquals(1, entry.getCacheHitCount());
+		assertEquals(100, entry.getMinimumDuration());
+		assertEquals(300, entry.getMaximumDuration());
+		assertEquals(Integer.MAX_VALUE, entry.getMaximumResponseSize());
+	}
+
+	@Test
+	public void testRecordWeight() {
+		TotalLogEntry entry = new TotalLogEntry("RecorderId", new long[0],
+				false);
+		LogEntryRecorder recorder = new LogEntryRecorder(entry);
+
+		recorder.applyAsLong(100, LogEntryRecorder.pack(-5, false, true, true,
+				40));
+
+		assertEquals(40, entry.getCallCount());
+		assertEquals(40, entry.getErrorCallCount());
+		assertEquals(40, entry.getCacheHitCount());
+		assertEquals(4000, entry.getTotalDuration(), 0.1);
+		assertEquals(-5, entry.getMinimumResponseSize());
+	}
+
+	@Test
+	public void testDiscard() {
+		TotalLogEntry entry = new TotalLogEntry("RecorderId", new long[0],
+				false);
+		LogEntryRecorder recorder = new LogEntryRecorder(entry);
+		recorder.discard();
+
+		assertEquals(LogEntryRecorder.DISCARDED, recorder.applyAsLong(100,
+				LogEntryRecorder.pack(0, false, false, false)));
+		assertEquals(0, entry.getCallCount());
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MovingRatesTest {
+
+	private static final long FIVE_SECONDS = TimeUnit.SECONDS.toNanos(5);
+
+	@Test
+	public void testFirstTick() {
+		MovingRates rates = new MovingRates(0);
+		assertEquals(0.0, rates.getOneMinuteRate(), 0.0);
+
+		// 50 calls of 2ms in 5 seconds.
+		rates.tick(50, 50 * 2000000L, FIVE_SECONDS);
+		assertEquals(10.0, rates.getOneMinuteRate(), 0.000001);
+		assertEquals(10.0, rates.getFiveMinuteRate(), 0.000001);
+		assertEquals(10.0, rates.getFifteenMinuteRate(), 0.000001);
+		assertEquals(2000000.0, rates.getOneMinuteAverageDuration(), 0.001);
+		assertEquals(2000000.0, rates.getFifteenMinuteAverageDuration(),
+				0.001);
+	}
+
+	@Test
+	public void testDecay() {
+		MovingRates rates = new MovingRates(0);
+		long time = FIVE_SECONDS;
+		rates.tick(50, 50, time);
+
+		// no calls for one minute.
+		for (int i = 0; i < 12; ++i) {
+			time += FIVE_SECONDS;
+			rates.tick(50, 50, time);
+		}
+		// a minute without calls leaves 1/e of the one minute rate.
+		assertEquals(10.0 / Math.E, rates.getOneMinuteRate(), 0.000001);
+		assertTrue(rates.getFiveMinuteRate() > rates.getOneMinuteRate());
+		assertTrue(rates.getFifteenMinuteRate() > rates.getFiveMinuteRate());
+		// the duration keeps its value without calls.
+		assertEquals(1.0, rates.getOneMinuteAverageDuration(), 0.000001);
+	}
+
+	@Test
+	public void testConvergence() {
+		MovingRates rates = new MovingRates(0);
+		long time = 0;
+		long calls = 0;
+		for (int i = 0; i < 120; ++i) {
+			time += FIVE_SECONDS;
+			calls += i < 12 ? 5 : 100;
+			rates.tick(calls, calls * 1000, time);
+		}
+		assertEquals(20.0, rates.getOneMinuteRate(), 0.01);
+		assertTrue(rates.getFifteenMinuteRate() < 20.0);
+		assertEquals(1000.0, rates.getFiveMinuteAverageDuration(), 0.000001);
+	}
+
+	@Test
+	public void testUnevenTicks() {
+		MovingRates evenRates = new MovingRates(0);
+		MovingRates unevenRates = new MovingRates(0);
+		evenRates.tick(10, 10, FIVE_SECONDS);
+		unevenRates.tick(10, 10, FIVE_SECONDS);
+
+		evenRates.tick(20, 20, 2 * FIVE_SECONDS);
+		evenRates.tick(30, 30, 3 * FIVE_SECONDS);
+		unevenRates.tick(30, 30, 3 * FIVE_SECONDS);
+
+		// the same constant rate gives the same average.
+		assertEquals(evenRates.getOneMinuteRate(),
+				unevenRates.getOneMinuteRate(), 0.000001);
+	}
+
+	@Test
+	public void testTicksTooClose() {
+		MovingRates rates = new MovingRates(0);
+		rates.tick(10, 10, 1000);
+		assertEquals(0.0, rates.getOneMinuteRate(), 0.0);
+		assertEquals(0, rates.getLastTickTime());
+	}
+
+	@Test
+	public void testClearedStatistics() {
+		MovingRates rates = new MovingRates(0);
+		rates.tick(50, 50, FIVE_SECONDS);
+
+		// the statistics were cleared, the tick only resets the baseline.
+		rates.tick(5, 5, 2 * FIVE_SECONDS);
+		assertEquals(10.0, rates.getOneMinuteRate(), 0.000001);
+		assertEquals(2 * FIVE_SECONDS, rates.getLastTickTime());
+
+		rates.tick(55, 55, 3 * FIVE_SECONDS);
+		assertEquals(10.0, rates.getOneMinuteRate(), 0.000001);
+
+		rates.reset(3 * FIVE_SECONDS);
+		assertEquals(0.0, rates.getOneMinuteRate(), 0.0);
+		assertEquals(0.0, rates.getOneMinuteAverageDuration(), 0.0);
+		rates.tick(25, 25, 4 * FIVE_SECONDS);
+		assertEquals(5.0, rates.getOneMinuteRate(), 0.000001);
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.jmx.TaggedMetricSnapshot;
+
+public class TaggedMetricsTest {
+
+	private static final Tags TENANT_A_OK = Tags.of("tenant", "a", "status",
+			"200");
+
+	private static final Tags TENANT_A_ERROR = Tags.of("status", "500",
+			"tenant", "a");
+
+	private static final Tags TENANT_B_OK = Tags.of("tenant", "b", "status",
+			"200");
+
+	private static TaggedMetrics createMetrics() {
+		TaggedMetrics metrics = new TaggedMetrics(100);
+		metrics.record("getOrder", TENANT_A_OK, 10, false, 1);
+		metrics.record("getOrder", TENANT_A_OK, 30, false, 1);
+		metrics.record("getOrder", TENANT_A_ERROR, 50, true, 1);
+		metrics.record("getOrder", TENANT_B_OK, 20, false, 1);
+		metrics.record("getCart", TENANT_A_OK, 5, false, 2);
+		metrics.record("getCart", Tags.NONE, 7, false, 1);
+		return metrics;
+	}
+
+	@Test
+	public void testTagsInterned() {
+		assertSame(TENANT_A_OK, Tags.of("status", "200", "tenant", "a"));
+		assertNotSame(TENANT_A_OK, TENANT_A_ERROR);
+		assertSame(Tags.NONE, Tags.of());
+		assertEquals("status=200;tenant=a", TENANT_A_OK.toString());
+		assertEquals("a", TENANT_A_OK.get("tenant"));
+		assertNull(TENANT_A_OK.get("host"));
+	}
+
+	@Test
+	public void testCachedTags() {
+		String[] pairs = { "tenant", "d", "status", "200" };
+		Tags tenantD = Tags.of(pairs);
+		assertSame(tenantD, Tags.of("tenant", "d", "status", "200"));
+
+		// the cache keeps its own copy of the pairs.
+		pairs[1] = "e";
+		Tags tenantE = Tags.of(pairs);
+		assertEquals("e", tenantE.get("tenant"));
+		assertEquals("d", Tags.of("tenant", "d", "status", "200").get("tenant"));
+		assertSame(tenantD, Tags.of("status", "200", "tenant", "d"));
+	}
+
+	@Test
+	public void testManyTagSets() {
+		// past a burst of distinct sets, new sets are still interned.
+		for (int i = 0; i < 100000; ++i) {
+			Tags.of("request", Integer.toString(i));
+		}
+		Tags tenantC = Tags.of("tenant", "c");
+		assertNotSame(Tags.OVERFLOW, tenantC);
+		assertEquals("c", tenantC.get("tenant"));
+		assertSame(tenantC, Tags.of("tenant", "c"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTagWithoutValue() {
+		Tags.of("tenant");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRepeatedTag() {
+		Tags.of("tenant", "a", "tenant", "b");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReservedTag() {
+		Tags.of(Tags.OPERATION_DIMENSION, "a");
+	}
+
+	@Test
+	public void testSeries() {
+		TaggedMetrics metrics = createMetrics();
+		assertEquals(5, metrics.getSeriesCount());
+		assertEquals(Arrays.asList("operation", "status", "tenant"),
+				Arrays.asList(metrics.getDimensions()));
+
+		List<TaggedMetricSnapshot> series = metrics.aggregate();
+		assertEquals(5, series.size());
+		TaggedMetricSnapshot first = series.get(0);
+		assertEquals("getCart", first.getName());
+		assertEquals(1, first.getCallCount());
+
+		TaggedMetricSnapshot orders = series.get(2);
+		assertEquals("getOrder{status=200;tenant=a}", orders.getName());
+		assertEquals(2, orders.getCallCount());
+		assertEquals(40, orders.getTotalDuration());
+		assertEquals(20.0, orders.getAverageDuration(), 0.0);
+		assertEquals(10, orders.getMinimumDuration());
+		assertEquals(30, orders.getMaximumDuration());
+		assertEquals("a", orders.getValue("tenant"));
+	}
+
+	@Test
+	public void testAggregateByOperation() {
+		List<TaggedMetricSnapshot> operations = createMetrics().aggregate(
+				Tags.OPERATION_DIMENSION);
+		assertEquals(2, operations.size());
+
+		TaggedMetricSnapshot cart = operations.get(0);
+		assertEquals("getCart", cart.getName());
+		// the weight counts for two calls.
+		assertEquals(3, cart.getCallCount());
+		assertEquals(17, cart.getTotalDuration());
+
+		TaggedMetricSnapshot order = operations.get(1);
+		assertEquals("getOrder", order.getName());
+		assertEquals(4, order.getCallCount());
+		assertEquals(1, order.getErrorCallCount());
+		assertEquals(10, order.getMinimumDuration());
+		assertEquals(50, order.getMaximumDuration());
+	}
+
+	@Test
+	public void testAggregateByTagAcrossOperations() {
+		List<TaggedMetricSnapshot> tenants = createMetrics().aggregate(
+				"tenant");
+		assertEquals(3, tenants.size());
+
+		TaggedMetricSnapshot tenantA = tenants.get(0);
+		assertEquals("{tenant=a}", tenantA.getName());
+		assertEquals(5, tenantA.getCallCount());
+		assertEquals(1, tenantA.getErrorCallCount());
+		assertEquals(100, tenantA.getTotalDuration());
+
+		assertEquals("{tenant=b}", tenants.get(1).getName());
+		assertEquals(1, tenants.get(1).getCallCount());
+
+		// calls without the tag are grouped under an empty value.
+		assertEquals("{tenant=}", tenants.get(2).getName());
+		assertEquals("", tenants.get(2).getValue("tenant"));
+		assertEquals(1, tenants.get(2).getCallCount());
+
+		List<TaggedMetricSnapshot> byOperationAndStatus = createMetrics()
+				.aggregate(Tags.OPERATION_DIMENSION, "status");
+		assertEquals(4, byOperationAndStatus.size());
+		assertEquals("getOrder{status=200}", byOperationAndStatus.get(2)
+				.getName());
+		assertEquals(3, byOperationAndStatus.get(2).getCallCount());
+	}
+
+	@Test
+	public void testUnknownDimension() {
+		List<TaggedMetricSnapshot> hosts = createMetrics().aggregate("host");
+		assertEquals(1, hosts.size());
+		assertEquals(7, hosts.get(0).getCallCount());
+	}
+
+	@Test
+	public void testMaximumSeriesCount() {
+		TaggedMetrics metrics = new TaggedMetrics(2);
+		metrics.record("getOrder", TENANT_A_OK, 10, false, 1);
+		metrics.record("getOrder", TENANT_B_OK, 10, false, 1);
+		metrics.record("getOrder", TENANT_A_ERROR, 10, false, 1);
+		metrics.record("getCart", TENANT_A_OK, 10, false, 1);
+		metrics.record("getCart", TENANT_B_OK, 10, false, 1);
+		assertEquals(4, metrics.getSeriesCount());
+
+		List<TaggedMetricSnapshot> series = metrics.aggregate();
+		assertEquals(PerformanceLogger.OVERFLOW_OPERATION_NAME + "{"
+				+ Tags.OVERFLOW + "}", series.get(0).getName());
+		assertEquals(2, series.get(0).getCallCount());
+		assertEquals("getOrder{" + Tags.OVERFLOW + "}", series.get(3)
+				.getName());
+		assertEquals(1, series.get(3).getCallCount());
+
+		// the overflow series are reused.
+		metrics.record("getItem", TENANT_A_OK, 10, false, 1);
+		metrics.record("getOrder", Tags.NONE, 10, false, 1);
+		assertEquals(4, metrics.getSeriesCount());
+		series = metrics.aggregate();
+		assertEquals(3, series.get(0).getCallCount());
+		assertEquals(2, series.get(3).getCallCount());
+
+		// clearing resets the cap.
+		metrics.clear();
+		metrics.record("getItem", TENANT_A_OK, 10, false, 1);
+		assertEquals("getItem{" + TENANT_A_OK + "}", metrics.aggregate()
+				.get(0).getName());
+	}
+
+	@Test
+	public void testClear() {
+		TaggedMetrics metrics = createMetrics();
+		metrics.clear();
+		assertEquals(0, metrics.getSeriesCount());
+		assertTrue(metrics.aggregate(Tags.OPERATION_DIMENSION).isEmpty());
+		metrics.record("getOrder", TENANT_A_OK, 10, false, 1);
+		assertEquals(1, metrics.aggregate().get(0).getCallCount());
+	}
+
+	@Test
+	public void testManySeries() {
+		TaggedMetrics metrics = new TaggedMetrics(1000);
+		for (int i = 0; i < 600; ++i) {
+			metrics.record("operation" + (i % 3),
+					Tags.of("customer", Integer.toString(i)), i, false, 1);
+		}
+		assertEquals(600, metrics.getSeriesCount());
+		List<TaggedMetricSnapshot> operations = metrics
+				.aggregate(Tags.OPERATION_DIMENSION);
+		assertEquals(3, operations.size());
+		assertEquals(200, operations.get(0).getCallCount());
+		assertEquals(0, operations.get(0).getMinimumDuration());
+		assertEquals(597, operations.get(0).getMaximumDuration());
+	}
+}
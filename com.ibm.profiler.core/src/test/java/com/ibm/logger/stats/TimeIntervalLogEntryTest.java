@@ -21,6 +21,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.ibm.commerce.cache.OperationMetric;
+import com.ibm.logger.jmx.LogEntrySnapshot;
 
 public class TimeIntervalLogEntryTest {
 
@@ -257,4 +258,30 @@ public class TimeIntervalLogEntryTest {
 		assertEquals( 100000000l, logEntry.getInternalStatistics().getIntervalWidthInNanos());
 	}
 
+
+	@Test
+	public void testSnapshot() {
+		logEntry.setSkipLastInterval(false);
+		logEntry.addValue(100, 10, true, false, false);
+		logEntry.addValue(300, 30, true, true, true);
+
+		LogEntrySnapshot snapshot = logEntry.getSnapshot();
+		assertEquals("test", snapshot.getId());
+		assertEquals(logEntry.getIntervalName(), snapshot.getIntervalName());
+		assertEquals(2, snapshot.getCallCount());
+		assertEquals(1, snapshot.getSuccessCallCount());
+		assertEquals(1, snapshot.getErrorCallCount());
+		assertEquals(2, snapshot.getCacheEnabledCount());
+		assertEquals(1, snapshot.getCacheHitCount());
+		assertEquals(400, snapshot.getTotalDuration(), 0.001);
+		assertEquals(200.0, snapshot.getAverageDuration(), 0.001);
+		assertEquals(100, snapshot.getMinimumDuration());
+		assertEquals(300, snapshot.getMaximumDuration());
+		assertEquals(logEntry.getDurationPercentile99(),
+				snapshot.getDurationPercentile99());
+		assertEquals(40, snapshot.getTotalResponseSize(), 0.001);
+		assertEquals(20.0, snapshot.getAverageResponseSize(), 0.001);
+		assertEquals(10, snapshot.getMinimumResponseSize());
+		assertEquals(30, snapshot.getMaximumResponseSize());
+	}
 }
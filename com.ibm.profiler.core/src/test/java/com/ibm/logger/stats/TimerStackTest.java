@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TimerStackTest {
+
+	@Test
+	public void testNestedTimers() {
+		TimerStack stack = new TimerStack(100);
+		stack.start("outer", 100);
+		stack.start("inner", 150);
+		assertEquals(2, stack.getDepth());
+
+		assertEquals(50, stack.stop("inner", 200));
+		assertEquals(200, stack.stop("outer", 300));
+		assertEquals(0, stack.getDepth());
+	}
+
+	@Test
+	public void testRecursion() {
+		TimerStack stack = new TimerStack(100);
+		stack.start("recursive", 100);
+		stack.start("recursive", 110);
+		stack.start("recursive", 120);
+
+		assertEquals(10, stack.stop("recursive", 130));
+		assertEquals(30, stack.stop("recursive", 140));
+		assertEquals(50, stack.stop("recursive", 150));
+		assertEquals(-1, stack.stop("recursive", 160));
+	}
+
+	@Test
+	public void testOutOfOrderStop() {
+		TimerStack stack = new TimerStack(100);
+		stack.start("first", 100);
+		stack.start("second", 200);
+		stack.start("third", 300);
+
+		assertEquals(900, stack.stop("first", 1000));
+		assertEquals(2, stack.getDepth());
+		assertEquals(700, stack.stop("third", 1000));
+		assertEquals(800, stack.stop("second", 1000));
+	}
+
+	@Test
+	public void testStopWithoutStart() {
+		TimerStack stack = new TimerStack(100);
+		assertEquals(-1, stack.stop("unknown", 100));
+		stack.start("known", 100);
+		assertEquals(-1, stack.stop("unknown", 200));
+		assertEquals(1, stack.getDepth());
+	}
+
+	@Test
+	public void testGrowthAndMaximumDepth() {
+		TimerStack stack = new TimerStack(40);
+		for (int i = 0; i < 50; ++i) {
+			stack.start("timer" + i, i);
+		}
+
+		// the oldest timers that were never stopped are discarded
+		assertEquals(40, stack.getDepth());
+		assertEquals(-1, stack.stop("timer0", 100));
+		assertEquals(-1, stack.stop("timer9", 100));
+		assertEquals(90, stack.stop("timer10", 100));
+		assertEquals(51, stack.stop("timer49", 100));
+
+		stack.clear();
+		assertEquals(0, stack.getDepth());
+	}
+}
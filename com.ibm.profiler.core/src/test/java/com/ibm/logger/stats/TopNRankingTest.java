@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.stats;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.PerformanceLoggerManager;
+import com.ibm.logger.stats.TopNRanking.Metric;
+
+public class TopNRankingTest {
+
+	@Test
+	public void testMatchesFullSort() {
+		Random random = new Random(42);
+		final List<TotalLogEntry> entries = new ArrayList<TotalLogEntry>();
+		for (int i = 0; i < 500; ++i) {
+			TotalLogEntry entry = new TotalLogEntry("op" + i, null);
+			int calls = 1 + random.nextInt(20);
+			for (int j = 0; j < calls; ++j) {
+				entry.addValue(1000 + random.nextInt(1000000), 1, false,
+						false, random.nextInt(4) == 0);
+			}
+			entries.add(entry);
+		}
+
+		TopNRanking ranking = TopNRanking.rank(entries,
+				PerformanceLogger.TOTAL_INTERVAL_NAME, 20, Metric.values());
+		assertEquals(4, ranking.getMetrics().length);
+		for (int i = 0; i < Metric.values().length; ++i) {
+			final Metric metric = Metric.values()[i];
+			List<TotalLogEntry> sorted = new ArrayList<TotalLogEntry>(entries);
+			Collections.sort(sorted, new Comparator<TotalLogEntry>() {
+				@Override
+				public int compare(TotalLogEntry first, TotalLogEntry second) {
+					int compare = Long.compare(value(second, metric),
+							value(first, metric));
+					if (compare != 0) {
+						return compare;
+					}
+					return first.getName().compareTo(second.getName());
+				}
+			});
+
+			int[] rows = ranking.getRows(i);
+			long[] values = ranking.getValues(i);
+			assertEquals(20, rows.length);
+			for (int rank = 0; rank < rows.length; ++rank) {
+				TotalLogEntry expected = sorted.get(rank);
+				assertEquals(metric + " rank " + rank, expected.getName(),
+						ranking.getSnapshot().getId(rows[rank]));
+				assertEquals(value(expected, metric), values[rank]);
+			}
+		}
+		// each ranked operation is captured once.
+		assertTrue(ranking.getSnapshot().size() <= 80);
+	}
+
+	private static long value(TotalLogEntry entry, Metric metric) {
+		switch (metric) {
+		case CALL_COUNT:
+			return entry.getCallCount();
+		case ERROR_COUNT:
+			return entry.getErrorCallCount();
+		case MAXIMUM_DURATION:
+			return entry.getMaximumDuration();
+		default:
+			return (long) entry.getTotalDuration();
+		}
+	}
+
+	@Test
+	public void testFewerOperationsThanCount() {
+		List<TotalLogEntry> entries = new ArrayList<TotalLogEntry>();
+		TotalLogEntry failing = new TotalLogEntry("failing", null);
+		failing.addValue(100, 1, false, false, true);
+		TotalLogEntry working = new TotalLogEntry("working", null);
+		working.addValue(300);
+		working.addValue(300);
+		entries.add(failing);
+		entries.add(working);
+		entries.add(new TotalLogEntry("unused", null));
+
+		TopNRanking ranking = TopNRanking.rank(entries,
+				PerformanceLogger.TOTAL_INTERVAL_NAME, 10, Metric.ERROR_COUNT,
+				Metric.CALL_COUNT);
+		PerformanceLogsSnapshot snapshot = ranking.getSnapshot();
+		// operations without errors aren't in the error ranking.
+		assertEquals(1, ranking.getRows(0).length);
+		assertEquals("failing", snapshot.getId(ranking.getRows(0)[0]));
+		assertEquals(2, ranking.getRows(1).length);
+		assertEquals("working", snapshot.getId(ranking.getRows(1)[0]));
+		assertEquals(2, ranking.getValues(1)[0]);
+		assertEquals(2, snapshot.size());
+
+		assertEquals(0,
+				TopNRanking.rank(entries, "unknownInterval", 10,
+						Metric.CALL_COUNT).getRows(0).length);
+	}
+
+	@Test
+	public void testParseMetric() {
+		assertEquals(Metric.TOTAL_DURATION, Metric.parse("total_duration"));
+		assertEquals(Metric.ERROR_COUNT, Metric.parse(" Error-Count "));
+		assertEquals(Metric.MAXIMUM_DURATION, Metric.parse("maximum duration"));
+		try {
+			Metric.parse("average");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDumpTopN() {
+		PerformanceLogger.setEnabled(true);
+		PerformanceLogger.clear();
+		try {
+			PerformanceLogger.increase("topSlow", 9000000, true);
+			PerformanceLogger.increase("topFrequent", 1000000);
+			PerformanceLogger.increase("topFrequent", 1000000);
+			PerformanceLogger.increase("topFrequent", 1000000);
+
+			String dump = PerformanceLogger.dumpTopNToString(1,
+					null, Metric.TOTAL_DURATION, Metric.CALL_COUNT);
+			String[] tables = dump.split("Top 1 by ");
+			assertEquals(3, tables.length);
+			assertTrue(tables[1].startsWith("total duration (total)"));
+			assertTrue(tables[1].contains("topSlow"));
+			assertFalse(tables[1].contains("topFrequent"));
+			assertTrue(tables[2].startsWith("call count (total)"));
+			assertTrue(tables[2].contains("topFrequent"));
+			assertFalse(tables[2].contains("topSlow"));
+
+			String all = PerformanceLoggerManager.getManager().dumpTopN("",
+					5, "");
+			assertTrue(all.contains("Top 5 by error count (total)"));
+			assertTrue(all.contains("Top 5 by maximum duration (total)"));
+		} finally {
+			PerformanceLogger.clear();
+		}
+	}
+}
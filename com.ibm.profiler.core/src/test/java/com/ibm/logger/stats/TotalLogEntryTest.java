@@ -17,7 +17,9 @@ package com.ibm.logger.stats;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -145,4 +147,80 @@ public class TotalLogEntryTest {
 		assertEquals(false, entry.isUsedSinceLastCheck());
 	}
 
+	@Test
+	public void testThreadShards() throws InterruptedException {
+		final TotalLogEntry shardedEntry = new TotalLogEntry("sharded",
+				new long[0], false, true);
+		assertTrue(shardedEntry.isThreadShards());
+
+		final int recordCount = 1000;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; ++i) {
+			final long duration = 100 * (i + 1);
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < recordCount; ++j) {
+						shardedEntry.addValue(duration, 10, true, false,
+								j % 2 == 0);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		shardedEntry.addValue(50, 10, false, false, false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(8 * recordCount + 1, shardedEntry.getCallCount());
+		assertEquals(4 * recordCount, shardedEntry.getErrorCallCount());
+		assertEquals(8 * recordCount, shardedEntry.getCacheEnabledCount());
+		assertEquals(50, shardedEntry.getMinimumDuration());
+		assertEquals(800, shardedEntry.getMaximumDuration());
+
+		shardedEntry.addValue(900);
+		assertEquals(8 * recordCount + 2, shardedEntry.getCallCount());
+		assertEquals(900, shardedEntry.getMaximumDuration());
+
+		// the shards don't grow with the number of threads.
+		int shardCount = shardedEntry.getAllocatedShardCount();
+		assertTrue(shardCount >= 1 && shardCount <= 16);
+		for (int i = 0; i < 64; ++i) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					shardedEntry.addValue(100);
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+		assertTrue(shardedEntry.getAllocatedShardCount() <= 16);
+		assertEquals(8 * recordCount + 66, shardedEntry.getCallCount());
+
+		shardedEntry.clear();
+		assertEquals(0, shardedEntry.getCallCount());
+		assertFalse(entry.isThreadShards());
+	}
+
+	@Test
+	public void testTickRates() {
+		for (int i = 0; i < 10; ++i) {
+			entry.addValue(2000000);
+		}
+		// the creation time of the rates is before the first tick.
+		long tickTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		entry.tickRates(tickTime);
+		assertTrue(entry.getOneMinuteRate() > 1.9);
+		assertTrue(entry.getOneMinuteRate() <= 2.0);
+		assertEquals(2000000.0, entry.getFifteenMinuteAverageDuration(), 0.001);
+		// the interval entries have no rates.
+		assertEquals(0.0, intervalStatistics.get(0).getOneMinuteRate(), 0.0);
+
+		entry.clear();
+		assertEquals(0.0, entry.getOneMinuteRate(), 0.0);
+		assertEquals(0.0, entry.getOneMinuteAverageDuration(), 0.0);
+	}
 }
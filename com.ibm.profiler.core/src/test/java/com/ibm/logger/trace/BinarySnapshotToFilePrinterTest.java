@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.commerce.cache.CacheUtilities;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.DeltaCursor;
+
+public class BinarySnapshotToFilePrinterTest {
+
+	private static final String OUTPUT_FOLDER = "./binary-printer-test-output";
+
+	private File directory;
+
+	@Before
+	public void init() {
+		directory = new File(OUTPUT_FOLDER);
+		directory.mkdirs();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		PerformanceLogger.setEnabled(true);
+		PerformanceLogger.clear();
+	}
+
+	@After
+	public void cleanup() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testAppendAndHistory() throws Exception {
+		// older days, the oldest is beyond the history.
+		File oldest = new File(directory, "metrics-2000-01-01.plbs");
+		File older = new File(directory, "metrics-2000-01-02.plbs");
+		File unrelated = new File(directory, "other-2000-01-01.plbs");
+		assertTrue(oldest.createNewFile());
+		assertTrue(older.createNewFile());
+		assertTrue(unrelated.createNewFile());
+
+		BinarySnapshotToFilePrinter printer = new BinarySnapshotToFilePrinter(
+				new DeltaCursor("binaryPrinterTest"));
+		printer.setFileNamePattern(OUTPUT_FOLDER + "/metrics-"
+				+ BinarySnapshotToFilePrinter.DATE_TOKEN + ".plbs");
+		printer.setFileHistoryCount(2);
+
+		PerformanceLogger.addStatistic("binaryActive", 123000000);
+		printer.run();
+		File[] files = directory.listFiles();
+		assertEquals(3, files.length);
+		assertFalse(oldest.exists());
+		assertTrue(older.exists());
+		assertTrue(unrelated.exists());
+
+		File current = null;
+		for (File file : files) {
+			if (!file.equals(older) && !file.equals(unrelated)) {
+				current = file;
+			}
+		}
+		long firstLength = current.length();
+		assertTrue(firstLength > 5);
+
+		// appended to the same file, a new session after close.
+		PerformanceLogger.addStatistic("binaryActive", 123000000);
+		printer.run();
+		long secondLength = current.length();
+		assertTrue(secondLength > firstLength);
+		printer.close();
+		printer.run();
+		assertTrue(current.length() > secondLength);
+		printer.close();
+
+		DataInputStream input = new DataInputStream(new FileInputStream(
+				current));
+		try {
+			assertEquals(BinarySnapshotWriter.MAGIC, input.readInt());
+			assertEquals(BinarySnapshotWriter.VERSION, input.read());
+			assertEquals(BinarySnapshotWriter.SESSION_BLOCK, input.read());
+		} finally {
+			CacheUtilities.closeQuietly(input);
+		}
+	}
+
+	@Test
+	public void testCutTornBlock() throws Exception {
+		BinarySnapshotToFilePrinter printer = new BinarySnapshotToFilePrinter(
+				new DeltaCursor("binaryPrinterTornTest"));
+		printer.setFileNamePattern(OUTPUT_FOLDER + "/metrics-"
+				+ BinarySnapshotToFilePrinter.DATE_TOKEN + ".plbs");
+		PerformanceLogger.addStatistic("binaryTorn", 123000000);
+		printer.run();
+		printer.close();
+		File current = directory.listFiles()[0];
+		long completeLength = current.length();
+
+		// crash while writing a block.
+		RandomAccessFile raw = new RandomAccessFile(current, "rw");
+		try {
+			raw.seek(completeLength);
+			raw.write(BinarySnapshotWriter.SNAPSHOT_BLOCK);
+			raw.writeInt(100);
+			raw.write(new byte[10]);
+		} finally {
+			raw.close();
+		}
+		FileChannel channel = FileChannel.open(current.toPath());
+		try {
+			assertEquals(completeLength,
+					BinarySnapshotWriter.getCompleteLength(channel));
+		} finally {
+			CacheUtilities.closeQuietly(channel);
+		}
+
+		// the restarted printer appends its session behind the complete blocks.
+		printer.run();
+		printer.close();
+		DataInputStream input = new DataInputStream(new FileInputStream(
+				current));
+		try {
+			input.skipBytes((int) completeLength);
+			assertEquals(BinarySnapshotWriter.SESSION_BLOCK, input.read());
+		} finally {
+			CacheUtilities.closeQuietly(input);
+		}
+	}
+}
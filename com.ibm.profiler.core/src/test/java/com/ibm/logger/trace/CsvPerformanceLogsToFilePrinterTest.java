@@ -25,6 +25,7 @@ import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.InputStreamReader;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -95,7 +96,7 @@ public class CsvPerformanceLogsToFilePrinterTest {
 		String str;
 
 		str = in.readLine();
-		assertEquals("Name,Number of calls,Average Duration milliseconds,Minimum Duration milliseconds,Maximum Duration milliseconds,Total Duration milliseconds,Average Size,Maximum Size,Total Size,Cache enabled count,Cache hit count, Error count", str);
+		assertEquals("Name,Number of calls,Average Duration milliseconds,Minimum Duration milliseconds,Maximum Duration milliseconds,Total Duration milliseconds,Average Size,Maximum Size,Total Size,Cache enabled count,Cache hit count, Error count,Duration 50th percentile milliseconds,Duration 95th percentile milliseconds,Duration 99th percentile milliseconds,Duration 99.9th percentile milliseconds", str);
 		
 		String strActive = in.readLine();
 		String strInactive = in.readLine();
@@ -106,8 +107,8 @@ public class CsvPerformanceLogsToFilePrinterTest {
 		    strActive = str;
 		}
 		
-		assertEquals("testActive,1,123.000,123,123,123.000,0.000,0,0.000,0,0,0", strActive);
-		assertEquals("testInactive,1,456.000,456,456,456.000,0.000,0,0.000,0,0,0", strInactive);
+		assertEquals("testActive,1,123.000,123,123,123.000,0.000,0,0.000,0,0,0,123,123,123,123", strActive);
+		assertEquals("testInactive,1,456.000,456,456,456.000,0.000,0,0.000,0,0,0,456,456,456,456", strInactive);
 		str = in.readLine();
 		assertEquals(null, str);
 		
@@ -184,4 +185,48 @@ public class CsvPerformanceLogsToFilePrinterTest {
 		
 	}
 
+	@Test
+	public void testCompressHistory() throws Exception {
+		PerformanceLogger.addStatistic("testActive", 123000000);
+
+		CsvPerformanceLogsToFilePrinter printer = new CsvPerformanceLogsToFilePrinter();
+		printer.setCsvFileNamePattern(CSV_FILE_NAME_PATTERN);
+		printer.setFileHistoryCount(2);
+		printer.setCompressHistory(true);
+		printer.run();
+		File firstFile = directory.listFiles()[0];
+
+		Thread.sleep(2000);
+		printer.run();
+		File[] listFiles = directory.listFiles();
+		assertEquals(2, listFiles.length);
+		assertFalse(firstFile.exists());
+		File compressedFile = new File(directory, firstFile.getName()
+				+ CsvPerformanceLogsToFilePrinter.COMPRESSED_FILE_SUFFIX);
+		assertTrue(compressedFile.exists());
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(compressedFile)),
+				"UTF-8"));
+		assertTrue(in.readLine().startsWith("Name,Number of calls,"));
+		assertEquals(
+				"testActive,1,123.000,123,123,123.000,0.000,0,0.000,0,0,0,123,123,123,123",
+				in.readLine());
+		assertEquals(null, in.readLine());
+		CacheUtilities.closeQuietly(in);
+
+		// the compressed files are part of the history.
+		Thread.sleep(2000);
+		printer.run();
+		assertEquals(2, directory.listFiles().length);
+		assertFalse(compressedFile.exists());
+
+		// and are cleaned up by a new printer.
+		printer = new CsvPerformanceLogsToFilePrinter();
+		printer.setCsvFileNamePattern(CSV_FILE_NAME_PATTERN);
+		assertTrue(printer.createFileNamePatternMatcher(
+				printer.getFileNamePatternMatcher()).accept(directory,
+				compressedFile.getName()));
+	}
+
 }
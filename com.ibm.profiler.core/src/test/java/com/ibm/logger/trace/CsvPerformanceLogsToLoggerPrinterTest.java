@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.logger.PerformanceLogger;
+
+public class CsvPerformanceLogsToLoggerPrinterTest {
+
+	private Logger logger;
+
+	private final List<String> records = new ArrayList<String>();
+
+	private final Handler handler = new Handler() {
+		@Override
+		public void publish(LogRecord record) {
+			records.add(record.getMessage());
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	@Before
+	public void init() {
+		PerformanceLogger.setEnabled(true);
+		PerformanceLogger.clear();
+		logger = Logger.getLogger(CsvPerformanceLogsToLoggerPrinterTest.class
+				.getName());
+		logger.setUseParentHandlers(false);
+		logger.addHandler(handler);
+	}
+
+	@After
+	public void cleanup() {
+		logger.removeHandler(handler);
+		PerformanceLogger.clear();
+	}
+
+	private static String join(List<String> records) {
+		StringBuilder build = new StringBuilder();
+		for (String record : records) {
+			build.append(record);
+		}
+		return build.toString();
+	}
+
+	@Test
+	public void testStreamedRecords() {
+		for (int i = 0; i < 200; ++i) {
+			PerformanceLogger.addStatistic("loggerPrinterOperation" + i,
+					1000000 * i);
+		}
+		String csv = PerformanceLogger.dumpPerformanceLogsCsvToString();
+
+		CsvPerformanceLogsToLoggerPrinter.dumpPerformanceLogsCsvToLogger(
+				logger, Level.INFO, 4096);
+		assertTrue(records.size() > 1);
+		assertTrue(records.get(0).startsWith("Name,Number of calls,"));
+		for (String record : records) {
+			assertTrue(record.length() < 4096 + 200);
+			assertTrue(record.endsWith(PerformanceLogger.LINE_SEPARATOR));
+		}
+		assertEquals(csv, join(records));
+
+		records.clear();
+		CsvPerformanceLogsToLoggerPrinter.dumpPerformanceLogsCsvToLogger(
+				logger, Level.INFO, 0);
+		assertEquals(1, records.size());
+		assertEquals(csv, records.get(0));
+
+		records.clear();
+		SummaryPerformanceLogsToLoggerPrinter.dumpPerformanceLogsTableToLogger(
+				logger, Level.INFO, 4096);
+		assertTrue(records.size() > 1);
+		assertEquals(PerformanceLogger.dumpPerformanceLogsTableToString(),
+				join(records));
+	}
+}
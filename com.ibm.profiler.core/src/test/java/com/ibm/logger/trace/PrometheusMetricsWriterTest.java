@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.TotalLogEntry;
+
+public class PrometheusMetricsWriterTest {
+
+	private static List<String> lines(String text, String prefix) {
+		List<String> lines = new ArrayList<String>();
+		for (String line : text.split("\n")) {
+			if (line.startsWith(prefix)) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	@Test
+	public void testFormat() {
+		TotalLogEntry entry = new TotalLogEntry("JDBC : select", null);
+		entry.addValue(1500000, 100, true, true, false);
+		entry.addValue(2000000000L, 20, true, false, true);
+		entry.addValue(2000000000L, 30, true, false, false);
+
+		PrometheusMetricsWriter writer = new PrometheusMetricsWriter();
+		writer.write(Collections.singletonList(entry));
+		String text = writer.toString();
+		assertEquals(text.getBytes(StandardCharsets.UTF_8).length,
+				writer.size());
+
+		assertTrue(text, text
+				.startsWith("# HELP performance_logger_duration_seconds "));
+		assertTrue(text, text
+				.contains("# TYPE performance_logger_duration_seconds histogram\n"));
+		String labels = "{operation=\"JDBC : select\",layer=\"JDBC\"";
+		assertTrue(text, text.contains("performance_logger_duration_seconds_bucket"
+				+ labels + ",le=\"+Inf\"} 3\n"));
+		assertTrue(text, text.contains("performance_logger_duration_seconds_sum"
+				+ labels + "} 4.0015\n"));
+		assertTrue(text, text.contains("performance_logger_duration_seconds_count"
+				+ labels + "} 3\n"));
+		assertTrue(text, text.contains("performance_logger_errors_total" + labels
+				+ "} 1\n"));
+		assertTrue(text, text.contains("performance_logger_cache_enabled_total"
+				+ labels + "} 3\n"));
+		assertTrue(text, text.contains("performance_logger_cache_hits_total"
+				+ labels + "} 1\n"));
+		assertTrue(text, text.contains("performance_logger_response_size_bytes_total"
+				+ labels + "} 150\n"));
+
+		// every default bound, cumulative, in increasing order.
+		List<String> buckets = lines(text,
+				"performance_logger_duration_seconds_bucket");
+		assertEquals(14, buckets.size());
+		String bucket = "performance_logger_duration_seconds_bucket" + labels;
+		assertEquals(bucket + ",le=\"0.001\"} 0", buckets.get(0));
+		assertEquals(bucket + ",le=\"0.0025\"} 1", buckets.get(1));
+		assertEquals(bucket + ",le=\"1\"} 1", buckets.get(9));
+		assertEquals(bucket + ",le=\"2.5\"} 3", buckets.get(10));
+		assertEquals(bucket + ",le=\"10\"} 3", buckets.get(12));
+		assertEquals(bucket + ",le=\"+Inf\"} 3", buckets.get(13));
+	}
+
+	@Test
+	public void testBucketBounds() {
+		TotalLogEntry fast = new TotalLogEntry("fast", null);
+		fast.addValue(100000);
+		TotalLogEntry slow = new TotalLogEntry("slow", null);
+		slow.addValue(30000000000L);
+		TotalLogEntry idle = new TotalLogEntry("idle", null);
+
+		PrometheusMetricsWriter writer = new PrometheusMetricsWriter();
+		writer.setBucketBounds(PrometheusMetricsWriter
+				.parseBucketBounds("0.5, 0.01,0.01,-1"));
+		assertArrayEquals(new long[] { 10000000, 500000000 },
+				writer.getBucketBounds());
+		writer.write(Arrays.asList(fast, slow, idle));
+		String text = writer.toString();
+
+		// all the operations have the same buckets, empty ones included.
+		for (String operation : new String[] { "fast", "slow", "idle" }) {
+			List<String> buckets = lines(text,
+					"performance_logger_duration_seconds_bucket{operation=\""
+							+ operation + "\"");
+			assertEquals(3, buckets.size());
+			assertTrue(buckets.get(0), buckets.get(0).contains("le=\"0.01\""));
+			assertTrue(buckets.get(1), buckets.get(1).contains("le=\"0.5\""));
+			assertTrue(buckets.get(2), buckets.get(2).contains("le=\"+Inf\""));
+		}
+		assertTrue(text, text.contains("{operation=\"fast\",layer=\"\",le=\"0.01\"} 1\n"));
+		assertTrue(text, text.contains("{operation=\"slow\",layer=\"\",le=\"0.5\"} 0\n"));
+		assertTrue(text, text.contains("{operation=\"slow\",layer=\"\",le=\"+Inf\"} 1\n"));
+		assertTrue(text, text.contains("{operation=\"idle\",layer=\"\",le=\"+Inf\"} 0\n"));
+	}
+
+	@Test
+	public void testLabelEscaping() {
+		TotalLogEntry entry = new TotalLogEntry(
+				"REST : get \"quoted\" back\\slash\nnext é€😀",
+				null);
+		entry.addValue(1000000000L);
+
+		PrometheusMetricsWriter writer = new PrometheusMetricsWriter();
+		writer.write(Collections.singletonList(entry));
+		String text = writer.toString();
+		assertTrue(text, text.contains("performance_logger_errors_total"
+				+ "{operation=\"REST : get \\\"quoted\\\" back\\\\slash\\nnext "
+				+ "é€😀\",layer=\"REST\"} 0\n"));
+		assertTrue(text, text.contains("_sum{operation="));
+		assertTrue(text, text.contains("} 1\n"));
+		for (String line : text.split("\n")) {
+			assertFalse(line, line.isEmpty());
+		}
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		List<TotalLogEntry> entries = new ArrayList<TotalLogEntry>();
+		for (int i = 0; i < 1000; ++i) {
+			TotalLogEntry entry = new TotalLogEntry("operation" + i, null);
+			entry.addValue(i * 1000L + 1);
+			entries.add(entry);
+		}
+		PrometheusMetricsWriter writer = new PrometheusMetricsWriter();
+		writer.write(entries);
+		int size = writer.size();
+		assertEquals(1000, lines(writer.toString(),
+				"performance_logger_errors_total{").size());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		writer.writeTo(output);
+		assertEquals(size, output.size());
+
+		// a smaller scrape replaces the content.
+		writer.write(entries.subList(0, 1));
+		assertTrue(writer.size() < size);
+		assertEquals(1, lines(writer.toString(),
+				"performance_logger_errors_total{").size());
+
+		writer.write(Arrays.<TotalLogEntry> asList());
+		assertEquals(5, lines(writer.toString(), "# TYPE").size());
+	}
+
+	@Test
+	public void testEndpoint() throws Exception {
+		PerformanceLogger.setEnabled(true);
+		PerformanceLogger.clear();
+		PerformanceLogger.increase("prometheusEndpointTest", 2000000);
+
+		PrometheusPerformanceLogsEndpoint endpoint = new PrometheusPerformanceLogsEndpoint(
+				"127.0.0.1", 0);
+		assertEquals(-1, endpoint.getPort());
+		endpoint.start();
+		try {
+			assertTrue(endpoint.isRunning());
+			URL url = new URL("http://127.0.0.1:" + endpoint.getPort()
+					+ PrometheusPerformanceLogsEndpoint.METRICS_PATH);
+
+			HttpURLConnection connection = (HttpURLConnection) url
+					.openConnection();
+			assertEquals(200, connection.getResponseCode());
+			assertEquals(PrometheusMetricsWriter.CONTENT_TYPE,
+					connection.getContentType());
+			StringBuilder body = new StringBuilder();
+			InputStream input = connection.getInputStream();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					input, StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				body.append(line).append('\n');
+			}
+			reader.close();
+			assertTrue(body.toString(), body.toString().contains(
+					"performance_logger_duration_seconds_count"
+							+ "{operation=\"prometheusEndpointTest\",layer=\"\"} 1\n"));
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("POST");
+			assertEquals(405, connection.getResponseCode());
+		} finally {
+			endpoint.stop();
+			PerformanceLogger.clear();
+		}
+		assertFalse(endpoint.isRunning());
+		assertEquals(-1, endpoint.getPort());
+	}
+}
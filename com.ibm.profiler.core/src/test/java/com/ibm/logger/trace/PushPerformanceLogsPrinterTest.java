@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.logger.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.stats.DeltaCursor;
+
+public class PushPerformanceLogsPrinterTest {
+
+	private DatagramSocket listener;
+
+	@Before
+	public void init() throws Exception {
+		PerformanceLogger.setEnabled(true);
+		PerformanceLogger.clear();
+		listener = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		listener.setSoTimeout(200);
+		listener.setReceiveBufferSize(1024 * 1024);
+	}
+
+	@After
+	public void cleanup() {
+		listener.close();
+		PerformanceLogger.clear();
+	}
+
+	/**
+	 * @return the datagrams received until the listener times out.
+	 */
+	private List<String> receive() throws Exception {
+		List<String> datagrams = new ArrayList<String>();
+		byte[] data = new byte[65536];
+		while (true) {
+			DatagramPacket packet = new DatagramPacket(data, data.length);
+			try {
+				listener.receive(packet);
+			} catch (SocketTimeoutException e) {
+				return datagrams;
+			}
+			datagrams.add(new String(data, 0, packet.getLength(),
+					StandardCharsets.US_ASCII));
+		}
+	}
+
+	private static List<String> lines(List<String> datagrams) {
+		List<String> lines = new ArrayList<String>();
+		for (String datagram : datagrams) {
+			// a line is never split between two datagrams.
+			assertTrue(datagram, datagram.endsWith("\n"));
+			for (String line : datagram.split("\n")) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @return the Graphite lines of the total metrics, the intervals depend on
+	 *         the configuration.
+	 */
+	private static List<String> totalLines(List<String> lines) {
+		List<String> totalLines = new ArrayList<String>();
+		for (String line : lines) {
+			if (line.contains(".MetricType__TotalLogEntry.interval__total.")) {
+				totalLines.add(line);
+			}
+		}
+		return totalLines;
+	}
+
+	private <T extends AbstractPushPerformanceLogsPrinter> T configure(
+			T printer) {
+		printer.setHost("127.0.0.1");
+		printer.setPort(listener.getLocalPort());
+		printer.setNamePrefix("server.test.");
+		return printer;
+	}
+
+	@Test
+	public void testGraphiteDatagrams() throws Exception {
+		for (int i = 0; i < 20; ++i) {
+			PerformanceLogger.increase("JDBC : select " + i, 2500000);
+		}
+		PerformanceLogger.increase("JDBC : select 0", 500000, true);
+
+		GraphitePerformanceLogsPrinter printer = configure(new GraphitePerformanceLogsPrinter());
+		printer.setMaximumPacketSize(512);
+		printer.run();
+		printer.close();
+
+		List<String> datagrams = receive();
+		assertTrue(datagrams.size() > 1);
+		assertEquals(datagrams.size(), printer.getPacketCount());
+		for (String datagram : datagrams) {
+			assertTrue(datagram.length() <= 512);
+		}
+		List<String> lines = lines(datagrams);
+		for (String line : lines) {
+			String[] fields = line.split(" ");
+			assertEquals(line, 3, fields.length);
+			assertTrue(line, Long.parseLong(fields[2]) > 1000000000L);
+		}
+		lines = totalLines(lines);
+		assertEquals(20 * 4, lines.size());
+
+		String name = "server.test.com_ibm_profiler.ID__JDBC___select_0"
+				+ ".MetricType__TotalLogEntry.interval__total.";
+		boolean callCount = false;
+		boolean errorCallCount = false;
+		boolean totalDuration = false;
+		for (String line : lines) {
+			String[] fields = line.split(" ");
+			callCount |= fields[0].equals(name + "CallCount")
+					&& fields[1].equals("2");
+			errorCallCount |= fields[0].equals(name + "ErrorCallCount")
+					&& fields[1].equals("1");
+			totalDuration |= fields[0].equals(name + "TotalDuration")
+					&& fields[1].equals("3000000");
+		}
+		assertTrue(callCount);
+		assertTrue(errorCallCount);
+		assertTrue(totalDuration);
+	}
+
+	@Test
+	public void testGraphiteTcp() throws Exception {
+		PerformanceLogger.increase("tcpOperation", 1000);
+
+		ServerSocket server = new ServerSocket(0, 1,
+				InetAddress.getLoopbackAddress());
+		try {
+			GraphitePerformanceLogsPrinter printer = configure(new GraphitePerformanceLogsPrinter());
+			printer.setTransport(AbstractPushPerformanceLogsPrinter.TCP);
+			printer.setPort(server.getLocalPort());
+			printer.setConnectTimeout(1000);
+			printer.run();
+			printer.close();
+
+			Socket socket = server.accept();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), StandardCharsets.US_ASCII));
+			List<String> lines = new ArrayList<String>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+			socket.close();
+			lines = totalLines(lines);
+			assertEquals(4, lines.size());
+			assertTrue(lines.get(0), lines.get(0).startsWith(
+					"server.test.com_ibm_profiler.ID__tcpOperation"
+							+ ".MetricType__TotalLogEntry.interval__total.CallCount 1 "));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testTcpServerDown() throws Exception {
+		PerformanceLogger.increase("tcpOperation", 1000);
+
+		ServerSocket server = new ServerSocket(0, 1,
+				InetAddress.getLoopbackAddress());
+		int port = server.getLocalPort();
+		server.close();
+
+		// the run fails without sending, the next one connects again.
+		GraphitePerformanceLogsPrinter printer = configure(new GraphitePerformanceLogsPrinter());
+		printer.setTransport(AbstractPushPerformanceLogsPrinter.TCP);
+		printer.setPort(port);
+		printer.setConnectTimeout(1000);
+		printer.run();
+		printer.run();
+		assertEquals(0, printer.getPacketCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeConnectTimeout() {
+		new GraphitePerformanceLogsPrinter().setConnectTimeout(-1);
+	}
+
+	@Test
+	public void testStatsdDeltas() throws Exception {
+		StatsdPerformanceLogsPrinter printer = configure(new StatsdPerformanceLogsPrinter(
+				new DeltaCursor("statsdTest")));
+		PerformanceLogger.increase("statsdOperation", 1500000);
+		PerformanceLogger.increase("statsdOperation", 1500000, true);
+		PerformanceLogger.increase("statsdOperation", 2000000000L);
+		printer.run();
+
+		List<String> lines = lines(receive());
+		assertTrue(lines.toString(),
+				lines.contains("server.test.statsdOperation.calls:3|c"));
+		assertTrue(lines.toString(),
+				lines.contains("server.test.statsdOperation.errors:1|c"));
+		List<String> timings = new ArrayList<String>();
+		for (String line : lines) {
+			if (line.startsWith("server.test.statsdOperation.duration:")) {
+				timings.add(line);
+			}
+		}
+		assertEquals(timings.toString(), 2, timings.size());
+		assertTrue(timings.get(0), timings.get(0).matches(
+				".*:1\\.5\\d*\\|ms\\|@0\\.5"));
+		assertTrue(timings.get(1), timings.get(1).matches(".*:20\\d\\d\\.\\d+\\|ms"));
+
+		// only the new calls are sent.
+		printer.run();
+		assertTrue(receive().isEmpty());
+		PerformanceLogger.increase("statsdOperation", 1000);
+		printer.run();
+		lines = lines(receive());
+		assertEquals(lines.toString(), 2, lines.size());
+		assertEquals("server.test.statsdOperation.calls:1|c", lines.get(0));
+		printer.close();
+	}
+}
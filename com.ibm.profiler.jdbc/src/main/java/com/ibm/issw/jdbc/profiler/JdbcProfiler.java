@@ -356,6 +356,7 @@ public final class JdbcProfiler {
 	 * @param success  was it a success
 	 */
 	public void logEvent(JdbcEvent event, boolean success) {
+		long overheadStart = JdbcLogger.OVERHEAD.start();
 		if (eventMeasurementEnabled) {
 			measureEvent(event, success);
 		}
@@ -363,6 +364,12 @@ public final class JdbcProfiler {
 		if (eventListeningEnabled) {
 			EVENTS.addEvent(event);
 		}
+
+		long duration = 0;
+		if (event.getStartTime() != -1) {
+			duration = event.getStopTime() - event.getStartTime();
+		}
+		JdbcLogger.OVERHEAD.stop(overheadStart, duration);
 	}
 
 	private static AtomicLong uniqueIDincrementer = new AtomicLong();
@@ -23,6 +23,8 @@ import com.ibm.commerce.cache.ILogMetricGatherer;
 import com.ibm.commerce.cache.LogMetricGatherer;
 import com.ibm.commerce.cache.LogMetricGathererManager;
 import com.ibm.commerce.cache.Markers;
+import com.ibm.logger.OverheadCounter;
+import com.ibm.logger.ProfilerOverhead;
 
 /**
  * 
@@ -54,6 +56,11 @@ public class JdbcLogger {
 	public static final LogMetricGatherer LOG_GATHERER = new LogMetricGatherer(LOGGER);
 	
     public static final ILogMetricGatherer GATHERER = LogMetricGathererManager.getLogMetricGatherer(JdbcLogger.class);
+
+	/**
+	 * time spent by the JDBC wrappers recording metrics
+	 */
+	public static final OverheadCounter OVERHEAD = ProfilerOverhead.getCounter("JDBC");
     	
 	
 	static {
@@ -182,6 +182,8 @@ public class ProfiledDistinctIterable<TDocument, TResult> implements DistinctIte
             return null;
         }
 
+        long overheadStart = MongoLogger.OVERHEAD.start();
+
         OperationMetric metric = new OperationMetric();
         String operationName = getOperationName(function);
         if (keyValuePairs == null)
@@ -197,6 +199,7 @@ public class ProfiledDistinctIterable<TDocument, TResult> implements DistinctIte
 
         MongoLogger.GATHERER.gatherMetricEntryLog(metric);
 
+        MongoLogger.OVERHEAD.stop(overheadStart);
         return metric;
     }
 
@@ -208,8 +211,10 @@ public class ProfiledDistinctIterable<TDocument, TResult> implements DistinctIte
             return;
         }
         metric.stopOperation(resultSize, false);
+        long overheadStart = MongoLogger.OVERHEAD.start();
         MongoLogger.GATHERER.gatherMetric(metric);
         MongoUtilities.incrementMongoStats(metric);
+        MongoLogger.OVERHEAD.stop(overheadStart, metric.getDuration());
     }
 
     @Override
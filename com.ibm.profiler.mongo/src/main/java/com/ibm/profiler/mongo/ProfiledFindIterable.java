@@ -335,6 +335,8 @@ public class ProfiledFindIterable<TDocument, TResult> implements FindIterable<TR
         if( ! MongoLogger.GATHERER.isEnabled() ) {
             return null;
         }
+
+        long overheadStart = MongoLogger.OVERHEAD.start();
         
         OperationMetric metric = new OperationMetric();
         String operationName = getOperationName(function);
@@ -358,6 +360,7 @@ public class ProfiledFindIterable<TDocument, TResult> implements FindIterable<TR
 
         MongoLogger.GATHERER.gatherMetricEntryLog(metric);
         
+        MongoLogger.OVERHEAD.stop(overheadStart);
         return metric;
     }
     
@@ -367,8 +370,10 @@ public class ProfiledFindIterable<TDocument, TResult> implements FindIterable<TR
             return;
         }
         metric.stopOperation(resultSize, false);
+        long overheadStart = MongoLogger.OVERHEAD.start();
         MongoLogger.GATHERER.gatherMetric(metric);
         MongoUtilities.incrementMongoStats(metric);
+        MongoLogger.OVERHEAD.stop(overheadStart, metric.getDuration());
     }
 
     @Override
@@ -253,6 +253,8 @@ public class ProfiledMapReduceIterable<TDocument, TResult> implements MapReduceI
         if( ! MongoLogger.GATHERER.isEnabled() ) {
             return null;
         }
+
+        long overheadStart = MongoLogger.OVERHEAD.start();
         
         OperationMetric metric = new OperationMetric();
         String operationName = getOperationName(function);
@@ -281,6 +283,7 @@ public class ProfiledMapReduceIterable<TDocument, TResult> implements MapReduceI
 
         MongoLogger.GATHERER.gatherMetricEntryLog(metric);
         
+        MongoLogger.OVERHEAD.stop(overheadStart);
         return metric;
     }
     
@@ -290,8 +293,10 @@ public class ProfiledMapReduceIterable<TDocument, TResult> implements MapReduceI
             return;
         }
         metric.stopOperation(resultSize, false);
+        long overheadStart = MongoLogger.OVERHEAD.start();
         MongoLogger.GATHERER.gatherMetric(metric);
         MongoUtilities.incrementMongoStats(metric);
+        MongoLogger.OVERHEAD.stop(overheadStart, metric.getDuration());
     }
 
     @Override
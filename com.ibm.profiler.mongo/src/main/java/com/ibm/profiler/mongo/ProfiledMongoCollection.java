@@ -86,6 +86,8 @@ public class ProfiledMongoCollection<TDocument> implements MongoCollection<TDocu
             return null;
         }
 
+        long overheadStart = MongoLogger.OVERHEAD.start();
+
         OperationMetric metric = new OperationMetric();
 
         metric.startOperation(function, false);
@@ -94,6 +96,7 @@ public class ProfiledMongoCollection<TDocument> implements MongoCollection<TDocu
 
         MongoLogger.GATHERER.gatherMetricEntryLog(metric);
 
+        MongoLogger.OVERHEAD.stop(overheadStart);
         return metric;
     }
 
@@ -110,8 +113,10 @@ public class ProfiledMongoCollection<TDocument> implements MongoCollection<TDocu
             return;
         }
         metric.stopOperation(resultSize, false);
+        long overheadStart = MongoLogger.OVERHEAD.start();
         MongoLogger.GATHERER.gatherMetric(metric);
         MongoUtilities.incrementMongoStats(metric);
+        MongoLogger.OVERHEAD.stop(overheadStart, metric.getDuration());
     }
 
     @Override
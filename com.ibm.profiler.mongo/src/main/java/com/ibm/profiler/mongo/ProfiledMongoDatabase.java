@@ -128,6 +128,8 @@ public class ProfiledMongoDatabase implements MongoDatabase
             return null;
         }
 
+        long overheadStart = MongoLogger.OVERHEAD.start();
+
         OperationMetric metric = new OperationMetric();
 
         metric.startOperation(function, false);
@@ -136,6 +138,7 @@ public class ProfiledMongoDatabase implements MongoDatabase
 
         MongoLogger.GATHERER.gatherMetricEntryLog(metric);
 
+        MongoLogger.OVERHEAD.stop(overheadStart);
         return metric;
     }
 
@@ -151,8 +154,10 @@ public class ProfiledMongoDatabase implements MongoDatabase
             return;
         }
         metric.stopOperation(resultSize, false);
+        long overheadStart = MongoLogger.OVERHEAD.start();
         MongoLogger.GATHERER.gatherMetric(metric);
         MongoUtilities.incrementMongoStats(metric);
+        MongoLogger.OVERHEAD.stop(overheadStart, metric.getDuration());
     }
 
     @Override
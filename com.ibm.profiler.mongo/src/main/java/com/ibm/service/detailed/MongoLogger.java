@@ -18,6 +18,8 @@ package com.ibm.service.detailed;
 import com.ibm.commerce.cache.ILogMetricGatherer;
 import com.ibm.commerce.cache.LogMetricGathererManager;
 import com.ibm.commerce.cache.Markers;
+import com.ibm.logger.OverheadCounter;
+import com.ibm.logger.ProfilerOverhead;
 
 /**
  * 
@@ -26,6 +28,11 @@ import com.ibm.commerce.cache.Markers;
 public class MongoLogger {
 
     public static final ILogMetricGatherer GATHERER = LogMetricGathererManager.getLogMetricGatherer(MongoLogger.class);
+
+    /**
+     * time spent by the Mongo wrappers recording metrics.
+     */
+    public static final OverheadCounter OVERHEAD = ProfilerOverhead.getCounter("Mongo");
     	
 	/**
 	 * 